@@ -0,0 +1,438 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.chunk;
+
+import org.apache.jmeter.protocol.mqtt.data.objects.Message;
+import org.apache.jmeter.protocol.mqtt.paho.clients.MessageListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reassembles the transfers published by {@link ChunkedTransfer} as their chunks arrive, in any order. The data of a
+ * chunk is written at its place in the file of the transfer, if a directory is given, and is not kept otherwise, so
+ * that a transfer of any size is reassembled in constant memory: a transfer only keeps one bit per chunk, and the file
+ * it is written to stays open until it is finished. Messages that are not chunks are ignored, as are the transfers
+ * larger than the maximum size, whose headers are not trusted.
+ * <p/>
+ * A transfer is finished once all its chunks have arrived, or once no chunk has arrived for the expiry time. At most
+ * {@link #MAX_TRANSFERS} transfers are reassembled at once, a new transfer beyond them gives up the one that has gone
+ * the longest without a chunk. Finished transfers are taken with {@link #poll(long)}.
+ * <p/>
+ * The chunks are written under the lock of their transfer only, so that the writes of a transfer do not hold up the
+ * chunks of the others or the expiry of the transfers.
+ */
+public class ChunkAssembler implements MessageListener, Closeable {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    static final String SUFFIX = ".bin";
+    static final String PART_SUFFIX = ".part";
+    // Redeliveries of the chunks of a finished transfer must not start it again
+    private static final int FINISHED_IDS = 1024;
+    // Upper bound of a single wait for a finished transfer so that expired transfers are noticed
+    private static final long EXPIRY_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Upper bound of the chunks of a transfer, so that a transfer keeps at most 2 MB of bits
+    private static final long MAX_CHUNKS = 1L << 24;
+    // Upper bound of the transfers in progress, each keeping its bits and an open file
+    static final int MAX_TRANSFERS = 64;
+
+    private final File directory;
+    private final long expiryNanos;
+    private final long maxSize;
+    // In access order, so that the first transfer is the one that has gone the longest without a chunk
+    private final LinkedHashMap<Long, Transfer> transfers = new LinkedHashMap<Long, Transfer>(16, 0.75f, true);
+    private final Map<Long, Boolean> finishedIds = new LinkedHashMap<Long, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > FINISHED_IDS;
+        }
+    };
+    private final BlockingQueue<Transfer> finished = new LinkedBlockingQueue<Transfer>();
+    private final AtomicLong ignored = new AtomicLong(0);
+    private boolean closed = false;
+
+    /**
+     * @param directory    the directory of the reassembled files, or null to only count the chunks
+     * @param expiryMillis the time without a chunk after which an incomplete transfer is given up in milliseconds
+     * @param maxSize      the size of the largest transfer reassembled in bytes
+     * @throws IOException if the directory can not be created
+     */
+    public ChunkAssembler(File directory, long expiryMillis, long maxSize) throws IOException {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the reassembly directory " + directory);
+        }
+        this.directory = directory;
+        this.expiryNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, expiryMillis));
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void received(Message message) {
+        ByteBuffer chunk = ByteBuffer.wrap(message.getPayload());
+        if (chunk.remaining() < ChunkedTransfer.HEADER_SIZE || chunk.getInt() != ChunkedTransfer.MAGIC ||
+            chunk.get() != ChunkedTransfer.VERSION) {
+            ignored.incrementAndGet();
+            return;
+        }
+        long id = chunk.getLong();
+        long startMillis = chunk.getLong();
+        long size = chunk.getLong();
+        int chunkSize = chunk.getInt();
+        int index = chunk.getInt();
+        long nanos = System.nanoTime();
+
+        Transfer transfer;
+        Transfer evicted = null;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            transfer = transfers.get(id);
+            if (transfer == null) {
+                // Checked before the bits of the chunks are allocated
+                if (finishedIds.containsKey(id) || chunkSize <= 0 || size < 0 || size > maxSize ||
+                    (size + chunkSize - 1) / chunkSize > MAX_CHUNKS) {
+                    if (log.isDebugEnabled() && size > maxSize) {
+                        log.debug("Ignored transfer " + String.format("%016x", id) + " of " + size +
+                                  " bytes, larger than " + maxSize);
+                    }
+                    ignored.incrementAndGet();
+                    return;
+                }
+                if (transfers.size() >= MAX_TRANSFERS) {
+                    Iterator<Transfer> iterator = transfers.values().iterator();
+                    evicted = iterator.next();
+                    iterator.remove();
+                    finishedIds.put(evicted.id, Boolean.TRUE);
+                }
+                transfer = new Transfer(id, startMillis, size, chunkSize, nanos,
+                        directory != null ? new File(directory, String.format("%016x", id) + PART_SUFFIX) : null);
+                transfers.put(id, transfer);
+            }
+        }
+        if (evicted != null) {
+            log.warn("Gave up transfer " + String.format("%016x", evicted.id) + " for transfer " +
+                     String.format("%016x", id) + ", " + MAX_TRANSFERS + " transfers are in progress");
+            giveUp(evicted);
+        }
+
+        synchronized (transfer) {
+            if (transfer.done) {
+                ignored.incrementAndGet();
+                return;
+            }
+            if (!transfer.add(index, size, chunkSize, chunk, nanos)) {
+                return;
+            }
+            transfer.done = true;
+            transfer.close();
+        }
+        finish(transfer);
+    }
+
+    /**
+     * Waits for the next finished transfer, giving up the transfers that have expired.
+     *
+     * @param timeoutMillis the time to wait in milliseconds
+     * @return The transfer, or null if no transfer finished in time.
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public Transfer poll(long timeoutMillis) throws InterruptedException {
+        long endNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            long nanos = System.nanoTime();
+            expire(nanos);
+            long wait = Math.min(EXPIRY_CHECK_NANOS, endNanos - nanos);
+            Transfer transfer = finished.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+            if (transfer != null || wait <= 0) {
+                return transfer;
+            }
+        }
+    }
+
+    private void expire(long nanos) {
+        List<Transfer> expired = null;
+        synchronized (this) {
+            Iterator<Transfer> iterator = transfers.values().iterator();
+            while (iterator.hasNext()) {
+                Transfer transfer = iterator.next();
+                if (nanos - transfer.lastNanos > expiryNanos) {
+                    iterator.remove();
+                    finishedIds.put(transfer.id, Boolean.TRUE);
+                    if (expired == null) {
+                        expired = new ArrayList<Transfer>();
+                    }
+                    expired.add(transfer);
+                }
+            }
+        }
+        if (expired != null) {
+            for (Transfer transfer : expired) {
+                giveUp(transfer);
+            }
+        }
+    }
+
+    /**
+     * Finishes a transfer that is incomplete, unless its last chunk has just completed it.
+     */
+    private void giveUp(Transfer transfer) {
+        synchronized (transfer) {
+            if (transfer.done) {
+                return;
+            }
+            transfer.done = true;
+            transfer.close();
+        }
+        finished.add(transfer);
+    }
+
+    /**
+     * Finishes a complete transfer, moving its file to its final name.
+     */
+    private void finish(Transfer transfer) {
+        synchronized (this) {
+            transfers.remove(transfer.id);
+            finishedIds.put(transfer.id, Boolean.TRUE);
+        }
+        if (transfer.file != null && transfer.error == null) {
+            File file = new File(directory, String.format("%016x", transfer.id) + SUFFIX);
+            try {
+                Files.move(transfer.file.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                transfer.file = file;
+            } catch (IOException e) {
+                transfer.error = e;
+            }
+        }
+        finished.add(transfer);
+    }
+
+    /**
+     * Closes the files of the transfers in progress, which are left partial. The chunks received afterwards are
+     * ignored.
+     */
+    @Override
+    public void close() {
+        List<Transfer> open;
+        synchronized (this) {
+            closed = true;
+            open = new ArrayList<Transfer>(transfers.values());
+            transfers.clear();
+        }
+        for (Transfer transfer : open) {
+            synchronized (transfer) {
+                transfer.done = true;
+                transfer.close();
+            }
+        }
+    }
+
+    /**
+     * @return The number of messages that were not chunks of a transfer in progress, or of a transfer too large.
+     */
+    public long getIgnored() {
+        return ignored.get();
+    }
+
+    /**
+     * A transfer being reassembled. Its chunks are added under its lock and its counts are read once it is finished.
+     */
+    public static final class Transfer {
+        private final long id;
+        private final long startMillis;
+        private final long size;
+        private final int chunkSize;
+        private final int chunks;
+        private final BitSet received;
+        private final long firstMillis = System.currentTimeMillis();
+        private final long firstNanos;
+        // Read by the expiry under the lock of the assembler
+        private volatile long lastNanos;
+        private int receivedChunks = 0;
+        private long bytes = 0;
+        private int duplicates = 0;
+        private int invalid = 0;
+        private File file;
+        // Open from the first chunk written until the transfer is finished
+        private FileChannel channel;
+        private IOException error;
+        // Set once the transfer is finished, the chunks arriving afterwards are ignored
+        private boolean done = false;
+
+        private Transfer(long id, long startMillis, long size, int chunkSize, long nanos, File file) {
+            this.id = id;
+            this.startMillis = startMillis;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunks = (int) Math.min(Integer.MAX_VALUE, Math.max(1, (size + chunkSize - 1) / chunkSize));
+            this.received = new BitSet(chunks);
+            this.firstNanos = nanos;
+            this.lastNanos = nanos;
+            this.file = file;
+        }
+
+        /**
+         * @return true if the chunk completes the transfer.
+         */
+        private boolean add(int index, long chunkTransferSize, int chunkChunkSize, ByteBuffer data, long nanos) {
+            long offset = (long) index * chunkSize;
+            if (chunkTransferSize != size || chunkChunkSize != chunkSize || index < 0 || index >= chunks ||
+                data.remaining() != Math.min(chunkSize, size - offset)) {
+                invalid++;
+                return false;
+            }
+            if (received.get(index)) {
+                duplicates++;
+                return false;
+            }
+            int length = data.remaining();
+            if (file != null && error == null) {
+                try {
+                    write(data, offset);
+                } catch (IOException e) {
+                    log.warn("Unable to write chunk " + index + " of transfer " + String.format("%016x", id) +
+                             " to " + file + ": " + e.getLocalizedMessage());
+                    error = e;
+                }
+            }
+            received.set(index);
+            receivedChunks++;
+            bytes += length;
+            lastNanos = nanos;
+            return receivedChunks == chunks;
+        }
+
+        private void write(ByteBuffer data, long offset) throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            long position = offset;
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+        }
+
+        private void close() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+            channel = null;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return The time the publisher started the transfer in milliseconds since the epoch, on its clock.
+         */
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        /**
+         * @return The time the first chunk arrived in milliseconds since the epoch.
+         */
+        public long getFirstMillis() {
+            return firstMillis;
+        }
+
+        /**
+         * @return The time the latest chunk arrived in milliseconds since the epoch.
+         */
+        public long getLastMillis() {
+            return firstMillis + TimeUnit.NANOSECONDS.toMillis(lastNanos - firstNanos);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public int getReceivedChunks() {
+            return receivedChunks;
+        }
+
+        /**
+         * @return The number of data bytes received, without the headers and the duplicates.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * @return The number of chunks that did not match the transfer, which were ignored.
+         */
+        public int getInvalid() {
+            return invalid;
+        }
+
+        public boolean isComplete() {
+            return receivedChunks == chunks;
+        }
+
+        /**
+         * @return The reassembled file, or the partial file of an incomplete transfer, or null if none is written.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return The error writing the file, or null.
+         */
+        public IOException getError() {
+            return error;
+        }
+    }
+}
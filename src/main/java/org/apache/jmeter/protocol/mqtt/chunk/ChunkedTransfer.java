@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.chunk;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Splits a large payload into a sequence of chunk messages, so that a transfer of any size is published holding a
+ * single chunk. Every chunk starts with a small header identifying the transfer and the place of the chunk in it,
+ * from which {@link ChunkAssembler} reassembles the transfer whatever the order of arrival.
+ * <p/>
+ * The header is, in network byte order: int magic, byte version, long transfer id, long start of the transfer in
+ * milliseconds since the epoch, long size of the transfer, int chunk size and int index of the chunk. The data of a
+ * chunk starts at index * chunk size in the transfer, every chunk but the last one holds chunk size bytes.
+ */
+public class ChunkedTransfer {
+
+    static final int MAGIC = 0x4D514348;
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 37;
+
+    private final long id = ThreadLocalRandom.current().nextLong();
+    private final long startMillis = System.currentTimeMillis();
+    private final ByteBuffer source;
+    private final boolean repeated;
+    private final long size;
+    private final int chunkSize;
+    private final int chunks;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private int next = 0;
+
+    private ChunkedTransfer(ByteBuffer source, boolean repeated, long size, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive: " + chunkSize);
+        }
+        long count = Math.max(1, (size + chunkSize - 1) / chunkSize);
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many chunks of " + chunkSize + " bytes for " + size + " bytes");
+        }
+        this.source = source;
+        this.repeated = repeated;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunks = (int) count;
+    }
+
+    /**
+     * Creates a transfer of the remaining bytes of a buffer. The chunks are sliced from the buffer as they are
+     * published, a mapped file is not read into memory.
+     *
+     * @param source    the payload, its position is unchanged
+     * @param chunkSize the size of the data of a chunk in bytes
+     * @return The transfer.
+     */
+    public static ChunkedTransfer of(ByteBuffer source, int chunkSize) {
+        return new ChunkedTransfer(source.slice(), false, source.remaining(), chunkSize);
+    }
+
+    /**
+     * Creates a transfer of a given size generated by repeating a block, which is the data of every full chunk.
+     *
+     * @param size  the size of the transfer in bytes
+     * @param block the data of a chunk, its remaining bytes are the chunk size
+     * @return The transfer.
+     */
+    public static ChunkedTransfer generate(long size, ByteBuffer block) {
+        return new ChunkedTransfer(block.slice(), true, size, block.remaining());
+    }
+
+    public boolean hasNext() {
+        return next < chunks;
+    }
+
+    /**
+     * Moves to the next chunk. Its message is the header of {@link #getHeader()} followed by the data, which is a view
+     * of the payload rather than a copy, so that a mapped file reaches the client without being read onto the heap.
+     *
+     * @return The data of the chunk.
+     */
+    public ByteBuffer next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int index = next++;
+        long offset = (long) index * chunkSize;
+        int length = (int) Math.min(chunkSize, size - offset);
+        ByteBuffer data = source.duplicate();
+        data.position(repeated ? 0 : (int) offset);
+        data.limit(data.position() + length);
+
+        header.clear();
+        header.putInt(MAGIC).put(VERSION).putLong(id).putLong(startMillis).putLong(size).putInt(chunkSize)
+              .putInt(index);
+        header.flip();
+        return data;
+    }
+
+    /**
+     * @return The header of the chunk returned by the latest {@link #next()}, reused by the next one.
+     */
+    public ByteBuffer getHeader() {
+        return header.duplicate();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return The number of chunks created so far.
+     */
+    public int getChunksSent() {
+        return next;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.client;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads the segments written by a {@link CaptureWriter} one message at a time. The segments are mapped one after the
+ * other and the current message is a view into its segment, valid until the next call to {@link #next()}.
+ * <p/>
+ * {@link #main(String[])} dumps or summarizes captures from the command line, for example
+ * <pre>
+ * java -cp mqtt-jmeter.jar:lib/* org.apache.jmeter.protocol.mqtt.client.CaptureReader -t sensors/+/temp capture/
+ * </pre>
+ */
+public class CaptureReader implements Closeable {
+
+    private final List<File> segments;
+    private final Map<Integer, String> topics = new HashMap<Integer, String>();
+    private int segmentIndex = -1;
+    private ByteBuffer segment = null;
+    private ByteBuffer payload = null;
+    private long baseMillis;
+    private long baseNanos;
+    private long nanos;
+    private String topic;
+    private int qos;
+    private int flags;
+
+    /**
+     * @param segments the segments to read, in order
+     */
+    public CaptureReader(List<File> segments) {
+        this.segments = new ArrayList<File>(segments);
+    }
+
+    /**
+     * Finds the segments of the captures in a directory, in the order of their names. A file is taken as a single
+     * segment.
+     *
+     * @param path a directory or a segment
+     * @return The segments.
+     */
+    public static List<File> findSegments(File path) {
+        if (!path.isDirectory()) {
+            return Arrays.asList(path);
+        }
+        File[] files = path.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(CaptureWriter.SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Moves to the next message.
+     *
+     * @return false if there are no more messages.
+     * @throws IOException if a segment cannot be read or is not a capture
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (segment == null || segment.remaining() < 4 || segment.getInt(segment.position()) <= 0) {
+                if (!nextSegment()) {
+                    return false;
+                }
+                continue;
+            }
+            int length = segment.getInt();
+            if (length < 1 || length > segment.remaining()) {
+                throw new IOException("Corrupt record in " + segments.get(segmentIndex) + " at " +
+                                      (segment.position() - 4));
+            }
+            int end = segment.position() + length;
+            byte type = segment.get();
+            if (type == CaptureWriter.TOPIC_RECORD) {
+                int id = segment.getInt();
+                byte[] name = new byte[end - segment.position()];
+                segment.get(name);
+                topics.put(id, new String(name, StandardCharsets.UTF_8));
+            } else if (type == CaptureWriter.MESSAGE_RECORD) {
+                nanos = segment.getLong();
+                topic = topics.get(segment.getInt());
+                qos = segment.get();
+                flags = segment.get();
+                payload.limit(end).position(segment.position());
+                segment.position(end);
+                return true;
+            }
+            // Records of unknown types are skipped
+            segment.position(end);
+        }
+    }
+
+    private boolean nextSegment() throws IOException {
+        segment = null;
+        topics.clear();
+        if (++segmentIndex >= segments.size()) {
+            return false;
+        }
+        File file = segments.get(segmentIndex);
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        MappedByteBuffer mapped;
+        try {
+            mapped = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        } finally {
+            input.close();
+        }
+        if (mapped.remaining() < CaptureWriter.SEGMENT_HEADER_SIZE || mapped.getInt() != CaptureWriter.MAGIC) {
+            throw new IOException(file + " is not a capture segment");
+        }
+        int version = mapped.getInt();
+        if (version != CaptureWriter.VERSION) {
+            throw new IOException(file + " has the unsupported capture version " + version);
+        }
+        baseMillis = mapped.getLong();
+        baseNanos = mapped.getLong();
+        segment = mapped;
+        payload = mapped.duplicate();
+        return true;
+    }
+
+    /**
+     * @return The receive time of the current message as {@link System#nanoTime()} of the capturing JVM.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return The receive time of the current message as wall clock nanoseconds, which orders the messages of captures
+     * made by different JVMs.
+     */
+    public long getEpochNanos() {
+        return baseMillis * 1000000L + (nanos - baseNanos);
+    }
+
+    /**
+     * @return The receive time of the current message as wall clock milliseconds.
+     */
+    public long getTimestamp() {
+        return baseMillis + (nanos - baseNanos) / 1000000;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getQos() {
+        return qos;
+    }
+
+    public boolean isDup() {
+        return (flags & CaptureWriter.FLAG_DUP) != 0;
+    }
+
+    public boolean isRetained() {
+        return (flags & CaptureWriter.FLAG_RETAINED) != 0;
+    }
+
+    /**
+     * @return The payload of the current message, a view of the segment valid until the next message.
+     */
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return The file of the current segment, or null before the first and after the last message.
+     */
+    public File getSegment() {
+        return segment != null ? segments.get(segmentIndex) : null;
+    }
+
+    /**
+     * Releases the current segment. The mapping itself is released by the garbage collector.
+     */
+    @Override
+    public void close() {
+        segmentIndex = segments.size();
+        segment = null;
+        payload = null;
+    }
+
+    /**
+     * Matches a topic against an MQTT topic filter with the + and # wildcards.
+     *
+     * @param filter the topic filter
+     * @param topic  the topic
+     * @return true if the filter matches the topic.
+     */
+    public static boolean matches(String filter, String topic) {
+        int f = 0;
+        int t = 0;
+        while (f < filter.length()) {
+            char c = filter.charAt(f);
+            if (c == '#') {
+                return true;
+            }
+            if (c == '+') {
+                while (t < topic.length() && topic.charAt(t) != '/') {
+                    t++;
+                }
+                f++;
+            } else {
+                if (t >= topic.length() || topic.charAt(t) != c) {
+                    // "a/#" also matches "a"
+                    return t == topic.length() && filter.regionMatches(f, "/#", 0, 2) && f + 2 == filter.length();
+                }
+                f++;
+                t++;
+            }
+        }
+        return t == topic.length();
+    }
+
+    /**
+     * Dumps or summarizes captures.
+     *
+     * @param args the options followed by segments or directories of segments
+     * @throws IOException if a segment cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        String filter = null;
+        String payloadFormat = "text";
+        boolean summary = false;
+        List<File> segments = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-t".equals(args[i]) && i + 1 < args.length) {
+                filter = args[++i];
+            } else if ("-p".equals(args[i]) && i + 1 < args.length) {
+                payloadFormat = args[++i];
+            } else if ("-s".equals(args[i])) {
+                summary = true;
+            } else if (args[i].startsWith("-")) {
+                usage();
+                return;
+            } else {
+                segments.addAll(findSegments(new File(args[i])));
+            }
+        }
+        if (segments.isEmpty()) {
+            usage();
+            return;
+        }
+
+        PrintStream out = System.out;
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        Map<String, long[]> topicStats = new TreeMap<String, long[]>();
+        long count = 0;
+        long bytes = 0;
+        long firstMillis = -1;
+        long lastMillis = -1;
+        CaptureReader reader = new CaptureReader(segments);
+        try {
+            while (reader.next()) {
+                if (filter != null && !matches(filter, reader.getTopic())) {
+                    continue;
+                }
+                ByteBuffer payload = reader.getPayload();
+                count++;
+                bytes += payload.remaining();
+                if (firstMillis < 0) {
+                    firstMillis = reader.getTimestamp();
+                }
+                lastMillis = reader.getTimestamp();
+                if (summary) {
+                    long[] stats = topicStats.get(reader.getTopic());
+                    if (stats == null) {
+                        stats = new long[2];
+                        topicStats.put(reader.getTopic(), stats);
+                    }
+                    stats[0]++;
+                    stats[1] += payload.remaining();
+                    continue;
+                }
+                StringBuilder line = new StringBuilder();
+                line.append(format.format(new Date(reader.getTimestamp()))).append(' ')
+                    .append(reader.getTopic()).append(" qos=").append(reader.getQos())
+                    .append(reader.isDup() ? " dup" : "").append(reader.isRetained() ? " retained" : "")
+                    .append(" bytes=").append(payload.remaining());
+                if ("text".equals(payloadFormat)) {
+                    byte[] data = new byte[payload.remaining()];
+                    payload.get(data);
+                    line.append(' ').append(new String(data, StandardCharsets.UTF_8));
+                } else if ("hex".equals(payloadFormat)) {
+                    line.append(' ');
+                    while (payload.hasRemaining()) {
+                        line.append(String.format("%02x", payload.get() & 0xFF));
+                    }
+                }
+                out.println(line);
+            }
+        } finally {
+            reader.close();
+        }
+        if (summary) {
+            for (Map.Entry<String, long[]> stats : topicStats.entrySet()) {
+                out.println(stats.getKey() + " messages=" + stats.getValue()[0] + " bytes=" + stats.getValue()[1]);
+            }
+        }
+        out.println(count + " messages, " + bytes + " payload bytes" + (count > 0 ? ", from " +
+                    format.format(new Date(firstMillis)) + " to " + format.format(new Date(lastMillis)) : ""));
+    }
+
+    private static void usage() {
+        System.err.println("Usage: CaptureReader [-t topic filter] [-p text|hex|none] [-s] segment or directory...");
+        System.err.println("  -t  only the messages of the topics matching the filter");
+        System.err.println("  -p  how payloads are printed, text by default");
+        System.err.println("  -s  a summary per topic instead of the messages");
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.client;
+
+import org.apache.jmeter.protocol.mqtt.data.objects.Message;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Appends the received messages of a client to a log of memory-mapped segment files, so that what arrived during a
+ * test can be inspected afterwards with the {@link CaptureReader} without keeping the messages in memory or in the
+ * results. The pages of a segment belong to the operating system, so the capture survives a crash of JMeter.
+ * <p/>
+ * A segment starts with a header of the magic number, the format version, and the wall clock in milliseconds and the
+ * {@link System#nanoTime()} at which it was created. It is followed by records of an int length, counting the bytes
+ * after it, and a type byte:
+ * <ul>
+ * <li>a topic record holds an int topic id and the UTF-8 topic name. It is written before the first message of the
+ * topic in every segment, so that each segment can be read on its own.</li>
+ * <li>a message record holds the receive nanoTime as a long, the int topic id, the qos byte, the flags byte and the
+ * payload.</li>
+ * </ul>
+ * The records end at a length of 0 or at the end of the segment. A message is written by the thread of the client that
+ * received it, straight into the mapped segment, without allocating once its topic is known.
+ */
+public class CaptureWriter implements Closeable {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    static final int MAGIC = 0x4D514350;
+    static final int VERSION = 1;
+    static final String SUFFIX = ".mcap";
+    // Magic, version, wall clock, nanoTime
+    static final int SEGMENT_HEADER_SIZE = 24;
+    // Length, type
+    static final int RECORD_HEADER_SIZE = 5;
+    // Receive nanoTime, topic id, qos, flags
+    static final int MESSAGE_HEADER_SIZE = 14;
+    static final byte TOPIC_RECORD = 1;
+    static final byte MESSAGE_RECORD = 2;
+    static final int FLAG_DUP = 0x01;
+    static final int FLAG_RETAINED = 0x02;
+
+    private final File directory;
+    private final String name;
+    private final int segmentSize;
+
+    // Guarded by this. The id of a topic and the last segment it was written to
+    private final Map<String, int[]> topics = new HashMap<String, int[]>();
+    private RandomAccessFile file = null;
+    private MappedByteBuffer segment = null;
+    private int segmentIndex = -1;
+    private long messages = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a capture writing to the segments {@code <name>-<index>.mcap} of a directory. Segments of a previous
+     * capture with the same name are overwritten.
+     *
+     * @param directory   the directory of the segments, created if missing
+     * @param name        the name of the capture, the characters that are not safe in a file name are replaced
+     * @param segmentSize the size of a segment in bytes. A larger message gets a segment of its own
+     * @throws IOException if the directory cannot be created
+     */
+    public CaptureWriter(File directory, String name, int segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the capture directory " + directory);
+        }
+        this.directory = directory;
+        this.name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        this.segmentSize = Math.max(SEGMENT_HEADER_SIZE + 1024, segmentSize);
+    }
+
+    /**
+     * Appends a received message. A message that cannot be written is counted as dropped.
+     *
+     * @param message the message
+     */
+    public synchronized void append(Message message) {
+        if (closed) {
+            return;
+        }
+        long nanos = System.nanoTime();
+        String topic = message.getTopic() != null ? message.getTopic() : "";
+        byte[] payload = message.getPayload();
+        int[] topicId = topics.get(topic);
+        byte[] topicName = null;
+        if (topicId == null || topicId[1] != segmentIndex) {
+            topicName = topic.getBytes(StandardCharsets.UTF_8);
+        }
+        int messageSize = RECORD_HEADER_SIZE + MESSAGE_HEADER_SIZE + payload.length;
+        int size = messageSize + (topicName != null ? RECORD_HEADER_SIZE + 4 + topicName.length : 0);
+        try {
+            if (segment == null || segment.remaining() < size) {
+                // A new segment starts with the topic records of its messages
+                if (topicName == null) {
+                    topicName = topic.getBytes(StandardCharsets.UTF_8);
+                    size += RECORD_HEADER_SIZE + 4 + topicName.length;
+                }
+                roll(size);
+            }
+        } catch (IOException e) {
+            if (dropped++ == 0) {
+                log.error("Capture " + name + " stopped writing: " + e.toString());
+            }
+            return;
+        }
+        if (topicId == null) {
+            topicId = new int[]{topics.size(), -1};
+            topics.put(topic, topicId);
+        }
+        if (topicName != null) {
+            segment.putInt(1 + 4 + topicName.length);
+            segment.put(TOPIC_RECORD);
+            segment.putInt(topicId[0]);
+            segment.put(topicName);
+            topicId[1] = segmentIndex;
+        }
+        segment.putInt(messageSize - 4);
+        segment.put(MESSAGE_RECORD);
+        segment.putLong(nanos);
+        segment.putInt(topicId[0]);
+        segment.put((byte) message.getQos());
+        segment.put((byte) ((message.isDup() ? FLAG_DUP : 0) | (message.isRetained() ? FLAG_RETAINED : 0)));
+        segment.put(payload);
+        messages++;
+    }
+
+    /**
+     * Maps the next segment, large enough for a record of the given size.
+     */
+    private void roll(int size) throws IOException {
+        if (dropped > 0) {
+            throw new IOException("The capture failed before");
+        }
+        truncate();
+        segmentIndex++;
+        File segmentFile = new File(directory, String.format("%s-%06d%s", name, segmentIndex, SUFFIX));
+        int length = Math.max(segmentSize, SEGMENT_HEADER_SIZE + size);
+        file = new RandomAccessFile(segmentFile, "rw");
+        file.setLength(0);
+        segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+        segment.putLong(System.currentTimeMillis());
+        segment.putLong(System.nanoTime());
+    }
+
+    /**
+     * Cuts the current segment to the records written, where the platform allows it while the segment is mapped.
+     */
+    private void truncate() {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.setLength(segment.position());
+        } catch (IOException e) {
+            // The rest of the segment stays zero filled, which also ends the records
+            log.debug("Capture " + name + " cannot truncate its segment: " + e.toString());
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            log.warn("Capture " + name + " cannot close its segment: " + e.toString());
+        }
+        file = null;
+        segment = null;
+    }
+
+    /**
+     * @return The number of messages written.
+     */
+    public synchronized long getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return The number of messages that could not be written.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Stops capturing. The messages appended afterwards are ignored.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        truncate();
+        log.info("Capture " + name + " wrote " + messages + " messages in " + (segmentIndex + 1) + " segments" +
+                 (dropped > 0 ? ", dropped " + dropped : ""));
+    }
+}
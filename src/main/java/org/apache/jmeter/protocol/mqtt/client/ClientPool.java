@@ -42,6 +42,15 @@ public class ClientPool {
         clients.add(client);
     }
 
+    /**
+     * Removes a client from the ClientPool without closing it.
+     *
+     * @param client the client to remove
+     */
+    public static synchronized void removeClient(Closeable client) {
+        clients.remove(client);
+    }
+
     /**
      * Clear all the clients created by either Publish or Subscribe sampler. We
      * need to do this to make sure all the threads created during the test are
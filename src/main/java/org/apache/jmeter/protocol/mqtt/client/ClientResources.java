@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.client;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ClientResources reports what every connection costs the injector in threads and reserved stack memory. The cost is
+ * measured once per test on the first connected client.
+ */
+public class ClientResources {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    private static final AtomicBoolean reported = new AtomicBoolean(false);
+    private static final String HOTSPOT_DIAGNOSTIC = "com.sun.management:type=HotSpotDiagnostic";
+
+    /**
+     * Logs the thread setup of the injector. This is called at the start of a test.
+     */
+    public static void testStarted() {
+        reported.set(false);
+        log.info("MQTT client threads: " + ManagementFactory.getThreadMXBean().getThreadCount() +
+                 " live threads, " + ClientScheduler.getScheduler().getCorePoolSize() +
+                 " shared scheduler threads, thread stack size " + getThreadStackSizeKb() + " KB");
+    }
+
+    /**
+     * Logs the number of threads owned by a connected client and their reserved stack, once per test.
+     *
+     * @param clientId the id of the connected client
+     */
+    public static void connected(String clientId) {
+        if (!reported.compareAndSet(false, true)) {
+            return;
+        }
+        // Paho names its threads "MQTT <role>: <client id>"
+        int threads = 0;
+        String suffix = ": " + clientId;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("MQTT") && thread.getName().endsWith(suffix)) {
+                threads++;
+            }
+        }
+        long stackKb = getThreadStackSizeKb();
+        log.info("Each MQTT connection uses " + threads + " threads reserving up to " + threads * stackKb +
+                 " KB of stack, keep alive pings run on the shared scheduler");
+    }
+
+    private static long getThreadStackSizeKb() {
+        try {
+            CompositeData option = (CompositeData) ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName(HOTSPOT_DIAGNOSTIC), "getVMOption",
+                    new Object[]{"ThreadStackSize"}, new String[]{String.class.getName()});
+            String stackSize = (String) option.get("value");
+            return Long.parseLong(stackSize);
+        } catch (Exception e) {
+            log.debug("Unable to read the thread stack size: " + e.toString());
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ClientScheduler runs the background work of all the clients, such as reconnects, on a small shared pool of daemon
+ * threads instead of giving each client threads of its own.
+ * <p/>
+ * Blocking connects run on a separate pool, so that a slow broker never holds back the keep alive pings run by the
+ * scheduler.
+ */
+public class ClientScheduler {
+
+    private static final int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int CONNECT_POOL_SIZE = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+    private static ScheduledThreadPoolExecutor scheduler = null;
+    private static ThreadPoolExecutor connectExecutor = null;
+
+    /**
+     * Gets the shared scheduler, creating it on first use.
+     *
+     * @return The shared scheduler.
+     */
+    public static synchronized ScheduledThreadPoolExecutor getScheduler() {
+        if (scheduler == null) {
+            final AtomicInteger threadCount = new AtomicInteger(0);
+            scheduler = new ScheduledThreadPoolExecutor(POOL_SIZE, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mqtt-scheduler-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            scheduler.setRemoveOnCancelPolicy(true);
+        }
+        return scheduler;
+    }
+
+    /**
+     * Gets the shared pool that runs blocking connects, creating it on first use. The connects beyond the size of the
+     * pool wait in its queue.
+     *
+     * @return The shared connect pool.
+     */
+    public static synchronized ExecutorService getConnectExecutor() {
+        if (connectExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger(0);
+            connectExecutor = new ThreadPoolExecutor(CONNECT_POOL_SIZE, CONNECT_POOL_SIZE, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mqtt-connect-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            connectExecutor.allowCoreThreadTimeOut(true);
+        }
+        return connectExecutor;
+    }
+
+    /**
+     * Runs a task once after the given delay.
+     *
+     * @param task        the task to run
+     * @param delayMillis the delay in milliseconds
+     * @return The future of the scheduled task.
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return getScheduler().schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
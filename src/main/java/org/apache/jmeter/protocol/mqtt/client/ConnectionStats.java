@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * JVM wide connection counters shared by all the clients. The counters are lock free as they are updated from the
+ * client callback threads.
+ */
+public class ConnectionStats {
+
+    private static final LongAdder disconnects = new LongAdder();
+    private static final LongAdder reconnectAttempts = new LongAdder();
+    private static final LongAdder reconnects = new LongAdder();
+    private static final LongAdder totalRecoveryNanos = new LongAdder();
+    private static final AtomicLong maxRecoveryNanos = new AtomicLong(0);
+
+    /**
+     * Records a lost connection.
+     */
+    public static void disconnected() {
+        disconnects.increment();
+    }
+
+    /**
+     * Records an attempt to reconnect.
+     */
+    public static void reconnectAttempted() {
+        reconnectAttempts.increment();
+    }
+
+    /**
+     * Records a successful reconnect.
+     *
+     * @param recoveryNanos the time between losing the connection and being subscribed again in nanoseconds
+     */
+    public static void reconnected(long recoveryNanos) {
+        reconnects.increment();
+        totalRecoveryNanos.add(recoveryNanos);
+        long max = maxRecoveryNanos.get();
+        while (recoveryNanos > max && !maxRecoveryNanos.compareAndSet(max, recoveryNanos)) {
+            max = maxRecoveryNanos.get();
+        }
+    }
+
+    public static long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    public static long getReconnectAttempts() {
+        return reconnectAttempts.sum();
+    }
+
+    public static long getReconnects() {
+        return reconnects.sum();
+    }
+
+    /**
+     * Resets all the counters. This is called at the start of a test.
+     */
+    public static void reset() {
+        disconnects.reset();
+        reconnectAttempts.reset();
+        reconnects.reset();
+        totalRecoveryNanos.reset();
+        maxRecoveryNanos.set(0);
+    }
+
+    /**
+     * Summarizes the counters for logging.
+     *
+     * @return The summary.
+     */
+    public static String summary() {
+        long reconnectCount = reconnects.sum();
+        long averageRecoveryMillis = reconnectCount > 0 ? totalRecoveryNanos.sum() / reconnectCount / 1000000 : 0;
+        return "disconnects=" + disconnects.sum() + ", reconnect attempts=" + reconnectAttempts.sum() +
+               ", reconnects=" + reconnectCount + ", average time to recover=" + averageRecoveryMillis +
+               " ms, max time to recover=" + maxRecoveryNanos.get() / 1000000 + " ms";
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.client;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * ConnectionThrottle paces the connection handshakes of all the clients in the JVM. It bounds the number of handshakes
+ * in progress and spaces their starts to a target CONNECT rate, so that connection storms can be shaped regardless of
+ * when JMeter starts the sampler threads.
+ * <p/>
+ * Every {@link #acquire()} must be followed by a {@link #release()} once the CONNACK has arrived or the connect failed.
+ */
+public class ConnectionThrottle {
+
+    private static volatile RatePacer pacer = new RatePacer(0);
+    private static volatile Semaphore handshakes = null;
+    private static volatile boolean reportConnects = false;
+
+    /**
+     * Configures the throttle. This is called at the start of a test.
+     *
+     * @param connectsPerSecond the target rate of connection starts, 0 or less for no limit
+     * @param maxHandshakes     the maximum number of handshakes in progress, 0 or less for no limit
+     * @param report            whether the CONNACK latency of each connect is reported as a sample
+     */
+    public static synchronized void configure(double connectsPerSecond, int maxHandshakes, boolean report) {
+        pacer = new RatePacer(connectsPerSecond);
+        handshakes = maxHandshakes > 0 ? new Semaphore(maxHandshakes, true) : null;
+        reportConnects = report;
+    }
+
+    /**
+     * Removes all the limits. This is called at the end of a test.
+     */
+    public static synchronized void reset() {
+        configure(0, 0, false);
+    }
+
+    public static boolean isReportConnects() {
+        return reportConnects;
+    }
+
+    /**
+     * Waits until a handshake may be started.
+     *
+     * @return The time waited in nanoseconds.
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public static long acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        Semaphore permits = handshakes;
+        if (permits != null) {
+            permits.acquire();
+        }
+        try {
+            pacer.acquire();
+        } catch (InterruptedException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            throw e;
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Ends a handshake started after {@link #acquire()}.
+     */
+    public static void release() {
+        Semaphore permits = handshakes;
+        if (permits != null) {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.client;
+
+import org.apache.jmeter.protocol.mqtt.data.objects.Message;
+import org.apache.jmeter.protocol.mqtt.paho.clients.MessageListener;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The outstanding requests of a connection, matched with their responses by a correlation id. The id is made of a
+ * prefix unique to the map and a sequence number, and the response to a request must carry it in its topic or its
+ * payload. Any number of requests may be outstanding at once, from any number of threads.
+ * <p/>
+ * A request that is not answered in time is removed by the thread waiting for it, and a response arriving after that
+ * is counted as unmatched.
+ */
+public class CorrelationMap implements MessageListener {
+
+    /**
+     * Replaced by the correlation id in the topics and messages of the requests.
+     */
+    public static final String PLACEHOLDER = "{correlation}";
+
+    private final String prefix;
+    private final byte[] prefixBytes;
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final ConcurrentHashMap<Long, Request> outstanding = new ConcurrentHashMap<>();
+    private final LongAdder unmatched = new LongAdder();
+
+    public CorrelationMap() {
+        this.prefix = "rpc" + Long.toHexString(ThreadLocalRandom.current().nextLong() & 0xFFFFFFFFFFFFL) + "-";
+        this.prefixBytes = prefix.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Registers a new outstanding request. Its round trip starts now.
+     *
+     * @return The request.
+     */
+    public Request register() {
+        long number = sequence.incrementAndGet();
+        Request request = new Request(prefix + number, number);
+        outstanding.put(number, request);
+        return request;
+    }
+
+    /**
+     * Removes a request that will not be waited for anymore.
+     *
+     * @param request the request
+     */
+    public void cancel(Request request) {
+        outstanding.remove(request.sequence, request);
+    }
+
+    /**
+     * @return The number of requests waiting for a response.
+     */
+    public int getOutstanding() {
+        return outstanding.size();
+    }
+
+    /**
+     * @return The number of messages received that matched no outstanding request.
+     */
+    public long getUnmatched() {
+        return unmatched.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void received(Message message) {
+        long now = System.nanoTime();
+        long number = find(message);
+        Request request = number > 0 ? outstanding.remove(number) : null;
+        if (request == null) {
+            unmatched.increment();
+            return;
+        }
+        request.complete(message, now);
+    }
+
+    private long find(Message message) {
+        String topic = message.getTopic();
+        if (topic != null) {
+            int index = topic.indexOf(prefix);
+            if (index >= 0) {
+                return parseNumber(topic, index + prefix.length());
+            }
+        }
+        byte[] payload = message.getPayload();
+        int index = indexOf(payload, prefixBytes);
+        if (index < 0) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = index + prefixBytes.length; i < payload.length && payload[i] >= '0' && payload[i] <= '9'; i++) {
+            number = number * 10 + payload[i] - '0';
+        }
+        return number;
+    }
+
+    private static long parseNumber(String value, int start) {
+        long number = 0;
+        for (int i = start; i < value.length() && value.charAt(i) >= '0' && value.charAt(i) <= '9'; i++) {
+            number = number * 10 + value.charAt(i) - '0';
+        }
+        return number;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        byte first = pattern[0];
+        int last = data.length - pattern.length;
+        for (int i = 0; i <= last; i++) {
+            if (data[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * An outstanding request.
+     */
+    public static final class Request {
+        private final String id;
+        private final long sequence;
+        private final long startTimestamp = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final CountDownLatch answered = new CountDownLatch(1);
+        private volatile Message response;
+        private volatile long responseNanos;
+
+        private Request(String id, long sequence) {
+            this.id = id;
+            this.sequence = sequence;
+        }
+
+        private void complete(Message message, long nanos) {
+            responseNanos = nanos;
+            response = message;
+            answered.countDown();
+        }
+
+        /**
+         * @return The correlation id to send with the request.
+         */
+        public String getId() {
+            return id;
+        }
+
+        public long getStartTimestamp() {
+            return startTimestamp;
+        }
+
+        /**
+         * Waits for the response.
+         *
+         * @param timeoutNanos the time to wait in nanoseconds
+         * @return true if the response has arrived.
+         * @throws InterruptedException if the thread is interrupted
+         */
+        public boolean await(long timeoutNanos) throws InterruptedException {
+            return answered.await(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return The response, or null if it has not arrived.
+         */
+        public Message getResponse() {
+            return response;
+        }
+
+        /**
+         * @return The time from the registration to the response in nanoseconds, or to now if there is no response.
+         */
+        public long getRoundTripNanos() {
+            return (response != null ? responseNanos : System.nanoTime()) - startNanos;
+        }
+    }
+}
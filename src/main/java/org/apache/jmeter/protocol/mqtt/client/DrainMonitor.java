@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.client;
+
+import org.apache.jmeter.protocol.mqtt.data.objects.Message;
+import org.apache.jmeter.protocol.mqtt.paho.clients.MessageListener;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the messages of a backlog drained by a reconnecting subscriber, without keeping them. The messages are
+ * counted in intervals from the start of the drain, giving the drain throughput over time, so that a backlog of any
+ * size is measured in constant memory.
+ * <p/>
+ * A drain is started by {@link #start(long, long, int)} before connecting and is complete once the expected number of
+ * messages has arrived. Messages arriving when no drain is started are ignored.
+ */
+public class DrainMonitor implements MessageListener {
+
+    private volatile Drain drain;
+
+    /**
+     * Starts a new drain. Its time starts now.
+     *
+     * @param expected       the number of messages of the backlog
+     * @param intervalMillis the length of an interval in milliseconds
+     * @param intervals      the number of intervals, the messages arriving after the last one are counted in it
+     * @return The drain.
+     */
+    public Drain start(long expected, long intervalMillis, int intervals) {
+        Drain newDrain = new Drain(expected, TimeUnit.MILLISECONDS.toNanos(Math.max(1, intervalMillis)),
+                Math.max(1, intervals));
+        drain = newDrain;
+        return newDrain;
+    }
+
+    /**
+     * Stops counting the messages of the current drain.
+     */
+    public void stop() {
+        drain = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void received(Message message) {
+        Drain current = drain;
+        if (current != null) {
+            current.received(message, System.nanoTime());
+        }
+    }
+
+    /**
+     * The messages received since a drain started.
+     */
+    public static final class Drain {
+        private final long expected;
+        private final long startNanos = System.nanoTime();
+        private final long intervalNanos;
+        private final AtomicLongArray intervals;
+        private final AtomicLong received = new AtomicLong(0);
+        private final AtomicLong duplicates = new AtomicLong(0);
+        private final AtomicLong bytes = new AtomicLong(0);
+        private final CountDownLatch complete = new CountDownLatch(1);
+        private volatile long firstNanos = -1;
+        private volatile long lastNanos = -1;
+
+        private Drain(long expected, long intervalNanos, int intervals) {
+            this.expected = expected;
+            this.intervalNanos = intervalNanos;
+            this.intervals = new AtomicLongArray(intervals);
+        }
+
+        private void received(Message message, long nanos) {
+            bytes.addAndGet(message.getPayload().length);
+            // Redeliveries of messages not acknowledged before the previous disconnect are not part of the backlog
+            if (message.isDup()) {
+                duplicates.incrementAndGet();
+                return;
+            }
+            long elapsed = nanos - startNanos;
+            if (firstNanos < 0) {
+                firstNanos = elapsed;
+            }
+            lastNanos = elapsed;
+            intervals.incrementAndGet((int) Math.min(elapsed / intervalNanos, intervals.length() - 1));
+            if (received.incrementAndGet() == expected) {
+                complete.countDown();
+            }
+        }
+
+        /**
+         * Waits for the expected number of messages.
+         *
+         * @param timeoutNanos the time to wait in nanoseconds
+         * @return true if the expected number of messages has arrived.
+         * @throws InterruptedException if the thread is interrupted
+         */
+        public boolean await(long timeoutNanos) throws InterruptedException {
+            return complete.await(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public long getExpected() {
+            return expected;
+        }
+
+        public long getReceived() {
+            return received.get();
+        }
+
+        /**
+         * @return The number of messages received with the duplicate flag set, which are not counted as received.
+         */
+        public long getDuplicates() {
+            return duplicates.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * @return The time from the start to the first message in nanoseconds, or -1 if no message arrived.
+         */
+        public long getFirstMessageNanos() {
+            return firstNanos;
+        }
+
+        /**
+         * @return The time from the start to the latest message in nanoseconds, or -1 if no message arrived.
+         */
+        public long getLastMessageNanos() {
+            return lastNanos;
+        }
+
+        public long getIntervalNanos() {
+            return intervalNanos;
+        }
+
+        /**
+         * @return The number of intervals.
+         */
+        public int getIntervals() {
+            return intervals.length();
+        }
+
+        /**
+         * @param interval the index of an interval
+         * @return The number of messages received in the interval.
+         */
+        public long getReceived(int interval) {
+            return intervals.get(interval);
+        }
+    }
+}
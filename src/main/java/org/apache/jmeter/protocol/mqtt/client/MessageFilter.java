@@ -0,0 +1,579 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.client;
+
+import org.apache.jmeter.protocol.mqtt.data.objects.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A predicate over the received messages, compiled once from an expression. The clients evaluate it before a message
+ * is captured, handed to the listener or queued, and the rejected messages are only counted. The expression combines
+ * tests with and, or, not and parentheses, also written &amp;&amp;, || and !. The tests are:
+ * <ul>
+ * <li>topic == 'a/b', topic != 'a/b', topic startsWith 'a/' or topic matches 'a/+/c/#', an MQTT topic filter</li>
+ * <li>qos, the QoS the message was received with, and size, the payload size in bytes, compared with ==, !=, &lt;,
+ * &lt;=, &gt; or &gt;= to a number</li>
+ * <li>retained and dup, the flags of the message</li>
+ * <li>payload startsWith or payload == a string or hex bytes such as 0x4D514348</li>
+ * <li>property 'name', property 'name' == 'value' or property 'name' != 'value' on the MQTT 5 user properties</li>
+ * </ul>
+ * For example: topic matches 'load/#' and (payload startsWith 'LT1' or property 'run' == 'r42').
+ * <p/>
+ * Filters are compiled once per element and expression and shared by its threads until {@link #clear()}.
+ */
+public class MessageFilter {
+
+    // The operators of two characters
+    private static final List<String> OPERATORS = Arrays.asList("==", "!=", "<=", ">=", "&&", "||");
+
+    private static final Map<String, MessageFilter> compiled = new HashMap<>();
+
+    private final String expression;
+    private final Test test;
+    private final boolean userProperties;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private MessageFilter(String expression, Test test, boolean userProperties) {
+        this.expression = expression;
+        this.test = test;
+        this.userProperties = userProperties;
+    }
+
+    /**
+     * Returns the compiled filter of an element, compiling it on first use.
+     *
+     * @param name       the name of the element
+     * @param expression the expression of the filter
+     * @return The filter.
+     * @throws IOException if the expression is not valid
+     */
+    public static synchronized MessageFilter get(String name, String expression) throws IOException {
+        String key = name + '\n' + expression;
+        MessageFilter filter = compiled.get(key);
+        if (filter == null) {
+            Parser parser = new Parser(expression);
+            filter = new MessageFilter(expression, parser.parse(), parser.userProperties);
+            compiled.put(key, filter);
+        }
+        return filter;
+    }
+
+    /**
+     * Forgets the compiled filters and their counters.
+     */
+    public static synchronized void clear() {
+        compiled.clear();
+    }
+
+    /**
+     * Tests and counts a message.
+     *
+     * @param message the message
+     * @return true if the message is accepted.
+     */
+    public boolean accept(Message message) {
+        return accept(message.getTopic(), message.getQos(), message.isRetained(), message.isDup(),
+                ByteBuffer.wrap(message.getPayload()), null);
+    }
+
+    /**
+     * Tests and counts a message before it is decoded into a {@link Message}.
+     *
+     * @param topic          the topic
+     * @param qos            the QoS the message was received with
+     * @param retained       the retained flag
+     * @param dup            the duplicate flag
+     * @param payload        the remaining bytes of the buffer, left unchanged
+     * @param userProperties the MQTT 5 user properties, or null if there are none
+     * @return true if the message is accepted.
+     */
+    public boolean accept(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                          Map<String, String> userProperties) {
+        if (test.test(topic, qos, retained, dup, payload, userProperties)) {
+            accepted.increment();
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * @return true if the filter tests the user properties, which are only decoded for such a filter.
+     */
+    public boolean usesUserProperties() {
+        return userProperties;
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * A compiled test of the expression.
+     */
+    private abstract static class Test {
+        abstract boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                              Map<String, String> userProperties);
+    }
+
+    /**
+     * A comparison of the QoS or the payload size with a number, with a subclass per operator.
+     */
+    private abstract static class Comparison extends Test {
+        private final boolean size;
+        final long value;
+
+        Comparison(boolean size, long value) {
+            this.size = size;
+            this.value = value;
+        }
+
+        @Override
+        final boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                           Map<String, String> userProperties) {
+            return compare(size ? payload.remaining() : qos);
+        }
+
+        abstract boolean compare(long actual);
+    }
+
+    private static final class Equal extends Comparison {
+        Equal(boolean size, long value) {
+            super(size, value);
+        }
+
+        @Override
+        boolean compare(long actual) {
+            return actual == value;
+        }
+    }
+
+    private static final class NotEqual extends Comparison {
+        NotEqual(boolean size, long value) {
+            super(size, value);
+        }
+
+        @Override
+        boolean compare(long actual) {
+            return actual != value;
+        }
+    }
+
+    private static final class Less extends Comparison {
+        Less(boolean size, long value) {
+            super(size, value);
+        }
+
+        @Override
+        boolean compare(long actual) {
+            return actual < value;
+        }
+    }
+
+    private static final class LessOrEqual extends Comparison {
+        LessOrEqual(boolean size, long value) {
+            super(size, value);
+        }
+
+        @Override
+        boolean compare(long actual) {
+            return actual <= value;
+        }
+    }
+
+    private static final class Greater extends Comparison {
+        Greater(boolean size, long value) {
+            super(size, value);
+        }
+
+        @Override
+        boolean compare(long actual) {
+            return actual > value;
+        }
+    }
+
+    private static final class GreaterOrEqual extends Comparison {
+        GreaterOrEqual(boolean size, long value) {
+            super(size, value);
+        }
+
+        @Override
+        boolean compare(long actual) {
+            return actual >= value;
+        }
+    }
+
+    /**
+     * Compiles an expression by recursive descent.
+     */
+    private static final class Parser {
+        private final String expression;
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Integer> offsets = new ArrayList<>();
+        private int next;
+        private boolean userProperties;
+
+        private Parser(String expression) throws IOException {
+            this.expression = expression;
+            tokenize();
+        }
+
+        private Test parse() throws IOException {
+            if (tokens.isEmpty()) {
+                throw error("an expression");
+            }
+            Test test = or();
+            if (next < tokens.size()) {
+                throw error("and, or or the end");
+            }
+            return test;
+        }
+
+        private Test or() throws IOException {
+            Test test = and();
+            while (accept("or") || accept("||")) {
+                final Test left = test;
+                final Test right = and();
+                test = new Test() {
+                    @Override
+                    boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                                 Map<String, String> userProperties) {
+                        return left.test(topic, qos, retained, dup, payload, userProperties) ||
+                               right.test(topic, qos, retained, dup, payload, userProperties);
+                    }
+                };
+            }
+            return test;
+        }
+
+        private Test and() throws IOException {
+            Test test = not();
+            while (accept("and") || accept("&&")) {
+                final Test left = test;
+                final Test right = not();
+                test = new Test() {
+                    @Override
+                    boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                                 Map<String, String> userProperties) {
+                        return left.test(topic, qos, retained, dup, payload, userProperties) &&
+                               right.test(topic, qos, retained, dup, payload, userProperties);
+                    }
+                };
+            }
+            return test;
+        }
+
+        private Test not() throws IOException {
+            if (accept("not") || accept("!")) {
+                final Test negated = not();
+                return new Test() {
+                    @Override
+                    boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                                 Map<String, String> userProperties) {
+                        return !negated.test(topic, qos, retained, dup, payload, userProperties);
+                    }
+                };
+            }
+            if (accept("(")) {
+                Test test = or();
+                expect(")");
+                return test;
+            }
+            return test();
+        }
+
+        private Test test() throws IOException {
+            if (accept("retained")) {
+                return new Test() {
+                    @Override
+                    boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                                 Map<String, String> userProperties) {
+                        return retained;
+                    }
+                };
+            } else if (accept("dup")) {
+                return new Test() {
+                    @Override
+                    boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                                 Map<String, String> userProperties) {
+                        return dup;
+                    }
+                };
+            } else if (accept("topic")) {
+                return topic();
+            } else if (accept("qos")) {
+                return comparison(false);
+            } else if (accept("size")) {
+                return comparison(true);
+            } else if (accept("payload")) {
+                return payload();
+            } else if (accept("property")) {
+                return property();
+            }
+            throw error("a test");
+        }
+
+        private Test topic() throws IOException {
+            if (accept("matches")) {
+                final String filter = string();
+                return new Test() {
+                    @Override
+                    boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                                 Map<String, String> userProperties) {
+                        return topic != null && CaptureReader.matches(filter, topic);
+                    }
+                };
+            } else if (accept("startsWith")) {
+                final String prefix = string();
+                return new Test() {
+                    @Override
+                    boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                                 Map<String, String> userProperties) {
+                        return topic != null && topic.startsWith(prefix);
+                    }
+                };
+            }
+            final boolean equal = equality();
+            final String value = string();
+            return new Test() {
+                @Override
+                boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                             Map<String, String> userProperties) {
+                    return value.equals(topic) == equal;
+                }
+            };
+        }
+
+        private Test payload() throws IOException {
+            final boolean prefix;
+            if (accept("startsWith")) {
+                prefix = true;
+            } else {
+                expect("==");
+                prefix = false;
+            }
+            final byte[] bytes = bytes();
+            return new Test() {
+                @Override
+                boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                             Map<String, String> userProperties) {
+                    int length = payload.remaining();
+                    if (prefix ? length < bytes.length : length != bytes.length) {
+                        return false;
+                    }
+                    int position = payload.position();
+                    for (int i = 0; i < bytes.length; i++) {
+                        if (payload.get(position + i) != bytes[i]) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            };
+        }
+
+        private Test property() throws IOException {
+            userProperties = true;
+            final String name = string();
+            if (!peek("==") && !peek("!=")) {
+                return new Test() {
+                    @Override
+                    boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                                 Map<String, String> userProperties) {
+                        return userProperties != null && userProperties.containsKey(name);
+                    }
+                };
+            }
+            final boolean equal = equality();
+            final String value = string();
+            return new Test() {
+                @Override
+                boolean test(String topic, int qos, boolean retained, boolean dup, ByteBuffer payload,
+                             Map<String, String> userProperties) {
+                    return userProperties != null && value.equals(userProperties.get(name)) == equal;
+                }
+            };
+        }
+
+        /**
+         * Compiles the comparison of the QoS or size with a number into the test of its operator.
+         *
+         * @param size true to compare the payload size, false the QoS
+         * @return The test.
+         */
+        private Test comparison(boolean size) throws IOException {
+            if (accept("==")) {
+                return new Equal(size, number());
+            } else if (accept("!=")) {
+                return new NotEqual(size, number());
+            } else if (accept("<=")) {
+                return new LessOrEqual(size, number());
+            } else if (accept(">=")) {
+                return new GreaterOrEqual(size, number());
+            } else if (accept("<")) {
+                return new Less(size, number());
+            } else if (accept(">")) {
+                return new Greater(size, number());
+            }
+            throw error("==, !=, <, <=, > or >=");
+        }
+
+        private boolean equality() throws IOException {
+            if (accept("==")) {
+                return true;
+            } else if (accept("!=")) {
+                return false;
+            }
+            throw error("==, != or a topic operator");
+        }
+
+        private long number() throws IOException {
+            if (next < tokens.size()) {
+                try {
+                    long value = Long.parseLong(tokens.get(next));
+                    next++;
+                    return value;
+                } catch (NumberFormatException e) {
+                    // Reported below
+                }
+            }
+            throw error("a number");
+        }
+
+        private String string() throws IOException {
+            if (next < tokens.size() && isString(tokens.get(next))) {
+                String token = tokens.get(next++);
+                return unquote(token);
+            }
+            throw error("a quoted string");
+        }
+
+        private byte[] bytes() throws IOException {
+            if (next < tokens.size() && tokens.get(next).startsWith("0x")) {
+                String hex = tokens.get(next).substring(2);
+                if (!hex.isEmpty() && hex.length() % 2 == 0 && hex.matches("[0-9a-fA-F]+")) {
+                    next++;
+                    byte[] bytes = new byte[hex.length() / 2];
+                    for (int i = 0; i < bytes.length; i++) {
+                        bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+                    }
+                    return bytes;
+                }
+                throw error("an even number of hex digits");
+            }
+            return string().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private boolean peek(String token) {
+            return next < tokens.size() && !isString(tokens.get(next)) && tokens.get(next).equalsIgnoreCase(token);
+        }
+
+        private boolean accept(String token) {
+            if (peek(token)) {
+                next++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) throws IOException {
+            if (!accept(token)) {
+                throw error(token);
+            }
+        }
+
+        private IOException error(String expected) {
+            int offset = next < offsets.size() ? offsets.get(next) : expression.length();
+            return new IOException("Message filter at character " + (offset + 1) + ": expected " + expected +
+                                   " in " + expression);
+        }
+
+        private static boolean isString(String token) {
+            return token.startsWith("'") || token.startsWith("\"");
+        }
+
+        private static String unquote(String token) {
+            StringBuilder value = new StringBuilder(token.length());
+            for (int i = 1; i < token.length() - 1; i++) {
+                char c = token.charAt(i);
+                value.append(c == '\\' ? token.charAt(++i) : c);
+            }
+            return value.toString();
+        }
+
+        /**
+         * Splits the expression into words, numbers, quoted strings with backslash escapes and operators.
+         */
+        private void tokenize() throws IOException {
+            int i = 0;
+            while (i < expression.length()) {
+                char c = expression.charAt(i);
+                int start = i;
+                if (Character.isWhitespace(c)) {
+                    i++;
+                    continue;
+                } else if (c == '\'' || c == '"') {
+                    i++;
+                    while (i < expression.length() && expression.charAt(i) != c) {
+                        i += expression.charAt(i) == '\\' ? 2 : 1;
+                    }
+                    if (i >= expression.length()) {
+                        throw new IOException("Message filter at character " + (start + 1) +
+                                              ": unterminated string in " + expression);
+                    }
+                    i++;
+                } else if (Character.isLetterOrDigit(c) || c == '_' ||
+                           (c == '-' && i + 1 < expression.length() && Character.isDigit(expression.charAt(i + 1)))) {
+                    // A minus sign only starts a negative number
+                    i++;
+                    while (i < expression.length() && (Character.isLetterOrDigit(expression.charAt(i)) ||
+                                                       expression.charAt(i) == '_')) {
+                        i++;
+                    }
+                } else if (i + 1 < expression.length() && OPERATORS.contains(expression.substring(i, i + 2))) {
+                    i += 2;
+                } else if ("!<>()".indexOf(c) >= 0) {
+                    i++;
+                } else {
+                    throw new IOException("Message filter at character " + (i + 1) + ": unexpected " + c + " in " +
+                                          expression);
+                }
+                tokens.add(expression.substring(start, i));
+                offsets.add(start);
+            }
+        }
+    }
+}
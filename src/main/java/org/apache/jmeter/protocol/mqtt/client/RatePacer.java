@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * RatePacer spaces the starts of an operation shared by many threads to a target rate. Each caller claims the next
+ * free start slot and sleeps until it is due, so the rate holds whatever the number of threads, as long as there are
+ * enough of them to keep up with it. A caller arriving after its slot was due starts at once, without a burst to catch
+ * up with the missed slots. The rate may be changed while the pacer is in use. Callers waiting for a slot claimed
+ * at the previous rate claim a new one within {@link #MAX_PARK_NANOS}.
+ */
+public class RatePacer {
+
+    // Upper bound of a single wait so that a change of rate is noticed
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private volatile long intervalNanos;
+    private final AtomicLong nextSlot = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param perSecond the target rate of starts, 0 or less for no limit
+     */
+    public RatePacer(double perSecond) {
+        this.intervalNanos = toIntervalNanos(perSecond);
+    }
+
+    private static long toIntervalNanos(double perSecond) {
+        return perSecond > 0 ? Math.max(1, (long) (1000000000L / perSecond)) : 0;
+    }
+
+    /**
+     * @return The target rate of starts, 0 for no limit.
+     */
+    public double getRate() {
+        long interval = intervalNanos;
+        return interval > 0 ? 1e9 / interval : 0;
+    }
+
+    /**
+     * Changes the target rate. The next start is due at once.
+     *
+     * @param perSecond the target rate of starts, 0 or less for no limit
+     */
+    public void setRate(double perSecond) {
+        intervalNanos = toIntervalNanos(perSecond);
+        nextSlot.set(System.nanoTime());
+    }
+
+    /**
+     * Waits until the next start is due.
+     *
+     * @return The time waited in nanoseconds.
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public long acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        long interval;
+        // Claim the next free start slot and sleep until it is due, claiming again if the rate changes meanwhile
+        while ((interval = intervalNanos) > 0 && !await(claim(interval), interval)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long claim(long interval) {
+        while (true) {
+            long next = nextSlot.get();
+            long slot = Math.max(next, System.nanoTime());
+            if (nextSlot.compareAndSet(next, slot + interval)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Sleeps until a slot is due.
+     *
+     * @return true once the slot is due, false if the rate changed or the thread was interrupted before.
+     */
+    private boolean await(long slot, long interval) {
+        long delay;
+        while ((delay = slot - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(Math.min(delay, MAX_PARK_NANOS));
+            if (intervalNanos != interval || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
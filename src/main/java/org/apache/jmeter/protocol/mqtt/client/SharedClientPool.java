@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.client;
+
+import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SharedClientPool holds client instances that are shared by several sampler threads. A shared client is created by
+ * the first thread that asks for a key and closed when the last thread using it releases it, so a single broker
+ * connection can feed its received messages to many consumers.
+ * <p/>
+ * N.B. This class needs to be fully synchronized as it is called from sample threads
+ * and the thread that runs testEnded() methods. The clients are created and closed outside the lock as connecting
+ * can take up to the connect timeout, the threads asking for a key whose client is being created wait for it.
+ */
+public class SharedClientPool {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    private static final Map<String, SharedClient> clients = new HashMap<String, SharedClient>();
+
+    /**
+     * Creates a client when no thread is sharing one for a key yet.
+     */
+    public interface ClientFactory {
+        BaseClient create() throws MqttException;
+    }
+
+    private static class SharedClient {
+        // Null while the client is being created
+        private BaseClient client;
+        private int references;
+    }
+
+    /**
+     * Gets the client shared under the given key, creating it with the factory if this is the first user. A shared
+     * client that lost its connection and does not reconnect by itself is replaced by a new one, the threads still
+     * holding it release it and acquire the new one when they notice.
+     *
+     * @param key     the key identifying the shared connection
+     * @param factory the factory used to create the client for the first user
+     * @return the shared client, or null if the factory did not create one
+     * @throws MqttException if the client could not be created
+     */
+    public static BaseClient acquire(String key, ClientFactory factory) throws MqttException {
+        SharedClient lost;
+        SharedClient created = new SharedClient();
+        synchronized (clients) {
+            SharedClient shared = clients.get(key);
+            while (shared != null && shared.client == null) {
+                try {
+                    clients.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MqttException(e);
+                }
+                shared = clients.get(key);
+            }
+            if (shared != null && (shared.client.isConnected() || shared.client.isAutoReconnect())) {
+                shared.references++;
+                return shared.client;
+            }
+            // The references of the lost client move to its replacement, as its users release it later
+            lost = shared;
+            created.references = (lost != null ? lost.references : 0) + 1;
+            clients.put(key, created);
+        }
+        BaseClient client = null;
+        boolean kept = false;
+        try {
+            client = factory.create();
+        } finally {
+            synchronized (clients) {
+                // The entry is gone if the pool was cleared at the end of the test while connecting
+                if (clients.get(key) == created) {
+                    if (client != null) {
+                        created.client = client;
+                        kept = true;
+                    } else if (lost != null && created.references > 1) {
+                        lost.references = created.references - 1;
+                        clients.put(key, lost);
+                        lost = null;
+                    } else {
+                        clients.remove(key);
+                    }
+                }
+                clients.notifyAll();
+            }
+            if (lost != null) {
+                close(key, lost.client);
+            }
+        }
+        if (client != null && !kept) {
+            close(key, client);
+            return null;
+        }
+        if (client != null) {
+            log.info((lost != null ? "Replaced the disconnected shared client for " : "Created shared client for ") +
+                     key);
+        }
+        return client;
+    }
+
+    /**
+     * Releases a client acquired with {@link #acquire(String, ClientFactory)}. The client is closed once it has no
+     * more users.
+     *
+     * @param key the key the client was acquired with
+     */
+    public static void release(String key) throws IOException {
+        BaseClient client;
+        synchronized (clients) {
+            SharedClient shared = clients.get(key);
+            // A client being created holds a reference of its creator, so it is not removed here
+            if (shared == null || --shared.references > 0 || shared.client == null) {
+                return;
+            }
+            clients.remove(key);
+            client = shared.client;
+        }
+        log.info("Closing shared client for " + key);
+        client.close();
+    }
+
+    /**
+     * Closes all the shared clients regardless of their users. This is called at the end of a test.
+     */
+    public static void clearClient() throws IOException {
+        List<BaseClient> cleared = new ArrayList<BaseClient>();
+        synchronized (clients) {
+            Iterator<SharedClient> iterator = clients.values().iterator();
+            while (iterator.hasNext()) {
+                BaseClient client = iterator.next().client;
+                iterator.remove();
+                // A client still being created is closed by its creator
+                if (client != null) {
+                    cleared.add(client);
+                }
+            }
+            clients.notifyAll();
+        }
+        for (BaseClient client : cleared) {
+            client.close();
+        }
+    }
+
+    private static void close(String key, BaseClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.warn("Unable to close the shared client for " + key + ": " + e.toString());
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.client;
+
+import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A readiness barrier between subscribers and publishers. Subscribers report every acknowledged subscription and
+ * publishers block until the configured number of subscriptions is in place, so that no messages are lost while
+ * the subscribers are still ramping up.
+ * <p/>
+ * Within one JVM the subscriptions are counted in memory. For distributed tests the subscribers additionally publish
+ * a retained marker message to {@link #TOPIC_PREFIX}&lt;barrier&gt;/&lt;marker&gt; and publishers count the distinct
+ * markers seen on the broker. The markers are removed at the end of the test.
+ */
+public class SubscriptionBarrier implements MqttCallback {
+
+    public static final String TOPIC_PREFIX = "jmeter/barrier/";
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    private static final Map<String, SubscriptionBarrier> barriers = new HashMap<String, SubscriptionBarrier>();
+    private static final String markerPrefix = ManagementFactory.getRuntimeMXBean().getName()
+            .replaceAll("[^A-Za-z0-9_.@-]", "_") + "-";
+    private static final AtomicInteger markerSequence = new AtomicInteger(0);
+
+    private final String name;
+    private int acknowledged = 0;
+    private final Set<String> markers = new HashSet<String>();
+    private boolean listening = false;
+    private MqttClient markerListener;
+
+    private SubscriptionBarrier(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the barrier with the given name, creating it if needed.
+     *
+     * @param name the barrier name
+     * @return the barrier
+     */
+    public static synchronized SubscriptionBarrier get(String name) {
+        SubscriptionBarrier barrier = barriers.get(name);
+        if (barrier == null) {
+            barrier = new SubscriptionBarrier(name);
+            barriers.put(name, barrier);
+        }
+        return barrier;
+    }
+
+    /**
+     * Resets all the barriers. Markers seen on the broker are deleted and the marker listeners are disconnected.
+     */
+    public static synchronized void clear() {
+        for (SubscriptionBarrier barrier : barriers.values()) {
+            barrier.close();
+        }
+        barriers.clear();
+    }
+
+    /**
+     * Records an acknowledged subscription.
+     */
+    public synchronized void subscribed() {
+        acknowledged++;
+        notifyAll();
+    }
+
+    /**
+     * Records an acknowledged subscription on the broker so that publishers in other JVMs can see it.
+     *
+     * @param client  the subscribed client to publish the retained marker with
+     * @param timeout the publish timeout in milliseconds
+     * @throws MqttException if the marker could not be published
+     */
+    public void announce(BaseClient client, long timeout) throws MqttException {
+        String topic = TOPIC_PREFIX + name + "/" + markerPrefix + markerSequence.incrementAndGet();
+        client.publish(topic, 1, new byte[]{1}, true, timeout);
+    }
+
+    /**
+     * Starts counting the subscription markers published on the broker. Calling this more than once has no effect.
+     * The listener connects outside the lock so that the threads waiting on the barrier and the delivery of markers
+     * are not held up by the handshake.
+     *
+     * @param brokerUrl the broker the subscribers announce on
+     * @param userName  the username to connect with
+     * @param password  the password for the user
+     * @throws MqttException if the listener could not subscribe
+     */
+    public void listen(String brokerUrl, String userName, String password) throws MqttException {
+        synchronized (this) {
+            if (listening) {
+                return;
+            }
+            listening = true;
+        }
+        MqttConnectOptions conOpt = new MqttConnectOptions();
+        conOpt.setCleanSession(true);
+        if (password != null && !password.isEmpty()) {
+            conOpt.setPassword(password.toCharArray());
+        }
+        if (userName != null && !userName.isEmpty()) {
+            conOpt.setUserName(userName);
+        }
+        MqttClient listener = new MqttClient(brokerUrl, MqttClient.generateClientId(), new MemoryPersistence());
+        listener.setCallback(this);
+        try {
+            listener.connect(conOpt);
+            listener.subscribe(TOPIC_PREFIX + name + "/+", 1);
+        } catch (MqttException e) {
+            synchronized (this) {
+                listening = false;
+            }
+            close(listener);
+            throw e;
+        }
+        synchronized (this) {
+            // Cleared at the end of the test while connecting
+            if (listening) {
+                markerListener = listener;
+                listener = null;
+            }
+        }
+        if (listener != null) {
+            close(listener);
+            return;
+        }
+        log.info("Listening for subscription markers of barrier '" + name + "' on " + brokerUrl);
+    }
+
+    /**
+     * Blocks until the given number of subscriptions has been acknowledged. Callers that need to notice a stopped
+     * test wait in bounded slices.
+     *
+     * @param expected      the number of subscriptions to wait for
+     * @param timeoutMillis the maximum time to wait in milliseconds, 0 to wait forever
+     * @return true if the barrier was passed, false if the wait timed out
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public synchronized boolean await(int expected, long timeoutMillis) throws InterruptedException {
+        long endTime = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+        while (count() < expected) {
+            long remaining = endTime - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of acknowledged subscriptions. When listening on the broker only markers are counted as the
+     * local subscribers announce themselves there as well.
+     *
+     * @return the number of acknowledged subscriptions
+     */
+    public synchronized int count() {
+        return listening ? markers.size() : acknowledged;
+    }
+
+    private void close() {
+        MqttClient listener;
+        Set<String> seenMarkers;
+        // Publish outside the lock, the callback thread needs it to hand over the acknowledgements
+        synchronized (this) {
+            listening = false;
+            if (markerListener == null) {
+                return;
+            }
+            listener = markerListener;
+            seenMarkers = new HashSet<String>(markers);
+            markerListener = null;
+            markers.clear();
+        }
+        try {
+            // Remove the retained markers so that they do not satisfy the barrier of the next test
+            for (String marker : seenMarkers) {
+                listener.publish(marker, new byte[0], 1, true);
+            }
+        } catch (MqttException e) {
+            log.warn("Unable to clean up subscription markers of barrier '" + name + "': " + e.toString());
+        }
+        close(listener);
+    }
+
+    private void close(MqttClient listener) {
+        try {
+            if (listener.isConnected()) {
+                try {
+                    listener.disconnect();
+                } catch (MqttException e) {
+                    // A client that is still connected can not be closed
+                    listener.disconnectForcibly();
+                }
+            }
+            listener.close();
+        } catch (MqttException e) {
+            log.warn("Unable to close the subscription marker listener of barrier '" + name + "': " + e.toString());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void messageArrived(String topic, MqttMessage message) {
+        // Deleted markers arrive as empty retained messages
+        if (message.getPayload().length > 0) {
+            markers.add(topic);
+            notifyAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void connectionLost(Throwable cause) {
+        log.warn("Subscription marker listener of barrier '" + name + "' lost its connection: " + cause);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {
+    }
+}
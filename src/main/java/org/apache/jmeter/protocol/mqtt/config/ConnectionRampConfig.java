@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.config;
+
+import org.apache.jmeter.config.ConfigTestElement;
+import org.apache.jmeter.protocol.mqtt.client.ConnectionThrottle;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * This is the MQTT Connection Ramp config class. It shapes the connection establishment of all the MQTT clients of the
+ * test by configuring the JVM wide {@link ConnectionThrottle} when the test starts.
+ */
+public class ConnectionRampConfig extends ConfigTestElement implements TestStateListener {
+
+    private static final long serialVersionUID = 240L;
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final String CONNECT_RATE = "mqtt.ramp.connect.rate";
+    private static final String MAX_HANDSHAKES = "mqtt.ramp.max.handshakes";
+    private static final String REPORT_CONNECTS = "mqtt.ramp.report.connects";
+
+    // Getters
+    public double getConnectRate() {
+        return getPropertyAsDouble(CONNECT_RATE);
+    }
+
+    public int getMaxHandshakes() {
+        return getPropertyAsInt(MAX_HANDSHAKES);
+    }
+
+    public boolean isReportConnects() {
+        return getPropertyAsBoolean(REPORT_CONNECTS);
+    }
+
+    // Setters
+    public void setConnectRate(String connectRate) {
+        setProperty(CONNECT_RATE, connectRate.trim());
+    }
+
+    public void setMaxHandshakes(String maxHandshakes) {
+        setProperty(MAX_HANDSHAKES, maxHandshakes.trim());
+    }
+
+    public void setReportConnects(boolean isReportConnects) {
+        setProperty(REPORT_CONNECTS, isReportConnects);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted() {
+        log.info("Connection ramp: " + getConnectRate() + " CONNECT/s, at most " + getMaxHandshakes() +
+                 " handshakes in progress");
+        ConnectionThrottle.configure(getConnectRate(), getMaxHandshakes(), isReportConnects());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded() {
+        ConnectionThrottle.reset();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded(String host) {
+        testEnded();
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.control.gui;
+
+import org.apache.jmeter.gui.util.JSyntaxTextArea;
+import org.apache.jmeter.gui.util.JTextScrollPane;
+import org.apache.jmeter.gui.util.VerticalPanel;
+import org.apache.jmeter.protocol.mqtt.sampler.BacklogDrainSampler;
+import org.apache.jmeter.protocol.mqtt.utilities.Constants;
+import org.apache.jmeter.protocol.mqtt.utilities.Utils;
+import org.apache.jmeter.samplers.gui.AbstractSamplerGui;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jorphan.gui.JLabeledPasswordField;
+import org.apache.jorphan.gui.JLabeledTextField;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JPanel;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * This is the MQTT Backlog Drain Sampler GUI class. All swing components of the UI are included in this class.
+ */
+public class MQTTBacklogDrainGui extends AbstractSamplerGui implements ActionListener {
+
+    private static final long serialVersionUID = 240L;
+
+    private static final String[] QOS_TYPES_ITEMS = {Constants.MQTT_AT_MOST_ONCE, Constants.MQTT_AT_LEAST_ONCE, Constants.MQTT_EXACTLY_ONCE};
+    private static final String[] CLIENT_TYPES_ITEMS = {Constants.MQTT_BLOCKING_CLIENT, Constants.MQTT_ASYNC_CLIENT,
+            Constants.MQTT_NIO_CLIENT, Constants.MQTT_5_CLIENT};
+
+    private final JLabeledTextField brokerUrlField = new JLabeledTextField(Constants.MQTT_PROVIDER_URL);
+    private final JLabeledTextField clientId = new JLabeledTextField(Constants.MQTT_CLIENT_ID);
+    private final JButton generateClientID = new JButton(Constants.MQTT_CLIENT_ID_GENERATOR);
+
+    private final JLabeledTextField mqttDestination = new JLabeledTextField(Constants.MQTT_TOPIC);
+    private final JLabeledTextField mqttKeepAlive = new JLabeledTextField(Constants.MQTT_KEEP_ALIVE);
+
+    private final JLabeledTextField backlogMessages = new JLabeledTextField(Constants.MQTT_DRAIN_MESSAGES);
+    private final JCheckBox publishBacklog = new JCheckBox(Constants.MQTT_DRAIN_PUBLISH, true);
+    private final JLabeledTextField disconnectedWait = new JLabeledTextField(Constants.MQTT_DRAIN_WAIT);
+    private final JLabeledTextField drainTimeout = new JLabeledTextField(Constants.MQTT_DRAIN_TIMEOUT);
+    private final JLabeledTextField drainInterval = new JLabeledTextField(Constants.MQTT_DRAIN_INTERVAL);
+
+    private final JLabeledTextField mqttUser = new JLabeledTextField(Constants.MQTT_USERNAME);
+    private final JLabeledTextField mqttPwd = new JLabeledPasswordField(Constants.MQTT_PASSWORD);
+    private final JButton resetUserNameAndPassword = new JButton(Constants.MQTT_RESET_USERNAME_PASSWORD);
+
+    private final JSyntaxTextArea textMessage = new JSyntaxTextArea(5, 50);
+    private final JTextScrollPane textPanel = new JTextScrollPane(textMessage);
+
+    private final JLabeledRadioI18N typeQoSValue = new JLabeledRadioI18N(Constants.MQTT_QOS, QOS_TYPES_ITEMS, Constants.MQTT_AT_LEAST_ONCE);
+    private final JLabeledRadioI18N typeClientValue = new JLabeledRadioI18N("Client Types:", CLIENT_TYPES_ITEMS,
+            Constants.MQTT_NIO_CLIENT);
+
+    public MQTTBacklogDrainGui() {
+        init();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getLabelResource() {
+        return this.getClass().getSimpleName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getStaticLabel() {
+        return Constants.MQTT_DRAIN_TITLE;
+    }
+
+    /**
+     * Creates a test element for MQTT backlog drain
+     * @see org.apache.jmeter.gui.JMeterGUIComponent#createTestElement()
+     */
+    @Override
+    public TestElement createTestElement() {
+        BacklogDrainSampler sampler = new BacklogDrainSampler();
+        modifyTestElement(sampler);
+        return sampler;
+    }
+
+    /**
+     * Modifies a given TestElement to mirror the data in the gui components.
+     *
+     * @see org.apache.jmeter.gui.JMeterGUIComponent#modifyTestElement(TestElement)
+     */
+    @Override
+    public void modifyTestElement(TestElement s) {
+        BacklogDrainSampler sampler = (BacklogDrainSampler) s;
+        this.configureTestElement(sampler);
+        sampler.setBrokerUrl(brokerUrlField.getText());
+        sampler.setClientId(clientId.getText());
+        sampler.setTopicName(mqttDestination.getText());
+        sampler.setKeepAlive(mqttKeepAlive.getText());
+        sampler.setBacklogMessages(backlogMessages.getText());
+        sampler.setPublishBacklog(publishBacklog.isSelected());
+        sampler.setDisconnectedWait(disconnectedWait.getText());
+        sampler.setDrainTimeout(drainTimeout.getText());
+        sampler.setDrainInterval(drainInterval.getText());
+        sampler.setUsername(mqttUser.getText());
+        sampler.setPassword(mqttPwd.getText());
+        sampler.setMessageValue(textMessage.getText());
+        sampler.setQOS(typeQoSValue.getText());
+        sampler.setClientType(typeClientValue.getText());
+    }
+
+    /**
+     * Initializes all the UI elements
+     */
+    private void init() {
+        brokerUrlField.setText(Constants.MQTT_URL_DEFAULT);
+        setLayout(new BorderLayout());
+        setBorder(makeBorder());
+        add(makeTitlePanel(), BorderLayout.NORTH);
+        JPanel mainPanel = new VerticalPanel();
+        add(mainPanel, BorderLayout.CENTER);
+        JPanel DPanel = new JPanel();
+        DPanel.setLayout(new BoxLayout(DPanel, BoxLayout.X_AXIS));
+        DPanel.add(brokerUrlField);
+        DPanel.add(clientId);
+        DPanel.add(generateClientID);
+        JPanel ControlPanel = new VerticalPanel();
+        ControlPanel.add(DPanel);
+        ControlPanel.add(mqttDestination);
+        ControlPanel.add(mqttKeepAlive);
+        ControlPanel.add(createAuthPane());
+        ControlPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Connection Info"));
+        mainPanel.add(ControlPanel);
+        mainPanel.add(createDrainPane());
+        JPanel TPanel = new VerticalPanel();
+        TPanel.setLayout(new BoxLayout(TPanel, BoxLayout.X_AXIS));
+        typeQoSValue.setLayout(new BoxLayout(typeQoSValue, BoxLayout.X_AXIS));
+        typeClientValue.setLayout(new BoxLayout(typeClientValue, BoxLayout.X_AXIS));
+        TPanel.add(typeQoSValue);
+        TPanel.add(typeClientValue);
+        TPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray), "Option"));
+        mainPanel.add(TPanel);
+        JPanel messagePanel = new VerticalPanel();
+        messagePanel.add(textPanel);
+        messagePanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                Constants.MQTT_TEXT_AREA));
+        mainPanel.add(messagePanel);
+
+        mqttKeepAlive.setText(Constants.MQTT_KEEP_ALIVE_DEFAULT);
+        generateClientID.setActionCommand(Constants.GENERATE_CLIENT_ID_COMMAND);
+        resetUserNameAndPassword.setActionCommand(Constants.RESET_CREDENTIALS);
+        generateClientID.addActionListener(this);
+        resetUserNameAndPassword.addActionListener(this);
+    }
+
+    /**
+     * Creates the panel for user authentication. Username and password are included.
+     * @return JPanel Panel with checkbox to choose  user and password
+     */
+    private Component createAuthPane() {
+        mqttUser.setText(Constants.MQTT_USER_USERNAME);
+        mqttPwd.setText(Constants.MQTT_USER_PASSWORD);
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(mqttUser);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(mqttPwd);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(resetUserNameAndPassword);
+        return panel;
+    }
+
+    /**
+     * Creates the backlog and drain panel.
+     *
+     * @return The backlog and drain panel.
+     */
+    private JPanel createDrainPane() {
+        JPanel backlogPanel = new JPanel();
+        backlogPanel.setLayout(new BoxLayout(backlogPanel, BoxLayout.X_AXIS));
+        backlogPanel.add(backlogMessages);
+        backlogPanel.add(Box.createHorizontalStrut(10));
+        backlogPanel.add(publishBacklog);
+        backlogPanel.add(Box.createHorizontalStrut(10));
+        backlogPanel.add(disconnectedWait);
+        JPanel drainPanel = new JPanel();
+        drainPanel.setLayout(new BoxLayout(drainPanel, BoxLayout.X_AXIS));
+        drainPanel.add(drainTimeout);
+        drainPanel.add(Box.createHorizontalStrut(10));
+        drainPanel.add(drainInterval);
+        JPanel panel = new VerticalPanel();
+        panel.add(backlogPanel);
+        panel.add(drainPanel);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray), "Backlog"));
+        backlogMessages.setText(Constants.MQTT_DRAIN_MESSAGES_DEFAULT);
+        disconnectedWait.setText(Constants.MQTT_DRAIN_WAIT_DEFAULT);
+        drainTimeout.setText(Constants.MQTT_DRAIN_TIMEOUT_DEFAULT);
+        drainInterval.setText(Constants.MQTT_DRAIN_INTERVAL_DEFAULT);
+        return panel;
+    }
+
+    /**
+     * {@inheritDoc}. </br>.
+     * Loads fields from an existing sampler file.
+     *
+     * @param el The test element
+     */
+    @Override
+    public void configure(TestElement el) {
+        super.configure(el);
+        BacklogDrainSampler sampler = (BacklogDrainSampler) el;
+        brokerUrlField.setText(sampler.getBrokerUrl());
+        clientId.setText(sampler.getClientId());
+        mqttDestination.setText(sampler.getTopicName());
+        mqttKeepAlive.setText(Integer.toString(sampler.getKeepAlive()));
+        backlogMessages.setText(Long.toString(sampler.getBacklogMessages()));
+        publishBacklog.setSelected(sampler.isPublishBacklog());
+        disconnectedWait.setText(Long.toString(sampler.getDisconnectedWait()));
+        drainTimeout.setText(Long.toString(sampler.getDrainTimeout()));
+        drainInterval.setText(Long.toString(sampler.getDrainInterval()));
+        mqttUser.setText(sampler.getUsername());
+        mqttPwd.setText(sampler.getPassword());
+        textMessage.setText(sampler.getMessageValue());
+        typeQoSValue.setText(sampler.getQOS());
+        typeClientValue.setText(sampler.getClientType());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clearGui() {
+        super.clearGui();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (Constants.GENERATE_CLIENT_ID_COMMAND.equals(e.getActionCommand())) {
+            clientId.setText(Utils.UUIDGenerator());
+        } else if (Constants.RESET_CREDENTIALS.equals(e.getActionCommand())) {
+            mqttUser.setText(Constants.MQTT_USER_USERNAME);
+            mqttPwd.setText(Constants.MQTT_USER_PASSWORD);
+        }
+    }
+}
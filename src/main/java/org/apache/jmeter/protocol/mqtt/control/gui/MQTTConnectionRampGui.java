@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.control.gui;
+
+import org.apache.jmeter.config.gui.AbstractConfigGui;
+import org.apache.jmeter.gui.util.VerticalPanel;
+import org.apache.jmeter.protocol.mqtt.config.ConnectionRampConfig;
+import org.apache.jmeter.protocol.mqtt.utilities.Constants;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jorphan.gui.JLabeledTextField;
+
+import javax.swing.BorderFactory;
+import javax.swing.JCheckBox;
+import javax.swing.JPanel;
+import java.awt.BorderLayout;
+import java.awt.Color;
+
+/**
+ * This is the MQTT Connection Ramp GUI class. All swing components of the UI are included in this class.
+ */
+public class MQTTConnectionRampGui extends AbstractConfigGui {
+
+    private static final long serialVersionUID = 240L;
+
+    private final JLabeledTextField connectRate = new JLabeledTextField(Constants.MQTT_RAMP_CONNECT_RATE);
+    private final JLabeledTextField maxHandshakes = new JLabeledTextField(Constants.MQTT_RAMP_MAX_HANDSHAKES);
+    private final JCheckBox reportConnects = new JCheckBox(Constants.MQTT_RAMP_REPORT_CONNECTS, true);
+
+    public MQTTConnectionRampGui() {
+        init();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getLabelResource() {
+        return this.getClass().getSimpleName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getStaticLabel() {
+        return Constants.MQTT_CONNECTION_RAMP_TITLE;
+    }
+
+    /**
+     * Creates a test element for the MQTT connection ramp
+     * @see org.apache.jmeter.gui.JMeterGUIComponent#createTestElement()
+     */
+    @Override
+    public TestElement createTestElement() {
+        ConnectionRampConfig config = new ConnectionRampConfig();
+        modifyTestElement(config);
+        return config;
+    }
+
+    /**
+     * Modifies a given TestElement to mirror the data in the gui components.
+     *
+     * @see org.apache.jmeter.gui.JMeterGUIComponent#modifyTestElement(TestElement)
+     */
+    @Override
+    public void modifyTestElement(TestElement element) {
+        ConnectionRampConfig config = (ConnectionRampConfig) element;
+        this.configureTestElement(config);
+        config.setConnectRate(connectRate.getText());
+        config.setMaxHandshakes(maxHandshakes.getText());
+        config.setReportConnects(reportConnects.isSelected());
+    }
+
+    /**
+     * {@inheritDoc}. </br>.
+     * Loads fields from an existing config element.
+     *
+     * @param el The test element
+     */
+    @Override
+    public void configure(TestElement el) {
+        super.configure(el);
+        ConnectionRampConfig config = (ConnectionRampConfig) el;
+        connectRate.setText(Double.toString(config.getConnectRate()));
+        maxHandshakes.setText(Integer.toString(config.getMaxHandshakes()));
+        reportConnects.setSelected(config.isReportConnects());
+    }
+
+    /**
+     * Initializes all the UI elements
+     */
+    private void init() {
+        setLayout(new BorderLayout());
+        setBorder(makeBorder());
+        add(makeTitlePanel(), BorderLayout.NORTH);
+        JPanel mainPanel = new VerticalPanel();
+        add(mainPanel, BorderLayout.CENTER);
+        JPanel ControlPanel = new VerticalPanel();
+        ControlPanel.add(connectRate);
+        ControlPanel.add(maxHandshakes);
+        ControlPanel.add(reportConnects);
+        ControlPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Connection Establishment"));
+        mainPanel.add(ControlPanel);
+        connectRate.setText(Constants.MQTT_RAMP_CONNECT_RATE_DEFAULT);
+        maxHandshakes.setText(Constants.MQTT_RAMP_MAX_HANDSHAKES_DEFAULT);
+    }
+}
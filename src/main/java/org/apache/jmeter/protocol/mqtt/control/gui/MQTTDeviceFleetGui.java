@@ -0,0 +1,280 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.control.gui;
+
+import org.apache.jmeter.gui.util.FilePanel;
+import org.apache.jmeter.gui.util.JSyntaxTextArea;
+import org.apache.jmeter.gui.util.JTextScrollPane;
+import org.apache.jmeter.gui.util.VerticalPanel;
+import org.apache.jmeter.protocol.mqtt.sampler.DeviceFleetSampler;
+import org.apache.jmeter.protocol.mqtt.utilities.Constants;
+import org.apache.jmeter.protocol.mqtt.utilities.Utils;
+import org.apache.jmeter.samplers.gui.AbstractSamplerGui;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jorphan.gui.JLabeledPasswordField;
+import org.apache.jorphan.gui.JLabeledTextField;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JPanel;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * This is the MQTT Device Fleet Sampler GUI class. All swing components of the UI are included in this class.
+ */
+public class MQTTDeviceFleetGui extends AbstractSamplerGui implements ActionListener {
+
+    private static final long serialVersionUID = 240L;
+
+    private static final String[] QOS_TYPES_ITEMS = {Constants.MQTT_AT_MOST_ONCE, Constants.MQTT_AT_LEAST_ONCE, Constants.MQTT_EXACTLY_ONCE};
+    private static final String[] CLIENT_TYPES_ITEMS = {Constants.MQTT_BLOCKING_CLIENT, Constants.MQTT_ASYNC_CLIENT,
+            Constants.MQTT_NIO_CLIENT, Constants.MQTT_5_CLIENT};
+
+    private final JLabeledTextField brokerUrlField = new JLabeledTextField(Constants.MQTT_PROVIDER_URL);
+    private final JLabeledTextField clientId = new JLabeledTextField(Constants.MQTT_CLIENT_ID);
+    private final JButton generateClientID = new JButton(Constants.MQTT_CLIENT_ID_GENERATOR);
+
+    private final JLabeledTextField mqttDestination = new JLabeledTextField(Constants.MQTT_TOPIC_PREFIX);
+
+    private final JCheckBox cleanSession = new JCheckBox(Constants.MQTT_CLEAN_SESSION, false);
+    private final JCheckBox retained = new JCheckBox(Constants.MQTT_SEND_AS_RETAINED_MSG, false);
+
+    private final JLabeledTextField mqttKeepAlive = new JLabeledTextField(Constants.MQTT_KEEP_ALIVE);
+    private final JLabeledTextField publishTimeout = new JLabeledTextField(Constants.PUBLISH_TIMEOUT);
+
+    private final JLabeledTextField mqttUser = new JLabeledTextField(Constants.MQTT_USERNAME);
+    private final JLabeledTextField mqttPwd = new JLabeledPasswordField(Constants.MQTT_PASSWORD);
+    private final JButton resetUserNameAndPassword = new JButton(Constants.MQTT_RESET_USERNAME_PASSWORD);
+
+    private final FilePanel scenarioFile = new FilePanel(Constants.MQTT_FLEET_SCENARIO, "csv");
+    private final JLabeledTextField deviceClass = new JLabeledTextField(Constants.MQTT_FLEET_CLASS);
+    private final JLabeledTextField devices = new JLabeledTextField(Constants.MQTT_FLEET_DEVICES);
+    private final JLabeledTextField activeDevices = new JLabeledTextField(Constants.MQTT_FLEET_ACTIVE);
+    private final JLabeledTextField publishInterval = new JLabeledTextField(Constants.MQTT_FLEET_INTERVAL);
+    private final JLabeledTextField rampUp = new JLabeledTextField(Constants.MQTT_FLEET_RAMP_UP);
+    private final JLabeledTextField reportInterval = new JLabeledTextField(Constants.MQTT_FLEET_REPORT_INTERVAL);
+
+    private final JSyntaxTextArea textMessage = new JSyntaxTextArea(5, 50);
+    private final JTextScrollPane textPanel = new JTextScrollPane(textMessage);
+
+    private final JLabeledRadioI18N typeQoSValue = new JLabeledRadioI18N(Constants.MQTT_QOS, QOS_TYPES_ITEMS, Constants.MQTT_AT_MOST_ONCE);
+    private final JLabeledRadioI18N typeClientValue = new JLabeledRadioI18N("Client Types:", CLIENT_TYPES_ITEMS,
+            Constants.MQTT_NIO_CLIENT);
+
+    public MQTTDeviceFleetGui() {
+        init();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getLabelResource() {
+        return this.getClass().getSimpleName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getStaticLabel() {
+        return Constants.MQTT_FLEET_TITLE;
+    }
+
+    /**
+     * Creates a test element for the MQTT device fleet
+     * @see org.apache.jmeter.gui.JMeterGUIComponent#createTestElement()
+     */
+    @Override
+    public TestElement createTestElement() {
+        DeviceFleetSampler sampler = new DeviceFleetSampler();
+        modifyTestElement(sampler);
+        return sampler;
+    }
+
+    /**
+     * Modifies a given TestElement to mirror the data in the gui components.
+     *
+     * @see org.apache.jmeter.gui.JMeterGUIComponent#modifyTestElement(TestElement)
+     */
+    @Override
+    public void modifyTestElement(TestElement s) {
+        DeviceFleetSampler sampler = (DeviceFleetSampler) s;
+        this.configureTestElement(sampler);
+        sampler.setBrokerUrl(brokerUrlField.getText());
+        sampler.setClientId(clientId.getText());
+        sampler.setTopicName(mqttDestination.getText());
+        sampler.setCleanSession(cleanSession.isSelected());
+        sampler.setMessageRetained(retained.isSelected());
+        sampler.setKeepAlive(mqttKeepAlive.getText());
+        sampler.setPublishTimeout(publishTimeout.getText());
+        sampler.setUsername(mqttUser.getText());
+        sampler.setPassword(mqttPwd.getText());
+        sampler.setQOS(typeQoSValue.getText());
+        sampler.setClientType(typeClientValue.getText());
+        sampler.setMessageValue(textMessage.getText());
+        sampler.setScenarioFile(scenarioFile.getFilename());
+        sampler.setDeviceClass(deviceClass.getText());
+        sampler.setDevices(devices.getText());
+        sampler.setActiveDevices(activeDevices.getText());
+        sampler.setPublishInterval(publishInterval.getText());
+        sampler.setRampUp(rampUp.getText());
+        sampler.setReportInterval(reportInterval.getText());
+    }
+
+    /**
+     * {@inheritDoc}. </br>.
+     * Loads fields from an existing sampler file.
+     *
+     * @param el The test element
+     */
+    @Override
+    public void configure(TestElement el) {
+        super.configure(el);
+        DeviceFleetSampler sampler = (DeviceFleetSampler) el;
+        brokerUrlField.setText(sampler.getBrokerUrl());
+        clientId.setText(sampler.getClientId());
+        mqttDestination.setText(sampler.getTopicName());
+        cleanSession.setSelected(sampler.isCleanSession());
+        retained.setSelected(sampler.isMessageRetained());
+        mqttKeepAlive.setText(Integer.toString(sampler.getKeepAlive()));
+        publishTimeout.setText(Integer.toString(sampler.getPublishTimeout()));
+        mqttUser.setText(sampler.getUsername());
+        mqttPwd.setText(sampler.getPassword());
+        typeQoSValue.setText(sampler.getQOS());
+        typeClientValue.setText(sampler.getClientType());
+        textMessage.setText(sampler.getMessageValue());
+        scenarioFile.setFilename(sampler.getScenarioFile());
+        deviceClass.setText(sampler.getDeviceClass());
+        devices.setText(Integer.toString(sampler.getDevices()));
+        activeDevices.setText(Integer.toString(sampler.getActiveDevices()));
+        publishInterval.setText(Long.toString(sampler.getPublishInterval()));
+        rampUp.setText(Long.toString(sampler.getRampUp()));
+        reportInterval.setText(Long.toString(sampler.getReportInterval()));
+    }
+
+    /**
+     * Initializes all the UI elements
+     */
+    private void init() {
+        setLayout(new BorderLayout());
+        setBorder(makeBorder());
+        add(makeTitlePanel(), BorderLayout.NORTH);
+        JPanel mainPanel = new VerticalPanel();
+        add(mainPanel, BorderLayout.CENTER);
+        JPanel DPanel = new JPanel();
+        DPanel.setLayout(new BoxLayout(DPanel, BoxLayout.X_AXIS));
+        DPanel.add(brokerUrlField);
+        DPanel.add(clientId);
+        DPanel.add(generateClientID);
+        JPanel ControlPanel = new VerticalPanel();
+        ControlPanel.add(DPanel);
+        ControlPanel.add(mqttDestination);
+        ControlPanel.add(cleanSession);
+        ControlPanel.add(mqttKeepAlive);
+        ControlPanel.add(publishTimeout);
+        ControlPanel.add(createAuthPane());
+        ControlPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Connection Info"));
+        mainPanel.add(ControlPanel);
+        mainPanel.add(createFleetPane());
+        JPanel TPanel = new VerticalPanel();
+        TPanel.setLayout(new BoxLayout(TPanel, BoxLayout.X_AXIS));
+        typeQoSValue.setLayout(new BoxLayout(typeQoSValue, BoxLayout.X_AXIS));
+        typeClientValue.setLayout(new BoxLayout(typeClientValue, BoxLayout.X_AXIS));
+        TPanel.add(typeQoSValue);
+        TPanel.add(typeClientValue);
+        TPanel.add(retained);
+        TPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray), "Option"));
+        mainPanel.add(TPanel);
+        JPanel messagePanel = new VerticalPanel();
+        messagePanel.add(textPanel);
+        messagePanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                Constants.MQTT_TEXT_AREA));
+        mainPanel.add(messagePanel);
+
+        generateClientID.setActionCommand(Constants.GENERATE_CLIENT_ID_COMMAND);
+        resetUserNameAndPassword.setActionCommand(Constants.RESET_CREDENTIALS);
+        generateClientID.addActionListener(this);
+        resetUserNameAndPassword.addActionListener(this);
+        brokerUrlField.setText(Constants.MQTT_URL_DEFAULT);
+        mqttKeepAlive.setText(Constants.MQTT_KEEP_ALIVE_DEFAULT);
+        publishTimeout.setText(Constants.PUBLISH_TIMEOUT_DEFAULT);
+    }
+
+    /**
+     * Creates the panel for user authentication. Username and password are included.
+     * @return JPanel Panel with checkbox to choose  user and password
+     */
+    private JPanel createAuthPane() {
+        mqttUser.setText(Constants.MQTT_USER_USERNAME);
+        mqttPwd.setText(Constants.MQTT_USER_PASSWORD);
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(mqttUser);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(mqttPwd);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(resetUserNameAndPassword);
+        return panel;
+    }
+
+    /**
+     * Creates the device fleet panel.
+     *
+     * @return The device fleet panel.
+     */
+    private JPanel createFleetPane() {
+        JPanel panel = new VerticalPanel();
+        panel.add(scenarioFile);
+        panel.add(deviceClass);
+        panel.add(devices);
+        panel.add(activeDevices);
+        panel.add(publishInterval);
+        panel.add(rampUp);
+        panel.add(reportInterval);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Device Fleet"));
+        deviceClass.setText(Constants.MQTT_FLEET_CLASS_DEFAULT);
+        devices.setText(Constants.MQTT_FLEET_DEVICES_DEFAULT);
+        activeDevices.setText(Constants.MQTT_FLEET_ACTIVE_DEFAULT);
+        publishInterval.setText(Constants.MQTT_FLEET_INTERVAL_DEFAULT);
+        rampUp.setText(Constants.MQTT_FLEET_RAMP_UP_DEFAULT);
+        reportInterval.setText(Constants.MQTT_FLEET_REPORT_INTERVAL_DEFAULT);
+        return panel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (Constants.GENERATE_CLIENT_ID_COMMAND.equals(e.getActionCommand())) {
+            clientId.setText(Utils.UUIDGenerator());
+        } else if(Constants.RESET_CREDENTIALS.equals(e.getActionCommand())){
+            mqttUser.setText(Constants.MQTT_USER_USERNAME);
+            mqttPwd.setText(Constants.MQTT_USER_PASSWORD);
+        }
+    }
+}
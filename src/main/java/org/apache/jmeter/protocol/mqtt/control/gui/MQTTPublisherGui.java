@@ -55,26 +55,61 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
 
 
     private static final String[] CLIENT_TYPES_ITEMS = {Constants.MQTT_BLOCKING_CLIENT, Constants
-            .MQTT_ASYNC_CLIENT};
-
-    private static final String[] MESSAGE_INPUT_TYPE = {Constants.MQTT_MESSAGE_INPUT_TYPE_TEXT, Constants.MQTT_MESSAGE_INPUT_TYPE_FILE, Constants.MQTT_MESSAGE_INPUT_TYPE_VAR};
+            .MQTT_ASYNC_CLIENT, Constants.MQTT_NIO_CLIENT, Constants.MQTT_5_CLIENT};
+
+    private static final String[] TOPIC_DISTRIBUTION_ITEMS = {Constants.MQTT_TOPIC_SEQUENTIAL, Constants.MQTT_TOPIC_RANDOM,
+            Constants.MQTT_TOPIC_ZIPF};
+    private static final String[] REPLAY_PARTITION_ITEMS = {Constants.MQTT_REPLAY_PARTITION_TOPIC,
+            Constants.MQTT_REPLAY_PARTITION_CAPTURE};
+    private static final String[] MESSAGE_INPUT_TYPE = {Constants.MQTT_MESSAGE_INPUT_TYPE_TEXT, Constants.MQTT_MESSAGE_INPUT_TYPE_FILE, Constants.MQTT_MESSAGE_INPUT_TYPE_VAR,
+            Constants.MQTT_MESSAGE_INPUT_TYPE_GENERATED, Constants.MQTT_MESSAGE_INPUT_TYPE_SCHEMA};
+    private static final String[] SCHEMA_FORMAT_ITEMS = {Constants.MQTT_SCHEMA_FORMAT_JSON,
+            Constants.MQTT_SCHEMA_FORMAT_CBOR, Constants.MQTT_SCHEMA_FORMAT_PROTOBUF};
+    private static final String[] GENERATOR_CONTENT_ITEMS = {Constants.MQTT_GENERATOR_CONTENT_RANDOM,
+            Constants.MQTT_GENERATOR_CONTENT_COMPRESSIBLE, Constants.MQTT_GENERATOR_CONTENT_REPEATING};
 
     private final JLabeledTextField brokerUrlField = new JLabeledTextField(Constants.MQTT_PROVIDER_URL);
     private final JLabeledTextField clientId = new JLabeledTextField(Constants.MQTT_CLIENT_ID);
     private final JButton generateClientID = new JButton(Constants.MQTT_CLIENT_ID_GENERATOR);
 
     private final JLabeledTextField mqttDestination = new JLabeledTextField(Constants.MQTT_TOPIC);
+    private final JLabeledRadioI18N topicDistribution = new JLabeledRadioI18N(Constants.MQTT_TOPIC_DISTRIBUTION,
+            TOPIC_DISTRIBUTION_ITEMS, Constants.MQTT_TOPIC_SEQUENTIAL);
+    private final JLabeledTextField zipfExponent = new JLabeledTextField(Constants.MQTT_TOPIC_ZIPF_EXPONENT);
+    private final JSyntaxTextArea trafficMix = new JSyntaxTextArea(4, 50);
+    private final JLabeledTextField replayCapture = new JLabeledTextField(Constants.MQTT_REPLAY_CAPTURE);
+    private final JLabeledTextField replaySpeed = new JLabeledTextField(Constants.MQTT_REPLAY_SPEED);
+    private final JLabeledRadioI18N replayPartition = new JLabeledRadioI18N(Constants.MQTT_REPLAY_PARTITION,
+            REPLAY_PARTITION_ITEMS, Constants.MQTT_REPLAY_PARTITION_TOPIC);
+    private final JLabeledTextField chunkSize = new JLabeledTextField(Constants.MQTT_CHUNK_SIZE);
+    private final JLabeledTextField chunkTransferSize = new JLabeledTextField(Constants.MQTT_CHUNK_TRANSFER_SIZE);
 
     private final JCheckBox retained = new JCheckBox(Constants.MQTT_SEND_AS_RETAINED_MSG, false);
     private final JCheckBox cleanSession = new JCheckBox(Constants.MQTT_CLEAN_SESSION, false);
+    private final JCheckBox reportConnect = new JCheckBox(Constants.MQTT_REPORT_CONNECT, false);
 
     private final JLabeledTextField mqttKeepAlive = new JLabeledTextField(Constants.MQTT_KEEP_ALIVE);
     private final JLabeledTextField publishTimeout = new JLabeledTextField(Constants.PUBLISH_TIMEOUT);
 
+    private final JCheckBox autoReconnect = new JCheckBox(Constants.MQTT_AUTO_RECONNECT, false);
+    private final JLabeledTextField reconnectInitialDelay = new JLabeledTextField(Constants.MQTT_RECONNECT_INITIAL_DELAY);
+    private final JLabeledTextField reconnectMaxDelay = new JLabeledTextField(Constants.MQTT_RECONNECT_MAX_DELAY);
+
+    private final JLabeledTextField messageExpiry = new JLabeledTextField(Constants.MQTT_MESSAGE_EXPIRY);
+    private final JLabeledTextField userProperties = new JLabeledTextField(Constants.MQTT_USER_PROPERTIES);
+
     private final JLabeledTextField mqttUser = new JLabeledTextField(Constants.MQTT_USERNAME);
     private final JLabeledTextField mqttPwd = new JLabeledPasswordField(Constants.MQTT_PASSWORD);
     private final JButton resetUserNameAndPassword = new JButton(Constants.MQTT_RESET_USERNAME_PASSWORD);
 
+    private final JLabeledTextField barrierName = new JLabeledTextField(Constants.MQTT_BARRIER_NAME);
+    private final JLabeledTextField barrierSubscriptions = new JLabeledTextField(Constants.MQTT_BARRIER_SUBSCRIPTIONS);
+    private final JLabeledTextField barrierTimeout = new JLabeledTextField(Constants.MQTT_BARRIER_TIMEOUT);
+    private final JCheckBox barrierDistributed = new JCheckBox(Constants.MQTT_BARRIER_DISTRIBUTED, false);
+
+    private final JLabeledTextField searchName = new JLabeledTextField(Constants.MQTT_SEARCH_PUBLISHER);
+    private final JLabeledTextField publishRate = new JLabeledTextField(Constants.MQTT_PUBLISH_RATE);
+
     private final JLabeledRadioI18N typeQoSValue = new JLabeledRadioI18N("Quality of Service:", QOS_TYPES_ITEMS, Constants.MQTT_AT_MOST_ONCE);
 
     private final JLabeledRadioI18N typeClientValue = new JLabeledRadioI18N("Client Type:", CLIENT_TYPES_ITEMS,
@@ -89,6 +124,15 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
     private final JTextScrollPane textPanel = new JTextScrollPane(textMessage);
     private final FilePanel fileChooser = new FilePanel(Constants.MQTT_FILE, "*");
     private final JLabeledTextField variableChooser = new JLabeledTextField(Constants.VARIABLE);
+    private final JPanel generatorPanel = new JPanel();
+    private final JLabeledTextField generatorSizes = new JLabeledTextField(Constants.MQTT_GENERATOR_SIZES);
+    private final JLabeledRadioI18N generatorContent = new JLabeledRadioI18N(Constants.MQTT_GENERATOR_CONTENT,
+            GENERATOR_CONTENT_ITEMS, Constants.MQTT_GENERATOR_CONTENT_RANDOM);
+    private final JLabeledTextField generatorPool = new JLabeledTextField(Constants.MQTT_GENERATOR_POOL);
+    private final JPanel schemaPanel = new VerticalPanel();
+    private final JSyntaxTextArea schemaDefinition = new JSyntaxTextArea(6, 50);
+    private final JLabeledRadioI18N schemaFormat = new JLabeledRadioI18N(Constants.MQTT_SCHEMA_FORMAT,
+            SCHEMA_FORMAT_ITEMS, Constants.MQTT_SCHEMA_FORMAT_JSON);
 
 
     /**
@@ -137,8 +181,17 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
         sampler.setBrokerUrl(brokerUrlField.getText());
         sampler.setClientId(clientId.getText());
         sampler.setTopicName(mqttDestination.getText());
+        sampler.setTopicDistribution(topicDistribution.getText());
+        sampler.setZipfExponent(zipfExponent.getText());
+        sampler.setTrafficMix(trafficMix.getText());
+        sampler.setReplayCapture(replayCapture.getText());
+        sampler.setReplaySpeed(replaySpeed.getText());
+        sampler.setReplayPartition(replayPartition.getText());
+        sampler.setChunkSize(chunkSize.getText());
+        sampler.setChunkTransferSize(chunkTransferSize.getText());
         sampler.setMessageRetained(retained.isSelected());
         sampler.setCleanSession(cleanSession.isSelected());
+        sampler.setReportConnect(reportConnect.isSelected());
         sampler.setKeepAlive(mqttKeepAlive.getText());
         sampler.setPublishTimeout(publishTimeout.getText());
         sampler.setUsername(mqttUser.getText());
@@ -146,6 +199,22 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
         sampler.setQOS(typeQoSValue.getText());
         sampler.setClientType(typeClientValue.getText());
         sampler.setMessageInputType(messageInputValue.getText());
+        sampler.setAutoReconnect(autoReconnect.isSelected());
+        sampler.setReconnectInitialDelay(reconnectInitialDelay.getText());
+        sampler.setReconnectMaxDelay(reconnectMaxDelay.getText());
+        sampler.setBarrierName(barrierName.getText());
+        sampler.setBarrierSubscriptions(barrierSubscriptions.getText());
+        sampler.setBarrierTimeout(barrierTimeout.getText());
+        sampler.setBarrierDistributed(barrierDistributed.isSelected());
+        sampler.setSearchName(searchName.getText());
+        sampler.setPublishRate(publishRate.getText());
+        sampler.setMessageExpiry(messageExpiry.getText());
+        sampler.setUserProperties(userProperties.getText());
+        sampler.setGeneratorSizes(generatorSizes.getText());
+        sampler.setGeneratorContent(generatorContent.getText());
+        sampler.setGeneratorPool(generatorPool.getText());
+        sampler.setSchemaDefinition(schemaDefinition.getText());
+        sampler.setSchemaFormat(schemaFormat.getText());
         switch(messageInputValue.getText()) {
             case Constants.MQTT_MESSAGE_INPUT_TYPE_TEXT:
                 sampler.setMessageValue(textMessage.getText());
@@ -179,8 +248,10 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
         ControlPanel.add(createDestinationPane());
         ControlPanel.add(retained);
         ControlPanel.add(cleanSession);
+        ControlPanel.add(reportConnect);
         ControlPanel.add(createKeepAlivePane());
         ControlPanel.add(createTimeoutPane());
+        ControlPanel.add(createReconnectPane());
         ControlPanel.add(createAuthPane());
         ControlPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
                 "Connection Info"));
@@ -193,6 +264,12 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
         TPanel.add(typeClientValue);
         TPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray), "Option"));
         mainPanel.add(TPanel);
+        mainPanel.add(createMqtt5Pane());
+        mainPanel.add(createTrafficMixPane());
+        mainPanel.add(createReplayPane());
+        mainPanel.add(createChunkPane());
+        mainPanel.add(createBarrierPane());
+        mainPanel.add(createPacingPane());
 
         // Input type panels
         JPanel contentPanel = new VerticalPanel();
@@ -215,6 +292,25 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
         variablePanel.add(variableChooser, BorderLayout.CENTER);
         contentPanel.add(variablePanel);
 
+        // Generator panel
+        generatorPanel.setLayout(new BoxLayout(generatorPanel, BoxLayout.X_AXIS));
+        generatorPanel.add(generatorSizes);
+        generatorPanel.add(Box.createHorizontalStrut(10));
+        generatorContent.setLayout(new BoxLayout(generatorContent, BoxLayout.X_AXIS));
+        generatorPanel.add(generatorContent);
+        generatorPanel.add(Box.createHorizontalStrut(10));
+        generatorPanel.add(generatorPool);
+        generatorSizes.setText(Constants.MQTT_GENERATOR_SIZES_DEFAULT);
+        generatorPool.setText(Constants.MQTT_GENERATOR_POOL_DEFAULT);
+        contentPanel.add(generatorPanel);
+
+        // Schema panel
+        schemaPanel.add(new JLabel(Constants.MQTT_SCHEMA_DEFINITION));
+        schemaPanel.add(new JTextScrollPane(schemaDefinition));
+        schemaFormat.setLayout(new BoxLayout(schemaFormat, BoxLayout.X_AXIS));
+        schemaPanel.add(schemaFormat);
+        contentPanel.add(schemaPanel);
+
         contentPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray), "Content"));
         mainPanel.add(contentPanel);
 
@@ -226,10 +322,7 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
         messageInputValue.addChangeListener(this);
         brokerUrlField.setText(Constants.MQTT_URL_DEFAULT);
 
-        textArea.setVisible(true);
-        textPanel.setVisible(true);
-        fileChooser.setVisible(false);
-        variableChooser.setVisible(false);
+        showMessageInput(Constants.MQTT_MESSAGE_INPUT_TYPE_TEXT);
 
     }
 
@@ -265,8 +358,17 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
         brokerUrlField.setText(sampler.getBrokerUrl());
         clientId.setText(sampler.getClientId());
         mqttDestination.setText(sampler.getTopicName());
+        topicDistribution.setText(sampler.getTopicDistribution());
+        zipfExponent.setText(Double.toString(sampler.getZipfExponent()));
+        trafficMix.setText(sampler.getTrafficMix());
+        replayCapture.setText(sampler.getReplayCapture());
+        replaySpeed.setText(Double.toString(sampler.getReplaySpeed()));
+        replayPartition.setText(sampler.getReplayPartition());
+        chunkSize.setText(Integer.toString(sampler.getChunkSize()));
+        chunkTransferSize.setText(Integer.toString(sampler.getChunkTransferSize()));
         retained.setSelected(sampler.isMessageRetained());
         cleanSession.setSelected(sampler.isCleanSession());
+        reportConnect.setSelected(sampler.isReportConnect());
         mqttKeepAlive.setText(Integer.toString(sampler.getKeepAlive()));
         publishTimeout.setText(Integer.toString(sampler.getPublishTimeout()));
         mqttUser.setText(sampler.getUsername());
@@ -274,28 +376,33 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
         typeQoSValue.setText(sampler.getQOS());
         typeClientValue.setText(sampler.getClientType());
         messageInputValue.setText(sampler.getMessageInputType());
+        autoReconnect.setSelected(sampler.isAutoReconnect());
+        reconnectInitialDelay.setText(Integer.toString(sampler.getReconnectInitialDelay()));
+        reconnectMaxDelay.setText(Integer.toString(sampler.getReconnectMaxDelay()));
+        barrierName.setText(sampler.getBarrierName());
+        barrierSubscriptions.setText(Integer.toString(sampler.getBarrierSubscriptions()));
+        barrierTimeout.setText(Integer.toString(sampler.getBarrierTimeout()));
+        barrierDistributed.setSelected(sampler.isBarrierDistributed());
+        searchName.setText(sampler.getSearchName());
+        publishRate.setText(Double.toString(sampler.getPublishRate()));
+        messageExpiry.setText(Long.toString(sampler.getMessageExpiry()));
+        userProperties.setText(sampler.getUserProperties());
+        generatorSizes.setText(sampler.getGeneratorSizes());
+        generatorContent.setText(sampler.getGeneratorContent());
+        generatorPool.setText(Integer.toString(sampler.getGeneratorPool()));
+        schemaDefinition.setText(sampler.getSchemaDefinition());
+        schemaFormat.setText(sampler.getSchemaFormat());
 
         if (sampler.getMessageInputType().equals(Constants.MQTT_MESSAGE_INPUT_TYPE_TEXT)) {
             textMessage.setText(sampler.getMessageValue());
-            textArea.setVisible(true);
-            textPanel.setVisible(true);
-            fileChooser.setVisible(false);
-            variableChooser.setVisible(false);
         }
         else if (sampler.getMessageInputType().equals(Constants.MQTT_MESSAGE_INPUT_TYPE_FILE)) {
-            fileChooser.setVisible(true);
             fileChooser.setFilename(sampler.getMessageValue());
-            textArea.setVisible(false);
-            textPanel.setVisible(false);
-            variableChooser.setVisible(false);
         }
         else if (sampler.getMessageInputType().equals(Constants.MQTT_MESSAGE_INPUT_TYPE_VAR)) {
-            variableChooser.setVisible(true);
             variableChooser.setText(sampler.getMessageValue());
-            textArea.setVisible(false);
-            textPanel.setVisible(false);
-            fileChooser.setVisible(false);
         }
+        showMessageInput(sampler.getMessageInputType());
     }
 
     /**
@@ -307,7 +414,8 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
     }
 
     /**
-     * Creates the topic destination panel.
+     * Creates the topic destination panel. A topic with placeholders such as {id:1-1000} is expanded to many topics,
+     * picked with the topic distribution.
      *
      * @return The topic destination panel.
      */
@@ -317,8 +425,13 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
         panel.add(mqttDestination);
         JPanel TPanel = new JPanel();
         TPanel.setLayout(new BoxLayout(TPanel, BoxLayout.X_AXIS));
+        topicDistribution.setLayout(new BoxLayout(topicDistribution, BoxLayout.X_AXIS));
+        TPanel.add(topicDistribution);
+        TPanel.add(Box.createHorizontalStrut(10));
+        TPanel.add(zipfExponent);
         TPanel.add(Box.createHorizontalStrut(100));
         panel.add(TPanel);
+        zipfExponent.setText(Constants.MQTT_TOPIC_ZIPF_EXPONENT_DEFAULT);
         return panel;
     }
 
@@ -356,6 +469,131 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
         return panel;
     }
 
+    /**
+     * Creates the auto reconnect panel.
+     *
+     * @return The auto reconnect panel.
+     */
+    private JPanel createReconnectPane() {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(autoReconnect);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(reconnectInitialDelay);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(reconnectMaxDelay);
+        reconnectInitialDelay.setText(Constants.MQTT_RECONNECT_INITIAL_DELAY_DEFAULT);
+        reconnectMaxDelay.setText(Constants.MQTT_RECONNECT_MAX_DELAY_DEFAULT);
+        return panel;
+    }
+
+    /**
+     * Creates the panel of the options used by the MQTT 5 client.
+     *
+     * @return The MQTT 5 panel.
+     */
+    private JPanel createMqtt5Pane() {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(messageExpiry);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(userProperties);
+        messageExpiry.setText(Constants.MQTT_MESSAGE_EXPIRY_DEFAULT);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                Constants.MQTT_5_OPTIONS));
+        return panel;
+    }
+
+    /**
+     * Creates the traffic mix panel.
+     *
+     * @return The traffic mix panel.
+     */
+    private JPanel createTrafficMixPane() {
+        JPanel panel = new VerticalPanel();
+        panel.add(new JTextScrollPane(trafficMix));
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                Constants.MQTT_TRAFFIC_MIX));
+        return panel;
+    }
+
+    /**
+     * Creates the capture replay panel.
+     *
+     * @return The capture replay panel.
+     */
+    private JPanel createReplayPane() {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(replayCapture);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(replaySpeed);
+        panel.add(Box.createHorizontalStrut(10));
+        replayPartition.setLayout(new BoxLayout(replayPartition, BoxLayout.X_AXIS));
+        panel.add(replayPartition);
+        replaySpeed.setText(Constants.MQTT_REPLAY_SPEED_DEFAULT);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Capture Replay"));
+        return panel;
+    }
+
+    /**
+     * Creates the chunked transfer panel.
+     *
+     * @return The chunked transfer panel.
+     */
+    private JPanel createChunkPane() {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(chunkSize);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(chunkTransferSize);
+        chunkSize.setText(Constants.MQTT_CHUNK_SIZE_DEFAULT);
+        chunkTransferSize.setText(Constants.MQTT_CHUNK_TRANSFER_SIZE_DEFAULT);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Chunked Transfer"));
+        return panel;
+    }
+
+    /**
+     * Creates the readiness barrier panel.
+     *
+     * @return The readiness barrier panel.
+     */
+    private JPanel createBarrierPane() {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(barrierName);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(barrierSubscriptions);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(barrierTimeout);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(barrierDistributed);
+        barrierSubscriptions.setText(Constants.MQTT_BARRIER_SUBSCRIPTIONS_DEFAULT);
+        barrierTimeout.setText(Constants.MQTT_BARRIER_TIMEOUT_DEFAULT);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Readiness Barrier"));
+        return panel;
+    }
+
+    /**
+     * Creates the pacing panel, a target rate or a throughput search.
+     *
+     * @return The pacing panel.
+     */
+    private JPanel createPacingPane() {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(publishRate);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(searchName);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Pacing"));
+        publishRate.setText(Constants.MQTT_PUBLISH_RATE_DEFAULT);
+        return panel;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -374,21 +612,21 @@ public class MQTTPublisherGui extends AbstractSamplerGui implements ChangeListen
      */
     @Override
     public void stateChanged(ChangeEvent e) {
-        if (Constants.MQTT_MESSAGE_INPUT_TYPE_TEXT.equals(messageInputValue.getText())) {
-            textArea.setVisible(true);
-            textPanel.setVisible(true);
-            fileChooser.setVisible(false);
-            variableChooser.setVisible(false);
-        } else if (Constants.MQTT_MESSAGE_INPUT_TYPE_FILE.equals(messageInputValue.getText())) {
-            fileChooser.setVisible(true);
-            textArea.setVisible(false);
-            textPanel.setVisible(false);
-            variableChooser.setVisible(false);
-        } else if (Constants.MQTT_MESSAGE_INPUT_TYPE_VAR.equals(messageInputValue.getText())) {
-            variableChooser.setVisible(true);
-            textArea.setVisible(false);
-            textPanel.setVisible(false);
-            fileChooser.setVisible(false);
-        }
+        showMessageInput(messageInputValue.getText());
+    }
+
+    /**
+     * Shows the input panel of a message input type, hiding the others.
+     *
+     * @param messageInputType the message input type
+     */
+    private void showMessageInput(String messageInputType) {
+        boolean text = Constants.MQTT_MESSAGE_INPUT_TYPE_TEXT.equals(messageInputType);
+        textArea.setVisible(text);
+        textPanel.setVisible(text);
+        fileChooser.setVisible(Constants.MQTT_MESSAGE_INPUT_TYPE_FILE.equals(messageInputType));
+        variableChooser.setVisible(Constants.MQTT_MESSAGE_INPUT_TYPE_VAR.equals(messageInputType));
+        generatorPanel.setVisible(Constants.MQTT_MESSAGE_INPUT_TYPE_GENERATED.equals(messageInputType));
+        schemaPanel.setVisible(Constants.MQTT_MESSAGE_INPUT_TYPE_SCHEMA.equals(messageInputType));
     }
 }
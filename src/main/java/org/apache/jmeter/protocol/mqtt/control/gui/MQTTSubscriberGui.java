@@ -16,6 +16,8 @@
 
 package org.apache.jmeter.protocol.mqtt.control.gui;
 
+import org.apache.jmeter.gui.util.JSyntaxTextArea;
+import org.apache.jmeter.gui.util.JTextScrollPane;
 import org.apache.jmeter.gui.util.VerticalPanel;
 import org.apache.jmeter.protocol.mqtt.sampler.SubscriberSampler;
 import org.apache.jmeter.protocol.mqtt.utilities.Constants;
@@ -45,23 +47,43 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ActionListe
     private static final long serialVersionUID = 240L;
 
     private static final String[] QOS_TYPES_ITEMS = {Constants.MQTT_AT_MOST_ONCE, Constants.MQTT_AT_LEAST_ONCE, Constants.MQTT_EXACTLY_ONCE};
-    private static final String[] CLIENT_TYPES_ITEMS = {Constants.MQTT_BLOCKING_CLIENT, Constants.MQTT_ASYNC_CLIENT};
+    private static final String[] CLIENT_TYPES_ITEMS = {Constants.MQTT_BLOCKING_CLIENT, Constants.MQTT_ASYNC_CLIENT,
+            Constants.MQTT_NIO_CLIENT, Constants.MQTT_5_CLIENT};
 
     private final JLabeledTextField brokerUrlField = new JLabeledTextField(Constants.MQTT_PROVIDER_URL);
     private final JLabeledTextField clientId = new JLabeledTextField(Constants.MQTT_CLIENT_ID);
     private final JButton generateClientID = new JButton(Constants.MQTT_CLIENT_ID_GENERATOR);
 
     private final JLabeledTextField mqttDestination = new JLabeledTextField(Constants.MQTT_TOPIC);
+    private final JLabeledTextField messageFilter = new JLabeledTextField(Constants.MQTT_FILTER);
 
     private final JCheckBox cleanSession = new JCheckBox(Constants.MQTT_CLEAN_SESSION, false);
+    private final JCheckBox sharedConnection = new JCheckBox(Constants.MQTT_SHARED_CONNECTION, false);
 
     private final JLabeledTextField mqttKeepAlive = new JLabeledTextField(Constants.MQTT_KEEP_ALIVE);
     private final JLabeledTextField subscribeTimeout = new JLabeledTextField(Constants.SUBSCRIBE_TIMEOUT);
 
+    private final JCheckBox autoReconnect = new JCheckBox(Constants.MQTT_AUTO_RECONNECT, false);
+    private final JLabeledTextField reconnectInitialDelay = new JLabeledTextField(Constants.MQTT_RECONNECT_INITIAL_DELAY);
+    private final JLabeledTextField reconnectMaxDelay = new JLabeledTextField(Constants.MQTT_RECONNECT_MAX_DELAY);
+
     private final JLabeledTextField mqttUser = new JLabeledTextField(Constants.MQTT_USERNAME);
     private final JLabeledTextField mqttPwd = new JLabeledPasswordField(Constants.MQTT_PASSWORD);
     private final JButton resetUserNameAndPassword = new JButton(Constants.MQTT_RESET_USERNAME_PASSWORD);
 
+    private final JLabeledTextField barrierName = new JLabeledTextField(Constants.MQTT_BARRIER_NAME);
+    private final JCheckBox barrierDistributed = new JCheckBox(Constants.MQTT_BARRIER_DISTRIBUTED, false);
+
+    private final JLabeledTextField captureDirectory = new JLabeledTextField(Constants.MQTT_CAPTURE_DIRECTORY);
+    private final JLabeledTextField captureSegmentSize = new JLabeledTextField(Constants.MQTT_CAPTURE_SEGMENT_SIZE);
+
+    private final JCheckBox chunkReassemble = new JCheckBox(Constants.MQTT_CHUNK_REASSEMBLE, false);
+    private final JLabeledTextField chunkDirectory = new JLabeledTextField(Constants.MQTT_CHUNK_DIRECTORY);
+    private final JLabeledTextField chunkExpiry = new JLabeledTextField(Constants.MQTT_CHUNK_EXPIRY);
+    private final JLabeledTextField chunkMaxSize = new JLabeledTextField(Constants.MQTT_CHUNK_MAX_SIZE);
+    private final JSyntaxTextArea jsonFields = new JSyntaxTextArea(4, 50);
+    private final JCheckBox jsonFailSample = new JCheckBox(Constants.MQTT_JSON_FAIL_SAMPLE, true);
+
     private final JLabeledRadioI18N typeQoSValue = new JLabeledRadioI18N(Constants.MQTT_QOS, QOS_TYPES_ITEMS, Constants.MQTT_AT_MOST_ONCE);
     private final JLabeledRadioI18N typeClientValue = new JLabeledRadioI18N("Client Types:", CLIENT_TYPES_ITEMS,
             Constants.MQTT_BLOCKING_CLIENT);
@@ -109,6 +131,7 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ActionListe
         sampler.setBrokerUrl(brokerUrlField.getText());
         sampler.setClientId(clientId.getText());
         sampler.setTopicName(mqttDestination.getText());
+        sampler.setFilterExpression(messageFilter.getText());
         sampler.setCleanSession(cleanSession.isSelected());
         sampler.setKeepAlive(mqttKeepAlive.getText());
         sampler.setSubscribeTimeout(subscribeTimeout.getText());
@@ -116,7 +139,20 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ActionListe
         sampler.setPassword(mqttPwd.getText());
         sampler.setQOS(typeQoSValue.getText());
         sampler.setClientType(typeClientValue.getText());
-
+        sampler.setSharedConnection(sharedConnection.isSelected());
+        sampler.setAutoReconnect(autoReconnect.isSelected());
+        sampler.setReconnectInitialDelay(reconnectInitialDelay.getText());
+        sampler.setReconnectMaxDelay(reconnectMaxDelay.getText());
+        sampler.setBarrierName(barrierName.getText());
+        sampler.setBarrierDistributed(barrierDistributed.isSelected());
+        sampler.setCaptureDirectory(captureDirectory.getText());
+        sampler.setCaptureSegmentSize(captureSegmentSize.getText());
+        sampler.setChunkReassemble(chunkReassemble.isSelected());
+        sampler.setChunkDirectory(chunkDirectory.getText());
+        sampler.setChunkExpiry(chunkExpiry.getText());
+        sampler.setChunkMaxSize(chunkMaxSize.getText());
+        sampler.setJsonFields(jsonFields.getText());
+        sampler.setJsonFailSample(jsonFailSample.isSelected());
     }
 
     /**
@@ -138,8 +174,10 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ActionListe
         ControlPanel.add(DPanel);
         ControlPanel.add(createDestinationPane());
         ControlPanel.add(cleanSession);
+        ControlPanel.add(sharedConnection);
         ControlPanel.add(createKeepAlivePane());
         ControlPanel.add(createTimeoutPane());
+        ControlPanel.add(createReconnectPane());
         ControlPanel.add(createAuthPane());
         ControlPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
                 "Connection Info"));
@@ -152,6 +190,10 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ActionListe
         TPanel.add(typeClientValue);
         TPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray), "Option"));
         mainPanel.add(TPanel);
+        mainPanel.add(createBarrierPane());
+        mainPanel.add(createCapturePane());
+        mainPanel.add(createChunkPane());
+        mainPanel.add(createJsonPane());
 
         generateClientID.setActionCommand(Constants.GENERATE_CLIENT_ID_COMMAND);
         resetUserNameAndPassword.setActionCommand(Constants.RESET_CREDENTIALS);
@@ -192,6 +234,7 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ActionListe
         brokerUrlField.setText(sampler.getBrokerUrl());
         clientId.setText(sampler.getClientId());
         mqttDestination.setText(sampler.getTopicName());
+        messageFilter.setText(sampler.getFilterExpression());
         cleanSession.setSelected(sampler.isCleanSession());
         mqttKeepAlive.setText(Integer.toString(sampler.getKeepAlive()));
         subscribeTimeout.setText(Integer.toString(sampler.getSubscribeTimeout()));
@@ -199,6 +242,20 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ActionListe
         mqttPwd.setText(sampler.getPassword());
         typeQoSValue.setText(sampler.getQOS());
         typeClientValue.setText(sampler.getClientType());
+        sharedConnection.setSelected(sampler.isSharedConnection());
+        autoReconnect.setSelected(sampler.isAutoReconnect());
+        reconnectInitialDelay.setText(Integer.toString(sampler.getReconnectInitialDelay()));
+        reconnectMaxDelay.setText(Integer.toString(sampler.getReconnectMaxDelay()));
+        barrierName.setText(sampler.getBarrierName());
+        barrierDistributed.setSelected(sampler.isBarrierDistributed());
+        captureDirectory.setText(sampler.getCaptureDirectory());
+        captureSegmentSize.setText(Integer.toString(sampler.getCaptureSegmentSize()));
+        chunkReassemble.setSelected(sampler.isChunkReassemble());
+        chunkDirectory.setText(sampler.getChunkDirectory());
+        chunkExpiry.setText(Integer.toString(sampler.getChunkExpiry()));
+        chunkMaxSize.setText(Integer.toString(sampler.getChunkMaxSize()));
+        jsonFields.setText(sampler.getJsonFields());
+        jsonFailSample.setSelected(sampler.isJsonFailSample());
     }
 
     /**
@@ -218,6 +275,8 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ActionListe
         JPanel panel = new VerticalPanel(); //new BorderLayout(3, 0)
         this.mqttDestination.setLayout((new BoxLayout(mqttDestination, BoxLayout.X_AXIS)));
         panel.add(mqttDestination);
+        messageFilter.setLayout(new BoxLayout(messageFilter, BoxLayout.X_AXIS));
+        panel.add(messageFilter);
         JPanel TPanel = new JPanel();
         TPanel.setLayout(new BoxLayout(TPanel, BoxLayout.X_AXIS));
         TPanel.add(Box.createHorizontalStrut(100));
@@ -258,6 +317,93 @@ public class MQTTSubscriberGui extends AbstractSamplerGui implements ActionListe
         return panel;
     }
 
+    /**
+     * Creates the auto reconnect panel.
+     *
+     * @return The auto reconnect panel.
+     */
+    private JPanel createReconnectPane() {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(autoReconnect);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(reconnectInitialDelay);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(reconnectMaxDelay);
+        reconnectInitialDelay.setText(Constants.MQTT_RECONNECT_INITIAL_DELAY_DEFAULT);
+        reconnectMaxDelay.setText(Constants.MQTT_RECONNECT_MAX_DELAY_DEFAULT);
+        return panel;
+    }
+
+    /**
+     * Creates the readiness barrier panel.
+     *
+     * @return The readiness barrier panel.
+     */
+    private JPanel createBarrierPane() {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(barrierName);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(barrierDistributed);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Readiness Barrier"));
+        return panel;
+    }
+
+    /**
+     * Creates the message capture panel.
+     *
+     * @return The message capture panel.
+     */
+    private JPanel createCapturePane() {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(captureDirectory);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(captureSegmentSize);
+        captureSegmentSize.setText(Constants.MQTT_CAPTURE_SEGMENT_SIZE_DEFAULT);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Message Capture"));
+        return panel;
+    }
+
+    /**
+     * Creates the chunked transfer panel.
+     *
+     * @return The chunked transfer panel.
+     */
+    private JPanel createChunkPane() {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(chunkReassemble);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(chunkDirectory);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(chunkExpiry);
+        chunkExpiry.setText(Constants.MQTT_CHUNK_EXPIRY_DEFAULT);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(chunkMaxSize);
+        chunkMaxSize.setText(Constants.MQTT_CHUNK_MAX_SIZE_DEFAULT);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Chunked Transfer"));
+        return panel;
+    }
+
+    /**
+     * Creates the JSON field extraction panel.
+     *
+     * @return The JSON field extraction panel.
+     */
+    private JPanel createJsonPane() {
+        JPanel panel = new VerticalPanel();
+        panel.add(new JTextScrollPane(jsonFields));
+        panel.add(jsonFailSample);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                Constants.MQTT_JSON_FIELDS));
+        return panel;
+    }
+
     /**
      * {@inheritDoc}
      */
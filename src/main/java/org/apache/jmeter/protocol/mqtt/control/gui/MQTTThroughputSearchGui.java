@@ -0,0 +1,333 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.control.gui;
+
+import org.apache.jmeter.gui.util.VerticalPanel;
+import org.apache.jmeter.protocol.mqtt.sampler.ThroughputSearchSampler;
+import org.apache.jmeter.protocol.mqtt.utilities.Constants;
+import org.apache.jmeter.protocol.mqtt.utilities.Utils;
+import org.apache.jmeter.samplers.gui.AbstractSamplerGui;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jorphan.gui.JLabeledPasswordField;
+import org.apache.jorphan.gui.JLabeledTextField;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JPanel;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * This is the MQTT Throughput Search Sampler GUI class. All swing components of the UI are included in this class.
+ */
+public class MQTTThroughputSearchGui extends AbstractSamplerGui implements ActionListener {
+
+    private static final long serialVersionUID = 240L;
+
+    private static final String[] QOS_TYPES_ITEMS = {Constants.MQTT_AT_MOST_ONCE, Constants.MQTT_AT_LEAST_ONCE, Constants.MQTT_EXACTLY_ONCE};
+    private static final String[] CLIENT_TYPES_ITEMS = {Constants.MQTT_BLOCKING_CLIENT, Constants.MQTT_ASYNC_CLIENT,
+            Constants.MQTT_NIO_CLIENT, Constants.MQTT_5_CLIENT};
+    private static final String[] SEARCH_MODE_ITEMS = {Constants.MQTT_SEARCH_MODE_STEP,
+            Constants.MQTT_SEARCH_MODE_BINARY};
+
+    private final JLabeledTextField brokerUrlField = new JLabeledTextField(Constants.MQTT_PROVIDER_URL);
+    private final JLabeledTextField clientId = new JLabeledTextField(Constants.MQTT_CLIENT_ID);
+    private final JButton generateClientID = new JButton(Constants.MQTT_CLIENT_ID_GENERATOR);
+
+    private final JLabeledTextField mqttKeepAlive = new JLabeledTextField(Constants.MQTT_KEEP_ALIVE);
+
+    private final JLabeledTextField searchName = new JLabeledTextField(Constants.MQTT_SEARCH_NAME);
+    private final JLabeledRadioI18N searchMode = new JLabeledRadioI18N(Constants.MQTT_SEARCH_MODE, SEARCH_MODE_ITEMS,
+            Constants.MQTT_SEARCH_MODE_STEP);
+    private final JLabeledTextField startRate = new JLabeledTextField(Constants.MQTT_SEARCH_START_RATE);
+    private final JLabeledTextField rateStep = new JLabeledTextField(Constants.MQTT_SEARCH_STEP);
+    private final JLabeledTextField maxRate = new JLabeledTextField(Constants.MQTT_SEARCH_MAX_RATE);
+    private final JLabeledTextField stepDuration = new JLabeledTextField(Constants.MQTT_SEARCH_STEP_DURATION);
+    private final JLabeledTextField warmUp = new JLabeledTextField(Constants.MQTT_SEARCH_WARM_UP);
+    private final JLabeledTextField coolDown = new JLabeledTextField(Constants.MQTT_SEARCH_COOL_DOWN);
+    private final JCheckBox stopTest = new JCheckBox(Constants.MQTT_SEARCH_STOP_TEST, false);
+
+    private final JLabeledTextField percentile = new JLabeledTextField(Constants.MQTT_SEARCH_PERCENTILE);
+    private final JLabeledTextField ackLimit = new JLabeledTextField(Constants.MQTT_SEARCH_ACK_LIMIT);
+    private final JLabeledTextField endToEndLimit = new JLabeledTextField(Constants.MQTT_SEARCH_E2E_LIMIT);
+    private final JLabeledTextField probeTopic = new JLabeledTextField(Constants.MQTT_SEARCH_PROBE_TOPIC);
+    private final JLabeledTextField probeRate = new JLabeledTextField(Constants.MQTT_SEARCH_PROBE_RATE);
+
+    private final JLabeledTextField mqttUser = new JLabeledTextField(Constants.MQTT_USERNAME);
+    private final JLabeledTextField mqttPwd = new JLabeledPasswordField(Constants.MQTT_PASSWORD);
+    private final JButton resetUserNameAndPassword = new JButton(Constants.MQTT_RESET_USERNAME_PASSWORD);
+
+    private final JLabeledRadioI18N typeQoSValue = new JLabeledRadioI18N(Constants.MQTT_QOS, QOS_TYPES_ITEMS, Constants.MQTT_AT_MOST_ONCE);
+    private final JLabeledRadioI18N typeClientValue = new JLabeledRadioI18N("Client Types:", CLIENT_TYPES_ITEMS,
+            Constants.MQTT_NIO_CLIENT);
+
+    public MQTTThroughputSearchGui() {
+        init();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getLabelResource() {
+        return this.getClass().getSimpleName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getStaticLabel() {
+        return Constants.MQTT_SEARCH_TITLE;
+    }
+
+    /**
+     * Creates a test element for MQTT throughput search
+     * @see org.apache.jmeter.gui.JMeterGUIComponent#createTestElement()
+     */
+    @Override
+    public TestElement createTestElement() {
+        ThroughputSearchSampler sampler = new ThroughputSearchSampler();
+        modifyTestElement(sampler);
+        return sampler;
+    }
+
+    /**
+     * Modifies a given TestElement to mirror the data in the gui components.
+     *
+     * @see org.apache.jmeter.gui.JMeterGUIComponent#modifyTestElement(TestElement)
+     */
+    @Override
+    public void modifyTestElement(TestElement s) {
+        ThroughputSearchSampler sampler = (ThroughputSearchSampler) s;
+        this.configureTestElement(sampler);
+        sampler.setBrokerUrl(brokerUrlField.getText());
+        sampler.setClientId(clientId.getText());
+        sampler.setKeepAlive(mqttKeepAlive.getText());
+        sampler.setSearchName(searchName.getText());
+        sampler.setSearchMode(searchMode.getText());
+        sampler.setStartRate(startRate.getText());
+        sampler.setRateStep(rateStep.getText());
+        sampler.setMaxRate(maxRate.getText());
+        sampler.setStepDuration(stepDuration.getText());
+        sampler.setWarmUp(warmUp.getText());
+        sampler.setCoolDown(coolDown.getText());
+        sampler.setStopTest(stopTest.isSelected());
+        sampler.setPercentile(percentile.getText());
+        sampler.setAckLimit(ackLimit.getText());
+        sampler.setEndToEndLimit(endToEndLimit.getText());
+        sampler.setProbeTopic(probeTopic.getText());
+        sampler.setProbeRate(probeRate.getText());
+        sampler.setUsername(mqttUser.getText());
+        sampler.setPassword(mqttPwd.getText());
+        sampler.setQOS(typeQoSValue.getText());
+        sampler.setClientType(typeClientValue.getText());
+    }
+
+    /**
+     * Initializes all the UI elements
+     */
+    private void init() {
+        brokerUrlField.setText(Constants.MQTT_URL_DEFAULT);
+        setLayout(new BorderLayout());
+        setBorder(makeBorder());
+        add(makeTitlePanel(), BorderLayout.NORTH);
+        JPanel mainPanel = new VerticalPanel();
+        add(mainPanel, BorderLayout.CENTER);
+        mainPanel.add(createSearchPane());
+        mainPanel.add(createObjectivePane());
+        JPanel DPanel = new JPanel();
+        DPanel.setLayout(new BoxLayout(DPanel, BoxLayout.X_AXIS));
+        DPanel.add(brokerUrlField);
+        DPanel.add(clientId);
+        DPanel.add(generateClientID);
+        JPanel ControlPanel = new VerticalPanel();
+        ControlPanel.add(DPanel);
+        ControlPanel.add(mqttKeepAlive);
+        ControlPanel.add(createAuthPane());
+        ControlPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Probe Connection Info"));
+        mainPanel.add(ControlPanel);
+        JPanel TPanel = new VerticalPanel();
+        TPanel.setLayout(new BoxLayout(TPanel, BoxLayout.X_AXIS));
+        typeQoSValue.setLayout(new BoxLayout(typeQoSValue, BoxLayout.X_AXIS));
+        typeClientValue.setLayout(new BoxLayout(typeClientValue, BoxLayout.X_AXIS));
+        TPanel.add(typeQoSValue);
+        TPanel.add(typeClientValue);
+        TPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray), "Option"));
+        mainPanel.add(TPanel);
+
+        mqttKeepAlive.setText(Constants.MQTT_KEEP_ALIVE_DEFAULT);
+        generateClientID.setActionCommand(Constants.GENERATE_CLIENT_ID_COMMAND);
+        resetUserNameAndPassword.setActionCommand(Constants.RESET_CREDENTIALS);
+        generateClientID.addActionListener(this);
+        resetUserNameAndPassword.addActionListener(this);
+    }
+
+    /**
+     * Creates the panel for user authentication. Username and password are included.
+     * @return JPanel Panel with checkbox to choose  user and password
+     */
+    private Component createAuthPane() {
+        mqttUser.setText(Constants.MQTT_USER_USERNAME);
+        mqttPwd.setText(Constants.MQTT_USER_PASSWORD);
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(mqttUser);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(mqttPwd);
+        panel.add(Box.createHorizontalStrut(10));
+        panel.add(resetUserNameAndPassword);
+        return panel;
+    }
+
+    /**
+     * Creates the panel of the searched rates and the steps.
+     *
+     * @return The search panel.
+     */
+    private JPanel createSearchPane() {
+        JPanel namePanel = new JPanel();
+        namePanel.setLayout(new BoxLayout(namePanel, BoxLayout.X_AXIS));
+        namePanel.add(searchName);
+        namePanel.add(Box.createHorizontalStrut(10));
+        searchMode.setLayout(new BoxLayout(searchMode, BoxLayout.X_AXIS));
+        namePanel.add(searchMode);
+        JPanel ratePanel = new JPanel();
+        ratePanel.setLayout(new BoxLayout(ratePanel, BoxLayout.X_AXIS));
+        ratePanel.add(startRate);
+        ratePanel.add(Box.createHorizontalStrut(10));
+        ratePanel.add(rateStep);
+        ratePanel.add(Box.createHorizontalStrut(10));
+        ratePanel.add(maxRate);
+        JPanel stepPanel = new JPanel();
+        stepPanel.setLayout(new BoxLayout(stepPanel, BoxLayout.X_AXIS));
+        stepPanel.add(stepDuration);
+        stepPanel.add(Box.createHorizontalStrut(10));
+        stepPanel.add(warmUp);
+        stepPanel.add(Box.createHorizontalStrut(10));
+        stepPanel.add(coolDown);
+        stepPanel.add(Box.createHorizontalStrut(10));
+        stepPanel.add(stopTest);
+        JPanel panel = new VerticalPanel();
+        panel.add(namePanel);
+        panel.add(ratePanel);
+        panel.add(stepPanel);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Throughput Search"));
+        searchName.setText(Constants.MQTT_SEARCH_NAME_DEFAULT);
+        startRate.setText(Constants.MQTT_SEARCH_START_RATE_DEFAULT);
+        rateStep.setText(Constants.MQTT_SEARCH_STEP_DEFAULT);
+        maxRate.setText(Constants.MQTT_SEARCH_MAX_RATE_DEFAULT);
+        stepDuration.setText(Constants.MQTT_SEARCH_STEP_DURATION_DEFAULT);
+        warmUp.setText(Constants.MQTT_SEARCH_WARM_UP_DEFAULT);
+        coolDown.setText(Constants.MQTT_SEARCH_COOL_DOWN_DEFAULT);
+        return panel;
+    }
+
+    /**
+     * Creates the panel of the latency objective and the probes measuring the end to end latency.
+     *
+     * @return The objective panel.
+     */
+    private JPanel createObjectivePane() {
+        JPanel limitPanel = new JPanel();
+        limitPanel.setLayout(new BoxLayout(limitPanel, BoxLayout.X_AXIS));
+        limitPanel.add(percentile);
+        limitPanel.add(Box.createHorizontalStrut(10));
+        limitPanel.add(ackLimit);
+        limitPanel.add(Box.createHorizontalStrut(10));
+        limitPanel.add(endToEndLimit);
+        JPanel probePanel = new JPanel();
+        probePanel.setLayout(new BoxLayout(probePanel, BoxLayout.X_AXIS));
+        probePanel.add(probeTopic);
+        probePanel.add(Box.createHorizontalStrut(10));
+        probePanel.add(probeRate);
+        JPanel panel = new VerticalPanel();
+        panel.add(limitPanel);
+        panel.add(probePanel);
+        panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(Color.gray),
+                "Latency Objective"));
+        percentile.setText(Constants.MQTT_SEARCH_PERCENTILE_DEFAULT);
+        ackLimit.setText(Constants.MQTT_SEARCH_ACK_LIMIT_DEFAULT);
+        endToEndLimit.setText(Constants.MQTT_SEARCH_E2E_LIMIT_DEFAULT);
+        probeTopic.setText(Constants.MQTT_SEARCH_PROBE_TOPIC_DEFAULT);
+        probeRate.setText(Constants.MQTT_SEARCH_PROBE_RATE_DEFAULT);
+        return panel;
+    }
+
+    /**
+     * {@inheritDoc}. </br>.
+     * Loads fields from an existing sampler file.
+     *
+     * @param el The test element
+     */
+    @Override
+    public void configure(TestElement el) {
+        super.configure(el);
+        ThroughputSearchSampler sampler = (ThroughputSearchSampler) el;
+        brokerUrlField.setText(sampler.getBrokerUrl());
+        clientId.setText(sampler.getClientId());
+        mqttKeepAlive.setText(Integer.toString(sampler.getKeepAlive()));
+        searchName.setText(sampler.getSearchName());
+        searchMode.setText(sampler.getSearchMode());
+        startRate.setText(Double.toString(sampler.getStartRate()));
+        rateStep.setText(Double.toString(sampler.getRateStep()));
+        maxRate.setText(Double.toString(sampler.getMaxRate()));
+        stepDuration.setText(Long.toString(sampler.getStepDuration()));
+        warmUp.setText(Long.toString(sampler.getWarmUp()));
+        coolDown.setText(Long.toString(sampler.getCoolDown()));
+        stopTest.setSelected(sampler.isStopTest());
+        percentile.setText(Double.toString(sampler.getPercentile()));
+        ackLimit.setText(Double.toString(sampler.getAckLimit()));
+        endToEndLimit.setText(Double.toString(sampler.getEndToEndLimit()));
+        probeTopic.setText(sampler.getProbeTopic());
+        probeRate.setText(Double.toString(sampler.getProbeRate()));
+        mqttUser.setText(sampler.getUsername());
+        mqttPwd.setText(sampler.getPassword());
+        typeQoSValue.setText(sampler.getQOS());
+        typeClientValue.setText(sampler.getClientType());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clearGui() {
+        super.clearGui();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (Constants.GENERATE_CLIENT_ID_COMMAND.equals(e.getActionCommand())) {
+            clientId.setText(Utils.UUIDGenerator());
+        } else if (Constants.RESET_CREDENTIALS.equals(e.getActionCommand())) {
+            mqttUser.setText(Constants.MQTT_USER_USERNAME);
+            mqttPwd.setText(Constants.MQTT_USER_PASSWORD);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.eclipse.paho.client.mqttv3.MqttMessage;
  * Message object to hold MQTT message content.
  */
 public class Message {
+    private String topic;
     private byte[] payload;
     private int qos = 0;
     private boolean retained = false;
@@ -29,6 +30,11 @@ public class Message {
     private long currentTimestamp;
 
     public Message(byte[] payload, int qos, boolean retained, boolean dup, long currentTimestamp) {
+        this(null, payload, qos, retained, dup, currentTimestamp);
+    }
+
+    public Message(String topic, byte[] payload, int qos, boolean retained, boolean dup, long currentTimestamp) {
+        this.topic = topic;
         this.payload = payload;
         this.qos = qos;
         this.retained = retained;
@@ -37,6 +43,11 @@ public class Message {
     }
 
     public Message(MqttMessage mqttMessage) {
+        this(null, mqttMessage);
+    }
+
+    public Message(String topic, MqttMessage mqttMessage) {
+        this.topic = topic;
         this.payload = mqttMessage.getPayload();
         this.qos = mqttMessage.getQos();
         this.retained = mqttMessage.isRetained();
@@ -44,6 +55,13 @@ public class Message {
         this.currentTimestamp = System.currentTimeMillis();
     }
 
+    /**
+     * @return The topic the message was published to, or null if it is not known.
+     */
+    public String getTopic() {
+        return topic;
+    }
+
     public byte[] getPayload() {
         return payload;
     }
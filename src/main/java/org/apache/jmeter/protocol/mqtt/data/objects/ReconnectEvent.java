@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.data.objects;
+
+/**
+ * Reconnect object to hold the outcome of recovering a lost connection.
+ */
+public class ReconnectEvent {
+    private long lostTimestamp;
+    private long recoveryNanos;
+    private int attempts;
+
+    public ReconnectEvent(long lostTimestamp, long recoveryNanos, int attempts) {
+        this.lostTimestamp = lostTimestamp;
+        this.recoveryNanos = recoveryNanos;
+        this.attempts = attempts;
+    }
+
+    public long getLostTimestamp() {
+        return lostTimestamp;
+    }
+
+    public long getRecoveryNanos() {
+        return recoveryNanos;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,761 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.extract;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.save.CSVSaveService;
+import org.apache.jmeter.threads.JMeterVariables;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Extracts fields of JSON payloads in a single pass over their bytes, without building a tree or decoding the payload
+ * into a String. The fields are written with a line per field: path,variable,condition, quoting a value containing
+ * commas as in CSV. Blank lines and lines starting with # are skipped. A path starts from the root, with keys after
+ * dots and array indexes or quoted keys in brackets, such as $.device.readings[0].value or $['a.b']. The value of a
+ * found field is stored in the variable, if any, which is removed when the field is missing. The condition, if any, is
+ * one of:
+ * <ul>
+ * <li>exists</li>
+ * <li>=value or !=value, compared as numbers if both are numbers and as text otherwise</li>
+ * <li>&lt;number, &lt;=number, &gt;number or &gt;=number</li>
+ * </ul>
+ * A condition fails when its field is missing.
+ * <p/>
+ * The scan stops as soon as all the fields are found. The values skipped on the way are only checked for balanced
+ * brackets and strings, so a payload is reported as invalid JSON only if the error comes before the last field.
+ * <p/>
+ * Extractors are compiled once per element and definition and shared by its threads, which count the found and
+ * missing fields and the passed and failed conditions until {@link #clear()}.
+ */
+public class JsonExtractor {
+
+    private static final int STRING = 0;
+    private static final int NUMBER = 1;
+    private static final int LITERAL = 2;
+    private static final int CONTAINER = 3;
+
+    private static final int NONE = 0;
+    private static final int EXISTS = 1;
+    private static final int EQUAL = 2;
+    private static final int NOT_EQUAL = 3;
+    private static final int LESS = 4;
+    private static final int LESS_OR_EQUAL = 5;
+    private static final int GREATER = 6;
+    private static final int GREATER_OR_EQUAL = 7;
+
+    // The longer operators first so that <= is not read as <
+    private static final String[] OPERATORS = {"!=", "<=", ">=", "=", "<", ">"};
+    private static final int[] OPERATOR_CONDITIONS = {NOT_EQUAL, LESS_OR_EQUAL, GREATER_OR_EQUAL, EQUAL, LESS,
+            GREATER};
+    private static final byte[][] LITERALS = {"true".getBytes(StandardCharsets.US_ASCII),
+            "false".getBytes(StandardCharsets.US_ASCII), "null".getBytes(StandardCharsets.US_ASCII)};
+
+    private static final Map<String, JsonExtractor> compiled = new HashMap<>();
+
+    private final Field[] fields;
+    private final Node root = new Node();
+    private final LongAdder payloads = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+
+    private JsonExtractor(List<Field> fields) {
+        this.fields = fields.toArray(new Field[fields.size()]);
+        for (int i = 0; i < this.fields.length; i++) {
+            Node node = root;
+            for (Object segment : this.fields[i].segments) {
+                node = node.add(segment);
+            }
+            node.fields = Arrays.copyOf(node.fields, node.fields.length + 1);
+            node.fields[node.fields.length - 1] = i;
+        }
+    }
+
+    /**
+     * Returns the compiled extractor of an element, compiling it on first use.
+     *
+     * @param name       the name of the element
+     * @param definition the fields
+     * @return The extractor.
+     * @throws IOException if the fields are not valid
+     */
+    public static synchronized JsonExtractor get(String name, String definition) throws IOException {
+        String key = name + '\n' + definition;
+        JsonExtractor extractor = compiled.get(key);
+        if (extractor == null) {
+            extractor = parse(definition);
+            compiled.put(key, extractor);
+        }
+        return extractor;
+    }
+
+    /**
+     * Forgets the compiled extractors and their counters.
+     */
+    public static synchronized void clear() {
+        compiled.clear();
+    }
+
+    private static JsonExtractor parse(String definition) throws IOException {
+        List<Field> fields = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new StringReader(definition));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (StringUtils.isBlank(line) || line.trim().startsWith("#")) {
+                continue;
+            }
+            String[] values = CSVSaveService.csvSplitString(line, ',');
+            try {
+                fields.add(new Field(values[0].trim(), values.length > 1 ? values[1].trim() : "",
+                        values.length > 2 ? values[2].trim() : ""));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("JSON fields line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        if (fields.isEmpty()) {
+            throw new IOException("JSON fields are empty");
+        }
+        return new JsonExtractor(fields);
+    }
+
+    /**
+     * @return A match for the payloads of a single thread.
+     */
+    public Match createMatch() {
+        return new Match(fields.length);
+    }
+
+    /**
+     * Extracts the fields of a payload into variables and checks their conditions.
+     *
+     * @param payload   the payload
+     * @param match     the match of the thread
+     * @param variables the variables of the thread, or null to only check the conditions
+     * @return null if the payload is valid and all the conditions hold, the failures otherwise.
+     */
+    public String apply(byte[] payload, Match match, JMeterVariables variables) {
+        payloads.increment();
+        StringBuilder failures = null;
+        if (!scan(payload, match)) {
+            invalid.increment();
+            failures = new StringBuilder("Payload is not valid JSON at byte ").append(match.position);
+        }
+        for (int i = 0; i < fields.length; i++) {
+            Field field = fields[i];
+            boolean found = match.kinds[i] >= 0;
+            (found ? field.found : field.missing).increment();
+            if (variables != null && field.variable != null) {
+                if (found) {
+                    variables.put(field.variable, match.getValue(i));
+                } else {
+                    variables.remove(field.variable);
+                }
+            }
+            if (field.condition == NONE) {
+                continue;
+            }
+            if (found && check(field, match, i)) {
+                field.passed.increment();
+            } else {
+                field.failed.increment();
+                failures = failures == null ? new StringBuilder() : failures.append(", ");
+                failures.append(field.path).append(' ').append(field.conditionText).append(" failed on ")
+                        .append(found ? match.getValue(i) : "a missing field");
+            }
+        }
+        return failures == null ? null : failures.toString();
+    }
+
+    /**
+     * @return The number of payloads, and of found and missing fields and passed and failed conditions.
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder().append(payloads.sum()).append(" payloads, ")
+                                                   .append(invalid.sum()).append(" invalid");
+        for (Field field : fields) {
+            summary.append(", ").append(field.path).append(" found ").append(field.found.sum()).append(" missing ")
+                   .append(field.missing.sum());
+            if (field.condition != NONE) {
+                summary.append(" passed ").append(field.passed.sum()).append(" failed ").append(field.failed.sum());
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Finds the fields of a payload.
+     *
+     * @param payload the payload
+     * @param match   the match of the thread
+     * @return true if the payload is valid JSON up to where the scan stopped.
+     */
+    private boolean scan(byte[] payload, Match match) {
+        match.reset(payload, fields.length);
+        if (!value(match, root)) {
+            return match.remaining == 0;
+        }
+        return skipWhitespace(match) == payload.length;
+    }
+
+    /**
+     * Scans the value at the position, recording it for the fields of its node.
+     *
+     * @return false to stop the scan, once all the fields are found or at an error.
+     */
+    private boolean value(Match match, Node node) {
+        if (node == null) {
+            return skip(match);
+        }
+        byte[] b = match.payload;
+        int start = skipWhitespace(match);
+        if (start >= b.length) {
+            return false;
+        }
+        int kind;
+        int valueStart = start;
+        int valueEnd;
+        boolean escaped = false;
+        byte c = b[start];
+        if (c == '{' || c == '[') {
+            kind = CONTAINER;
+            boolean scanned;
+            if (node.keys.length == 0 && node.indexes.length == 0) {
+                scanned = skip(match);
+            } else {
+                scanned = c == '{' ? object(match, node) : array(match, node);
+            }
+            if (!scanned) {
+                return false;
+            }
+            valueEnd = match.position;
+        } else if (c == '"') {
+            kind = STRING;
+            if (!string(match)) {
+                return false;
+            }
+            valueStart = start + 1;
+            valueEnd = match.position - 1;
+            escaped = match.escaped;
+        } else {
+            kind = c == '-' || c >= '0' && c <= '9' ? NUMBER : LITERAL;
+            valueEnd = token(match);
+            if (valueEnd == start || kind == LITERAL && !isLiteral(b, start, valueEnd)) {
+                return false;
+            }
+        }
+        for (int field : node.fields) {
+            if (match.kinds[field] < 0) {
+                match.kinds[field] = kind;
+                match.starts[field] = valueStart;
+                match.ends[field] = valueEnd;
+                match.escapes[field] = escaped;
+                if (--match.remaining == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean object(Match match, Node node) {
+        byte[] b = match.payload;
+        match.position++;
+        if (skipWhitespace(match) < b.length && b[match.position] == '}') {
+            match.position++;
+            return true;
+        }
+        while (true) {
+            int keyStart = skipWhitespace(match);
+            if (keyStart >= b.length || b[keyStart] != '"' || !string(match)) {
+                return false;
+            }
+            Node child = node.key(b, keyStart + 1, match.position - 1, match.escaped);
+            if (skipWhitespace(match) >= b.length || b[match.position] != ':') {
+                return false;
+            }
+            match.position++;
+            if (!value(match, child) || !next(match, '}')) {
+                return false;
+            }
+            if (b[match.position - 1] == '}') {
+                return true;
+            }
+        }
+    }
+
+    private boolean array(Match match, Node node) {
+        byte[] b = match.payload;
+        match.position++;
+        if (skipWhitespace(match) < b.length && b[match.position] == ']') {
+            match.position++;
+            return true;
+        }
+        for (int index = 0; ; index++) {
+            if (!value(match, node.index(index)) || !next(match, ']')) {
+                return false;
+            }
+            if (b[match.position - 1] == ']') {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves past the comma or the end of an object or array after one of its values.
+     */
+    private static boolean next(Match match, char close) {
+        int position = skipWhitespace(match);
+        if (position >= match.payload.length || match.payload[position] != ',' && match.payload[position] != close) {
+            return false;
+        }
+        match.position++;
+        return true;
+    }
+
+    /**
+     * Moves past a value without recording anything, only checking that its brackets are balanced.
+     */
+    private static boolean skip(Match match) {
+        byte[] b = match.payload;
+        int depth = 0;
+        int i = skipWhitespace(match);
+        while (i < b.length) {
+            byte c = b[i];
+            if (c == '"') {
+                match.position = i;
+                if (!string(match)) {
+                    return false;
+                }
+                if (depth == 0) {
+                    return true;
+                }
+                i = match.position;
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (--depth <= 0) {
+                    match.position = i + 1;
+                    return depth == 0;
+                }
+            } else if (depth == 0) {
+                match.position = i;
+                int end = token(match);
+                return end > i && (c == '-' || c >= '0' && c <= '9' || isLiteral(b, i, end));
+            }
+            i++;
+        }
+        return false;
+    }
+
+    /**
+     * Moves past the string at the position.
+     *
+     * @return false if the string is not terminated.
+     */
+    private static boolean string(Match match) {
+        byte[] b = match.payload;
+        boolean escaped = false;
+        for (int i = match.position + 1; i < b.length; i++) {
+            byte c = b[i];
+            if (c == '"') {
+                match.position = i + 1;
+                match.escaped = escaped;
+                return true;
+            } else if (c == '\\') {
+                escaped = true;
+                i++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves past the number or literal at the position.
+     *
+     * @return The end of the token.
+     */
+    private static int token(Match match) {
+        byte[] b = match.payload;
+        int i = match.position;
+        while (i < b.length) {
+            byte c = b[i];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                break;
+            }
+            i++;
+        }
+        match.position = i;
+        return i;
+    }
+
+    private static int skipWhitespace(Match match) {
+        byte[] b = match.payload;
+        int i = match.position;
+        while (i < b.length && (b[i] == ' ' || b[i] == '\t' || b[i] == '\n' || b[i] == '\r')) {
+            i++;
+        }
+        match.position = i;
+        return i;
+    }
+
+    private static boolean isLiteral(byte[] b, int start, int end) {
+        for (byte[] literal : LITERALS) {
+            if (regionEquals(b, start, end, literal)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionEquals(byte[] b, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (b[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean check(Field field, Match match, int i) {
+        switch (field.condition) {
+            case EXISTS:
+                return true;
+            case EQUAL:
+                return equal(field, match, i);
+            case NOT_EQUAL:
+                return !equal(field, match, i);
+            default:
+                if (match.kinds[i] != NUMBER) {
+                    return false;
+                }
+                double value = parseNumber(match.payload, match.starts[i], match.ends[i]);
+                switch (field.condition) {
+                    case LESS:
+                        return value < field.expectedNumber;
+                    case LESS_OR_EQUAL:
+                        return value <= field.expectedNumber;
+                    case GREATER:
+                        return value > field.expectedNumber;
+                    default:
+                        return value >= field.expectedNumber;
+                }
+        }
+    }
+
+    private static boolean equal(Field field, Match match, int i) {
+        if (match.kinds[i] == NUMBER && !Double.isNaN(field.expectedNumber)) {
+            return parseNumber(match.payload, match.starts[i], match.ends[i]) == field.expectedNumber;
+        } else if (match.kinds[i] == STRING && match.escapes[i]) {
+            return field.expected.equals(match.getValue(i));
+        }
+        return regionEquals(match.payload, match.starts[i], match.ends[i], field.expectedBytes);
+    }
+
+    private static double parseNumber(byte[] b, int start, int end) {
+        // Integers are parsed without decoding them
+        int i = start;
+        boolean negative = i < end && b[i] == '-';
+        if (negative) {
+            i++;
+        }
+        if (end > i && end - i <= 18) {
+            long value = 0;
+            for (; i < end && b[i] >= '0' && b[i] <= '9'; i++) {
+                value = value * 10 + b[i] - '0';
+            }
+            if (i == end) {
+                return negative ? -value : value;
+            }
+        }
+        try {
+            return Double.parseDouble(new String(b, start, end - start, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static String unescape(byte[] b, int start, int end) {
+        String raw = new String(b, start, end - start, StandardCharsets.UTF_8);
+        StringBuilder value = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 == raw.length()) {
+                value.append(c);
+                continue;
+            }
+            c = raw.charAt(++i);
+            switch (c) {
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 < raw.length()) {
+                        try {
+                            value.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                            i += 4;
+                            break;
+                        } catch (NumberFormatException e) {
+                            // Kept as it is
+                        }
+                    }
+                    value.append("\\u");
+                    break;
+                default:
+                    value.append(c);
+                    break;
+            }
+        }
+        return value.toString();
+    }
+
+    private static List<Object> parsePath(String path) {
+        List<Object> segments = new ArrayList<>();
+        int i = path.startsWith("$") ? 1 : 0;
+        // A path may start with a key without a dot
+        if (i == 0 && !path.startsWith(".") && !path.startsWith("[")) {
+            path = "." + path;
+        }
+        int length = path.length();
+        while (i < length) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                int end = i + 1;
+                while (end < length && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                if (end == i + 1) {
+                    throw new IllegalArgumentException("empty key in path " + path);
+                }
+                segments.add(path.substring(i + 1, end));
+                i = end;
+            } else if (c == '[' && i + 1 < length && (path.charAt(i + 1) == '\'' || path.charAt(i + 1) == '"')) {
+                int close = path.indexOf(path.charAt(i + 1), i + 2);
+                if (close < 0 || close + 1 >= length || path.charAt(close + 1) != ']') {
+                    throw new IllegalArgumentException("unterminated key in path " + path);
+                }
+                segments.add(path.substring(i + 2, close));
+                i = close + 2;
+            } else if (c == '[') {
+                int close = path.indexOf(']', i);
+                int index;
+                try {
+                    index = close < 0 ? -1 : Integer.parseInt(path.substring(i + 1, close).trim());
+                } catch (NumberFormatException e) {
+                    index = -1;
+                }
+                if (index < 0) {
+                    throw new IllegalArgumentException("invalid index in path " + path);
+                }
+                segments.add(index);
+                i = close + 1;
+            } else {
+                throw new IllegalArgumentException("invalid path " + path);
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * The fields found in a payload, reused by a thread for all its payloads.
+     */
+    public static final class Match {
+        private final int[] kinds;
+        private final int[] starts;
+        private final int[] ends;
+        private final boolean[] escapes;
+        private byte[] payload;
+        private int position;
+        private int remaining;
+        // Whether the last scanned string has escapes
+        private boolean escaped;
+
+        private Match(int fields) {
+            kinds = new int[fields];
+            starts = new int[fields];
+            ends = new int[fields];
+            escapes = new boolean[fields];
+        }
+
+        private void reset(byte[] payload, int fields) {
+            this.payload = payload;
+            position = 0;
+            remaining = fields;
+            Arrays.fill(kinds, -1);
+        }
+
+        /**
+         * @param field the index of a field
+         * @return The value of the field, a string without its quotes or the JSON text of any other value.
+         */
+        private String getValue(int field) {
+            if (kinds[field] == STRING && escapes[field]) {
+                return unescape(payload, starts[field], ends[field]);
+            }
+            return new String(payload, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A field and its counters.
+     */
+    private static final class Field {
+        final String path;
+        final List<Object> segments;
+        final String variable;
+        final String conditionText;
+        final int condition;
+        final String expected;
+        final byte[] expectedBytes;
+        final double expectedNumber;
+        final LongAdder found = new LongAdder();
+        final LongAdder missing = new LongAdder();
+        final LongAdder passed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+
+        private Field(String path, String variable, String condition) {
+            this.path = path;
+            this.segments = parsePath(path);
+            this.variable = variable.isEmpty() ? null : variable;
+            this.conditionText = condition;
+            String expectedText = "";
+            int parsed = NONE;
+            if ("exists".equalsIgnoreCase(condition)) {
+                parsed = EXISTS;
+            } else if (!condition.isEmpty()) {
+                for (int i = 0; i < OPERATORS.length && parsed == NONE; i++) {
+                    if (condition.startsWith(OPERATORS[i])) {
+                        parsed = OPERATOR_CONDITIONS[i];
+                        expectedText = condition.substring(OPERATORS[i].length()).trim();
+                    }
+                }
+                if (parsed == NONE) {
+                    throw new IllegalArgumentException("unknown condition " + condition);
+                }
+            }
+            this.condition = parsed;
+            this.expected = expectedText;
+            this.expectedBytes = expectedText.getBytes(StandardCharsets.UTF_8);
+            double number;
+            try {
+                number = expectedText.isEmpty() ? Double.NaN : Double.parseDouble(expectedText);
+            } catch (NumberFormatException e) {
+                number = Double.NaN;
+            }
+            this.expectedNumber = number;
+            if (Double.isNaN(number) && parsed >= LESS) {
+                throw new IllegalArgumentException("expected a number in condition " + condition);
+            }
+        }
+    }
+
+    /**
+     * A step of the compiled paths, with the fields ending on it.
+     */
+    private static final class Node {
+        private byte[][] keys = new byte[0][];
+        private Node[] keyNodes = new Node[0];
+        private int[] indexes = new int[0];
+        private Node[] indexNodes = new Node[0];
+        private int[] fields = new int[0];
+
+        /**
+         * Returns the child of a key or index, adding it if needed.
+         */
+        private Node add(Object segment) {
+            if (segment instanceof Integer) {
+                int index = (Integer) segment;
+                Node child = index(index);
+                if (child == null) {
+                    child = new Node();
+                    indexes = Arrays.copyOf(indexes, indexes.length + 1);
+                    indexes[indexes.length - 1] = index;
+                    indexNodes = Arrays.copyOf(indexNodes, indexNodes.length + 1);
+                    indexNodes[indexNodes.length - 1] = child;
+                }
+                return child;
+            }
+            byte[] key = ((String) segment).getBytes(StandardCharsets.UTF_8);
+            Node child = key(key, 0, key.length, false);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                keys[keys.length - 1] = key;
+                keyNodes = Arrays.copyOf(keyNodes, keyNodes.length + 1);
+                keyNodes[keyNodes.length - 1] = child;
+            }
+            return child;
+        }
+
+        /**
+         * @return The child of the key in the bytes, or null if no path goes through it.
+         */
+        private Node key(byte[] b, int start, int end, boolean escaped) {
+            if (keys.length == 0) {
+                return null;
+            }
+            if (escaped) {
+                byte[] key = unescape(b, start, end).getBytes(StandardCharsets.UTF_8);
+                return key(key, 0, key.length, false);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (regionEquals(b, start, end, keys[i])) {
+                    return keyNodes[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return The child of the array index, or null if no path goes through it.
+         */
+        private Node index(int index) {
+            for (int i = 0; i < indexes.length; i++) {
+                if (indexes[i] == index) {
+                    return indexNodes[i];
+                }
+            }
+            return null;
+        }
+    }
+}
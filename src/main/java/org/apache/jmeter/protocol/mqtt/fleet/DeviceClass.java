@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.fleet;
+
+/**
+ * A class of simulated devices sharing a publish interval, payload, qos, topic and connection lifetime.
+ */
+public class DeviceClass {
+    private final String name;
+    private final int count;
+    private final long intervalMillis;
+    private final int qos;
+    private final boolean retained;
+    private final byte[] payload;
+    private final String topic;
+    private final long lifetimeMillis;
+
+    /**
+     * @param name           the name of the class, used to label its results
+     * @param count          the number of devices
+     * @param intervalMillis the time between two publishes of a device in milliseconds
+     * @param qos            the qos of the messages
+     * @param retained       whether the messages are retained
+     * @param payload        the message published by every device
+     * @param topicPrefix    the prefix of the device topics, each device publishes to prefix/clientId
+     */
+    public DeviceClass(String name, int count, long intervalMillis, int qos, boolean retained, byte[] payload,
+                       String topicPrefix) {
+        this(name, count, intervalMillis, qos, retained, payload, topicPrefix, 0);
+    }
+
+    /**
+     * @param name           the name of the class, used to label its results
+     * @param count          the number of devices
+     * @param intervalMillis the time between two publishes of a device in milliseconds
+     * @param qos            the qos of the messages
+     * @param retained       whether the messages are retained
+     * @param payload        the message published by every device
+     * @param topic          the topic of the devices, see {@link #topicOf(String, int)}
+     * @param lifetimeMillis the time after which a device reconnects in milliseconds, 0 to keep the connection
+     */
+    public DeviceClass(String name, int count, long intervalMillis, int qos, boolean retained, byte[] payload,
+                       String topic, long lifetimeMillis) {
+        this.name = name;
+        this.count = count;
+        this.intervalMillis = Math.max(1, intervalMillis);
+        this.qos = qos;
+        this.retained = retained;
+        this.payload = payload;
+        this.topic = topic;
+        this.lifetimeMillis = Math.max(0, lifetimeMillis);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public int getQos() {
+        return qos;
+    }
+
+    public boolean isRetained() {
+        return retained;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public long getLifetimeMillis() {
+        return lifetimeMillis;
+    }
+
+    /**
+     * Expands the topic of a device. {client}, {device} and {class} in the topic are replaced by the client id, the
+     * device number and the class name. A topic without any of them is a prefix, the device publishes to
+     * topic/clientId.
+     *
+     * @param clientId the client id of the device
+     * @param device   the device number
+     * @return The topic of the device.
+     */
+    public String topicOf(String clientId, int device) {
+        if (topic.indexOf('{') < 0) {
+            return topic + "/" + clientId;
+        }
+        return topic.replace("{client}", clientId).replace("{device}", Integer.toString(device))
+                    .replace("{class}", name);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.fleet;
+
+import org.apache.jmeter.protocol.mqtt.paho.clients.PublishListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publish and connect counters of a device class. The counters are lock free as deliveries are counted on the client
+ * threads, and are taken as a {@link Window} by the thread reporting them.
+ */
+public class DeviceClassStats implements PublishListener {
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong(0);
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void published(long durationNanos, int packetSize) {
+        published.increment();
+        if (packetSize > 0) {
+            bytes.add(packetSize);
+        }
+        totalLatencyNanos.add(durationNanos);
+        long max = maxLatencyNanos.get();
+        while (durationNanos > max && !maxLatencyNanos.compareAndSet(max, durationNanos)) {
+            max = maxLatencyNanos.get();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void failed(Throwable cause) {
+        failed.increment();
+    }
+
+    /**
+     * Records a device connect.
+     *
+     * @param successful whether the device connected
+     */
+    public void connected(boolean successful) {
+        if (successful) {
+            connects.increment();
+        } else {
+            connectFailures.increment();
+        }
+    }
+
+    /**
+     * Records a publish skipped because the device was waiting to reconnect.
+     */
+    public void skipped() {
+        disconnected.increment();
+    }
+
+    /**
+     * Takes the counters since the previous window and resets them.
+     *
+     * @return The counters of the window.
+     */
+    public Window takeWindow() {
+        return new Window(published.sumThenReset(), failed.sumThenReset(), bytes.sumThenReset(),
+                totalLatencyNanos.sumThenReset(), maxLatencyNanos.getAndSet(0), connects.sumThenReset(),
+                connectFailures.sumThenReset(), disconnected.sumThenReset());
+    }
+
+    /**
+     * The counters of a reporting window.
+     */
+    public static class Window {
+        private final long published;
+        private final long failed;
+        private final long bytes;
+        private final long totalLatencyNanos;
+        private final long maxLatencyNanos;
+        private final long connects;
+        private final long connectFailures;
+        private final long skipped;
+
+        private Window(long published, long failed, long bytes, long totalLatencyNanos, long maxLatencyNanos,
+                       long connects, long connectFailures, long skipped) {
+            this.published = published;
+            this.failed = failed;
+            this.bytes = bytes;
+            this.totalLatencyNanos = totalLatencyNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+            this.connects = connects;
+            this.connectFailures = connectFailures;
+            this.skipped = skipped;
+        }
+
+        public long getPublished() {
+            return published;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getAverageLatencyNanos() {
+            return published > 0 ? totalLatencyNanos / published : 0;
+        }
+
+        public long getMaxLatencyNanos() {
+            return maxLatencyNanos;
+        }
+
+        public long getConnects() {
+            return connects;
+        }
+
+        public long getConnectFailures() {
+            return connectFailures;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return true if nothing failed in the window.
+         */
+        public boolean isSuccessful() {
+            return failed == 0 && connectFailures == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "published=" + published + ", failed=" + failed + ", skipped while disconnected=" + skipped +
+                   ", average latency=" + getAverageLatencyNanos() / 1000000 + " ms, max latency=" +
+                   maxLatencyNanos / 1000000 + " ms, connects=" + connects + ", connect failures=" + connectFailures;
+        }
+    }
+}
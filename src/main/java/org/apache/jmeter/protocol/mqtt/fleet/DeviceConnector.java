@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.fleet;
+
+import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+/**
+ * Creates the connection of a simulated device.
+ */
+public interface DeviceConnector {
+
+    /**
+     * Creates a connected client. Called from the threads of
+     * {@link org.apache.jmeter.protocol.mqtt.client.ClientScheduler#getConnectExecutor()}, possibly for several
+     * devices at once.
+     *
+     * @param clientId the client id of the device
+     * @return The client.
+     * @throws MqttException if the device could not connect
+     */
+    BaseClient connect(String clientId) throws MqttException;
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.fleet;
+
+import org.apache.jmeter.protocol.mqtt.client.ClientScheduler;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * DeviceFleet drives many simulated devices from the thread that runs it. Every device has its own client, connected
+ * at a random time within the ramp up and then publishing once per interval of its {@link DeviceClass}. The connects
+ * and publishes are fired by a {@link TimingWheel}. The connects and the closes of replaced clients run on the shared
+ * connect pool of {@link ClientScheduler} and a device is scheduled once its connect completes, and the publishes are
+ * asynchronous, so that a slow broker does not hold back the other devices.
+ * <p/>
+ * A fleet runs a contiguous range of the devices of a {@link FleetScenario}, so that the devices of a scenario can be
+ * split between threads. The state of the devices is held in arrays indexed by device rather than in an object per
+ * device. A device whose connection is lost without auto reconnect, or has outlived the lifetime of its class, is
+ * connected again at its next publish.
+ * <p/>
+ * The number of active devices may be lowered and raised while the fleet runs: the devices from that number on are
+ * disconnected, and connected again once the number rises above them.
+ */
+public class DeviceFleet implements Closeable {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    // Upper bound of a single wait so that a stop is noticed
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Interval at which an inactive device checks whether it has become active
+    private static final long INACTIVE_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String clientIdPrefix;
+    private final FleetScenario scenario;
+    private final int firstDevice;
+    private final DeviceConnector connector;
+    private final long publishTimeout;
+    private final DeviceClassStats[] stats;
+    private final int[] classDevices;
+    private final BaseClient[] clients;
+    private final String[] topics;
+    private final long[] expiresAt;
+    // The devices disconnected by lowering the number of active devices
+    private final boolean[] deactivated;
+    // The devices whose connect runs on the connect pool
+    private final boolean[] connecting;
+    // The devices with a timer in the wheel
+    private final boolean[] scheduled;
+    private final TimingWheel wheel;
+    // The connects completed on the connect pool, not yet taken by the run loop. Guarded by itself.
+    private final ArrayDeque<Connected> completed = new ArrayDeque<Connected>();
+    private boolean closed = false;
+    private volatile Thread runner = null;
+    private volatile boolean stopped = false;
+    private AtomicInteger activeDevices = null;
+    // The number of active devices applied by the run loop
+    private int active;
+
+    private final TimingWheel.Expiry fire = new TimingWheel.Expiry() {
+        @Override
+        public void expired(int device) {
+            fire(device);
+        }
+    };
+
+    /**
+     * Creates a fleet of all the devices of the classes.
+     *
+     * @param clientIdPrefix the prefix of the client ids, each device connects as prefix-number
+     * @param classes        the device classes
+     * @param connector      creates the connections
+     * @param rampUpMillis   the time over which the devices connect in milliseconds
+     * @param publishTimeout the time to wait for a client to accept a message in milliseconds, 0 to wait forever
+     */
+    public DeviceFleet(String clientIdPrefix, List<DeviceClass> classes, DeviceConnector connector, long rampUpMillis,
+                       long publishTimeout) {
+        this(clientIdPrefix, new FleetScenario(classes), 0, Integer.MAX_VALUE, connector, rampUpMillis,
+                publishTimeout);
+    }
+
+    /**
+     * Creates the fleet and schedules the connects of its devices. Nothing happens until the fleet is run.
+     *
+     * @param clientIdPrefix the prefix of the client ids, each device connects as prefix-number
+     * @param scenario       the device classes
+     * @param firstDevice    the number of the first device of the fleet in the scenario
+     * @param devices        the maximum number of devices of the fleet
+     * @param connector      creates the connections
+     * @param rampUpMillis   the time over which the devices connect in milliseconds
+     * @param publishTimeout the time to wait for a client to accept a message in milliseconds, 0 to wait forever
+     */
+    public DeviceFleet(String clientIdPrefix, FleetScenario scenario, int firstDevice, int devices,
+                       DeviceConnector connector, long rampUpMillis, long publishTimeout) {
+        this.clientIdPrefix = clientIdPrefix;
+        this.scenario = scenario;
+        this.firstDevice = Math.min(Math.max(0, firstDevice), scenario.getDeviceCount());
+        this.connector = connector;
+        this.publishTimeout = publishTimeout;
+        int count = (int) Math.min(Math.max(0, devices), scenario.getDeviceCount() - (long) this.firstDevice);
+        DeviceClass[] classes = scenario.getDeviceClasses();
+        this.stats = new DeviceClassStats[classes.length];
+        this.classDevices = new int[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            stats[i] = new DeviceClassStats();
+            long start = Math.max(scenario.getClassStart(i), this.firstDevice);
+            long end = Math.min((long) scenario.getClassStart(i) + classes[i].getCount(), (long) this.firstDevice + count);
+            classDevices[i] = (int) Math.max(0, end - start);
+        }
+        this.clients = new BaseClient[count];
+        this.topics = new String[count];
+        this.expiresAt = new long[count];
+        this.deactivated = new boolean[count];
+        this.connecting = new boolean[count];
+        this.scheduled = new boolean[count];
+        this.active = count;
+        this.wheel = new TimingWheel(count, TICK_NANOS, System.nanoTime());
+        long rampUpNanos = TimeUnit.MILLISECONDS.toNanos(rampUpMillis);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int device = 0; device < count; device++) {
+            schedule(device, rampUpNanos > 0 ? random.nextLong(rampUpNanos) : 0);
+        }
+        log.info("Scheduled devices " + this.firstDevice + " to " + (this.firstDevice + count - 1) + " of " +
+                 classes.length + " classes over " + rampUpMillis + " ms");
+    }
+
+    /**
+     * Fires the connects and publishes due until the deadline or until the fleet is stopped.
+     *
+     * @param deadlineNanos the time to return at, in {@link System#nanoTime()} terms
+     */
+    public void run(long deadlineNanos) {
+        runner = Thread.currentThread();
+        while (!stopped) {
+            takeConnected();
+            applyActiveDevices();
+            long now = System.nanoTime();
+            wheel.advance(now, fire);
+            if (now >= deadlineNanos) {
+                return;
+            }
+            long wait = Math.min(wheel.nextTickNanos(), deadlineNanos) - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(Math.min(wait, MAX_PARK_NANOS));
+            }
+        }
+    }
+
+    /**
+     * Makes {@link #run(long)} return. Can be called from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Shares the number of active devices of the fleet, which may be changed from any thread while the fleet runs. A
+     * change disconnects or connects again the devices within 100 ms, and the devices not connected yet within a
+     * second.
+     *
+     * @param activeDevices the number of active devices, negative for all
+     */
+    public void setActiveDevices(AtomicInteger activeDevices) {
+        this.activeDevices = activeDevices;
+    }
+
+    public DeviceClass[] getDeviceClasses() {
+        return scenario.getDeviceClasses();
+    }
+
+    /**
+     * @param classIndex the index of a device class
+     * @return The counters of the devices of the class in this fleet.
+     */
+    public DeviceClassStats getStats(int classIndex) {
+        return stats[classIndex];
+    }
+
+    /**
+     * @param classIndex the index of a device class
+     * @return The number of devices of the class in this fleet.
+     */
+    public int getDeviceCount(int classIndex) {
+        return classDevices[classIndex];
+    }
+
+    public int getDeviceCount() {
+        return clients.length;
+    }
+
+    /**
+     * @return The number of devices currently connected.
+     */
+    public int countConnected() {
+        int connected = 0;
+        for (BaseClient client : clients) {
+            if (client != null && client.isConnected()) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * Stops the fleet and closes the clients of all the devices. The connects still running close their clients once
+     * they complete.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+        synchronized (completed) {
+            closed = true;
+            for (Connected connected : completed) {
+                close(connected.client);
+            }
+            completed.clear();
+        }
+        for (int device = 0; device < clients.length; device++) {
+            close(device);
+        }
+    }
+
+    /**
+     * Disconnects the devices above a lowered number of active devices, and connects again the devices it disconnected
+     * once the number rises. The devices that were not connected connect at their next check.
+     */
+    private void applyActiveDevices() {
+        AtomicInteger shared = activeDevices;
+        int target = shared == null || shared.get() < 0 ? clients.length : Math.min(shared.get(), clients.length);
+        if (target == active) {
+            return;
+        }
+        for (int device = target; device < active; device++) {
+            deactivate(device);
+        }
+        for (int device = active; device < target; device++) {
+            if (deactivated[device] && !connecting[device]) {
+                deactivated[device] = false;
+                // The device is still scheduled, its next publish or check goes ahead once connected
+                connect(device);
+            }
+        }
+        log.info("Active devices " + target + " of " + clients.length + " from device " + firstDevice);
+        active = target;
+    }
+
+    private void deactivate(int device) {
+        if (clients[device] != null) {
+            closeLater(device);
+            deactivated[device] = true;
+        }
+    }
+
+    private void schedule(int device, long delayNanos) {
+        scheduled[device] = true;
+        wheel.schedule(device, delayNanos);
+    }
+
+    private void fire(int device) {
+        scheduled[device] = false;
+        if (connecting[device]) {
+            // Scheduled again once the connect completes
+            return;
+        }
+        if (device >= active) {
+            deactivate(device);
+            schedule(device, ThreadLocalRandom.current().nextLong(INACTIVE_CHECK_NANOS));
+            return;
+        }
+        int number = firstDevice + device;
+        int classIndex = scenario.classIndexOf(number);
+        DeviceClass deviceClass = scenario.getDeviceClasses()[classIndex];
+        DeviceClassStats classStats = stats[classIndex];
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(deviceClass.getIntervalMillis());
+        BaseClient client = clients[device];
+        if (client == null || (!client.isConnected() && !client.isAutoReconnect()) ||
+            (expiresAt[device] != 0 && System.nanoTime() - expiresAt[device] >= 0)) {
+            connect(device);
+            return;
+        }
+        if (client.isConnected()) {
+            client.publishAsync(topics[device], deviceClass.getQos(), deviceClass.getPayload(),
+                    deviceClass.isRetained(), publishTimeout, classStats);
+        } else {
+            classStats.skipped();
+        }
+        schedule(device, intervalNanos);
+    }
+
+    /**
+     * Starts to connect a device with a new client on the connect pool, closing its previous client. The run loop takes
+     * the client once connected.
+     *
+     * @param device the index of the device in the fleet
+     */
+    private void connect(final int device) {
+        closeLater(device);
+        connecting[device] = true;
+        final String clientId = clientIdPrefix + "-" + (firstDevice + device);
+        ClientScheduler.getConnectExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Connected connected = new Connected(device, clientId);
+                try {
+                    connected.client = connector.connect(clientId);
+                } catch (MqttException e) {
+                    if (log.isDebugEnabled()) log.debug(clientId + " unable to connect: " + e);
+                } catch (RuntimeException e) {
+                    log.warn(clientId + " unable to connect: " + e.toString());
+                }
+                synchronized (completed) {
+                    if (closed) {
+                        close(connected.client);
+                        return;
+                    }
+                    completed.add(connected);
+                }
+                Thread thread = runner;
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes the connects completed since the last call and schedules their devices.
+     */
+    private void takeConnected() {
+        while (true) {
+            Connected connected;
+            synchronized (completed) {
+                connected = completed.poll();
+            }
+            if (connected == null) {
+                return;
+            }
+            int device = connected.device;
+            int number = firstDevice + device;
+            int classIndex = scenario.classIndexOf(number);
+            DeviceClass deviceClass = scenario.getDeviceClasses()[classIndex];
+            long intervalNanos = TimeUnit.MILLISECONDS.toNanos(deviceClass.getIntervalMillis());
+            connecting[device] = false;
+            stats[classIndex].connected(connected.client != null);
+            if (connected.client == null) {
+                if (!scheduled[device]) {
+                    schedule(device, intervalNanos);
+                }
+                continue;
+            }
+            clients[device] = connected.client;
+            topics[device] = deviceClass.topicOf(connected.clientId, number);
+            if (deviceClass.getLifetimeMillis() > 0) {
+                // Never 0, which stands for no lifetime
+                expiresAt[device] = (System.nanoTime() +
+                                     TimeUnit.MILLISECONDS.toNanos(deviceClass.getLifetimeMillis())) | 1;
+            }
+            if (device >= active) {
+                // Deactivated while connecting
+                deactivate(device);
+            }
+            if (!scheduled[device]) {
+                // Start publishing at a random phase so that devices connected together do not publish together
+                schedule(device, ThreadLocalRandom.current().nextLong(intervalNanos));
+            }
+        }
+    }
+
+    /**
+     * Closes the client of a device on the connect pool, as closing waits for the disconnect to complete, so that
+     * replacing or deactivating a device does not hold the run thread.
+     *
+     * @param device the index of the device in the fleet
+     */
+    private void closeLater(int device) {
+        final BaseClient client = clients[device];
+        expiresAt[device] = 0;
+        if (client == null) {
+            return;
+        }
+        clients[device] = null;
+        topics[device] = null;
+        ClientScheduler.getConnectExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                close(client);
+            }
+        });
+    }
+
+    private void close(int device) {
+        BaseClient client = clients[device];
+        expiresAt[device] = 0;
+        if (client == null) {
+            return;
+        }
+        clients[device] = null;
+        topics[device] = null;
+        close(client);
+    }
+
+    private static void close(BaseClient client) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.warn(client.getClientId() + " unable to close: " + e.toString());
+        }
+    }
+
+    /**
+     * A connect completed on the connect pool.
+     */
+    private static final class Connected {
+        private final int device;
+        private final String clientId;
+        // Null if the device could not connect
+        private BaseClient client;
+
+        private Connected(int device, String clientId) {
+            this.device = device;
+            this.clientId = clientId;
+        }
+    }
+}
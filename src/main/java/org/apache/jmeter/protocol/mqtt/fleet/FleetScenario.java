@@ -0,0 +1,242 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.fleet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.protocol.mqtt.utilities.Utils;
+import org.apache.jmeter.save.CSVSaveService;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The device classes of a fleet and the numbering of their devices. The devices of a class are numbered contiguously
+ * in the order of the classes, so a device is mapped to its class by a search over the class start numbers and a
+ * scenario of any size holds nothing per device.
+ * <p/>
+ * A scenario is compiled from a CSV file with a header line naming its columns and a line per device class. Blank
+ * lines and lines starting with # are skipped. The columns are:
+ * <ul>
+ * <li>name - the name of the class, used to label its results (required)</li>
+ * <li>count - the number of devices (required)</li>
+ * <li>interval_ms - the time between two publishes of a device (required)</li>
+ * <li>topic - the topic of the devices, see {@link DeviceClass#topicOf(String, int)} (required)</li>
+ * <li>qos - the qos of the messages, 0 by default</li>
+ * <li>retained - true to retain the messages, false by default</li>
+ * <li>payload - the message text</li>
+ * <li>payload_size - the size of a random message, used when there is no message text</li>
+ * <li>lifetime_ms - the time after which a device reconnects, 0 by default to keep the connection</li>
+ * </ul>
+ */
+public class FleetScenario {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final String NAME = "name";
+    private static final String COUNT = "count";
+    private static final String INTERVAL = "interval_ms";
+    private static final String TOPIC = "topic";
+    private static final String QOS = "qos";
+    private static final String RETAINED = "retained";
+    private static final String PAYLOAD = "payload";
+    private static final String PAYLOAD_SIZE = "payload_size";
+    private static final String LIFETIME = "lifetime_ms";
+
+    private static final Map<String, FleetScenario> compiled = new HashMap<>();
+
+    private final DeviceClass[] classes;
+    private final int[] classStart;
+    private final int deviceCount;
+
+    /**
+     * @param classes the device classes
+     * @throws IllegalArgumentException if there are more than {@link Integer#MAX_VALUE} devices
+     */
+    public FleetScenario(List<DeviceClass> classes) {
+        this.classes = classes.toArray(new DeviceClass[classes.size()]);
+        this.classStart = new int[this.classes.length];
+        long devices = 0;
+        for (int i = 0; i < this.classes.length; i++) {
+            classStart[i] = (int) devices;
+            devices += this.classes[i].getCount();
+            if (devices > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many devices, at most " + Integer.MAX_VALUE + " are supported");
+            }
+        }
+        this.deviceCount = (int) devices;
+    }
+
+    /**
+     * Returns the scenario compiled from a file, compiling it on first use. The scenario is shared by all the callers
+     * until {@link #clear()}.
+     *
+     * @param path the path of the scenario file
+     * @return The scenario.
+     * @throws IOException if the file could not be read or is not a valid scenario
+     */
+    public static synchronized FleetScenario get(String path) throws IOException {
+        FleetScenario scenario = compiled.get(path);
+        if (scenario == null) {
+            long start = System.nanoTime();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path),
+                    StandardCharsets.UTF_8))) {
+                scenario = parse(reader, path);
+            }
+            compiled.put(path, scenario);
+            log.info("Compiled " + scenario.getDeviceCount() + " devices of " + scenario.classes.length +
+                     " classes from " + path + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        return scenario;
+    }
+
+    /**
+     * Forgets the compiled scenarios, so that the files are read again by the next test.
+     */
+    public static synchronized void clear() {
+        compiled.clear();
+    }
+
+    /**
+     * Compiles a scenario.
+     *
+     * @param reader the scenario lines
+     * @param source the name of the scenario in the error messages
+     * @return The scenario.
+     * @throws IOException if the scenario could not be read or is not valid
+     */
+    static FleetScenario parse(BufferedReader reader, String source) throws IOException {
+        Map<String, Integer> columns = null;
+        List<DeviceClass> classes = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (StringUtils.isBlank(line) || line.trim().startsWith("#")) {
+                continue;
+            }
+            String[] values = CSVSaveService.csvSplitString(line, ',');
+            if (columns == null) {
+                columns = new HashMap<>();
+                for (int i = 0; i < values.length; i++) {
+                    columns.put(values[i].trim().toLowerCase(), i);
+                }
+                for (String required : Arrays.asList(NAME, COUNT, INTERVAL, TOPIC)) {
+                    if (!columns.containsKey(required)) {
+                        throw new IOException(source + ": missing column " + required);
+                    }
+                }
+                continue;
+            }
+            try {
+                DeviceClass deviceClass = parseClass(columns, values);
+                if (!names.add(deviceClass.getName())) {
+                    throw new IllegalArgumentException("duplicate class " + deviceClass.getName());
+                }
+                classes.add(deviceClass);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(source + ":" + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        if (classes.isEmpty()) {
+            throw new IOException(source + ": no device classes");
+        }
+        return new FleetScenario(classes);
+    }
+
+    private static DeviceClass parseClass(Map<String, Integer> columns, String[] values) {
+        String name = value(columns, values, NAME);
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("empty " + NAME);
+        }
+        int count = Integer.parseInt(value(columns, values, COUNT));
+        long interval = Long.parseLong(value(columns, values, INTERVAL));
+        String topic = value(columns, values, TOPIC);
+        if (count < 0 || interval <= 0 || topic.isEmpty()) {
+            throw new IllegalArgumentException(COUNT + " must not be negative, " + INTERVAL + " must be positive and " +
+                                               TOPIC + " must not be empty");
+        }
+        String qosValue = value(columns, values, QOS);
+        int qos = qosValue.isEmpty() ? 0 : Integer.parseInt(qosValue);
+        if (qos < 0 || qos > 2) {
+            throw new IllegalArgumentException("invalid " + QOS + " " + qos);
+        }
+        boolean retained = Boolean.parseBoolean(value(columns, values, RETAINED));
+        String lifetime = value(columns, values, LIFETIME);
+        byte[] payload;
+        String text = value(columns, values, PAYLOAD);
+        String size = value(columns, values, PAYLOAD_SIZE);
+        if (text.isEmpty() && !size.isEmpty()) {
+            payload = Utils.randomPayload(name, Integer.parseInt(size));
+        } else {
+            payload = text.getBytes(StandardCharsets.UTF_8);
+        }
+        return new DeviceClass(name, count, interval, qos, retained, payload, topic,
+                lifetime.isEmpty() ? 0 : Long.parseLong(lifetime));
+    }
+
+    private static String value(Map<String, Integer> columns, String[] values, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= values.length) {
+            return "";
+        }
+        return values[index].trim();
+    }
+
+    public DeviceClass[] getDeviceClasses() {
+        return classes;
+    }
+
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    /**
+     * @param classIndex the index of a class
+     * @return The number of the first device of the class.
+     */
+    public int getClassStart(int classIndex) {
+        return classStart[classIndex];
+    }
+
+    /**
+     * @param device the number of a device
+     * @return The index of the class of the device.
+     */
+    public int classIndexOf(int device) {
+        int index = Arrays.binarySearch(classStart, device);
+        if (index < 0) {
+            return -index - 2;
+        }
+        // Skip the classes without devices starting at the same number
+        while (index + 1 < classStart.length && classStart[index + 1] == device) {
+            index++;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.fleet;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timing wheel of timers identified by an int. Each of the four levels has 256 slots; a timer is kept in
+ * the lowest level whose span covers its due tick and moves down a level each time the level below wraps around, so
+ * scheduling and expiring a timer both take constant time however many timers there are.
+ * <p/>
+ * The wheel holds no object per timer, only its due tick and its id in a slot, and is not thread safe: it is driven by
+ * a single thread.
+ */
+public class TimingWheel {
+
+    /**
+     * Receiver of the expired timers.
+     */
+    public interface Expiry {
+        /**
+         * Called when a timer expires. The timer may be scheduled again from this method.
+         *
+         * @param id the timer id
+         */
+        void expired(int id);
+    }
+
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELAY_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final long tickNanos;
+    private final long originNanos;
+    private final long[] due;
+    private final int[][] slotIds = new int[LEVELS * SLOTS][];
+    private final int[] slotSizes = new int[LEVELS * SLOTS];
+    private long currentTick = 0;
+
+    /**
+     * @param timers    the number of timers, with ids from 0 to timers - 1
+     * @param tickNanos the resolution of the wheel in nanoseconds
+     * @param nowNanos  the current time, in {@link System#nanoTime()} terms
+     */
+    public TimingWheel(int timers, long tickNanos, long nowNanos) {
+        this.tickNanos = tickNanos;
+        this.originNanos = nowNanos;
+        this.due = new long[timers];
+        Arrays.fill(due, -1);
+    }
+
+    /**
+     * Schedules a timer that is not scheduled. A timer expires at the first tick at or after its delay, and at least
+     * one tick from now.
+     *
+     * @param id         the timer id
+     * @param delayNanos the delay from the current tick in nanoseconds
+     */
+    public void schedule(int id, long delayNanos) {
+        long ticks = Math.max(1, (delayNanos + tickNanos - 1) / tickNanos);
+        due[id] = currentTick + Math.min(ticks, MAX_DELAY_TICKS);
+        place(id);
+    }
+
+    /**
+     * @return The time of the next tick, in {@link System#nanoTime()} terms.
+     */
+    public long nextTickNanos() {
+        return originNanos + (currentTick + 1) * tickNanos;
+    }
+
+    /**
+     * Expires all the timers due up to now.
+     *
+     * @param nowNanos the current time, in {@link System#nanoTime()} terms
+     * @param expiry   the receiver of the expired timers
+     * @return The number of expired timers.
+     */
+    public int advance(long nowNanos, Expiry expiry) {
+        long targetTick = (nowNanos - originNanos) / tickNanos;
+        int expired = 0;
+        while (currentTick < targetTick) {
+            currentTick++;
+            int index = (int) (currentTick & SLOT_MASK);
+            if (index == 0) {
+                // Move the timers of the next slot of each higher level down, as far as the levels wrap around
+                for (int level = 1; level < LEVELS; level++) {
+                    int levelIndex = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+                    cascade(level * SLOTS + levelIndex);
+                    if (levelIndex != 0) {
+                        break;
+                    }
+                }
+            }
+            int[] ids = slotIds[index];
+            int size = slotSizes[index];
+            // Expired timers are rescheduled at least one tick ahead, never into the slot being expired
+            slotSizes[index] = 0;
+            for (int i = 0; i < size; i++) {
+                int id = ids[i];
+                due[id] = -1;
+                expiry.expired(id);
+            }
+            expired += size;
+        }
+        return expired;
+    }
+
+    private void cascade(int slot) {
+        int[] ids = slotIds[slot];
+        int size = slotSizes[slot];
+        slotSizes[slot] = 0;
+        for (int i = 0; i < size; i++) {
+            place(ids[i]);
+        }
+    }
+
+    private void place(int id) {
+        long dueTick = due[id];
+        long delta = dueTick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = level * SLOTS + (int) ((dueTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        int[] ids = slotIds[slot];
+        int size = slotSizes[slot];
+        if (ids == null) {
+            ids = new int[4];
+            slotIds[slot] = ids;
+        } else if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            slotIds[slot] = ids;
+        }
+        ids[size] = id;
+        slotSizes[slot] = size + 1;
+    }
+}
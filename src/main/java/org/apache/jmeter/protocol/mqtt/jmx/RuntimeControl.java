@@ -0,0 +1,318 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.jmx;
+
+import org.apache.jmeter.protocol.mqtt.client.ClientScheduler;
+import org.apache.jmeter.protocol.mqtt.client.RatePacer;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RuntimeControl steers a running test from a JMX console such as jconsole, without restarting its threads. It
+ * reports the counters of all the clients and changes the target rates of the publishers, the limit of publishes in
+ * flight of the clients and the number of active devices of the device fleets. The changes take effect within a
+ * second.
+ * <p/>
+ * The threads of a sampler share its pacer and active device count through this class, under the key the element
+ * registers at the start of the test: its name, followed by a number if other elements have the same name. The MBean
+ * is registered with the platform MBean server at the start of the first test, and the rates are only measured while
+ * a test runs.
+ */
+public class RuntimeControl implements RuntimeControlMBean {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String OBJECT_NAME = "org.apache.jmeter.protocol.mqtt:type=RuntimeControl";
+
+    private static final long RATE_PERIOD_MILLIS = 1000;
+    // Stands for all the devices
+    private static final int ALL_DEVICES = -1;
+
+    private static final RuntimeControl instance = new RuntimeControl();
+    private static final ConcurrentMap<String, RatePacer> pacers = new ConcurrentHashMap<String, RatePacer>();
+    private static final ConcurrentMap<String, AtomicInteger> activeDevices =
+            new ConcurrentHashMap<String, AtomicInteger>();
+    // The number of elements registered by name in the running test, guarded by the class
+    private static final Map<String, Integer> elements = new HashMap<String, Integer>();
+    private static boolean registered = false;
+    private static ScheduledFuture<?> rateTask = null;
+
+    private volatile double publishRate = 0;
+    private volatile double receiveRate = 0;
+    // Guarded by the instance
+    private long lastPublished = 0;
+    private long lastReceived = 0;
+    private long lastNanos = System.nanoTime();
+
+    private final Runnable updateRates = new Runnable() {
+        @Override
+        public void run() {
+            updateRates();
+        }
+    };
+
+    private RuntimeControl() {
+    }
+
+    /**
+     * Forgets the samplers and counters of the previous test, registers the MBean on first use and starts measuring
+     * the rates. This is called by every element at the start of a test, only the first call of a test does anything.
+     */
+    public static synchronized void testStarted() {
+        if (rateTask != null) {
+            return;
+        }
+        pacers.clear();
+        activeDevices.clear();
+        elements.clear();
+        BaseClient.resetCounters();
+        BaseClient.setMaxInflight(0);
+        instance.resetRates();
+        rateTask = ClientScheduler.getScheduler().scheduleAtFixedRate(instance.updateRates, RATE_PERIOD_MILLIS,
+                RATE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        if (registered) {
+            return;
+        }
+        registered = true;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(instance, name);
+            }
+            log.info("Registered the MQTT runtime control MBean " + OBJECT_NAME);
+        } catch (JMException e) {
+            log.warn("Unable to register the MQTT runtime control MBean: " + e.toString());
+        }
+    }
+
+    /**
+     * Stops measuring the rates. This is called by every element at the end of a test.
+     */
+    public static synchronized void testEnded() {
+        if (rateTask != null) {
+            rateTask.cancel(false);
+            rateTask = null;
+            instance.resetRates();
+        }
+    }
+
+    /**
+     * Gives an element the key its threads share their pacer or active devices under. Called once per element at the
+     * start of a test, after {@link #testStarted()}, so that elements with the same name, such as the default one, are
+     * controlled apart.
+     *
+     * @param name the name of the element
+     * @return The name, followed by " #" and a number if other elements have the same name.
+     */
+    public static synchronized String register(String name) {
+        Integer previous = elements.get(name);
+        int count = previous == null ? 1 : previous + 1;
+        elements.put(name, count);
+        if (count == 1) {
+            return name;
+        }
+        String key = name + " #" + count;
+        log.warn(count + " elements are named " + name + ", this one is controlled at runtime as " + key);
+        return key;
+    }
+
+    /**
+     * Returns the pacer of the publishes of a sampler, shared by its threads.
+     *
+     * @param sampler     the key of the sampler
+     * @param initialRate the target rate in messages per second if the pacer does not exist yet, 0 for unlimited
+     * @return The pacer.
+     */
+    public static RatePacer getPublishPacer(String sampler, double initialRate) {
+        RatePacer pacer = pacers.get(sampler);
+        if (pacer == null) {
+            RatePacer newPacer = new RatePacer(initialRate);
+            pacer = pacers.putIfAbsent(sampler, newPacer);
+            if (pacer == null) {
+                pacer = newPacer;
+            }
+        }
+        return pacer;
+    }
+
+    /**
+     * Returns the number of active devices per thread of a sampler, shared by its threads.
+     *
+     * @param sampler the key of the sampler
+     * @param initial the number if it does not exist yet, 0 or less for all
+     * @return The number of active devices, negative for all.
+     */
+    public static AtomicInteger getActiveDevices(String sampler, int initial) {
+        AtomicInteger devices = activeDevices.get(sampler);
+        if (devices == null) {
+            AtomicInteger newDevices = new AtomicInteger(initial > 0 ? initial : ALL_DEVICES);
+            devices = activeDevices.putIfAbsent(sampler, newDevices);
+            if (devices == null) {
+                devices = newDevices;
+            }
+        }
+        return devices;
+    }
+
+    private synchronized void resetRates() {
+        publishRate = 0;
+        receiveRate = 0;
+        lastPublished = BaseClient.getPublishedCount();
+        lastReceived = BaseClient.getReceivedCount();
+        lastNanos = System.nanoTime();
+    }
+
+    private synchronized void updateRates() {
+        long now = System.nanoTime();
+        long published = BaseClient.getPublishedCount();
+        long received = BaseClient.getReceivedCount();
+        double seconds = (now - lastNanos) / 1e9;
+        // The counters go back to 0 at the start of a test
+        publishRate = published >= lastPublished ? (published - lastPublished) / seconds : published / seconds;
+        receiveRate = received >= lastReceived ? (received - lastReceived) / seconds : received / seconds;
+        lastPublished = published;
+        lastReceived = received;
+        lastNanos = now;
+    }
+
+    @Override
+    public int getOpenClients() {
+        return BaseClient.countOpen();
+    }
+
+    @Override
+    public int getConnectedClients() {
+        return BaseClient.countConnected();
+    }
+
+    @Override
+    public long getQueuedMessages() {
+        return BaseClient.countQueued();
+    }
+
+    @Override
+    public long getInFlightPublishes() {
+        return BaseClient.countInFlight();
+    }
+
+    @Override
+    public long getPublishedMessages() {
+        return BaseClient.getPublishedCount();
+    }
+
+    @Override
+    public long getFailedPublishes() {
+        return BaseClient.getFailedCount();
+    }
+
+    @Override
+    public long getReceivedMessages() {
+        return BaseClient.getReceivedCount();
+    }
+
+    @Override
+    public double getPublishRate() {
+        return publishRate;
+    }
+
+    @Override
+    public double getReceiveRate() {
+        return receiveRate;
+    }
+
+    @Override
+    public int getMaxInflight() {
+        return BaseClient.getMaxInflight();
+    }
+
+    @Override
+    public void setMaxInflight(int maxInflight) {
+        BaseClient.setMaxInflight(maxInflight);
+        log.info("Limited the publishes in flight of each client to " + BaseClient.getMaxInflight());
+    }
+
+    @Override
+    public String[] getPacedSamplers() {
+        List<String> samplers = new ArrayList<String>();
+        for (Map.Entry<String, RatePacer> entry : pacers.entrySet()) {
+            samplers.add(entry.getKey() + ": " + entry.getValue().getRate());
+        }
+        return samplers.toArray(new String[samplers.size()]);
+    }
+
+    @Override
+    public String[] getFleetSamplers() {
+        List<String> samplers = new ArrayList<String>();
+        for (Map.Entry<String, AtomicInteger> entry : activeDevices.entrySet()) {
+            samplers.add(entry.getKey() + ": " + entry.getValue().get());
+        }
+        return samplers.toArray(new String[samplers.size()]);
+    }
+
+    @Override
+    public double getSamplerPublishRate(String sampler) {
+        return getPacer(sampler).getRate();
+    }
+
+    @Override
+    public void setSamplerPublishRate(String sampler, double perSecond) {
+        getPacer(sampler).setRate(perSecond);
+        log.info("Changed the target rate of " + sampler + " to " + perSecond + " msg/s");
+    }
+
+    @Override
+    public int getActiveDevices(String sampler) {
+        return getDevices(sampler).get();
+    }
+
+    @Override
+    public void setActiveDevices(String sampler, int devices) {
+        getDevices(sampler).set(devices < 0 ? ALL_DEVICES : devices);
+        log.info("Changed the active devices per thread of " + sampler + " to " + devices);
+    }
+
+    private static RatePacer getPacer(String sampler) {
+        RatePacer pacer = pacers.get(sampler);
+        if (pacer == null) {
+            throw new IllegalArgumentException("No running publisher named " + sampler);
+        }
+        return pacer;
+    }
+
+    private static AtomicInteger getDevices(String sampler) {
+        AtomicInteger devices = activeDevices.get(sampler);
+        if (devices == null) {
+            throw new IllegalArgumentException("No running device fleet named " + sampler);
+        }
+        return devices;
+    }
+}
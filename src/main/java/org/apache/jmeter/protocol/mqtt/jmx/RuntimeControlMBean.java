@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.jmx;
+
+/**
+ * The management interface of {@link RuntimeControl}. The counters cover all the clients of the injector since the
+ * start of the test, the samplers are identified by their element name.
+ */
+public interface RuntimeControlMBean {
+
+    /**
+     * @return The number of clients that have connected and are not closed yet.
+     */
+    int getOpenClients();
+
+    /**
+     * @return The number of clients currently connected.
+     */
+    int getConnectedClients();
+
+    /**
+     * @return The number of received messages waiting to be sampled.
+     */
+    long getQueuedMessages();
+
+    /**
+     * @return The number of messages being published.
+     */
+    long getInFlightPublishes();
+
+    long getPublishedMessages();
+
+    long getFailedPublishes();
+
+    long getReceivedMessages();
+
+    /**
+     * @return The messages published per second over the last second.
+     */
+    double getPublishRate();
+
+    /**
+     * @return The messages received per second over the last second.
+     */
+    double getReceiveRate();
+
+    /**
+     * @return The limit of the asynchronous publishes in flight of each client, 0 for the limit of the client only.
+     */
+    int getMaxInflight();
+
+    /**
+     * @param maxInflight the limit of the asynchronous publishes in flight of each client, 0 for the limit of the
+     *                    client only
+     */
+    void setMaxInflight(int maxInflight);
+
+    /**
+     * @return The publisher samplers with their target rate in messages per second, 0 for unlimited.
+     */
+    String[] getPacedSamplers();
+
+    /**
+     * @return The device fleet samplers with their number of active devices per thread, -1 for all.
+     */
+    String[] getFleetSamplers();
+
+    /**
+     * @param sampler the key of a publisher sampler, see {@link RuntimeControl#register(String)}
+     * @return The target rate of the sampler in messages per second, 0 for unlimited.
+     */
+    double getSamplerPublishRate(String sampler);
+
+    /**
+     * Changes the target rate of all the threads of a publisher sampler.
+     *
+     * @param sampler   the key of a publisher sampler, see {@link RuntimeControl#register(String)}
+     * @param perSecond the target rate in messages per second, 0 for unlimited
+     */
+    void setSamplerPublishRate(String sampler, double perSecond);
+
+    /**
+     * @param sampler the key of a device fleet sampler, see {@link RuntimeControl#register(String)}
+     * @return The number of active devices per thread of the sampler, -1 for all.
+     */
+    int getActiveDevices(String sampler);
+
+    /**
+     * Connects or disconnects devices of all the threads of a device fleet sampler, keeping the first devices of each
+     * thread active.
+     *
+     * @param sampler the key of a device fleet sampler, see {@link RuntimeControl#register(String)}
+     * @param devices the number of active devices per thread, -1 for all
+     */
+    void setActiveDevices(String sampler, int devices);
+}
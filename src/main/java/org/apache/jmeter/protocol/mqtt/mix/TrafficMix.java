@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.mix;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.protocol.mqtt.topic.TopicTemplate;
+import org.apache.jmeter.protocol.mqtt.utilities.Utils;
+import org.apache.jmeter.save.CSVSaveService;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A weighted table of messages to publish, picked in constant time by an {@link AliasTable}. The table is written with
+ * a line per entry: name,weight,topic,qos,retained,payload. Blank lines and lines starting with # are skipped. The
+ * payload is text, text:message, file:path to publish the content of a file, read once, or size:bytes for random
+ * bytes. The topic may be a {@link TopicTemplate}.
+ * <p/>
+ * Mixes are compiled once and shared by all the threads using the same table until {@link #clear()}.
+ */
+public class TrafficMix {
+
+    private static final String TEXT = "text:";
+    private static final String FILE = "file:";
+    private static final String SIZE = "size:";
+
+    private static final Map<String, TrafficMix> compiled = new HashMap<>();
+
+    private final Entry[] entries;
+    private final AliasTable table;
+
+    private TrafficMix(List<Entry> entries) {
+        this.entries = entries.toArray(new Entry[entries.size()]);
+        double[] weights = new double[this.entries.length];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = this.entries[i].weight;
+        }
+        this.table = new AliasTable(weights);
+    }
+
+    /**
+     * Returns the compiled mix of a table, compiling it on first use.
+     *
+     * @param definition the table
+     * @return The mix.
+     * @throws IOException if the table is not valid or a payload file could not be read
+     */
+    public static synchronized TrafficMix get(String definition) throws IOException {
+        TrafficMix mix = compiled.get(definition);
+        if (mix == null) {
+            mix = parse(definition);
+            compiled.put(definition, mix);
+        }
+        return mix;
+    }
+
+    /**
+     * Forgets the compiled mixes, so that the payload files are read again by the next test.
+     */
+    public static synchronized void clear() {
+        compiled.clear();
+    }
+
+    private static TrafficMix parse(String definition) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new StringReader(definition));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (StringUtils.isBlank(line) || line.trim().startsWith("#")) {
+                continue;
+            }
+            String[] values = CSVSaveService.csvSplitString(line, ',');
+            try {
+                if (values.length < 3) {
+                    throw new IllegalArgumentException("expected name,weight,topic,qos,retained,payload");
+                }
+                int qos = values.length > 3 && StringUtils.isNotBlank(values[3]) ? Integer.parseInt(values[3].trim()) : 0;
+                if (qos < 0 || qos > 2) {
+                    throw new IllegalArgumentException("invalid qos " + qos);
+                }
+                String topic = values[2].trim();
+                entries.add(new Entry(values[0].trim(), Double.parseDouble(values[1].trim()), topic,
+                        TopicTemplate.isTemplate(topic) ? TopicTemplate.get(topic) : null, qos,
+                        values.length > 4 && Boolean.parseBoolean(values[4].trim()),
+                        payload(values[0].trim(), values.length > 5 ? values[5] : "")));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Traffic mix line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        if (entries.isEmpty()) {
+            throw new IOException("Traffic mix has no entries");
+        }
+        try {
+            return new TrafficMix(entries);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Traffic mix: " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] payload(String name, String value) throws IOException {
+        if (value.startsWith(FILE)) {
+            return FileUtils.readFileToByteArray(new File(value.substring(FILE.length()).trim()));
+        } else if (value.startsWith(SIZE)) {
+            return Utils.randomPayload(name, Integer.parseInt(value.substring(SIZE.length()).trim()));
+        } else if (value.startsWith(TEXT)) {
+            return value.substring(TEXT.length()).getBytes(StandardCharsets.UTF_8);
+        }
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public Entry[] getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return The index of a random entry, picked by weight.
+     */
+    public int next() {
+        return table.next();
+    }
+
+    /**
+     * An entry of the mix.
+     */
+    public static final class Entry {
+        private final String name;
+        private final double weight;
+        private final String topic;
+        private final TopicTemplate topicTemplate;
+        private final int qos;
+        private final boolean retained;
+        private final byte[] payload;
+
+        private Entry(String name, double weight, String topic, TopicTemplate topicTemplate, int qos,
+                      boolean retained, byte[] payload) {
+            this.name = name;
+            this.weight = weight;
+            this.topic = topic;
+            this.topicTemplate = topicTemplate;
+            this.qos = qos;
+            this.retained = retained;
+            this.payload = payload;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * @return The expanded topic, or null if the topic is not a template.
+         */
+        public TopicTemplate getTopicTemplate() {
+            return topicTemplate;
+        }
+
+        public int getQos() {
+            return qos;
+        }
+
+        public boolean isRetained() {
+            return retained;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.nio.clients;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.util.Map;
+
+/**
+ * MQTT 5 client on the {@link NioEngine}. Topic aliases are assigned automatically on publish and the qos 1 and 2
+ * messages in flight are bounded by the Receive Maximum of the broker. A message expiry interval and user properties
+ * can be sent with every message.
+ */
+public class Mqtt5Client extends NioClient {
+
+    /**
+     * Constructs an instance of the MQTT 5 client and connects it.
+     *
+     * @param brokerUrl    the url to connect to, tcp://host:port
+     * @param clientId     the client id to connect with
+     * @param cleanSession start a new session, otherwise the session never expires
+     * @param userName     the username to connect with
+     * @param password     the password for the user
+     * @param keepAlive    the keep alive interval in seconds
+     * @throws MqttException if the url is not supported or the client could not connect
+     */
+    public Mqtt5Client(String brokerUrl, String clientId, boolean cleanSession,
+                       String userName, String password, int keepAlive) throws MqttException {
+        super(brokerUrl, clientId, cleanSession, userName, password, keepAlive, MqttCodec.PROTOCOL_LEVEL_5);
+    }
+
+    /**
+     * Sets the properties sent with every message.
+     *
+     * @param messageExpiry  the message expiry interval in seconds, 0 for none
+     * @param userProperties the user properties, in order
+     */
+    public void setMessageProperties(long messageExpiry, Map<String, String> userProperties) {
+        setPublishProperties(MqttCodec.encodePublishProperties(messageExpiry, userProperties));
+    }
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.nio.clients;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encoder and decoder of the MQTT 3.1.1 and MQTT 5 control packets used by the {@link NioClient}. Packets are written
+ * into and read from caller supplied buffers so that no intermediate objects are created per packet.
+ * <p/>
+ * MQTT 5 packets carry a properties section. Methods taking a properties argument write the MQTT 3.1.1 form when it is
+ * null.
+ */
+final class MqttCodec {
+
+    static final int CONNECT = 1;
+    static final int CONNACK = 2;
+    static final int PUBLISH = 3;
+    static final int PUBACK = 4;
+    static final int PUBREC = 5;
+    static final int PUBREL = 6;
+    static final int PUBCOMP = 7;
+    static final int SUBSCRIBE = 8;
+    static final int SUBACK = 9;
+    static final int UNSUBSCRIBE = 10;
+    static final int UNSUBACK = 11;
+    static final int PINGREQ = 12;
+    static final int PINGRESP = 13;
+    static final int DISCONNECT = 14;
+
+    static final int PROTOCOL_LEVEL_3_1_1 = 4;
+    static final int PROTOCOL_LEVEL_5 = 5;
+
+    static final int MESSAGE_EXPIRY_INTERVAL = 0x02;
+    static final int SESSION_EXPIRY_INTERVAL = 0x11;
+    static final int SERVER_KEEP_ALIVE = 0x13;
+    static final int RECEIVE_MAXIMUM = 0x21;
+    static final int TOPIC_ALIAS_MAXIMUM = 0x22;
+    static final int TOPIC_ALIAS = 0x23;
+    static final int USER_PROPERTY = 0x26;
+
+    /**
+     * The first reason code of MQTT 5 that reports a failure.
+     */
+    static final int REASON_FAILURE = 0x80;
+
+    static final byte[] NO_PROPERTIES = new byte[0];
+
+    /**
+     * The largest remaining length that can be encoded in the four length bytes.
+     */
+    static final int MAX_REMAINING_LENGTH = 268435455;
+
+    private MqttCodec() {
+    }
+
+    /**
+     * Encodes a CONNECT packet. The packet is kept by the client and written again on every reconnect.
+     *
+     * @param clientId      the client id
+     * @param cleanSession  whether the broker discards the previous session
+     * @param keepAlive     the keep alive interval in seconds
+     * @param userName      the user name, or null
+     * @param password      the password, or null
+     * @param protocolLevel {@link #PROTOCOL_LEVEL_3_1_1} or {@link #PROTOCOL_LEVEL_5}
+     * @return The encoded packet.
+     */
+    static byte[] encodeConnect(String clientId, boolean cleanSession, int keepAlive, String userName,
+                                String password, int protocolLevel) {
+        byte[] id = utf8(clientId);
+        byte[] user = userName == null || userName.isEmpty() ? null : utf8(userName);
+        byte[] pass = password == null || password.isEmpty() ? null : utf8(password);
+
+        // An MQTT 5 session ends with the connection unless it is given an expiry interval
+        int propertiesLength = protocolLevel < PROTOCOL_LEVEL_5 ? -1 : cleanSession ? 0 : 5;
+        int flags = cleanSession ? 0x02 : 0;
+        int remaining = 10 + 2 + id.length;
+        if (propertiesLength >= 0) {
+            remaining += variableIntSize(propertiesLength) + propertiesLength;
+        }
+        if (user != null) {
+            flags |= 0x80;
+            remaining += 2 + user.length;
+        }
+        if (pass != null) {
+            flags |= 0x40;
+            remaining += 2 + pass.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 + remainingLengthSize(remaining) + remaining);
+        buffer.put((byte) (CONNECT << 4));
+        putRemainingLength(buffer, remaining);
+        buffer.putShort((short) 4).put((byte) 'M').put((byte) 'Q').put((byte) 'T').put((byte) 'T');
+        buffer.put((byte) protocolLevel);
+        buffer.put((byte) flags);
+        buffer.putShort((short) keepAlive);
+        if (propertiesLength >= 0) {
+            putVariableInt(buffer, propertiesLength);
+            if (propertiesLength > 0) {
+                buffer.put((byte) SESSION_EXPIRY_INTERVAL).putInt(0xFFFFFFFF);
+            }
+        }
+        putString(buffer, id);
+        if (user != null) {
+            putString(buffer, user);
+        }
+        if (pass != null) {
+            putString(buffer, pass);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encodes the properties of the PUBLISH packets that do not change from message to message.
+     *
+     * @param messageExpiry  the message expiry interval in seconds, 0 or less for none
+     * @param userProperties the user properties, in order
+     * @return The encoded properties, without their length.
+     */
+    static byte[] encodePublishProperties(long messageExpiry, Map<String, String> userProperties) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (messageExpiry > 0) {
+            out.write(MESSAGE_EXPIRY_INTERVAL);
+            int expiry = (int) Math.min(messageExpiry, 0xFFFFFFFFL);
+            out.write(expiry >>> 24);
+            out.write(expiry >>> 16);
+            out.write(expiry >>> 8);
+            out.write(expiry);
+        }
+        for (Map.Entry<String, String> property : userProperties.entrySet()) {
+            out.write(USER_PROPERTY);
+            writeString(out, utf8(property.getKey()));
+            writeString(out, utf8(property.getValue()));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Computes the size of the PUBLISH packet header, that is everything but the payload.
+     *
+     * @param topic         the encoded topic name
+     * @param qos           the qos
+     * @param payloadLength the payload size in bytes
+     * @param alias         the topic alias, 0 for none
+     * @param properties    the encoded properties other than the topic alias, null for MQTT 3.1.1
+     * @return The header size in bytes.
+     */
+    static int publishHeaderSize(byte[] topic, int qos, int payloadLength, int alias, byte[] properties) {
+        int remaining = publishRemainingLength(topic, qos, payloadLength, alias, properties);
+        return 1 + remainingLengthSize(remaining) + remaining - payloadLength;
+    }
+
+    /**
+     * Writes the header of a PUBLISH packet. The payload is written separately so that it is not copied.
+     *
+     * @param buffer        the buffer to write to
+     * @param topic         the encoded topic name
+     * @param qos           the qos
+     * @param retained      whether the broker retains the message
+     * @param dup           whether the message is a redelivery
+     * @param packetId      the packet id, ignored for qos 0
+     * @param payloadLength the payload size in bytes
+     * @param alias         the topic alias, 0 for none
+     * @param properties    the encoded properties other than the topic alias, null for MQTT 3.1.1
+     */
+    static void putPublishHeader(ByteBuffer buffer, byte[] topic, int qos, boolean retained, boolean dup,
+                                 int packetId, int payloadLength, int alias, byte[] properties) {
+        int header = PUBLISH << 4 | qos << 1;
+        if (retained) {
+            header |= 0x01;
+        }
+        if (dup) {
+            header |= 0x08;
+        }
+        buffer.put((byte) header);
+        putRemainingLength(buffer, publishRemainingLength(topic, qos, payloadLength, alias, properties));
+        putString(buffer, topic);
+        if (qos > 0) {
+            buffer.putShort((short) packetId);
+        }
+        if (properties != null) {
+            putVariableInt(buffer, propertiesLength(alias, properties));
+            if (alias > 0) {
+                buffer.put((byte) TOPIC_ALIAS).putShort((short) alias);
+            }
+            buffer.put(properties);
+        }
+    }
+
+    /**
+     * Writes a SUBSCRIBE packet for a single topic filter.
+     *
+     * @param buffer   the buffer to write to
+     * @param packetId the packet id
+     * @param filter   the encoded topic filter
+     * @param qos      the maximum qos
+     * @param mqtt5    whether to write the empty MQTT 5 properties
+     */
+    static void putSubscribe(ByteBuffer buffer, int packetId, byte[] filter, int qos, boolean mqtt5) {
+        buffer.put((byte) (SUBSCRIBE << 4 | 0x02));
+        putRemainingLength(buffer, 2 + (mqtt5 ? 1 : 0) + 2 + filter.length + 1);
+        buffer.putShort((short) packetId);
+        if (mqtt5) {
+            buffer.put((byte) 0);
+        }
+        putString(buffer, filter);
+        buffer.put((byte) qos);
+    }
+
+    /**
+     * Writes one of the fixed size acknowledgements PUBACK, PUBREC, PUBREL or PUBCOMP.
+     *
+     * @param buffer   the buffer to write to
+     * @param type     the packet type
+     * @param packetId the packet id
+     */
+    static void putAck(ByteBuffer buffer, int type, int packetId) {
+        buffer.put((byte) (type == PUBREL ? PUBREL << 4 | 0x02 : type << 4));
+        buffer.put((byte) 2);
+        buffer.putShort((short) packetId);
+    }
+
+    /**
+     * Writes one of the empty packets PINGREQ or DISCONNECT.
+     *
+     * @param buffer the buffer to write to
+     * @param type   the packet type
+     */
+    static void putEmpty(ByteBuffer buffer, int type) {
+        buffer.put((byte) (type << 4));
+        buffer.put((byte) 0);
+    }
+
+    /**
+     * Decodes the total size of the packet starting at the given position, without moving the buffer position.
+     *
+     * @param buffer the received bytes, readable up to the limit
+     * @param start  the position of the fixed header
+     * @return The packet size including the fixed header, or -1 if the length bytes have not all been received.
+     * @throws IllegalStateException if the length is malformed
+     */
+    static int packetSize(ByteBuffer buffer, int start) {
+        int value = 0;
+        int multiplier = 1;
+        int position = start + 1;
+        for (int i = 0; i < 4; i++) {
+            if (position >= buffer.limit()) {
+                return -1;
+            }
+            int digit = buffer.get(position++) & 0xFF;
+            value += (digit & 0x7F) * multiplier;
+            if ((digit & 0x80) == 0) {
+                return position - start + value;
+            }
+            multiplier *= 128;
+        }
+        throw new IllegalStateException("Malformed remaining length");
+    }
+
+    /**
+     * Skips the fixed header of the packet at the buffer position.
+     *
+     * @param buffer the packet
+     * @return The first byte of the fixed header.
+     */
+    static int readFixedHeader(ByteBuffer buffer) {
+        int header = buffer.get() & 0xFF;
+        while ((buffer.get() & 0x80) != 0) {
+            // Skip the remaining length, the packet is already delimited by the buffer limit
+        }
+        return header;
+    }
+
+    /**
+     * Reads a variable byte integer, the encoding of the MQTT 5 property lengths.
+     *
+     * @param buffer the buffer to read from
+     * @return The value.
+     */
+    static int readVariableInt(ByteBuffer buffer) {
+        int value = 0;
+        int multiplier = 1;
+        int digit;
+        do {
+            digit = buffer.get() & 0xFF;
+            value += (digit & 0x7F) * multiplier;
+            multiplier *= 128;
+        } while ((digit & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Skips the value of a property whose identifier has just been read.
+     *
+     * @param buffer the buffer positioned after the identifier
+     * @param id     the property identifier
+     * @throws IllegalStateException if the identifier is unknown
+     */
+    static void skipProperty(ByteBuffer buffer, int id) {
+        switch (id) {
+            case 0x01: case 0x17: case 0x19: case 0x24: case 0x25: case 0x28: case 0x29: case 0x2A:
+                buffer.get();
+                break;
+            case 0x13: case 0x21: case 0x22: case 0x23:
+                buffer.getShort();
+                break;
+            case 0x02: case 0x11: case 0x18: case 0x27:
+                buffer.getInt();
+                break;
+            case 0x0B:
+                readVariableInt(buffer);
+                break;
+            case 0x03: case 0x08: case 0x09: case 0x12: case 0x15: case 0x16: case 0x1A: case 0x1C: case 0x1F:
+                skipString(buffer);
+                break;
+            case USER_PROPERTY:
+                skipString(buffer);
+                skipString(buffer);
+                break;
+            default:
+                throw new IllegalStateException("Unknown property 0x" + Integer.toHexString(id));
+        }
+    }
+
+    /**
+     * Skips a properties section.
+     *
+     * @param buffer the buffer positioned at the properties length
+     */
+    static void skipProperties(ByteBuffer buffer) {
+        int length = readVariableInt(buffer);
+        buffer.position(buffer.position() + length);
+    }
+
+    /**
+     * Reads the user properties of a properties section and moves past the section.
+     *
+     * @param buffer the buffer positioned at the properties length
+     * @return The user properties, with the last value of a repeated name, or null if there are none.
+     */
+    static Map<String, String> readUserProperties(ByteBuffer buffer) {
+        int end = readVariableInt(buffer);
+        end += buffer.position();
+        Map<String, String> userProperties = null;
+        while (buffer.position() < end) {
+            int id = buffer.get() & 0xFF;
+            if (id == USER_PROPERTY) {
+                if (userProperties == null) {
+                    userProperties = new LinkedHashMap<String, String>();
+                }
+                String name = readUtf8(buffer, buffer.getShort() & 0xFFFF);
+                userProperties.put(name, readUtf8(buffer, buffer.getShort() & 0xFFFF));
+            } else {
+                skipProperty(buffer, id);
+            }
+        }
+        return userProperties;
+    }
+
+    static int remainingLengthSize(int remaining) {
+        return remaining < 128 ? 1 : remaining < 16384 ? 2 : remaining < 2097152 ? 3 : 4;
+    }
+
+    static int variableIntSize(int value) {
+        return remainingLengthSize(value);
+    }
+
+    static void putVariableInt(ByteBuffer buffer, int value) {
+        putRemainingLength(buffer, value);
+    }
+
+    static void putRemainingLength(ByteBuffer buffer, int remaining) {
+        do {
+            int digit = remaining % 128;
+            remaining /= 128;
+            if (remaining > 0) {
+                digit |= 0x80;
+            }
+            buffer.put((byte) digit);
+        } while (remaining > 0);
+    }
+
+    static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a string of a known length in bytes and moves past it.
+     */
+    static String readUtf8(ByteBuffer buffer, int length) {
+        if (buffer.hasArray()) {
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, byte[] value) {
+        out.write(value.length >>> 8);
+        out.write(value.length);
+        out.write(value, 0, value.length);
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        buffer.position(buffer.position() + length);
+    }
+
+    private static int propertiesLength(int alias, byte[] properties) {
+        return (alias > 0 ? 3 : 0) + properties.length;
+    }
+
+    private static int publishRemainingLength(byte[] topic, int qos, int payloadLength, int alias,
+                                              byte[] properties) {
+        int remaining = 2 + topic.length + (qos > 0 ? 2 : 0) + payloadLength;
+        if (properties != null) {
+            int propertiesLength = propertiesLength(alias, properties);
+            remaining += variableIntSize(propertiesLength) + propertiesLength;
+        }
+        return remaining;
+    }
+}
@@ -0,0 +1,1284 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.nio.clients;
+
+import org.apache.jmeter.protocol.mqtt.client.MessageFilter;
+import org.apache.jmeter.protocol.mqtt.data.objects.Message;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.PublishListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MQTT 3.1.1 client running on the shared selector threads of the {@link NioEngine} instead of the threads of a Paho
+ * client. Packets are encoded into a direct buffer of the calling thread and written straight to the socket, and are
+ * decoded from the direct read buffer of the selector thread. Only a packet split across reads is copied into a buffer
+ * of the connection, so an idle connection holds little more than its socket.
+ * <p/>
+ * The same engine speaks MQTT 5 for the {@link Mqtt5Client}: topics are replaced by topic aliases up to the Topic Alias
+ * Maximum of the broker, and the qos 1 and 2 messages in flight are bounded by its Receive Maximum. An MQTT 3.1.1
+ * connection bounds them by the number of packet ids instead. Publishing waits while the packets the socket has not
+ * accepted yet exceed {@link #MAX_BACKLOG_BYTES}, so a slow broker slows the publishers down instead of filling the
+ * heap.
+ * <p/>
+ * Only plain tcp:// connections are supported.
+ */
+public class NioClient extends BaseClient {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final int DEFAULT_PORT = 1883;
+    private static final long DISCONNECT_FLUSH_TIMEOUT = 5000;
+    private static final int ENCODE_BUFFER_SIZE = 16 * 1024;
+    private static final long SWEEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int PACKET_IDS = 65535;
+    private static final int MAX_BACKLOG_BYTES = 4 * 1024 * 1024;
+    // A topic replaced by its alias is sent as an empty string
+    private static final byte[] ALIASED_TOPIC = new byte[0];
+    private static final ByteBuffer NO_PREFIX = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private static final ThreadLocal<ByteBuffer> encodeBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(ENCODE_BUFFER_SIZE);
+        }
+    };
+    // The latest PUBLISH packet written by each thread, so that a client shared by threads reports their own sizes
+    private static final ThreadLocal<LastPublish> lastPublish = new ThreadLocal<LastPublish>() {
+        @Override
+        protected LastPublish initialValue() {
+            return new LastPublish();
+        }
+    };
+
+    private final String clientId;
+    private final String host;
+    private final int port;
+    private final byte[] connectPacket;
+    private final boolean mqtt5;
+    private final NioEngine.Loop loop;
+
+    // Guarded by this
+    private SocketChannel channel = null;
+    private ArrayDeque<ByteBuffer> backlog = null;
+    private int backlogBytes = 0;
+    // The operations waiting for an acknowledgement, hashed by packet id and chained through Pending.next
+    private Pending[] pending = new Pending[16];
+    private int pendingIds = 0;
+    private int lastPacketId = 0;
+    private int topicAliasMaximum = 0;
+    private Map<String, Integer> topicAliases = null;
+
+    private volatile boolean connected = false;
+    private volatile long keepAliveNanos;
+    private volatile long lastWriteNanos;
+    private volatile Topic lastTopic = null;
+    private volatile Semaphore receiveWindow = null;
+    private volatile byte[] publishProperties = MqttCodec.NO_PROPERTIES;
+
+    // Only accessed by the selector thread
+    int slot = -1;
+    private ByteBuffer partial = null;
+    private boolean partialSized = false;
+    private long pingSentNanos = 0;
+
+    /**
+     * Constructs an instance of the NIO client and connects it.
+     *
+     * @param brokerUrl    the url to connect to, tcp://host:port
+     * @param clientId     the client id to connect with
+     * @param cleanSession clear state at end of connection or not (durable or non-durable subscriptions)
+     * @param userName     the username to connect with
+     * @param password     the password for the user
+     * @param keepAlive    the keep alive interval in seconds
+     * @throws MqttException if the url is not supported or the client could not connect
+     */
+    public NioClient(String brokerUrl, String clientId, boolean cleanSession,
+                     String userName, String password, int keepAlive) throws MqttException {
+        this(brokerUrl, clientId, cleanSession, userName, password, keepAlive, MqttCodec.PROTOCOL_LEVEL_3_1_1);
+    }
+
+    /**
+     * Constructs an instance of the NIO client for a protocol level and connects it.
+     *
+     * @param protocolLevel {@link MqttCodec#PROTOCOL_LEVEL_3_1_1} or {@link MqttCodec#PROTOCOL_LEVEL_5}
+     * @see #NioClient(String, String, boolean, String, String, int)
+     */
+    NioClient(String brokerUrl, String clientId, boolean cleanSession, String userName, String password,
+              int keepAlive, int protocolLevel) throws MqttException {
+        this.clientId = clientId;
+        this.mqtt5 = protocolLevel >= MqttCodec.PROTOCOL_LEVEL_5;
+        try {
+            URI uri = new URI(brokerUrl);
+            if (!"tcp".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION,
+                        new IllegalArgumentException("The NIO client only supports tcp://host:port urls: " + brokerUrl));
+            }
+            this.host = uri.getHost();
+            this.port = uri.getPort() > 0 ? uri.getPort() : DEFAULT_PORT;
+            this.connectPacket = MqttCodec.encodeConnect(clientId, cleanSession, keepAlive, userName, password,
+                    protocolLevel);
+            this.keepAliveNanos = TimeUnit.SECONDS.toNanos(Math.max(0, keepAlive));
+            this.loop = NioEngine.get().nextLoop();
+
+            log.info("Connecting to " + brokerUrl + " with client ID '" + clientId + "' and cleanSession is " +
+                    cleanSession + (mqtt5 ? " as an MQTT 5 client" : " as a NIO client"));
+            establishConnection();
+            log.info(clientId + " Connected");
+        } catch (URISyntaxException e) {
+            log.warn("Unable to set up client " + clientId + ": " + e.toString());
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+        } catch (IOException e) {
+            log.warn("Unable to set up client " + clientId + ": " + e.toString());
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+        } catch (MqttException e) {
+            log.warn("Unable to set up client " + clientId + ": " + e.toString());
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void connectClient() throws MqttException {
+        final SocketChannel newChannel;
+        Pending connack;
+        synchronized (this) {
+            if (channel != null) {
+                throw new MqttException(connected ? MqttException.REASON_CODE_CLIENT_CONNECTED :
+                        MqttException.REASON_CODE_CONNECT_IN_PROGRESS);
+            }
+            try {
+                newChannel = SocketChannel.open();
+                newChannel.configureBlocking(false);
+                newChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                newChannel.connect(new InetSocketAddress(host, port));
+            } catch (IOException e) {
+                throw new MqttException(MqttException.REASON_CODE_SERVER_CONNECT_ERROR, e);
+            }
+            channel = newChannel;
+            connack = new Pending(MqttCodec.CONNACK);
+            track(connack, 0);
+        }
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                register(newChannel);
+            }
+        });
+
+        int code;
+        try {
+            code = connack.await(CONNECT_TIMEOUT);
+        } catch (MqttException e) {
+            untrack(connack);
+            release(newChannel);
+            throw e;
+        }
+        if (code != 0) {
+            release(newChannel);
+            throw mqtt5 ? connectRefused(code) : new MqttException(code);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected long publishClient(String topicName, int qos, byte[] payload, boolean isRetained, long timeout)
+            throws MqttException {
+        return publishClient(topicName, qos, ByteBuffer.wrap(payload), isRetained, timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The payload is written to the socket from the buffer itself, so a direct or mapped buffer reaches the socket
+     * without a copy on the heap.
+     */
+    @Override
+    protected long publishClient(String topicName, int qos, ByteBuffer payload, boolean isRetained, long timeout)
+            throws MqttException {
+        return publishClient(topicName, qos, NO_PREFIX, payload, isRetained, timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The prefix is copied behind the packet header, and the payload is written from the buffer itself.
+     */
+    @Override
+    protected long publishClient(String topicName, int qos, ByteBuffer prefix, ByteBuffer payload, boolean isRetained,
+                                 long timeout) throws MqttException {
+        long start = System.nanoTime();
+        if (!connected) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+        }
+        Pending ack = null;
+        if (qos > 0) {
+            ack = new Pending(qos == 1 ? MqttCodec.PUBACK : MqttCodec.PUBCOMP);
+            ack.window = receiveWindow;
+            acquire(ack.window, timeout);
+        }
+        send(topicName, qos, prefix, payload, isRetained, ack, timeout);
+        if (ack != null) {
+            int code;
+            try {
+                code = ack.await(timeout);
+            } catch (MqttException e) {
+                // Frees the packet id and the place in the window, a late acknowledgement is ignored
+                if (untrack(ack)) {
+                    ack.complete(0, e);
+                }
+                throw e;
+            }
+            if (code >= MqttCodec.REASON_FAILURE) {
+                throw refused("PUBLISH", code);
+            }
+        }
+        if (log.isDebugEnabled()) log.debug(clientId + " published to " + topicName);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void publishAsyncClient(String topicName, int qos, byte[] payload, boolean isRetained, long timeout,
+                                      PublishListener listener) {
+        publishAsyncClient(topicName, qos, ByteBuffer.wrap(payload), isRetained, timeout, listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The listener of a qos 1 or 2 message is called on the selector thread. The timeout only bounds the wait for a
+     * place in the window of messages in flight and in the write backlog.
+     */
+    @Override
+    protected void publishAsyncClient(String topicName, int qos, ByteBuffer payload, boolean isRetained,
+                                      long timeout, PublishListener listener) {
+        long start = System.nanoTime();
+        Pending ack = null;
+        try {
+            if (!connected) {
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+            }
+            if (qos == 0) {
+                int packetSize = send(topicName, qos, NO_PREFIX, payload, isRetained, null, timeout);
+                listener.published(System.nanoTime() - start, packetSize);
+                return;
+            }
+            Semaphore window = receiveWindow;
+            acquire(window, timeout);
+            ack = new Pending(qos == 1 ? MqttCodec.PUBACK : MqttCodec.PUBCOMP);
+            ack.listener = listener;
+            ack.start = start;
+            ack.window = window;
+            send(topicName, qos, NO_PREFIX, payload, isRetained, ack, timeout);
+        } catch (MqttException e) {
+            // Once tracked, the acknowledgement reports the failure itself
+            if (ack == null) {
+                listener.failed(e);
+            }
+        }
+    }
+
+    /**
+     * Writes a PUBLISH packet.
+     *
+     * @param prefix  the remaining bytes of the buffer start the payload, its position is left unchanged
+     * @param payload the remaining bytes of the buffer follow the prefix, its position is left unchanged
+     * @param ack     the acknowledgement to track for a qos 1 or 2 message, null for qos 0
+     * @param timeout the time to wait for the backlog to drain in milliseconds, 0 to wait forever
+     * @return The size of the packet in bytes.
+     */
+    private int send(String topicName, int qos, ByteBuffer prefix, ByteBuffer payload, boolean isRetained,
+                     Pending ack, long timeout) throws MqttException {
+        int payloadLength = prefix.remaining() + payload.remaining();
+        byte[] topic = encodeTopic(topicName);
+        // Topic aliases must reach the broker in the order they are assigned
+        synchronized (this) {
+            int packetId = 0;
+            try {
+                awaitBacklog(timeout);
+                if (ack != null) {
+                    packetId = nextPacketId();
+                }
+            } catch (MqttException e) {
+                // Not tracked yet, the acknowledgement frees its place in the window and reports the failure
+                if (ack != null) {
+                    ack.complete(0, e);
+                }
+                throw e;
+            }
+            if (ack != null) {
+                track(ack, packetId);
+            }
+            int alias = 0;
+            if (topicAliases != null) {
+                Integer existing = topicAliases.get(topicName);
+                if (existing != null) {
+                    alias = existing;
+                    topic = ALIASED_TOPIC;
+                } else if (topicAliases.size() < topicAliasMaximum) {
+                    alias = topicAliases.size() + 1;
+                    topicAliases.put(topicName, alias);
+                }
+            }
+            byte[] properties = mqtt5 ? publishProperties : null;
+            try {
+                int headerSize = MqttCodec.publishHeaderSize(topic, qos, payloadLength, alias, properties);
+                ByteBuffer buffer = encodeBuffer.get();
+                buffer.clear();
+                if (headerSize + prefix.remaining() > buffer.capacity()) {
+                    buffer = ByteBuffer.allocate(headerSize + prefix.remaining());
+                }
+                MqttCodec.putPublishHeader(buffer, topic, qos, isRetained, false, packetId, payloadLength, alias,
+                        properties);
+                buffer.put(prefix.duplicate());
+                if (ack != null) {
+                    // Set before the write, the acknowledgement may arrive before the write returns
+                    ack.packetSize = headerSize + payloadLength;
+                }
+                if (payload.remaining() <= buffer.remaining()) {
+                    // Copying a small payload here saves the copy into a temporary direct buffer done by the channel
+                    buffer.put(payload.duplicate());
+                    buffer.flip();
+                    write(buffer, null);
+                } else {
+                    buffer.flip();
+                    write(buffer, payload.duplicate());
+                }
+                LastPublish last = lastPublish.get();
+                last.client = this;
+                last.size = headerSize + payloadLength;
+                return last.size;
+            } catch (MqttException e) {
+                // A lost connection may have failed the acknowledgement already
+                if (untrack(ack)) {
+                    ack.complete(0, e);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getLastPublishSize() {
+        LastPublish last = lastPublish.get();
+        return last.client == this ? last.size : -1;
+    }
+
+    /**
+     * Sets the MQTT 5 properties sent with every message.
+     *
+     * @param properties the encoded properties
+     */
+    void setPublishProperties(byte[] properties) {
+        this.publishProperties = properties;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void subscribeClient(String topicName, int qos, long timeout) throws MqttException {
+        if (!connected) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+        }
+        log.info(clientId + " subscribing to topic \"" + topicName + "\" qos " + qos);
+        byte[] filter = MqttCodec.utf8(topicName);
+        Pending suback;
+        int packetId;
+        synchronized (this) {
+            packetId = nextPacketId();
+            suback = new Pending(MqttCodec.SUBACK);
+            track(suback, packetId);
+        }
+        int code;
+        try {
+            ByteBuffer buffer = encodeBuffer.get();
+            buffer.clear();
+            if (filter.length + 10 > buffer.capacity()) {
+                buffer = ByteBuffer.allocate(filter.length + 10);
+            }
+            MqttCodec.putSubscribe(buffer, packetId, filter, qos, mqtt5);
+            buffer.flip();
+            write(buffer, null);
+            code = suback.await(timeout);
+        } finally {
+            untrack(suback);
+        }
+        if (code >= MqttCodec.REASON_FAILURE) {
+            throw new MqttException(MqttException.REASON_CODE_SUBSCRIBE_FAILED);
+        }
+        log.info(clientId + " subscribed to topic \"" + topicName);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void disconnect() throws MqttException {
+        SocketChannel current;
+        synchronized (this) {
+            current = channel;
+        }
+        if (current == null || !connected) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_ALREADY_DISCONNECTED);
+        }
+        log.info(clientId + " disconnecting");
+        try {
+            // The broker closes the connection on DISCONNECT, which must not be taken for a lost connection
+            connected = false;
+            sendEmpty(MqttCodec.DISCONNECT);
+            awaitFlush(current);
+        } catch (MqttException e) {
+            // The connection is closed below anyway
+        }
+        release(current);
+        failAll(new MqttException(MqttException.REASON_CODE_CLIENT_DISCONNECTING));
+        log.info(clientId + " disconnected");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getClientId() {
+        return clientId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageArrived(String topic, MqttMessage mqttMessage) {
+        deliver(new Message(topic, mqttMessage));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deliveryComplete(IMqttDeliveryToken token) {
+        // Deliveries are completed by waking the publishing thread
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (connected) {
+            try {
+                disconnect();
+            } catch (MqttException e) {
+                log.error(clientId + " error disconnecting" + e.getMessage(), e);
+            }
+        } else {
+            SocketChannel current;
+            synchronized (this) {
+                current = channel;
+            }
+            release(current);
+        }
+    }
+
+    /**
+     * Registers a new channel with the selector. Called on the selector thread.
+     */
+    private void register(SocketChannel newChannel) {
+        try {
+            if (newChannel.isConnectionPending()) {
+                newChannel.register(loop.selector(), SelectionKey.OP_CONNECT, this);
+            } else {
+                newChannel.register(loop.selector(), SelectionKey.OP_READ, this);
+                sendConnect();
+            }
+            loop.add(this);
+        } catch (IOException e) {
+            lost(newChannel, e);
+        } catch (MqttException e) {
+            lost(newChannel, e);
+        }
+    }
+
+    /**
+     * Completes the TCP connect and sends the CONNECT packet. Called on the selector thread.
+     */
+    void finishConnect(SelectionKey key) {
+        SocketChannel keyChannel = (SocketChannel) key.channel();
+        try {
+            if (keyChannel.finishConnect()) {
+                key.interestOps(SelectionKey.OP_READ);
+                sendConnect();
+            }
+        } catch (IOException e) {
+            lost(keyChannel, e);
+        } catch (MqttException e) {
+            lost(keyChannel, e);
+        }
+    }
+
+    private void sendConnect() throws MqttException {
+        partial = null;
+        pingSentNanos = 0;
+        write(ByteBuffer.wrap(connectPacket), null);
+    }
+
+    /**
+     * Reads and handles the received packets. Called on the selector thread.
+     *
+     * @param key    the selected key
+     * @param buffer the read buffer of the selector thread
+     */
+    void read(SelectionKey key, ByteBuffer buffer) {
+        SocketChannel keyChannel = (SocketChannel) key.channel();
+        try {
+            buffer.clear();
+            if (keyChannel.read(buffer) < 0) {
+                lost(keyChannel, new EOFException("Connection closed by the broker"));
+                return;
+            }
+            buffer.flip();
+            if (partial != null && !completePartial(buffer)) {
+                return;
+            }
+            while (buffer.hasRemaining()) {
+                int start = buffer.position();
+                int size = MqttCodec.packetSize(buffer, start);
+                if (size < 0 || size > buffer.remaining()) {
+                    // Keep the start of the packet until the rest arrives
+                    partialSized = size >= 0;
+                    partial = ByteBuffer.allocate(partialSized ? size : 5);
+                    partial.put(buffer);
+                    return;
+                }
+                int limit = buffer.limit();
+                buffer.limit(start + size);
+                handle(buffer);
+                buffer.limit(limit);
+                buffer.position(start + size);
+            }
+        } catch (IOException e) {
+            lost(keyChannel, e);
+        } catch (MqttException e) {
+            lost(keyChannel, e);
+        } catch (RuntimeException e) {
+            lost(keyChannel, e);
+        }
+    }
+
+    /**
+     * Appends the received bytes to the packet split across reads.
+     *
+     * @return true if the packet was completed and handled.
+     */
+    private boolean completePartial(ByteBuffer buffer) throws MqttException {
+        while (!partialSized && buffer.hasRemaining()) {
+            partial.put(buffer.get());
+            ByteBuffer received = (ByteBuffer) partial.duplicate().flip();
+            int size = MqttCodec.packetSize(received, 0);
+            if (size >= 0) {
+                partial = ByteBuffer.allocate(size);
+                partial.put(received);
+                partialSized = true;
+            }
+        }
+        if (!partialSized) {
+            return false;
+        }
+        int count = Math.min(partial.remaining(), buffer.remaining());
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + count);
+        partial.put(buffer);
+        buffer.limit(limit);
+        if (partial.hasRemaining()) {
+            return false;
+        }
+        ByteBuffer packet = partial;
+        partial = null;
+        packet.flip();
+        handle(packet);
+        return true;
+    }
+
+    private void handle(ByteBuffer packet) throws MqttException {
+        int header = MqttCodec.readFixedHeader(packet);
+        switch (header >> 4) {
+            case MqttCodec.CONNACK:
+                packet.get();
+                int code = packet.get() & 0xFF;
+                if (code == 0) {
+                    if (mqtt5) {
+                        connackProperties(packet);
+                    } else {
+                        receiveWindow = new Semaphore(PACKET_IDS);
+                    }
+                    lastWriteNanos = System.nanoTime();
+                    connected = true;
+                }
+                complete(MqttCodec.CONNACK, 0, code);
+                break;
+            case MqttCodec.PUBLISH:
+                received(header, packet);
+                break;
+            case MqttCodec.PUBACK:
+                int packetId = packet.getShort() & 0xFFFF;
+                complete(MqttCodec.PUBACK, packetId, reason(packet));
+                break;
+            case MqttCodec.PUBREC:
+                packetId = packet.getShort() & 0xFFFF;
+                int reason = reason(packet);
+                if (reason >= MqttCodec.REASON_FAILURE) {
+                    // The flow ends here, there is no PUBCOMP to wait for
+                    complete(MqttCodec.PUBCOMP, packetId, reason);
+                } else {
+                    sendAck(MqttCodec.PUBREL, packetId);
+                }
+                break;
+            case MqttCodec.PUBREL:
+                sendAck(MqttCodec.PUBCOMP, packet.getShort() & 0xFFFF);
+                break;
+            case MqttCodec.PUBCOMP:
+                packetId = packet.getShort() & 0xFFFF;
+                complete(MqttCodec.PUBCOMP, packetId, reason(packet));
+                break;
+            case MqttCodec.SUBACK:
+                packetId = packet.getShort() & 0xFFFF;
+                if (mqtt5) {
+                    MqttCodec.skipProperties(packet);
+                }
+                complete(MqttCodec.SUBACK, packetId, packet.get() & 0xFF);
+                break;
+            case MqttCodec.PINGRESP:
+                pingSentNanos = 0;
+                break;
+            case MqttCodec.DISCONNECT:
+                reason = reason(packet);
+                SocketChannel current;
+                synchronized (this) {
+                    current = channel;
+                }
+                lost(current, new EOFException("Disconnected by the broker with reason code 0x" +
+                        Integer.toHexString(reason)));
+                break;
+            default:
+                if (log.isDebugEnabled()) log.debug(clientId + " ignored packet type " + (header >> 4));
+        }
+    }
+
+    private void received(int header, ByteBuffer packet) throws MqttException {
+        int qos = (header >> 1) & 0x03;
+        int topicLength = packet.getShort() & 0xFFFF;
+        String topic = MqttCodec.readUtf8(packet, topicLength);
+        int packetId = qos > 0 ? packet.getShort() & 0xFFFF : 0;
+        MessageFilter filter = getMessageFilter();
+        Map<String, String> userProperties = null;
+        if (mqtt5 && filter != null && filter.usesUserProperties()) {
+            userProperties = MqttCodec.readUserProperties(packet);
+        } else if (mqtt5) {
+            MqttCodec.skipProperties(packet);
+        }
+        boolean retained = (header & 0x01) != 0;
+        boolean dup = (header & 0x08) != 0;
+        // A rejected message is dropped before its payload is copied
+        if (filter == null || filter.accept(topic, qos, retained, dup, packet, userProperties)) {
+            byte[] payload = new byte[packet.remaining()];
+            packet.get(payload);
+            queue(new Message(topic, payload, qos, retained, dup, System.currentTimeMillis()));
+        }
+        if (qos == 1) {
+            sendAck(MqttCodec.PUBACK, packetId);
+        } else if (qos == 2) {
+            sendAck(MqttCodec.PUBREC, packetId);
+        }
+    }
+
+    /**
+     * Applies the limits announced by the broker in an MQTT 5 CONNACK. The topic aliases of the previous connection
+     * are forgotten.
+     */
+    private void connackProperties(ByteBuffer packet) {
+        int receiveMaximum = 65535;
+        int aliasMaximum = 0;
+        int end = MqttCodec.readVariableInt(packet);
+        end += packet.position();
+        while (packet.position() < end) {
+            int id = packet.get() & 0xFF;
+            switch (id) {
+                case MqttCodec.RECEIVE_MAXIMUM:
+                    receiveMaximum = packet.getShort() & 0xFFFF;
+                    break;
+                case MqttCodec.TOPIC_ALIAS_MAXIMUM:
+                    aliasMaximum = packet.getShort() & 0xFFFF;
+                    break;
+                case MqttCodec.SERVER_KEEP_ALIVE:
+                    keepAliveNanos = TimeUnit.SECONDS.toNanos(packet.getShort() & 0xFFFF);
+                    break;
+                default:
+                    MqttCodec.skipProperty(packet, id);
+            }
+        }
+        receiveWindow = new Semaphore(receiveMaximum);
+        synchronized (this) {
+            topicAliasMaximum = aliasMaximum;
+            topicAliases = aliasMaximum > 0 ? new HashMap<String, Integer>() : null;
+        }
+        if (log.isDebugEnabled()) log.debug(clientId + " receive maximum " + receiveMaximum +
+                ", topic alias maximum " + aliasMaximum);
+    }
+
+    /**
+     * @return The MQTT 5 reason code of an acknowledgement, 0 if it is omitted.
+     */
+    private static int reason(ByteBuffer packet) {
+        return packet.hasRemaining() ? packet.get() & 0xFF : 0;
+    }
+
+    private static void acquire(Semaphore window, long timeout) throws MqttException {
+        try {
+            if (timeout > 0) {
+                if (!window.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT);
+                }
+            } else {
+                window.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MqttException(e);
+        }
+    }
+
+    private static MqttException refused(String packet, int reason) {
+        return new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION,
+                new IllegalStateException(packet + " refused with reason code 0x" + Integer.toHexString(reason)));
+    }
+
+    /**
+     * Maps the MQTT 5 CONNACK reason codes to the MQTT 3.1.1 return codes used by Paho where there is one.
+     */
+    private static MqttException connectRefused(int reason) {
+        switch (reason) {
+            case 0x84:
+                return new MqttException(MqttException.REASON_CODE_INVALID_PROTOCOL_VERSION);
+            case 0x85:
+                return new MqttException(MqttException.REASON_CODE_INVALID_CLIENT_ID);
+            case 0x86:
+                return new MqttException(MqttException.REASON_CODE_FAILED_AUTHENTICATION);
+            case 0x87:
+                return new MqttException(MqttException.REASON_CODE_NOT_AUTHORIZED);
+            case 0x88:
+            case 0x89:
+                return new MqttException(MqttException.REASON_CODE_BROKER_UNAVAILABLE);
+            default:
+                return refused("CONNECT", reason);
+        }
+    }
+
+    /**
+     * Sends a ping when the connection has been idle for the keep alive interval, and drops the connection when the
+     * previous ping was not answered within the interval. Called on the selector thread once a second.
+     *
+     * @param now the current time in nanoseconds
+     */
+    void sweep(long now) {
+        if (!connected || keepAliveNanos == 0) {
+            return;
+        }
+        SocketChannel current;
+        synchronized (this) {
+            current = channel;
+        }
+        if (pingSentNanos != 0) {
+            if (now - pingSentNanos > keepAliveNanos) {
+                lost(current, new MqttException(MqttException.REASON_CODE_CLIENT_TIMEOUT));
+            }
+        } else if (now - lastWriteNanos >= keepAliveNanos - SWEEP_NANOS) {
+            try {
+                sendEmpty(MqttCodec.PINGREQ);
+                pingSentNanos = now;
+            } catch (MqttException e) {
+                lost(current, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the packets left over by a partial write. Called on the selector thread.
+     */
+    void flush(SelectionKey key) {
+        SocketChannel keyChannel = (SocketChannel) key.channel();
+        try {
+            synchronized (this) {
+                if (keyChannel != channel || backlog == null) {
+                    return;
+                }
+                while (!backlog.isEmpty()) {
+                    ByteBuffer next = backlog.peek();
+                    keyChannel.write(next);
+                    if (next.hasRemaining()) {
+                        if (backlogBytes < MAX_BACKLOG_BYTES) {
+                            notifyAll();
+                        }
+                        return;
+                    }
+                    backlog.poll();
+                    backlogBytes -= next.limit();
+                }
+                lastWriteNanos = System.nanoTime();
+                key.interestOps(SelectionKey.OP_READ);
+                notifyAll();
+            }
+        } catch (IOException e) {
+            lost(keyChannel, e);
+        }
+    }
+
+    private void sendAck(int type, int packetId) throws MqttException {
+        ByteBuffer buffer = encodeBuffer.get();
+        buffer.clear();
+        MqttCodec.putAck(buffer, type, packetId);
+        buffer.flip();
+        write(buffer, null);
+    }
+
+    private void sendEmpty(int type) throws MqttException {
+        ByteBuffer buffer = encodeBuffer.get();
+        buffer.clear();
+        MqttCodec.putEmpty(buffer, type);
+        buffer.flip();
+        write(buffer, null);
+    }
+
+    /**
+     * Waits for the packets left over by partial writes, such as the acknowledgements of the latest messages, to reach
+     * the socket before it is closed.
+     */
+    private void awaitFlush(SocketChannel current) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DISCONNECT_FLUSH_TIMEOUT);
+        synchronized (this) {
+            long remaining = deadline - System.nanoTime();
+            while (current == channel && backlog != null && !backlog.isEmpty() && remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Waits until the backlog of the connection is below {@link #MAX_BACKLOG_BYTES}. Called holding the lock, never on
+     * the selector thread, which drains the backlog.
+     *
+     * @param timeout the time to wait in milliseconds, 0 to wait forever
+     */
+    private void awaitBacklog(long timeout) throws MqttException {
+        if (backlogBytes < MAX_BACKLOG_BYTES || loop.inLoop()) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        SocketChannel current = channel;
+        while (current != null && current == channel && backlogBytes >= MAX_BACKLOG_BYTES) {
+            try {
+                if (timeout > 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new MqttException(MqttException.REASON_CODE_CLIENT_TIMEOUT);
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } else {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MqttException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes a packet to the socket without blocking. Whatever the socket does not accept is copied to the backlog and
+     * written by the selector thread, so the buffers may be reused as soon as this returns. A read-only payload cannot
+     * be changed by the caller and is kept in the backlog without a copy.
+     */
+    private void write(ByteBuffer header, ByteBuffer payload) throws MqttException {
+        SocketChannel current;
+        IOException failure;
+        synchronized (this) {
+            current = channel;
+            if (current == null) {
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+            }
+            try {
+                if (backlog == null || backlog.isEmpty()) {
+                    current.write(header);
+                    if (payload != null && !header.hasRemaining()) {
+                        current.write(payload);
+                    }
+                    if (!header.hasRemaining() && (payload == null || !payload.hasRemaining())) {
+                        lastWriteNanos = System.nanoTime();
+                        return;
+                    }
+                }
+                boolean idle = backlog == null || backlog.isEmpty();
+                if (backlog == null) {
+                    backlog = new ArrayDeque<ByteBuffer>();
+                }
+                ByteBuffer pendingHeader = copy(header);
+                backlog.add(pendingHeader);
+                backlogBytes += pendingHeader.limit();
+                if (payload != null) {
+                    ByteBuffer pendingPayload = payload.isReadOnly() ? payload.slice() : copy(payload);
+                    backlog.add(pendingPayload);
+                    backlogBytes += pendingPayload.limit();
+                }
+                if (idle) {
+                    final SocketChannel writing = current;
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            SelectionKey key = writing.keyFor(loop.selector());
+                            if (key != null && key.isValid()) {
+                                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            }
+                        }
+                    });
+                }
+                return;
+            } catch (IOException e) {
+                // Drop the connection outside the lock
+                failure = e;
+            }
+        }
+        lost(current, failure);
+        throw new MqttException(MqttException.REASON_CODE_CONNECTION_LOST, failure);
+    }
+
+    private static ByteBuffer copy(ByteBuffer remaining) {
+        ByteBuffer copy = ByteBuffer.allocate(remaining.remaining());
+        copy.put(remaining);
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Drops a connection that failed. The pending operations fail and, if the client was connected, the connection is
+     * reported as lost so that it can be re-established.
+     */
+    private void lost(SocketChannel failed, Throwable cause) {
+        boolean wasConnected = connected;
+        if (!release(failed)) {
+            return;
+        }
+        failAll(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST, cause));
+        if (wasConnected) {
+            connectionLost(cause);
+        }
+    }
+
+    /**
+     * Closes a channel if it is still the channel of this client.
+     *
+     * @return true if the channel was closed by this call.
+     */
+    private boolean release(SocketChannel current) {
+        synchronized (this) {
+            if (current == null || current != channel) {
+                return false;
+            }
+            connected = false;
+            channel = null;
+            backlog = null;
+            backlogBytes = 0;
+            // Wakes the publishers waiting for the backlog to drain
+            notifyAll();
+        }
+        try {
+            current.close();
+        } catch (IOException e) {
+            log.debug(clientId + " error closing channel " + e.toString());
+        }
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                loop.remove(NioClient.this);
+            }
+        });
+        return true;
+    }
+
+    private byte[] encodeTopic(String topicName) {
+        Topic topic = lastTopic;
+        if (topic == null || !topic.name.equals(topicName)) {
+            topic = new Topic(topicName);
+            lastTopic = topic;
+        }
+        return topic.bytes;
+    }
+
+    /**
+     * Picks the next packet id not used by an operation in flight. Called holding the lock.
+     *
+     * @throws MqttException if all the packet ids are in use
+     */
+    private int nextPacketId() throws MqttException {
+        if (pendingIds >= PACKET_IDS) {
+            throw new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT);
+        }
+        do {
+            lastPacketId = lastPacketId % PACKET_IDS + 1;
+        } while (find(lastPacketId) != null);
+        return lastPacketId;
+    }
+
+    // Called holding the lock
+    private Pending find(int packetId) {
+        for (Pending p = pending[packetId & (pending.length - 1)]; p != null; p = p.next) {
+            if (p.packetId == packetId && p.type != MqttCodec.CONNACK) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    // Called holding the lock
+    private void track(Pending p, int packetId) {
+        p.packetId = packetId;
+        if (packetId != 0) {
+            pendingIds++;
+            if (pendingIds > pending.length && pending.length <= PACKET_IDS) {
+                rehash(pending.length * 2);
+            }
+        }
+        int bucket = packetId & (pending.length - 1);
+        p.next = pending[bucket];
+        pending[bucket] = p;
+    }
+
+    // Called holding the lock
+    private void rehash(int size) {
+        Pending[] previous = pending;
+        pending = new Pending[size];
+        for (Pending head : previous) {
+            Pending p = head;
+            while (p != null) {
+                Pending next = p.next;
+                int bucket = p.packetId & (size - 1);
+                p.next = pending[bucket];
+                pending[bucket] = p;
+                p = next;
+            }
+        }
+    }
+
+    // Called holding the lock
+    private boolean remove(Pending done) {
+        int bucket = done.packetId & (pending.length - 1);
+        Pending previous = null;
+        for (Pending p = pending[bucket]; p != null; previous = p, p = p.next) {
+            if (p == done) {
+                if (previous == null) {
+                    pending[bucket] = p.next;
+                } else {
+                    previous.next = p.next;
+                }
+                if (p.packetId != 0) {
+                    pendingIds--;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the operation was still waiting for its acknowledgement.
+     */
+    private synchronized boolean untrack(Pending done) {
+        return done != null && remove(done);
+    }
+
+    private void complete(int type, int packetId, int code) {
+        Pending match = null;
+        synchronized (this) {
+            for (Pending p = pending[packetId & (pending.length - 1)]; p != null; p = p.next) {
+                if (p.type == type && p.packetId == packetId) {
+                    match = p;
+                    remove(p);
+                    break;
+                }
+            }
+        }
+        if (match != null) {
+            match.complete(code, null);
+        }
+    }
+
+    private void failAll(MqttException error) {
+        Pending failed = null;
+        synchronized (this) {
+            for (Pending head : pending) {
+                Pending p = head;
+                while (p != null) {
+                    Pending next = p.next;
+                    p.next = failed;
+                    failed = p;
+                    p = next;
+                }
+            }
+            pending = new Pending[16];
+            pendingIds = 0;
+        }
+        for (Pending p = failed; p != null; p = p.next) {
+            p.complete(0, error);
+        }
+    }
+
+    /**
+     * An operation waiting for its acknowledgement. The acknowledgement of an asynchronous publish is passed to its
+     * listener instead of a waiting thread.
+     */
+    private static final class Pending {
+        private final int type;
+        // Guarded by the client
+        private int packetId;
+        private Pending next;
+
+        private boolean done = false;
+        private int code;
+        private MqttException error;
+
+        private PublishListener listener = null;
+        private long start;
+        private int packetSize;
+        private Semaphore window = null;
+
+        private Pending(int type) {
+            this.type = type;
+        }
+
+        private void complete(int code, MqttException error) {
+            synchronized (this) {
+                this.code = code;
+                this.error = error;
+                this.done = true;
+                notifyAll();
+            }
+            // The place in the receive window is free once the broker has acknowledged the message, or the connection
+            // that carried it is closed
+            if (window != null) {
+                window.release();
+            }
+            if (listener != null) {
+                if (error != null) {
+                    listener.failed(error);
+                } else if (code >= MqttCodec.REASON_FAILURE) {
+                    listener.failed(refused("PUBLISH", code));
+                } else {
+                    listener.published(System.nanoTime() - start, packetSize);
+                }
+            }
+        }
+
+        /**
+         * @param timeout the time to wait in milliseconds, 0 to wait forever
+         * @return The code of the acknowledgement.
+         */
+        private synchronized int await(long timeout) throws MqttException {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (!done) {
+                try {
+                    if (timeout > 0) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new MqttException(MqttException.REASON_CODE_CLIENT_TIMEOUT);
+                        }
+                        wait(remaining);
+                    } else {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MqttException(e);
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return code;
+        }
+    }
+
+    /**
+     * The size of the latest PUBLISH packet written by a thread, and the client that wrote it.
+     */
+    private static final class LastPublish {
+        private NioClient client;
+        private int size;
+    }
+
+    /**
+     * A topic name with its encoding, kept because most samplers publish to the same topic every time.
+     */
+    private static final class Topic {
+        private final String name;
+        private final byte[] bytes;
+
+        private Topic(String name) {
+            this.name = name;
+            this.bytes = MqttCodec.utf8(name);
+        }
+    }
+}
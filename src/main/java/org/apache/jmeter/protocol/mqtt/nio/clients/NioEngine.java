@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.nio.clients;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NioEngine runs the connections of all the {@link NioClient}s on a small number of selector threads. The number of
+ * threads is read from the <code>mqtt.nio.selectors</code> system property and defaults to the number of cores, up to
+ * four.
+ * <p/>
+ * Each selector thread owns one direct read buffer shared by its connections and sweeps them once a second to send
+ * the keep alive pings, so an idle connection costs no thread, timer or buffer of its own.
+ */
+final class NioEngine {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long SWEEP_MILLIS = 1000;
+
+    private static NioEngine instance = null;
+
+    private final Loop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger(0);
+
+    private NioEngine(int selectors) throws IOException {
+        loops = new Loop[selectors];
+        for (int i = 0; i < selectors; i++) {
+            loops[i] = new Loop(i);
+        }
+        log.info("Started " + selectors + " MQTT NIO selector threads");
+    }
+
+    /**
+     * @return The engine, started on first use.
+     * @throws IOException if a selector could not be opened
+     */
+    static synchronized NioEngine get() throws IOException {
+        if (instance == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            instance = new NioEngine(Math.max(1, Integer.getInteger("mqtt.nio.selectors", Math.min(4, cores))));
+        }
+        return instance;
+    }
+
+    /**
+     * Assigns the selector thread of a new client. Clients are spread over the threads round robin.
+     *
+     * @return The selector loop.
+     */
+    Loop nextLoop() {
+        return loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    /**
+     * A selector thread and the connections registered with it.
+     */
+    static final class Loop implements Runnable {
+        private final Selector selector;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        // Only accessed by the selector thread
+        private final ArrayList<NioClient> clients = new ArrayList<NioClient>();
+        private final Thread thread;
+
+        private Loop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "mqtt-nio-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        Selector selector() {
+            return selector;
+        }
+
+        /**
+         * @return true if called on the selector thread, which must never wait.
+         */
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        /**
+         * Runs a task on the selector thread.
+         *
+         * @param task the task
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Starts sweeping a client. Called on the selector thread.
+         *
+         * @param client the client
+         */
+        void add(NioClient client) {
+            if (client.slot < 0) {
+                client.slot = clients.size();
+                clients.add(client);
+            }
+        }
+
+        /**
+         * Stops sweeping a client. Called on the selector thread.
+         *
+         * @param client the client
+         */
+        void remove(NioClient client) {
+            int slot = client.slot;
+            if (slot < 0) {
+                return;
+            }
+            NioClient last = clients.remove(clients.size() - 1);
+            if (last != client) {
+                clients.set(slot, last);
+                last.slot = slot;
+            }
+            client.slot = -1;
+        }
+
+        @Override
+        public void run() {
+            long nextSweep = System.currentTimeMillis() + SWEEP_MILLIS;
+            while (true) {
+                try {
+                    selector.select(Math.max(1, nextSweep - System.currentTimeMillis()));
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        process(key);
+                    }
+                    if (System.currentTimeMillis() >= nextSweep) {
+                        long now = System.nanoTime();
+                        for (int i = clients.size() - 1; i >= 0; i--) {
+                            // A client may remove itself when its ping is overdue
+                            if (i < clients.size()) {
+                                clients.get(i).sweep(now);
+                            }
+                        }
+                        nextSweep = System.currentTimeMillis() + SWEEP_MILLIS;
+                    }
+                } catch (Throwable t) {
+                    log.error("Unexpected error on the MQTT NIO selector thread", t);
+                }
+            }
+        }
+
+        private void process(SelectionKey key) {
+            NioClient client = (NioClient) key.attachment();
+            try {
+                if (!key.isValid()) {
+                    return;
+                }
+                if (key.isConnectable()) {
+                    client.finishConnect(key);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    client.read(key, readBuffer);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    client.flush(key);
+                }
+            } catch (CancelledKeyException e) {
+                // The client closed the connection while it was selected
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.jmeter.protocol.mqtt.paho.clients;
 
 import org.apache.jmeter.protocol.mqtt.data.objects.Message;
 import org.apache.jorphan.logging.LoggingManager;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
@@ -27,14 +28,18 @@ import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 
 import java.io.File;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicLong;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 
 public class AsyncClient extends BaseClient {
 
     private static final org.apache.log.Logger log = LoggingManager.getLoggerForClass();
+    // Wait between two attempts to hand a message to Paho while its messages in flight are at the maximum
+    private static final long INFLIGHT_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
     private MqttAsyncClient client;
+    private MqttConnectOptions conOpt;
     private String brokerUrl;
 
     /**
@@ -58,7 +63,7 @@ public class AsyncClient extends BaseClient {
         try {
             // Construct the connection options object that contains connection parameters
             // such as cleanSession and LWT
-            MqttConnectOptions conOpt = new MqttConnectOptions();
+            conOpt = new MqttConnectOptions();
             conOpt.setCleanSession(cleanSession);
             if (password != null && !password.isEmpty()) {
                 conOpt.setPassword(password.toCharArray());
@@ -71,7 +76,8 @@ public class AsyncClient extends BaseClient {
             conOpt.setKeepAliveInterval(keepAlive);
 
             // Construct a non-blocking MQTT client instance
-            client = new MqttAsyncClient(this.brokerUrl, clientId, dataStore);
+            // Keep alive pings run on the shared scheduler instead of a timer thread per client
+            client = new MqttAsyncClient(this.brokerUrl, clientId, dataStore, new SharedPingSender());
 
             // Set this wrapper as the callback handler
             client.setCallback(this);
@@ -81,8 +87,7 @@ public class AsyncClient extends BaseClient {
             // connect completes. An exception is thrown if connect fails.
             log.info("Connecting to " + brokerUrl + " with client ID '" + client.getClientId() + "' and cleanSession is " +
                     cleanSession + " as an async clientt");
-            IMqttToken conToken = client.connect(conOpt, null, null);
-            conToken.waitForCompletion();
+            establishConnection();
             log.info(client.getClientId() + " Connected");
 
         } catch (MqttException e) {
@@ -91,12 +96,22 @@ public class AsyncClient extends BaseClient {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void connectClient() throws MqttException {
+        IMqttToken conToken = client.connect(conOpt, null, null);
+        conToken.waitForCompletion(CONNECT_TIMEOUT);
+    }
+
     /**
      * {@inheritDoc}
      * @return
      */
     @Override
-    public long publish(String topicName, int qos, byte[] payload, boolean isRetained, long timeout) throws MqttException {
+    protected long publishClient(String topicName, int qos, byte[] payload, boolean isRetained, long timeout)
+            throws MqttException {
         // Construct the message to send
         MqttMessage message = new MqttMessage(payload);
         message.setRetained(isRetained);
@@ -120,12 +135,51 @@ public class AsyncClient extends BaseClient {
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Paho refuses a message at once while its messages in flight are at the maximum, so the message is handed to
+     * Paho again until it is accepted or the timeout expires.
      */
     @Override
-    public void subscribe(String topicName, int qos, long timeout) throws MqttException {
-        mqttMessageStorage = new ConcurrentLinkedQueue<>();
-        receivedMessageCounter = new AtomicLong(0);
+    protected void publishAsyncClient(String topicName, int qos, byte[] payload, boolean isRetained, long timeout,
+                                      final PublishListener listener) {
+        MqttMessage message = new MqttMessage(payload);
+        message.setRetained(isRetained);
+        message.setQos(qos);
 
+        final long start = System.nanoTime();
+        IMqttActionListener delivery = new IMqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken asyncActionToken) {
+                listener.published(System.nanoTime() - start, -1);
+            }
+
+            @Override
+            public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                listener.failed(exception);
+            }
+        };
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (true) {
+            try {
+                client.publish(topicName, message, null, delivery);
+                return;
+            } catch (MqttException e) {
+                if (e.getReasonCode() != MqttException.REASON_CODE_MAX_INFLIGHT ||
+                    (timeout > 0 && System.nanoTime() - deadline >= 0) ||
+                    Thread.currentThread().isInterrupted()) {
+                    listener.failed(e);
+                    return;
+                }
+            }
+            LockSupport.parkNanos(INFLIGHT_PARK_NANOS);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void subscribeClient(String topicName, int qos, long timeout) throws MqttException {
         // Subscribe to the requested topic.
         // Control is returned as soon client has accepted to deliver the subscription.
         // Use a token to wait until the subscription is in place.
@@ -139,17 +193,6 @@ public class AsyncClient extends BaseClient {
         log.info(client.getClientId() + " subscribed to topic \"" + topicName);
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void connectionLost(Throwable cause) {
-        // Called when the connection to the server has been lost.
-        // An application may choose to implement reconnection
-        // logic at this point. This sample simply exits.
-        log.warn(client.getClientId() + " connection to " + brokerUrl + " lost!" + cause);
-    }
-
     /**
      * {@inheritDoc}
      */
@@ -183,8 +226,7 @@ public class AsyncClient extends BaseClient {
      */
     @Override
     public void messageArrived(String topic, MqttMessage mqttMessage) {
-        Message newMessage = new Message(mqttMessage);
-        mqttMessageStorage.add(newMessage);
+        deliver(new Message(topic, mqttMessage));
     }
 
     /**
@@ -213,9 +255,21 @@ public class AsyncClient extends BaseClient {
      * {@inheritDoc}
      */
     @Override
-    public void close() {
+    public String getClientId() {
+        return client.getClientId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        super.close();
         try {
-            client.disconnect();
+            if (client.isConnected()) {
+                client.disconnect().waitForCompletion();
+            }
+            client.close();
         } catch (MqttException e) {
             log.error(client.getClientId() + " error disconnecting" + e.getMessage(), e);
         }
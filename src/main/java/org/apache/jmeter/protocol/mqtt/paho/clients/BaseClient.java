@@ -16,30 +16,676 @@
 
 package org.apache.jmeter.protocol.mqtt.paho.clients;
 
+import org.apache.jmeter.protocol.mqtt.client.CaptureWriter;
+import org.apache.jmeter.protocol.mqtt.client.ClientResources;
+import org.apache.jmeter.protocol.mqtt.client.ClientScheduler;
+import org.apache.jmeter.protocol.mqtt.client.ConnectionStats;
+import org.apache.jmeter.protocol.mqtt.client.ConnectionThrottle;
+import org.apache.jmeter.protocol.mqtt.client.MessageFilter;
+import org.apache.jmeter.protocol.mqtt.data.objects.ConnectEvent;
 import org.apache.jmeter.protocol.mqtt.data.objects.Message;
+import org.apache.jmeter.protocol.mqtt.data.objects.ReconnectEvent;
+import org.apache.jorphan.logging.LoggingManager;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttException;
 
 import java.io.Closeable;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This is the template class for both Async and Sync MQTT clients.
+ * <p/>
+ * When auto reconnect is enabled a lost connection is re-established with jittered exponential backoff and all the
+ * previous subscriptions are restored. The backoff is waited on the {@link ClientScheduler}, and the attempt runs on its
+ * connect pool with finite timeouts, so that a reconnect storm does not hold up the keep alive pings of the healthy
+ * connections.
+ * <p/>
+ * The messages published and received by all the clients are counted in lock free counters, and the asynchronous
+ * publishes in flight of each client are bounded by a limit that can be changed while the clients run.
  */
 public abstract class BaseClient implements MqttCallback, Closeable {
-    protected ConcurrentLinkedQueue<Message> mqttMessageStorage = null;
+    private static final org.apache.log.Logger log = LoggingManager.getLoggerForClass();
+
+    // The time to wait for the CONNACK of a handshake in milliseconds
+    protected static final long CONNECT_TIMEOUT = 30000;
+    // The time to wait for the SUBACK of a subscription restored after a reconnect in milliseconds
+    private static final long RESUBSCRIBE_TIMEOUT = 30000;
+    // The completed reconnects kept for the samplers, the oldest are dropped when nothing takes them
+    private static final int MAX_RECONNECT_EVENTS = 64;
+
+    // Wait between two checks for a place in the window of asynchronous publishes
+    private static final long WINDOW_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final LongAdder publishedMessages = new LongAdder();
+    private static final LongAdder failedPublishes = new LongAdder();
+    private static final LongAdder receivedMessages = new LongAdder();
+    // The clients that have connected and are not closed yet
+    private static final Set<BaseClient> openClients =
+            Collections.newSetFromMap(new ConcurrentHashMap<BaseClient, Boolean>());
+    private static volatile int maxInflight = 0;
+
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+
+    protected BlockingQueue<Message> mqttMessageStorage = null;
     protected AtomicLong receivedMessageCounter = null;
 
-    public abstract long publish(String topicName, int qos, byte[] payload, boolean isRetained, long timeout) throws MqttException;
-    public abstract void subscribe(String topicName, int qos, long timeout) throws MqttException;
+    private final Map<String, Integer> subscriptions = new LinkedHashMap<String, Integer>();
+    private final Queue<ReconnectEvent> reconnectEvents =
+            new LinkedBlockingQueue<ReconnectEvent>(MAX_RECONNECT_EVENTS);
+    private final AtomicReference<ConnectEvent> lastConnect = new AtomicReference<ConnectEvent>();
+    private volatile MessageListener messageListener = null;
+    private volatile MessageFilter messageFilter = null;
+    private volatile CaptureWriter capture = null;
+    private volatile boolean autoReconnect = false;
+    private volatile boolean closed = false;
+    private long reconnectInitialDelay;
+    private long reconnectMaxDelay;
+
+    /**
+     * Publishes a message with the underlying client and waits for it to be delivered.
+     *
+     * @see #publish(String, int, ByteBuffer, boolean, long)
+     */
+    protected abstract long publishClient(String topicName, int qos, byte[] payload, boolean isRetained, long timeout)
+            throws MqttException;
+
+    /**
+     * Publishes the remaining bytes of a buffer with the underlying client, leaving its position unchanged. Clients
+     * that only publish arrays copy the buffer, unless it wraps a whole array.
+     *
+     * @see #publish(String, int, ByteBuffer, boolean, long)
+     */
+    protected long publishClient(String topicName, int qos, ByteBuffer payload, boolean isRetained, long timeout)
+            throws MqttException {
+        return publishClient(topicName, qos, toArray(payload), isRetained, timeout);
+    }
+
+    /**
+     * Publishes a payload made of a prefix followed by the remaining bytes of a buffer with the underlying client,
+     * leaving their positions unchanged. Clients that only publish arrays join them into one array.
+     *
+     * @see #publish(String, int, ByteBuffer, ByteBuffer, boolean, long)
+     */
+    protected long publishClient(String topicName, int qos, ByteBuffer prefix, ByteBuffer payload, boolean isRetained,
+                                 long timeout) throws MqttException {
+        byte[] bytes = new byte[prefix.remaining() + payload.remaining()];
+        prefix.duplicate().get(bytes, 0, prefix.remaining());
+        payload.duplicate().get(bytes, prefix.remaining(), payload.remaining());
+        return publishClient(topicName, qos, bytes, isRetained, timeout);
+    }
+
+    /**
+     * Publishes a message and waits for it to be delivered.
+     *
+     * @see #publish(String, int, ByteBuffer, boolean, long)
+     */
+    public long publish(String topicName, int qos, byte[] payload, boolean isRetained, long timeout)
+            throws MqttException {
+        return publish(topicName, qos, ByteBuffer.wrap(payload), isRetained, timeout);
+    }
+
+    /**
+     * Publishes the remaining bytes of a buffer, leaving its position unchanged. The buffer must not change until the
+     * publish returns, and a read-only buffer, such as a slice of a mapped file, not until the message is delivered,
+     * as clients writing from the buffer itself may keep it.
+     *
+     * @param topicName  the topic
+     * @param qos        the qos
+     * @param payload    the message
+     * @param isRetained whether the broker retains the message
+     * @param timeout    the time to wait for the delivery in milliseconds, 0 to wait forever
+     * @return The duration of the publish in nanoseconds.
+     * @throws MqttException if the message could not be published
+     */
+    public long publish(String topicName, int qos, ByteBuffer payload, boolean isRetained, long timeout)
+            throws MqttException {
+        return publish(topicName, qos, null, payload, isRetained, timeout);
+    }
+
+    /**
+     * Publishes a payload made of a small prefix, such as a header, followed by the remaining bytes of a buffer, so
+     * that the data is not copied behind the prefix first. The prefix is no longer used once the publish returns.
+     *
+     * @param prefix the start of the payload, or null for none
+     * @see #publish(String, int, ByteBuffer, boolean, long)
+     */
+    public long publish(String topicName, int qos, ByteBuffer prefix, ByteBuffer payload, boolean isRetained,
+                        long timeout) throws MqttException {
+        inFlight.incrementAndGet();
+        try {
+            long durationNanos = prefix == null ? publishClient(topicName, qos, payload, isRetained, timeout) :
+                    publishClient(topicName, qos, prefix, payload, isRetained, timeout);
+            publishedMessages.increment();
+            return durationNanos;
+        } catch (MqttException e) {
+            failedPublishes.increment();
+            throw e;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
     public abstract void disconnect() throws MqttException;
     public abstract  boolean isConnected();
+    public abstract String getClientId();
+
+    /**
+     * Connects the underlying client with the options given at construction. Used to re-establish a lost connection.
+     *
+     * @throws MqttException if the client could not connect
+     */
+    protected abstract void connectClient() throws MqttException;
+
+    /**
+     * Connects through the {@link ConnectionThrottle} and records the CONNACK latency of the handshake.
+     *
+     * @throws MqttException if the client could not connect
+     */
+    protected void establishConnection() throws MqttException {
+        long throttleNanos;
+        try {
+            throttleNanos = ConnectionThrottle.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MqttException(e);
+        }
+        try {
+            long timestamp = System.currentTimeMillis();
+            long start = System.nanoTime();
+            connectClient();
+            if (!closed) {
+                openClients.add(this);
+            }
+            lastConnect.set(new ConnectEvent(timestamp, System.nanoTime() - start, throttleNanos));
+            ClientResources.connected(getClientId());
+        } finally {
+            ConnectionThrottle.release();
+        }
+    }
 
-    public ConcurrentLinkedQueue<Message> getReceivedMessages(){
+    /**
+     * Connects again after {@link #disconnect()} with the options given at construction. The subscriptions are not
+     * restored, a persistent session resumes them on the broker along with the messages queued while disconnected.
+     *
+     * @throws MqttException if the client could not connect
+     */
+    public void connect() throws MqttException {
+        establishConnection();
+    }
+
+    /**
+     * Takes the timing of the latest handshake if it has not been taken yet.
+     *
+     * @return The latest handshake, or null if there was none since the last call.
+     */
+    public ConnectEvent pollConnectEvent() {
+        return lastConnect.getAndSet(null);
+    }
+
+    /**
+     * Subscribes the underlying client to a topic and waits for the subscription to be acknowledged.
+     *
+     * @param topicName the topic filter
+     * @param qos       the maximum qos to receive messages at
+     * @param timeout   the time to wait in milliseconds, 0 to wait forever
+     * @throws MqttException if the subscription failed
+     */
+    protected abstract void subscribeClient(String topicName, int qos, long timeout) throws MqttException;
+
+    /**
+     * Subscribes to a topic. The subscription is remembered so that it can be restored after a reconnect.
+     *
+     * @param topicName the topic filter
+     * @param qos       the maximum qos to receive messages at
+     * @param timeout   the time to wait in milliseconds, 0 to wait forever
+     * @throws MqttException if the subscription failed
+     */
+    public void subscribe(String topicName, int qos, long timeout) throws MqttException {
+        if (mqttMessageStorage == null) {
+            mqttMessageStorage = new LinkedBlockingQueue<Message>();
+            receivedMessageCounter = new AtomicLong(0);
+        }
+        subscribeClient(topicName, qos, timeout);
+        synchronized (subscriptions) {
+            subscriptions.put(topicName, qos);
+        }
+    }
+
+    /**
+     * Enables reconnecting when the connection is lost. The n-th attempt is made after a random delay between half
+     * and all of min(initialDelay * 2^(n-1), maxDelay).
+     *
+     * @param initialDelay the backoff of the first attempt in milliseconds
+     * @param maxDelay     the upper bound of the backoff in milliseconds
+     */
+    public void setAutoReconnect(long initialDelay, long maxDelay) {
+        this.reconnectInitialDelay = Math.max(1, initialDelay);
+        this.reconnectMaxDelay = Math.max(reconnectInitialDelay, maxDelay);
+        this.autoReconnect = true;
+    }
+
+    public boolean isAutoReconnect() {
+        return autoReconnect;
+    }
+
+    /**
+     * Takes the reconnects completed since the last call, oldest first. Only the latest reconnects are kept.
+     *
+     * @return The next completed reconnect, or null if there is none.
+     */
+    public ReconnectEvent pollReconnectEvent() {
+        return reconnectEvents.poll();
+    }
+
+    /**
+     * Publishes a message with the underlying client without waiting for it to be delivered. Clients that cannot
+     * publish asynchronously publish synchronously and call the listener before returning.
+     *
+     * @see #publishAsync(String, int, byte[], boolean, long, PublishListener)
+     */
+    protected void publishAsyncClient(String topicName, int qos, byte[] payload, boolean isRetained, long timeout,
+                                      PublishListener listener) {
+        long durationNanos;
+        try {
+            durationNanos = publishClient(topicName, qos, payload, isRetained, timeout);
+        } catch (MqttException e) {
+            listener.failed(e);
+            return;
+        }
+        listener.published(durationNanos, getLastPublishSize());
+    }
+
+    /**
+     * Publishes the remaining bytes of a buffer with the underlying client without waiting for it to be delivered.
+     *
+     * @see #publishAsync(String, int, ByteBuffer, boolean, long, PublishListener)
+     */
+    protected void publishAsyncClient(String topicName, int qos, ByteBuffer payload, boolean isRetained,
+                                      long timeout, PublishListener listener) {
+        publishAsyncClient(topicName, qos, toArray(payload), isRetained, timeout, listener);
+    }
+
+    /**
+     * Publishes a message without waiting for it to be delivered. The listener is called once the delivery completes.
+     * Once the client has {@link #getMaxInflight()} messages in flight, waits for one of them to complete first.
+     *
+     * @param topicName  the topic
+     * @param qos        the qos
+     * @param payload    the message
+     * @param isRetained whether the broker retains the message
+     * @param timeout    the time to wait for the client to accept the message in milliseconds, 0 to wait forever
+     * @param listener   the listener of the delivery
+     */
+    public void publishAsync(String topicName, int qos, byte[] payload, boolean isRetained, long timeout,
+                             PublishListener listener) {
+        publishAsync(topicName, qos, ByteBuffer.wrap(payload), isRetained, timeout, listener);
+    }
+
+    /**
+     * Publishes the remaining bytes of a buffer without waiting for it to be delivered, leaving its position unchanged.
+     *
+     * @see #publish(String, int, ByteBuffer, boolean, long)
+     * @see #publishAsync(String, int, byte[], boolean, long, PublishListener)
+     */
+    public void publishAsync(String topicName, int qos, ByteBuffer payload, boolean isRetained, long timeout,
+                             PublishListener listener) {
+        try {
+            acquireInflight(timeout);
+        } catch (MqttException e) {
+            failedPublishes.increment();
+            listener.failed(e);
+            return;
+        }
+        publishAsyncClient(topicName, qos, payload, isRetained, timeout, new CountingListener(listener));
+    }
+
+    /**
+     * Takes a place in the window of publishes in flight, waiting for one if the window is full.
+     *
+     * @param timeout the time to wait in milliseconds, 0 to wait forever
+     * @throws MqttException if the window is still full after the timeout, or the thread was interrupted
+     */
+    private void acquireInflight(long timeout) throws MqttException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (true) {
+            int current = inFlight.get();
+            int max = maxInflight;
+            if (max <= 0 || current < max) {
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return;
+                }
+            } else if (timeout > 0 && System.nanoTime() - deadline >= 0) {
+                throw new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT);
+            } else {
+                LockSupport.parkNanos(WINDOW_PARK_NANOS);
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new MqttException(new InterruptedException());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The remaining bytes of a buffer as an array, the array of the buffer itself if it wraps a whole array.
+     */
+    private static byte[] toArray(ByteBuffer payload) {
+        if (payload.hasArray() && payload.arrayOffset() == 0 && payload.position() == 0 &&
+            payload.remaining() == payload.array().length) {
+            return payload.array();
+        }
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return The size in bytes of the latest PUBLISH packet the calling thread wrote with this client, or -1 if it is
+     * not known.
+     */
+    public int getLastPublishSize() {
+        return -1;
+    }
+
+    /**
+     * Hands the received messages to a listener instead of queueing them for {@link #getReceivedMessages()}. The
+     * listener is called on the thread of the client and must not block. A listener that is {@link Closeable} is
+     * closed with the client.
+     *
+     * @param messageListener the listener, or null to queue the messages again
+     */
+    public void setMessageListener(MessageListener messageListener) {
+        this.messageListener = messageListener;
+    }
+
+    public MessageListener getMessageListener() {
+        return messageListener;
+    }
+
+    /**
+     * Drops the received messages rejected by a filter before they are captured, handed to the listener or queued.
+     * The filter counts them.
+     *
+     * @param messageFilter the filter, or null to keep all the messages
+     */
+    public void setMessageFilter(MessageFilter messageFilter) {
+        this.messageFilter = messageFilter;
+    }
+
+    public MessageFilter getMessageFilter() {
+        return messageFilter;
+    }
+
+    /**
+     * Appends every accepted message to a capture, whether it is queued or handed to a listener. The capture is
+     * closed with the client.
+     *
+     * @param capture the capture, or null to stop capturing
+     */
+    public void setCapture(CaptureWriter capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * Passes a received message accepted by the filter to the capture and then to the listener, or queues it if
+     * there is no listener.
+     *
+     * @param message the received message
+     */
+    protected void deliver(Message message) {
+        MessageFilter filter = messageFilter;
+        if (filter == null || filter.accept(message)) {
+            queue(message);
+        }
+    }
+
+    /**
+     * Passes a received message already accepted by the filter to the capture and then to the listener, or queues it
+     * if there is no listener.
+     *
+     * @param message the received message
+     */
+    protected void queue(Message message) {
+        receivedMessages.increment();
+        CaptureWriter currentCapture = capture;
+        if (currentCapture != null) {
+            currentCapture.append(message);
+        }
+        MessageListener listener = messageListener;
+        if (listener != null) {
+            listener.received(message);
+        } else if (mqttMessageStorage != null) {
+            mqttMessageStorage.add(message);
+        }
+    }
+
+    public BlockingQueue<Message> getReceivedMessages(){
         return mqttMessageStorage;
     }
     public AtomicLong getReceivedMessageCounter(){
         return receivedMessageCounter;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void connectionLost(Throwable cause) {
+        log.warn(getClientId() + " connection lost! " + cause);
+        ConnectionStats.disconnected();
+        if (autoReconnect && !closed) {
+            scheduleReconnect(System.currentTimeMillis(), System.nanoTime(), 1);
+        }
+    }
+
+    /**
+     * Stops reconnecting and capturing, and closes a closeable listener. Subclasses release the underlying client
+     * after calling this.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        openClients.remove(this);
+        CaptureWriter currentCapture = capture;
+        if (currentCapture != null) {
+            currentCapture.close();
+        }
+        MessageListener currentListener = messageListener;
+        if (currentListener instanceof Closeable) {
+            ((Closeable) currentListener).close();
+        }
+    }
+
+    private void scheduleReconnect(final long lostTimestamp, final long lostNanos, final int attempt) {
+        long backoff = Math.min(reconnectMaxDelay, reconnectInitialDelay << Math.min(attempt - 1, 30));
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        final Runnable attemptTask = new Runnable() {
+            @Override
+            public void run() {
+                reconnect(lostTimestamp, lostNanos, attempt);
+            }
+        };
+        // The scheduler threads also send the keep alive pings, so they only wait for the backoff
+        ClientScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ClientScheduler.getConnectExecutor().execute(attemptTask);
+            }
+        }, delay);
+    }
+
+    private void reconnect(long lostTimestamp, long lostNanos, int attempt) {
+        if (closed) {
+            return;
+        }
+        ConnectionStats.reconnectAttempted();
+        try {
+            // A previous attempt may have connected but failed to restore the subscriptions
+            if (!isConnected()) {
+                establishConnection();
+            }
+            Map<String, Integer> previous;
+            synchronized (subscriptions) {
+                previous = new LinkedHashMap<String, Integer>(subscriptions);
+            }
+            for (Map.Entry<String, Integer> subscription : previous.entrySet()) {
+                subscribeClient(subscription.getKey(), subscription.getValue(), RESUBSCRIBE_TIMEOUT);
+            }
+            long recoveryNanos = System.nanoTime() - lostNanos;
+            ConnectionStats.reconnected(recoveryNanos);
+            ReconnectEvent event = new ReconnectEvent(lostTimestamp, recoveryNanos, attempt);
+            while (!reconnectEvents.offer(event)) {
+                reconnectEvents.poll();
+            }
+            log.info(getClientId() + " reconnected after " + attempt + " attempts in " + recoveryNanos / 1000000 + " ms");
+        } catch (MqttException e) {
+            log.warn(getClientId() + " reconnect attempt " + attempt + " failed: " + e.toString());
+            if (!closed) {
+                scheduleReconnect(lostTimestamp, lostNanos, attempt + 1);
+            }
+        }
+    }
+
+    /**
+     * @return The number of messages this client is publishing.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return The number of received messages waiting in the queue of this client.
+     */
+    public int getQueued() {
+        BlockingQueue<Message> queue = mqttMessageStorage;
+        return queue != null ? queue.size() : 0;
+    }
+
+    /**
+     * @return The limit of the asynchronous publishes in flight of each client, 0 for the limit of the client only.
+     */
+    public static int getMaxInflight() {
+        return maxInflight;
+    }
+
+    /**
+     * Changes the limit of the asynchronous publishes in flight of each client. The clients waiting for a place in
+     * the window notice the change at once. Paho clients also refuse more than 10 messages in flight on their own.
+     *
+     * @param max the limit, 0 or less for the limit of the client only
+     */
+    public static void setMaxInflight(int max) {
+        maxInflight = Math.max(0, max);
+    }
+
+    /**
+     * @return The messages published by all the clients since the counters were reset.
+     */
+    public static long getPublishedCount() {
+        return publishedMessages.sum();
+    }
+
+    /**
+     * @return The messages that all the clients failed to publish since the counters were reset.
+     */
+    public static long getFailedCount() {
+        return failedPublishes.sum();
+    }
+
+    /**
+     * @return The messages received by all the clients since the counters were reset, after filtering.
+     */
+    public static long getReceivedCount() {
+        return receivedMessages.sum();
+    }
+
+    /**
+     * Resets the message counters of all the clients. This is called at the start of a test.
+     */
+    public static void resetCounters() {
+        publishedMessages.reset();
+        failedPublishes.reset();
+        receivedMessages.reset();
+    }
+
+    /**
+     * @return The number of clients that have connected and are not closed yet.
+     */
+    public static int countOpen() {
+        return openClients.size();
+    }
+
+    /**
+     * @return The number of clients currently connected.
+     */
+    public static int countConnected() {
+        int connected = 0;
+        for (BaseClient client : openClients) {
+            if (client.isConnected()) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * @return The number of messages all the open clients are publishing.
+     */
+    public static long countInFlight() {
+        long count = 0;
+        for (BaseClient client : openClients) {
+            count += client.getInFlight();
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of received messages waiting in the queues of all the open clients.
+     */
+    public static long countQueued() {
+        long count = 0;
+        for (BaseClient client : openClients) {
+            count += client.getQueued();
+        }
+        return count;
+    }
+
+    /**
+     * Counts a completed asynchronous publish and frees its place in the window.
+     */
+    private final class CountingListener implements PublishListener {
+        private final PublishListener listener;
+
+        private CountingListener(PublishListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void published(long durationNanos, int packetSize) {
+            inFlight.decrementAndGet();
+            publishedMessages.increment();
+            listener.published(durationNanos, packetSize);
+        }
+
+        @Override
+        public void failed(Throwable cause) {
+            inFlight.decrementAndGet();
+            failedPublishes.increment();
+            listener.failed(cause);
+        }
+    }
 }
@@ -19,16 +19,17 @@ package org.apache.jmeter.protocol.mqtt.paho.clients;
 import org.apache.jmeter.protocol.mqtt.data.objects.Message;
 import org.apache.jorphan.logging.LoggingManager;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A sample application that demonstrates how to use the Paho MQTT v3.1 Client blocking API.
@@ -53,7 +54,8 @@ import java.util.concurrent.atomic.AtomicLong;
 public class BlockingClient extends BaseClient {
 
     private static final org.apache.log.Logger log = LoggingManager.getLoggerForClass();
-    private MqttClient client;
+    private SharedPingMqttClient client;
+    private MqttConnectOptions conOpt;
     private String brokerUrl;
 
     /**
@@ -75,7 +77,7 @@ public class BlockingClient extends BaseClient {
 
         // Construct the connection options object that contains connection parameters
         // such as cleanSession and LWT
-        MqttConnectOptions conOpt = new MqttConnectOptions();
+        conOpt = new MqttConnectOptions();
         conOpt.setCleanSession(cleanSession);
         if (password != null && !password.isEmpty()) {
             conOpt.setPassword(password.toCharArray());
@@ -88,7 +90,7 @@ public class BlockingClient extends BaseClient {
         conOpt.setKeepAliveInterval(keepAlive);
 
         // Construct an MQTT blocking mode client
-        client = new MqttClient(this.brokerUrl, clientId, dataStore);
+        client = new SharedPingMqttClient(this.brokerUrl, clientId, dataStore);
 
         // Set this wrapper as the callback handler
         client.setCallback(this);
@@ -96,10 +98,39 @@ public class BlockingClient extends BaseClient {
         // Connect to the MQTT server
         log.info("Connecting to " + brokerUrl + " with client ID '" + client.getClientId() + "' and cleanSession is " +
                                                                 String.valueOf(cleanSession) + " as a blocking client");
-        client.connect(conOpt);
+        establishConnection();
         log.info("Connected");
     }
 
+    /**
+     * Blocking client whose keep alive pings run on the shared scheduler instead of a timer thread per client.
+     * MqttClient offers no constructor taking a ping sender, so the wrapped async client is replaced. The one built
+     * by the super constructor has not started any threads and only gets a throwaway in-memory persistence.
+     */
+    private static class SharedPingMqttClient extends MqttClient {
+        private SharedPingMqttClient(String serverURI, String clientId, MqttClientPersistence persistence)
+                throws MqttException {
+            super(serverURI, clientId, new MemoryPersistence());
+            aClient = new MqttAsyncClient(serverURI, clientId, persistence, new SharedPingSender());
+        }
+
+        /**
+         * Connects like {@link MqttClient#connect(MqttConnectOptions)}, waiting at most the given time instead of the
+         * time to wait of the client, which is unbounded.
+         */
+        private void connect(MqttConnectOptions options, long timeout) throws MqttException {
+            aClient.connect(options, null, null).waitForCompletion(timeout);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void connectClient() throws MqttException {
+        client.connect(conOpt, CONNECT_TIMEOUT);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -118,12 +149,21 @@ public class BlockingClient extends BaseClient {
         return client.isConnected();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getClientId() {
+        return client.getClientId();
+    }
+
     /**
      * {@inheritDoc}
      * @return
      */
     @Override
-    public long publish(String topicName, int qos, byte[] payload, boolean isRetained, long timeout) throws MqttException {
+    protected long publishClient(String topicName, int qos, byte[] payload, boolean isRetained, long timeout)
+            throws MqttException {
         // Create and configure a message
         MqttMessage message = new MqttMessage(payload);
         message.setRetained(isRetained);
@@ -144,10 +184,7 @@ public class BlockingClient extends BaseClient {
      * {@inheritDoc}
      */
     @Override
-    public void subscribe(String topicName, int qos, long timeout) throws MqttException {
-        mqttMessageStorage = new ConcurrentLinkedQueue<Message>();
-        receivedMessageCounter = new AtomicLong(0);
-
+    protected void subscribeClient(String topicName, int qos, long timeout) throws MqttException {
         // Subscribe to the requested topic
         // The QoS specified is the maximum level that messages will be sent to the client at.
         // For instance if QoS 1 is specified, any messages originally published at QoS 2 will
@@ -158,14 +195,6 @@ public class BlockingClient extends BaseClient {
         client.subscribe(topicName, qos);
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void connectionLost(Throwable cause) {
-        log.info("Connection to " + brokerUrl + " lost!" + cause);
-    }
-
     /**
      * {@inheritDoc}
      */
@@ -178,8 +207,7 @@ public class BlockingClient extends BaseClient {
      */
     @Override
     public void messageArrived(String topic, MqttMessage message) throws MqttException {
-        Message newMessage = new Message(message);
-        mqttMessageStorage.add(newMessage);
+        deliver(new Message(topic, message));
     }
 
     /**
@@ -187,8 +215,12 @@ public class BlockingClient extends BaseClient {
      */
     @Override
     public void close() throws IOException{
+        super.close();
         try {
-            client.disconnect();
+            if (client.isConnected()) {
+                client.disconnect();
+            }
+            client.close();
         } catch (MqttException e) {
             throw new IOException(e.getMessage(), e);
         }
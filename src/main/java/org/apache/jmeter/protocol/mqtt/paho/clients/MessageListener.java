@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.paho.clients;
+
+import org.apache.jmeter.protocol.mqtt.data.objects.Message;
+
+/**
+ * Receiver of the messages of a client, see {@link BaseClient#setMessageListener(MessageListener)}.
+ */
+public interface MessageListener {
+
+    /**
+     * Called on the thread of the client for every message received.
+     *
+     * @param message the message
+     */
+    void received(Message message);
+}
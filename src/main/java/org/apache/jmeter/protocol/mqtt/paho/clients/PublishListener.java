@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.paho.clients;
+
+/**
+ * Listener of a message published with {@link BaseClient#publishAsync}. The listener may be called on a client
+ * thread, so it must not block.
+ */
+public interface PublishListener {
+
+    /**
+     * Called when the message has been delivered at its qos.
+     *
+     * @param durationNanos the time from the publish call to the delivery in nanoseconds
+     * @param packetSize    the size of the PUBLISH packet in bytes, or -1 if it is not known
+     */
+    void published(long durationNanos, int packetSize);
+
+    /**
+     * Called when the message could not be delivered.
+     *
+     * @param cause the reason
+     */
+    void failed(Throwable cause);
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.paho.clients;
+
+import org.apache.jmeter.protocol.mqtt.client.ClientScheduler;
+import org.eclipse.paho.client.mqttv3.MqttPingSender;
+import org.eclipse.paho.client.mqttv3.internal.ClientComms;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Keep alive ping sender that runs on the shared {@link ClientScheduler}. Paho's default TimerPingSender starts a
+ * java.util.Timer thread for every connection, which is one idle thread per client for the whole test.
+ */
+public class SharedPingSender implements MqttPingSender {
+
+    private volatile ClientComms comms;
+    private volatile ScheduledFuture<?> pingTask;
+
+    private final Runnable ping = new Runnable() {
+        @Override
+        public void run() {
+            // Checks whether a ping is due and, if so, sends it and schedules the next check
+            comms.checkForActivity();
+        }
+    };
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init(ClientComms comms) {
+        if (comms == null) {
+            throw new IllegalArgumentException("ClientComms cannot be null.");
+        }
+        this.comms = comms;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start() {
+        schedule(comms.getKeepAlive());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop() {
+        ScheduledFuture<?> task = pingTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void schedule(long delayInMilliseconds) {
+        pingTask = ClientScheduler.schedule(ping, delayInMilliseconds);
+    }
+}
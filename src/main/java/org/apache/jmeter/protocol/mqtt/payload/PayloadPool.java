@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.payload;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A pool of synthetic payloads generated once, whose sizes follow a {@link SizeDistribution}, so that publishing one
+ * only costs picking it by index. The content is random bytes, compressible text made of words from a small
+ * vocabulary, or a short pattern repeated. Everything is drawn from a random generator seeded by the name of the pool,
+ * so that every run publishes the same bytes.
+ * <p/>
+ * Pools are generated on first use, when the test starts, and shared by all the threads using the same definition
+ * until {@link #clear()} at the end of the test.
+ */
+public class PayloadPool {
+
+    public static final String RANDOM = "random";
+    public static final String COMPRESSIBLE = "compressible";
+    public static final String REPEATING = "repeating";
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final byte[] LETTERS = "abcdefghijklmnopqrstuvwxyz".getBytes();
+    private static final int VOCABULARY = 256;
+    private static final int PATTERN_SIZE = 16;
+
+    private static final Map<String, PayloadPool> pools = new HashMap<>();
+
+    private final ByteBuffer[] payloads;
+    private final long totalBytes;
+
+    private PayloadPool(ByteBuffer[] payloads, long totalBytes) {
+        this.payloads = payloads;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Returns the pool of a definition, generating it on first use.
+     *
+     * @param name    the name of the pool, the seed of its content
+     * @param sizes   the {@link SizeDistribution} of the payloads
+     * @param content {@link #RANDOM}, {@link #COMPRESSIBLE} or {@link #REPEATING}
+     * @param count   the number of payloads
+     * @return The pool.
+     * @throws IOException if the definition is not valid
+     */
+    public static synchronized PayloadPool get(String name, String sizes, String content, int count)
+            throws IOException {
+        String key = name + "|" + sizes + "|" + content + "|" + count;
+        PayloadPool pool = pools.get(key);
+        if (pool == null) {
+            try {
+                pool = generate(name, SizeDistribution.parse(sizes), content, count);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Payload generator " + name + ": " + e.getMessage(), e);
+            }
+            pools.put(key, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Forgets the generated pools.
+     */
+    public static synchronized void clear() {
+        pools.clear();
+    }
+
+    private static PayloadPool generate(String name, SizeDistribution sizes, String content, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("The pool size must be positive: " + count);
+        }
+        if (!RANDOM.equals(content) && !COMPRESSIBLE.equals(content) && !REPEATING.equals(content)) {
+            throw new IllegalArgumentException("Unknown content " + content);
+        }
+        Random random = new Random(name.hashCode());
+        byte[][] vocabulary = COMPRESSIBLE.equals(content) ? createVocabulary(random) : null;
+        byte[] pattern = REPEATING.equals(content) ? createWord(random, PATTERN_SIZE) : null;
+
+        ByteBuffer[] payloads = new ByteBuffer[count];
+        long totalBytes = 0;
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] payload = new byte[sizes.next(random)];
+            if (vocabulary != null) {
+                fillWords(payload, vocabulary, random);
+            } else if (pattern != null) {
+                for (int position = 0; position < payload.length; position++) {
+                    payload[position] = pattern[position % pattern.length];
+                }
+            } else {
+                random.nextBytes(payload);
+            }
+            payloads[i] = ByteBuffer.wrap(payload);
+            totalBytes += payload.length;
+            min = Math.min(min, payload.length);
+            max = Math.max(max, payload.length);
+        }
+        log.info("Generated " + count + " " + content + " payloads for " + name + ": " + totalBytes + " bytes, " +
+                 min + " to " + max + " bytes, " + totalBytes / count + " on average");
+        return new PayloadPool(payloads, totalBytes);
+    }
+
+    private static byte[][] createVocabulary(Random random) {
+        byte[][] words = new byte[VOCABULARY][];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = createWord(random, 2 + random.nextInt(8));
+        }
+        return words;
+    }
+
+    private static byte[] createWord(Random random, int length) {
+        byte[] word = new byte[length];
+        for (int i = 0; i < length; i++) {
+            word[i] = LETTERS[random.nextInt(LETTERS.length)];
+        }
+        return word;
+    }
+
+    private static void fillWords(byte[] payload, byte[][] vocabulary, Random random) {
+        int position = 0;
+        while (position < payload.length) {
+            byte[] word = vocabulary[random.nextInt(vocabulary.length)];
+            int length = Math.min(word.length, payload.length - position);
+            System.arraycopy(word, 0, payload, position, length);
+            position += length;
+            if (position < payload.length) {
+                payload[position++] = ' ';
+            }
+        }
+    }
+
+    /**
+     * @return The number of payloads.
+     */
+    public int size() {
+        return payloads.length;
+    }
+
+    /**
+     * @return The size of all the payloads in bytes.
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Picks a payload by index, the pool wrapping around. The buffer wraps the whole payload array, so that clients
+     * publishing arrays do not copy it, and must not be written to.
+     *
+     * @param index any index, not negative
+     * @return The payload.
+     */
+    public ByteBuffer get(long index) {
+        return payloads[(int) (index % payloads.length)].duplicate();
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.payload;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.save.CSVSaveService;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A flat record schema compiled once into {@link SchemaEncoder}s writing JSON, CBOR or Protobuf. The schema is written
+ * with a line per field: name,type,generator,tag, quoting a generator containing commas as in CSV. Blank lines and
+ * lines starting with # are skipped. The types are int, double, bool, string and time, the milliseconds since the
+ * epoch. The generator of the values is one of:
+ * <ul>
+ * <li>const:value</li>
+ * <li>choice:value|value|... a value picked at random</li>
+ * <li>seq:start for an int counting the records of the thread, seq:prefix for a string</li>
+ * <li>thread for the thread number, thread:prefix for a string</li>
+ * <li>random:min,max for a uniform int or double, random:length for a string of letters, random for a bool</li>
+ * <li>gauss:mean,deviation for a double</li>
+ * <li>now for a time</li>
+ * </ul>
+ * Without a generator, an int counts the records, a double is random between 0 and 1, a bool is random, a string is 8
+ * random letters and a time is now. The tag is the Protobuf field number, the position of the field by default.
+ * <p/>
+ * Schemas are compiled once and shared by all the threads using the same definition until {@link #clear()}.
+ */
+public class PayloadSchema {
+
+    public static final String JSON = "json";
+    public static final String CBOR = "cbor";
+    public static final String PROTOBUF = "protobuf";
+
+    static final int INT = 0;
+    static final int DOUBLE = 1;
+    static final int BOOL = 2;
+    static final int STRING = 3;
+    static final int TIME = 4;
+
+    static final int CONST = 0;
+    static final int CHOICE = 1;
+    static final int SEQUENCE = 2;
+    static final int THREAD = 3;
+    static final int RANDOM = 4;
+    static final int GAUSS = 5;
+    static final int NOW = 6;
+
+    private static final String[] TYPES = {"int", "double", "bool", "string", "time"};
+    private static final String[] PROTO_TYPES = {"int64", "double", "bool", "string", "int64"};
+    private static final String[] GENERATORS = {"const", "choice", "seq", "thread", "random", "gauss", "now"};
+    // The largest Protobuf field number
+    private static final int MAX_TAG = (1 << 29) - 1;
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final Map<String, PayloadSchema> compiled = new HashMap<>();
+
+    private final Field[] fields;
+
+    private PayloadSchema(List<Field> fields) {
+        this.fields = fields.toArray(new Field[fields.size()]);
+    }
+
+    /**
+     * Returns the compiled schema of a definition, compiling it on first use.
+     *
+     * @param definition the schema
+     * @return The schema.
+     * @throws IOException if the schema is not valid
+     */
+    public static synchronized PayloadSchema get(String definition) throws IOException {
+        PayloadSchema schema = compiled.get(definition);
+        if (schema == null) {
+            schema = parse(definition);
+            compiled.put(definition, schema);
+            log.info("Compiled payload schema of " + schema.fields.length + " fields, a record is " +
+                     schema.createEncoder(JSON, 0, 0).encode().remaining() + " bytes in JSON, " +
+                     schema.createEncoder(CBOR, 0, 0).encode().remaining() + " bytes in CBOR and " +
+                     schema.createEncoder(PROTOBUF, 0, 0).encode().remaining() + " bytes in Protobuf of " +
+                     schema.toProto("Payload"));
+        }
+        return schema;
+    }
+
+    /**
+     * Forgets the compiled schemas.
+     */
+    public static synchronized void clear() {
+        compiled.clear();
+    }
+
+    private static PayloadSchema parse(String definition) throws IOException {
+        List<Field> fields = new ArrayList<>();
+        Set<Integer> tags = new HashSet<>();
+        BufferedReader reader = new BufferedReader(new StringReader(definition));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (StringUtils.isBlank(line) || line.trim().startsWith("#")) {
+                continue;
+            }
+            String[] values = CSVSaveService.csvSplitString(line, ',');
+            try {
+                if (values.length < 2) {
+                    throw new IllegalArgumentException("expected name,type,generator,tag");
+                }
+                int tag = values.length > 3 && StringUtils.isNotBlank(values[3]) ? Integer.parseInt(values[3].trim()) :
+                          fields.size() + 1;
+                if (tag < 1 || tag > MAX_TAG || !tags.add(tag)) {
+                    throw new IllegalArgumentException("invalid or duplicate tag " + tag);
+                }
+                fields.add(new Field(values[0].trim(), indexOf(TYPES, values[1].trim(), "type"), tag,
+                        values.length > 2 ? values[2].trim() : ""));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Payload schema line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        if (fields.isEmpty()) {
+            throw new IOException("Payload schema has no fields");
+        }
+        return new PayloadSchema(fields);
+    }
+
+    private static int indexOf(String[] names, String name, String what) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name.toLowerCase(Locale.ENGLISH))) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unknown " + what + " " + name);
+    }
+
+    /**
+     * Creates an encoder of records, for a single thread.
+     *
+     * @param format {@link #JSON}, {@link #CBOR} or {@link #PROTOBUF}
+     * @param seed   the seed of the random values
+     * @param thread the thread number
+     * @return The encoder.
+     */
+    public SchemaEncoder createEncoder(String format, long seed, int thread) {
+        if (CBOR.equals(format)) {
+            return new SchemaEncoder.Cbor(fields, seed, thread);
+        } else if (PROTOBUF.equals(format)) {
+            return new SchemaEncoder.Protobuf(fields, seed, thread);
+        }
+        return new SchemaEncoder.Json(fields, seed, thread);
+    }
+
+    /**
+     * @param messageName the name of the message
+     * @return The Protobuf definition of the records.
+     */
+    public String toProto(String messageName) {
+        StringBuilder proto = new StringBuilder("message ").append(messageName).append(" {");
+        for (Field field : fields) {
+            proto.append(' ').append(PROTO_TYPES[field.type]).append(' ').append(field.name).append(" = ")
+                 .append(field.tag).append(';');
+        }
+        return proto.append(" }").toString();
+    }
+
+    /**
+     * A compiled field.
+     */
+    static final class Field {
+        final String name;
+        final int type;
+        final int tag;
+        final int generator;
+        // The numbers of the generator
+        double first;
+        double second;
+        // The values of const and choice, or the prefix of seq and thread strings
+        byte[][] strings;
+        long[] longs;
+        double[] doubles;
+
+        private Field(String name, int type, int tag, String definition) {
+            this.name = name;
+            this.type = type;
+            this.tag = tag;
+            int colon = definition.indexOf(':');
+            String kind = colon < 0 ? definition : definition.substring(0, colon).trim();
+            String parameters = colon < 0 ? null : definition.substring(colon + 1);
+            this.generator = kind.isEmpty() ? defaultGenerator(type) : indexOf(GENERATORS, kind, "generator");
+            compile(parameters);
+        }
+
+        private static int defaultGenerator(int type) {
+            switch (type) {
+                case INT:
+                    return SEQUENCE;
+                case TIME:
+                    return NOW;
+                default:
+                    return RANDOM;
+            }
+        }
+
+        private void compile(String parameters) {
+            switch (generator) {
+                case CONST:
+                case CHOICE:
+                    if (parameters == null || type == TIME) {
+                        throw new IllegalArgumentException("expected values for " + name);
+                    }
+                    String[] values = generator == CONST ? new String[]{parameters} : parameters.split("\\|");
+                    strings = new byte[values.length][];
+                    longs = new long[values.length];
+                    doubles = new double[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        strings[i] = values[i].getBytes(StandardCharsets.UTF_8);
+                        if (type == INT) {
+                            longs[i] = Long.parseLong(values[i].trim());
+                        } else if (type == DOUBLE) {
+                            doubles[i] = Double.parseDouble(values[i].trim());
+                        } else if (type == BOOL) {
+                            longs[i] = Boolean.parseBoolean(values[i].trim()) ? 1 : 0;
+                        }
+                    }
+                    break;
+                case SEQUENCE:
+                case THREAD:
+                    if (type == STRING) {
+                        strings = new byte[][]{parameters == null ? new byte[0] :
+                                               parameters.getBytes(StandardCharsets.UTF_8)};
+                    } else if (type == INT) {
+                        first = generator == SEQUENCE && parameters != null ? Long.parseLong(parameters.trim()) : 0;
+                    } else {
+                        throw new IllegalArgumentException(GENERATORS[generator] + " is not valid for " + name);
+                    }
+                    break;
+                case RANDOM:
+                    if (type == STRING) {
+                        first = parameters == null ? 8 : Integer.parseInt(parameters.trim());
+                    } else if (type == INT || type == DOUBLE) {
+                        String[] range = parameters == null ? new String[]{"0", "1"} : parameters.split(",");
+                        if (range.length != 2) {
+                            throw new IllegalArgumentException("expected random:min,max for " + name);
+                        }
+                        first = Double.parseDouble(range[0].trim());
+                        second = Double.parseDouble(range[1].trim());
+                    } else if (type != BOOL) {
+                        throw new IllegalArgumentException("random is not valid for " + name);
+                    }
+                    if (type == STRING ? first < 0 : second < first) {
+                        throw new IllegalArgumentException("invalid random range for " + name);
+                    }
+                    break;
+                case GAUSS:
+                    String[] moments = parameters == null ? new String[0] : parameters.split(",");
+                    if (type != DOUBLE || moments.length != 2) {
+                        throw new IllegalArgumentException("expected a double gauss:mean,deviation for " + name);
+                    }
+                    first = Double.parseDouble(moments[0].trim());
+                    second = Double.parseDouble(moments[1].trim());
+                    break;
+                case NOW:
+                    if (type != TIME && type != INT) {
+                        throw new IllegalArgumentException("now is not valid for " + name);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.payload;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Writes records of a {@link PayloadSchema} straight into a reused buffer, with no intermediate objects: the keys and
+ * the constant strings of the format are encoded once, the values are generated as they are written. An encoder
+ * belongs to a single thread.
+ */
+public abstract class SchemaEncoder {
+
+    private static final byte[] LETTERS = "abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII);
+    // The longest encoding of a number in any of the formats
+    private static final int MAX_NUMBER_SIZE = 24;
+
+    private final PayloadSchema.Field[] fields;
+    private final Random random;
+    private final int thread;
+    private final byte[][] keys;
+    private final byte[][][] strings;
+    private final byte[] digits = new byte[20];
+    private long sequence = 0;
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    SchemaEncoder(PayloadSchema.Field[] fields, long seed, int thread) {
+        this.fields = fields;
+        this.random = new Random(seed);
+        this.thread = thread;
+        this.keys = new byte[fields.length][];
+        this.strings = new byte[fields.length][][];
+        for (int i = 0; i < fields.length; i++) {
+            PayloadSchema.Field field = fields[i];
+            keys[i] = encodeKey(field, i);
+            if (field.type == PayloadSchema.STRING && field.strings != null) {
+                boolean prefix = field.generator == PayloadSchema.SEQUENCE || field.generator == PayloadSchema.THREAD;
+                strings[i] = new byte[field.strings.length][];
+                for (int j = 0; j < field.strings.length; j++) {
+                    strings[i][j] = prefix ? encodePrefix(field.strings[j]) : encodeString(field.strings[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes the next record.
+     *
+     * @return The record, in a buffer reused by the next call.
+     */
+    public ByteBuffer encode() {
+        buffer.clear();
+        begin(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            PayloadSchema.Field field = fields[i];
+            put(keys[i]);
+            ensure(MAX_NUMBER_SIZE);
+            switch (field.type) {
+                case PayloadSchema.INT:
+                case PayloadSchema.TIME:
+                    writeLong(nextLong(field));
+                    break;
+                case PayloadSchema.DOUBLE:
+                    writeDouble(nextDouble(field));
+                    break;
+                case PayloadSchema.BOOL:
+                    writeBoolean(nextBoolean(field));
+                    break;
+                default:
+                    writeString(field, strings[i]);
+                    break;
+            }
+        }
+        ensure(MAX_NUMBER_SIZE);
+        end();
+        sequence++;
+        buffer.flip();
+        return buffer;
+    }
+
+    private int pick(PayloadSchema.Field field) {
+        return field.generator == PayloadSchema.CHOICE ? random.nextInt(field.longs.length) : 0;
+    }
+
+    private long nextLong(PayloadSchema.Field field) {
+        switch (field.generator) {
+            case PayloadSchema.SEQUENCE:
+                return (long) field.first + sequence;
+            case PayloadSchema.THREAD:
+                return thread;
+            case PayloadSchema.RANDOM:
+                return (long) (field.first + Math.floor(random.nextDouble() * (field.second - field.first + 1)));
+            case PayloadSchema.NOW:
+                return System.currentTimeMillis();
+            default:
+                return field.longs[pick(field)];
+        }
+    }
+
+    private double nextDouble(PayloadSchema.Field field) {
+        switch (field.generator) {
+            case PayloadSchema.RANDOM:
+                return field.first + random.nextDouble() * (field.second - field.first);
+            case PayloadSchema.GAUSS:
+                return field.first + field.second * random.nextGaussian();
+            default:
+                return field.doubles[pick(field)];
+        }
+    }
+
+    private boolean nextBoolean(PayloadSchema.Field field) {
+        return field.generator == PayloadSchema.RANDOM ? random.nextBoolean() : field.longs[pick(field)] != 0;
+    }
+
+    private void writeString(PayloadSchema.Field field, byte[][] encoded) {
+        switch (field.generator) {
+            case PayloadSchema.SEQUENCE:
+            case PayloadSchema.THREAD:
+                long number = field.generator == PayloadSchema.SEQUENCE ? sequence : thread;
+                int count = digits(number);
+                startString(field.strings[0].length + count);
+                put(encoded[0]);
+                ensure(count + MAX_NUMBER_SIZE);
+                putDigits(number, count);
+                endString();
+                break;
+            case PayloadSchema.RANDOM:
+                int length = (int) field.first;
+                startString(length);
+                ensure(length + MAX_NUMBER_SIZE);
+                for (int i = 0; i < length; i++) {
+                    buffer.put(LETTERS[random.nextInt(LETTERS.length)]);
+                }
+                endString();
+                break;
+            default:
+                put(encoded[random.nextInt(encoded.length)]);
+                break;
+        }
+    }
+
+    private static int digits(long number) {
+        int count = 1;
+        while (number >= 10) {
+            number /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Writes the decimal digits of a number that is not negative.
+     */
+    void putDigits(long number, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            digits[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        buffer.put(digits, 0, count);
+    }
+
+    /**
+     * Writes the decimal digits of a number that is not negative.
+     */
+    void putDigits(long number) {
+        putDigits(number, digits(number));
+    }
+
+    /**
+     * Makes room for a number of bytes, growing the buffer.
+     */
+    final void ensure(int length) {
+        if (buffer.remaining() < length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    final void put(byte[] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    final ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return The encoded key of a field, written before its value.
+     */
+    abstract byte[] encodeKey(PayloadSchema.Field field, int index);
+
+    /**
+     * @return The encoded value of a constant string.
+     */
+    abstract byte[] encodeString(byte[] value);
+
+    /**
+     * @return The encoded prefix of a string, written between its start and its generated end.
+     */
+    byte[] encodePrefix(byte[] prefix) {
+        return prefix;
+    }
+
+    abstract void begin(int fields);
+
+    abstract void end();
+
+    /**
+     * Starts a string of a number of bytes whose content follows.
+     */
+    abstract void startString(int length);
+
+    abstract void endString();
+
+    abstract void writeLong(long value);
+
+    abstract void writeDouble(double value);
+
+    abstract void writeBoolean(boolean value);
+
+    private static byte[] toArray(ByteBuffer encoded) {
+        encoded.flip();
+        return Arrays.copyOf(encoded.array(), encoded.limit());
+    }
+
+    /**
+     * JSON object, the doubles rounded to 3 decimals.
+     */
+    static final class Json extends SchemaEncoder {
+        private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+        Json(PayloadSchema.Field[] fields, long seed, int thread) {
+            super(fields, seed, thread);
+        }
+
+        @Override
+        byte[] encodeKey(PayloadSchema.Field field, int index) {
+            byte[] name = escape(field.name.getBytes(StandardCharsets.UTF_8));
+            ByteBuffer key = ByteBuffer.allocate(name.length + 4);
+            if (index > 0) {
+                key.put((byte) ',');
+            }
+            key.put((byte) '"').put(name).put((byte) '"').put((byte) ':');
+            return toArray(key);
+        }
+
+        @Override
+        byte[] encodeString(byte[] value) {
+            byte[] escaped = escape(value);
+            ByteBuffer string = ByteBuffer.allocate(escaped.length + 2);
+            string.put((byte) '"').put(escaped).put((byte) '"');
+            return toArray(string);
+        }
+
+        @Override
+        byte[] encodePrefix(byte[] prefix) {
+            return escape(prefix);
+        }
+
+        private static byte[] escape(byte[] value) {
+            ByteBuffer escaped = ByteBuffer.allocate(value.length * 6);
+            for (byte b : value) {
+                if (b == '"' || b == '\\') {
+                    escaped.put((byte) '\\').put(b);
+                } else if ((b & 0xFF) < 0x20) {
+                    escaped.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                           .put(HEX[(b >> 4) & 0xF]).put(HEX[b & 0xF]);
+                } else {
+                    escaped.put(b);
+                }
+            }
+            return toArray(escaped);
+        }
+
+        @Override
+        void begin(int fields) {
+            buffer().put((byte) '{');
+        }
+
+        @Override
+        void end() {
+            buffer().put((byte) '}');
+        }
+
+        @Override
+        void startString(int length) {
+            buffer().put((byte) '"');
+        }
+
+        @Override
+        void endString() {
+            buffer().put((byte) '"');
+        }
+
+        @Override
+        void writeLong(long value) {
+            if (value == Long.MIN_VALUE) {
+                put(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            if (value < 0) {
+                buffer().put((byte) '-');
+                value = -value;
+            }
+            putDigits(value);
+        }
+
+        @Override
+        void writeDouble(double value) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                put(NULL);
+                return;
+            }
+            if (Math.abs(value) >= 1e15) {
+                put(Double.toString(value).getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            long thousandths = Math.round(value * 1000);
+            if (thousandths < 0) {
+                buffer().put((byte) '-');
+                thousandths = -thousandths;
+            }
+            putDigits(thousandths / 1000);
+            long fraction = thousandths % 1000;
+            if (fraction != 0) {
+                buffer().put((byte) '.');
+                int count = 3;
+                while (fraction % 10 == 0) {
+                    fraction /= 10;
+                    count--;
+                }
+                putDigits(fraction, count);
+            }
+        }
+
+        @Override
+        void writeBoolean(boolean value) {
+            put(value ? TRUE : FALSE);
+        }
+    }
+
+    /**
+     * CBOR map (RFC 7049) keyed by the field names, the doubles in 64 bits.
+     */
+    static final class Cbor extends SchemaEncoder {
+        private static final int UNSIGNED = 0;
+        private static final int NEGATIVE = 1;
+        private static final int TEXT = 3;
+        private static final int MAP = 5;
+
+        Cbor(PayloadSchema.Field[] fields, long seed, int thread) {
+            super(fields, seed, thread);
+        }
+
+        private static void putHeader(ByteBuffer out, int major, long value) {
+            int type = major << 5;
+            if (value < 24) {
+                out.put((byte) (type | value));
+            } else if (value < 0x100) {
+                out.put((byte) (type | 24)).put((byte) value);
+            } else if (value < 0x10000) {
+                out.put((byte) (type | 25)).putShort((short) value);
+            } else if (value < 0x100000000L) {
+                out.put((byte) (type | 26)).putInt((int) value);
+            } else {
+                out.put((byte) (type | 27)).putLong(value);
+            }
+        }
+
+        @Override
+        byte[] encodeKey(PayloadSchema.Field field, int index) {
+            return encodeString(field.name.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        byte[] encodeString(byte[] value) {
+            ByteBuffer string = ByteBuffer.allocate(value.length + 9);
+            putHeader(string, TEXT, value.length);
+            string.put(value);
+            return toArray(string);
+        }
+
+        @Override
+        void begin(int fields) {
+            putHeader(buffer(), MAP, fields);
+        }
+
+        @Override
+        void end() {
+        }
+
+        @Override
+        void startString(int length) {
+            putHeader(buffer(), TEXT, length);
+        }
+
+        @Override
+        void endString() {
+        }
+
+        @Override
+        void writeLong(long value) {
+            if (value >= 0) {
+                putHeader(buffer(), UNSIGNED, value);
+            } else {
+                putHeader(buffer(), NEGATIVE, -1 - value);
+            }
+        }
+
+        @Override
+        void writeDouble(double value) {
+            buffer().put((byte) 0xFB).putDouble(value);
+        }
+
+        @Override
+        void writeBoolean(boolean value) {
+            buffer().put((byte) (value ? 0xF5 : 0xF4));
+        }
+    }
+
+    /**
+     * Protobuf message whose field numbers are the tags of the schema: int and time as int64, double, bool and
+     * string.
+     */
+    static final class Protobuf extends SchemaEncoder {
+        private static final int VARINT = 0;
+        private static final int FIXED64 = 1;
+        private static final int LENGTH_DELIMITED = 2;
+
+        Protobuf(PayloadSchema.Field[] fields, long seed, int thread) {
+            super(fields, seed, thread);
+        }
+
+        private static void putVarint(ByteBuffer out, long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.put((byte) value);
+        }
+
+        @Override
+        byte[] encodeKey(PayloadSchema.Field field, int index) {
+            int wireType;
+            if (field.type == PayloadSchema.DOUBLE) {
+                wireType = FIXED64;
+            } else if (field.type == PayloadSchema.STRING) {
+                wireType = LENGTH_DELIMITED;
+            } else {
+                wireType = VARINT;
+            }
+            ByteBuffer key = ByteBuffer.allocate(10);
+            putVarint(key, ((long) field.tag << 3) | wireType);
+            return toArray(key);
+        }
+
+        @Override
+        byte[] encodeString(byte[] value) {
+            ByteBuffer string = ByteBuffer.allocate(value.length + 10);
+            putVarint(string, value.length);
+            string.put(value);
+            return toArray(string);
+        }
+
+        @Override
+        void begin(int fields) {
+        }
+
+        @Override
+        void end() {
+        }
+
+        @Override
+        void startString(int length) {
+            putVarint(buffer(), length);
+        }
+
+        @Override
+        void endString() {
+        }
+
+        @Override
+        void writeLong(long value) {
+            putVarint(buffer(), value);
+        }
+
+        @Override
+        void writeDouble(double value) {
+            buffer().putLong(Long.reverseBytes(Double.doubleToRawLongBits(value)));
+        }
+
+        @Override
+        void writeBoolean(boolean value) {
+            buffer().put((byte) (value ? 1 : 0));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.payload;
+
+import org.apache.jmeter.protocol.mqtt.mix.AliasTable;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * A distribution of payload sizes in bytes, written as kind:parameters:
+ * <ul>
+ * <li>constant:size, or the size alone</li>
+ * <li>uniform:min,max</li>
+ * <li>normal:mean,deviation</li>
+ * <li>lognormal:median,sigma, the median times e to the power of a normal deviate of deviation sigma</li>
+ * <li>histogram:size=weight,min-max=weight,... an empirical histogram whose bins are picked by weight, a size being
+ * uniform within its bin</li>
+ * </ul>
+ * Sizes are rounded and kept between 0 and the largest MQTT payload. The distribution is immutable, the sizes are
+ * drawn from the given source of randomness.
+ */
+public class SizeDistribution {
+
+    public static final String CONSTANT = "constant";
+    public static final String UNIFORM = "uniform";
+    public static final String NORMAL = "normal";
+    public static final String LOGNORMAL = "lognormal";
+    public static final String HISTOGRAM = "histogram";
+
+    // The largest remaining length of an MQTT packet
+    static final int MAX_SIZE = 268435455;
+
+    private final String kind;
+    private final double first;
+    private final double second;
+    private final int[] binMin;
+    private final int[] binMax;
+    private final AliasTable bins;
+
+    private SizeDistribution(String kind, double first, double second, int[] binMin, int[] binMax, AliasTable bins) {
+        this.kind = kind;
+        this.first = first;
+        this.second = second;
+        this.binMin = binMin;
+        this.binMax = binMax;
+        this.bins = bins;
+    }
+
+    /**
+     * @param definition the distribution
+     * @return The distribution.
+     * @throws IllegalArgumentException if the definition is not valid
+     */
+    public static SizeDistribution parse(String definition) {
+        String value = definition.trim();
+        int colon = value.indexOf(':');
+        String kind = colon < 0 ? CONSTANT : value.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+        String parameters = colon < 0 ? value : value.substring(colon + 1);
+        if (HISTOGRAM.equals(kind)) {
+            return parseHistogram(parameters);
+        }
+        String[] values = parameters.split(",");
+        int expected = CONSTANT.equals(kind) ? 1 : 2;
+        if (!CONSTANT.equals(kind) && !UNIFORM.equals(kind) && !NORMAL.equals(kind) && !LOGNORMAL.equals(kind)) {
+            throw new IllegalArgumentException("Unknown size distribution " + kind);
+        }
+        if (values.length != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " parameters for " + kind + ": " + parameters);
+        }
+        double first = Double.parseDouble(values[0].trim());
+        double second = expected > 1 ? Double.parseDouble(values[1].trim()) : 0;
+        if (first < 0 || second < 0 || (UNIFORM.equals(kind) && second < first) ||
+            (LOGNORMAL.equals(kind) && first <= 0)) {
+            throw new IllegalArgumentException("Invalid parameters for " + kind + ": " + parameters);
+        }
+        return new SizeDistribution(kind, first, second, null, null, null);
+    }
+
+    private static SizeDistribution parseHistogram(String parameters) {
+        String[] values = parameters.split(",");
+        int[] binMin = new int[values.length];
+        int[] binMax = new int[values.length];
+        double[] weights = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            String[] bin = values[i].split("=");
+            if (bin.length != 2) {
+                throw new IllegalArgumentException("Expected size=weight or min-max=weight: " + values[i].trim());
+            }
+            String[] range = bin[0].split("-");
+            binMin[i] = Integer.parseInt(range[0].trim());
+            binMax[i] = range.length > 1 ? Integer.parseInt(range[1].trim()) : binMin[i];
+            if (range.length > 2 || binMin[i] < 0 || binMax[i] < binMin[i] || binMax[i] > MAX_SIZE) {
+                throw new IllegalArgumentException("Invalid histogram bin " + bin[0].trim());
+            }
+            weights[i] = Double.parseDouble(bin[1].trim());
+        }
+        return new SizeDistribution(HISTOGRAM, 0, 0, binMin, binMax, new AliasTable(weights));
+    }
+
+    /**
+     * @param random the source of randomness
+     * @return A size in bytes.
+     */
+    public int next(Random random) {
+        double size;
+        if (UNIFORM.equals(kind)) {
+            size = first + Math.floor(random.nextDouble() * (Math.floor(second) - first + 1));
+        } else if (NORMAL.equals(kind)) {
+            size = first + second * random.nextGaussian();
+        } else if (LOGNORMAL.equals(kind)) {
+            size = first * Math.exp(second * random.nextGaussian());
+        } else if (HISTOGRAM.equals(kind)) {
+            int bin = bins.next(random);
+            size = binMin[bin] + Math.floor(random.nextDouble() * (binMax[bin] - binMin[bin] + 1));
+        } else {
+            size = first;
+        }
+        return (int) Math.max(0, Math.min(MAX_SIZE, Math.round(size)));
+    }
+}
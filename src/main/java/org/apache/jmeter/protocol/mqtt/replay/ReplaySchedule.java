@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.replay;
+
+import org.apache.jmeter.protocol.mqtt.client.CaptureReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The schedule of a replayed capture, shared by the threads replaying it. The capture is the directory or the segment
+ * written by a {@link org.apache.jmeter.protocol.mqtt.client.CaptureWriter}; its segments are grouped by the capture
+ * they belong to, usually one per capturing client, each read in order by a {@link ReplayStream}.
+ * <p/>
+ * The replay clock starts when the first thread asks for it, and a message is due at the time it arrived after the
+ * first message of the capture, divided by the speed.
+ */
+public class ReplaySchedule {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(.*)-\\d+\\.mcap");
+
+    private static final Map<String, ReplaySchedule> schedules = new HashMap<>();
+
+    private final Map<String, List<File>> captures;
+    private final long originNanos;
+    private final double speed;
+    private volatile long startNanos = 0;
+    private boolean started = false;
+
+    private ReplaySchedule(Map<String, List<File>> captures, long originNanos, double speed) {
+        this.captures = captures;
+        this.originNanos = originNanos;
+        this.speed = speed;
+    }
+
+    /**
+     * Returns the schedule of a key, reading the first message of every capture on first use.
+     *
+     * @param key   the key of the schedule, the threads with the same key share its clock
+     * @param path  a directory of segments or a single segment
+     * @param speed the replay speed, 1 for the original pace
+     * @return The schedule.
+     * @throws IOException if there is no message to replay or a segment cannot be read
+     */
+    public static synchronized ReplaySchedule get(String key, File path, double speed) throws IOException {
+        ReplaySchedule schedule = schedules.get(key);
+        if (schedule == null) {
+            if (speed <= 0) {
+                throw new IOException("The replay speed must be positive: " + speed);
+            }
+            Map<String, List<File>> captures = new TreeMap<>();
+            for (File segment : CaptureReader.findSegments(path)) {
+                Matcher matcher = SEGMENT_NAME.matcher(segment.getName());
+                String capture = matcher.matches() ? matcher.group(1) : segment.getName();
+                List<File> segments = captures.get(capture);
+                if (segments == null) {
+                    segments = new ArrayList<>();
+                    captures.put(capture, segments);
+                }
+                segments.add(segment);
+            }
+            long origin = Long.MAX_VALUE;
+            for (List<File> segments : captures.values()) {
+                CaptureReader reader = new CaptureReader(segments);
+                try {
+                    if (reader.next()) {
+                        origin = Math.min(origin, reader.getEpochNanos());
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+            if (origin == Long.MAX_VALUE) {
+                throw new IOException("No message to replay in " + path);
+            }
+            schedule = new ReplaySchedule(Collections.unmodifiableMap(captures), origin, speed);
+            schedules.put(key, schedule);
+        }
+        return schedule;
+    }
+
+    /**
+     * Forgets the schedules, so that the next test starts new replay clocks.
+     */
+    public static synchronized void clear() {
+        schedules.clear();
+    }
+
+    /**
+     * @return The segments of each capture by capture name, in order.
+     */
+    public Map<String, List<File>> getCaptures() {
+        return captures;
+    }
+
+    /**
+     * Starts the replay clock, if it has not been started yet.
+     */
+    public synchronized void start() {
+        if (!started) {
+            startNanos = System.nanoTime();
+            started = true;
+        }
+    }
+
+    /**
+     * @param epochNanos the receive time of a captured message as wall clock nanoseconds
+     * @return The {@link System#nanoTime()} at which the message is due.
+     */
+    public long due(long epochNanos) {
+        return startNanos + (long) ((epochNanos - originNanos) / speed);
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+}
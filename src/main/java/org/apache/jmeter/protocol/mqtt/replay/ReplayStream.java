@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.replay;
+
+import org.apache.jmeter.protocol.mqtt.client.CaptureReader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The messages of a {@link ReplaySchedule} replayed by one thread, in the order they arrived. The captures are streamed
+ * from their mapped segments and merged by receive time, keeping only the partition of the thread:
+ * <ul>
+ * <li>{@link #BY_TOPIC} gives each thread the messages of a share of the topics, so that the order of the messages of
+ * a topic is kept,</li>
+ * <li>{@link #BY_CAPTURE} gives each thread a share of the captures, so that a thread replays the messages of the
+ * clients it stands for.</li>
+ * </ul>
+ */
+public class ReplayStream implements Closeable {
+
+    public static final String BY_TOPIC = "topic";
+    public static final String BY_CAPTURE = "capture";
+
+    private final ReplaySchedule schedule;
+    private final boolean byTopic;
+    private final int partition;
+    private final int partitions;
+    private final PriorityQueue<CaptureReader> readers;
+    private CaptureReader current = null;
+    private long messages = 0;
+
+    /**
+     * @param schedule   the schedule
+     * @param mode       {@link #BY_TOPIC} or {@link #BY_CAPTURE}
+     * @param partition  the partition of the thread, from 0
+     * @param partitions the number of partitions, usually the number of threads
+     */
+    public ReplayStream(ReplaySchedule schedule, String mode, int partition, int partitions) {
+        this.schedule = schedule;
+        this.byTopic = !BY_CAPTURE.equals(mode);
+        this.partitions = Math.max(1, partitions);
+        this.partition = Math.floorMod(partition, this.partitions);
+        this.readers = new PriorityQueue<>(Math.max(1, schedule.getCaptures().size()), new Comparator<CaptureReader>() {
+            @Override
+            public int compare(CaptureReader first, CaptureReader second) {
+                return Long.compare(first.getEpochNanos(), second.getEpochNanos());
+            }
+        });
+        // Each reader is queued once it is on its first message of the partition
+        for (Map.Entry<String, List<File>> capture : schedule.getCaptures().entrySet()) {
+            if (byTopic || isOwn(capture.getKey())) {
+                current = new Reader(capture.getValue());
+                advance();
+            }
+        }
+        current = null;
+    }
+
+    private boolean isOwn(String key) {
+        return Math.floorMod(key.hashCode(), partitions) == partition;
+    }
+
+    /**
+     * Moves the current reader to its next message of the partition and puts it back in the queue, or closes it once
+     * it has no more messages.
+     */
+    private void advance() {
+        try {
+            while (current.next()) {
+                if (!byTopic || isOwn(current.getTopic())) {
+                    readers.add(current);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            ((Reader) current).failure = e;
+            readers.add(current);
+            return;
+        }
+        current.close();
+    }
+
+    /**
+     * Moves to the next message of the partition. The first call starts the replay clock if no other thread has.
+     *
+     * @return false if the partition has no more messages.
+     * @throws IOException if a segment cannot be read
+     */
+    public boolean next() throws IOException {
+        if (current != null) {
+            advance();
+        } else if (messages == 0) {
+            // The clock is shared, the first message of the first thread starts it
+            schedule.start();
+        }
+        current = readers.poll();
+        if (current == null) {
+            return false;
+        }
+        IOException failure = ((Reader) current).failure;
+        if (failure != null) {
+            current = null;
+            throw failure;
+        }
+        messages++;
+        return true;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} at which the current message is due.
+     */
+    public long getDueNanos() {
+        return schedule.due(current.getEpochNanos());
+    }
+
+    public String getTopic() {
+        return current.getTopic();
+    }
+
+    public int getQos() {
+        return current.getQos();
+    }
+
+    public boolean isRetained() {
+        return current.isRetained();
+    }
+
+    /**
+     * @return The payload of the current message, a view of its segment valid until the next message.
+     */
+    public ByteBuffer getPayload() {
+        return current.getPayload();
+    }
+
+    /**
+     * @return The number of messages replayed so far.
+     */
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        for (CaptureReader reader : readers) {
+            reader.close();
+        }
+        readers.clear();
+        current = null;
+    }
+
+    /**
+     * A capture reader that keeps the failure of its last read, thrown when its turn comes.
+     */
+    private static final class Reader extends CaptureReader {
+        private IOException failure;
+
+        private Reader(List<File> segments) {
+            super(segments);
+        }
+    }
+}
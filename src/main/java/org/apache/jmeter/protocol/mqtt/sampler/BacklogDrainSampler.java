@@ -0,0 +1,616 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.sampler;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.protocol.mqtt.client.ClientPool;
+import org.apache.jmeter.protocol.mqtt.client.ClientResources;
+import org.apache.jmeter.protocol.mqtt.client.ConnectionStats;
+import org.apache.jmeter.protocol.mqtt.client.DrainMonitor;
+import org.apache.jmeter.protocol.mqtt.data.objects.ConnectEvent;
+import org.apache.jmeter.protocol.mqtt.jmx.RuntimeControl;
+import org.apache.jmeter.protocol.mqtt.nio.clients.Mqtt5Client;
+import org.apache.jmeter.protocol.mqtt.nio.clients.NioClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.AsyncClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BlockingClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.PublishListener;
+import org.apache.jmeter.protocol.mqtt.utilities.Constants;
+import org.apache.jmeter.protocol.mqtt.utilities.Utils;
+import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.Interruptible;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jmeter.testelement.ThreadListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This is the MQTT Backlog Drain sampler class. It measures a durable subscriber reconnecting to a backlog of messages
+ * queued by the broker while it was away. The subscriber connects with a persistent session and subscribes when the
+ * thread starts, then every sample:
+ * <ol>
+ * <li>disconnects the subscriber,</li>
+ * <li>publishes the backlog from a second client of the sampler, if enabled, and waits the disconnected wait for
+ * other publishers,</li>
+ * <li>reconnects the subscriber and counts the messages until the backlog is drained or the drain timeout expires.</li>
+ * </ol>
+ * The result reports the time to the first message, the total drain time and a sub result per throughput interval.
+ * The drained messages are only counted, never queued, so a backlog of any size does not fill the memory of the
+ * injector.
+ */
+public class BacklogDrainSampler extends AbstractSampler implements Interruptible, ThreadListener, TestStateListener {
+
+    private transient BaseClient client;
+    private transient BaseClient publisher;
+    private transient DrainMonitor monitor;
+    private transient String subscriberId;
+    private transient MqttException exceptionOccurred = null;
+    private transient volatile boolean interrupted = false;
+
+    private static final long serialVersionUID = 240L;
+    private static final String lineSeparator = System.getProperty("line.separator");
+    private static final String nameLabel = "MQTT Backlog Drain";
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    // Upper bound of a single wait so that an interrupt is noticed
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Paho clients refuse more than 10 messages in flight by default
+    private static final int PAHO_PUBLISH_WINDOW = 5;
+    private static final int NIO_PUBLISH_WINDOW = 1000;
+    private static final int MAX_INTERVALS = 10000;
+
+    private static final String BROKER_URL = "mqtt.broker.url";
+    private static final String CLIENT_ID = "mqtt.client.id";
+    private static final String TOPIC_NAME = "mqtt.topic.name";
+    private static final String KEEP_ALIVE = "mqtt.keep.alive";
+    private static final String USERNAME = "mqtt.auth.username";
+    private static final String PASSWORD = "mqtt.auth.password";
+    private static final String QOS = "mqtt.qos";
+    private static final String CLIENT_TYPE = "mqtt.client.type";
+    private static final String MESSAGE_VALUE = "mqtt.message.input.value";
+    private static final String BACKLOG_MESSAGES = "mqtt.drain.messages";
+    private static final String PUBLISH_BACKLOG = "mqtt.drain.publish";
+    private static final String DISCONNECTED_WAIT = "mqtt.drain.wait";
+    private static final String DRAIN_TIMEOUT = "mqtt.drain.timeout";
+    private static final String DRAIN_INTERVAL = "mqtt.drain.interval";
+
+    // Getters
+    public String getBrokerUrl() {
+        return getPropertyAsString(BROKER_URL);
+    }
+
+    public String getClientId() {
+        return getPropertyAsString(CLIENT_ID);
+    }
+
+    public String getTopicName() {
+        return getPropertyAsString(TOPIC_NAME);
+    }
+
+    public int getKeepAlive() {
+        return getPropertyAsInt(KEEP_ALIVE);
+    }
+
+    public String getUsername() {
+        return getPropertyAsString(USERNAME);
+    }
+
+    public String getPassword() {
+        return getPropertyAsString(PASSWORD);
+    }
+
+    public String getQOS() {
+        return getPropertyAsString(QOS);
+    }
+
+    public String getClientType() {
+        return getPropertyAsString(CLIENT_TYPE);
+    }
+
+    public String getMessageValue() {
+        return getPropertyAsString(MESSAGE_VALUE);
+    }
+
+    public long getBacklogMessages() {
+        return getPropertyAsLong(BACKLOG_MESSAGES);
+    }
+
+    public boolean isPublishBacklog() {
+        return getPropertyAsBoolean(PUBLISH_BACKLOG);
+    }
+
+    public long getDisconnectedWait() {
+        return getPropertyAsLong(DISCONNECTED_WAIT);
+    }
+
+    public long getDrainTimeout() {
+        return getPropertyAsLong(DRAIN_TIMEOUT);
+    }
+
+    public long getDrainInterval() {
+        return getPropertyAsLong(DRAIN_INTERVAL);
+    }
+
+    public String getNameLabel() {
+        return nameLabel;
+    }
+
+    // Setters
+    public void setBrokerUrl(String brokerURL) {
+        setProperty(BROKER_URL, brokerURL.trim());
+    }
+
+    public void setClientId(String clientID) {
+        setProperty(CLIENT_ID, clientID.trim());
+    }
+
+    public void setTopicName(String topicName) {
+        setProperty(TOPIC_NAME, topicName.trim());
+    }
+
+    public void setKeepAlive(String keepAlive) {
+        setProperty(KEEP_ALIVE, keepAlive);
+    }
+
+    public void setUsername(String username) {
+        setProperty(USERNAME, username.trim());
+    }
+
+    public void setPassword(String password) {
+        setProperty(PASSWORD, password.trim());
+    }
+
+    public void setQOS(String qos) {
+        setProperty(QOS, qos.trim());
+    }
+
+    public void setClientType(String clientType) {
+        setProperty(CLIENT_TYPE, clientType.trim());
+    }
+
+    public void setMessageValue(String messageValue) {
+        setProperty(MESSAGE_VALUE, messageValue);
+    }
+
+    public void setBacklogMessages(String backlogMessages) {
+        setProperty(BACKLOG_MESSAGES, backlogMessages);
+    }
+
+    public void setPublishBacklog(boolean isPublishBacklog) {
+        setProperty(PUBLISH_BACKLOG, isPublishBacklog);
+    }
+
+    public void setDisconnectedWait(String disconnectedWait) {
+        setProperty(DISCONNECTED_WAIT, disconnectedWait);
+    }
+
+    public void setDrainTimeout(String drainTimeout) {
+        setProperty(DRAIN_TIMEOUT, drainTimeout);
+    }
+
+    public void setDrainInterval(String drainInterval) {
+        setProperty(DRAIN_INTERVAL, drainInterval);
+    }
+
+    public BacklogDrainSampler() {
+        super();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean interrupt() {
+        boolean oldValue = interrupted;
+        interrupted = true;
+        return !oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted() {
+        ConnectionStats.reset();
+        ClientResources.testStarted();
+        RuntimeControl.testStarted();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(String arg0) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded() {
+        RuntimeControl.testEnded();
+        log.info("Connection summary: " + ConnectionStats.summary());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded(String arg0) {
+        testEnded();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void threadStarted() {
+        interrupted = false;
+        if (client == null) {
+            if (validate()) {
+                initClients();
+            } else {
+                exceptionOccurred = new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION,
+                        new IllegalArgumentException("The broker url and a topic without wildcards when publishing " +
+                                                     "the backlog must be set"));
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void threadFinished() {
+        for (BaseClient threadClient : new BaseClient[]{client, publisher}) {
+            if (threadClient != null) {
+                try {
+                    ClientPool.removeClient(threadClient);
+                    threadClient.close();
+                } catch (IOException e) {
+                    log.error(e.getLocalizedMessage(), e);
+                }
+            }
+        }
+        client = null;
+        publisher = null;
+        monitor = null;
+    }
+
+    /**
+     * Creates the subscriber with a persistent session and the backlog publisher, if enabled.
+     */
+    private void initClients() {
+        exceptionOccurred = null;
+        // The session is resumed by client id, so a generated id is kept for the whole thread
+        subscriberId = StringUtils.isEmpty(getClientId()) ? Utils.UUIDGenerator() : getClientId();
+        try {
+            monitor = new DrainMonitor();
+            client = createClient(subscriberId, false);
+            ClientPool.addClient(client);
+            client.setMessageListener(monitor);
+            client.subscribe(getTopicName(), getQosValue(), getDrainTimeout());
+            client.pollConnectEvent();
+            if (isPublishBacklog()) {
+                publisher = createClient(subscriberId + "-backlog", true);
+                ClientPool.addClient(publisher);
+            }
+        } catch (MqttException e) {
+            exceptionOccurred = e;
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    private BaseClient createClient(String clientId, boolean isCleanSession) throws MqttException {
+        String brokerURL = getBrokerUrl();
+        int keepAlive = getKeepAlive();
+        String userName = getUsername();
+        String password = getPassword();
+        String clientType = getClientType();
+
+        if (Constants.MQTT_BLOCKING_CLIENT.equals(clientType)) {
+            return new BlockingClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else if (Constants.MQTT_ASYNC_CLIENT.equals(clientType)) {
+            return new AsyncClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else if (Constants.MQTT_NIO_CLIENT.equals(clientType)) {
+            return new NioClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else if (Constants.MQTT_5_CLIENT.equals(clientType)) {
+            return new Mqtt5Client(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        }
+        throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION,
+                new IllegalArgumentException("Unknown client type " + clientType));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SampleResult sample(Entry entry) {
+        if (null != exceptionOccurred || null == client) {
+            String message = exceptionOccurred != null ? exceptionOccurred.toString() : "Client has been stopped.";
+            SampleResult result = createFailedResult("Client is not connected." + lineSeparator + message);
+            result.setResponseData(message.getBytes());
+            return result;
+        }
+
+        // The results are created together at the end, as JMeter moves the end of a parent to the end of its sub
+        // results with a clock correction taken when each result is created
+        List<SampleResult> subResults = new ArrayList<SampleResult>();
+        SampleResult result;
+        try {
+            if (client.isConnected()) {
+                client.disconnect();
+            }
+            if (isPublishBacklog()) {
+                subResults.add(publishBacklog());
+            }
+            sleep(getDisconnectedWait());
+            if (interrupted) {
+                result = createFailedResult("Client has been stopped.");
+            } else {
+                result = drain(subResults);
+            }
+        } catch (MqttException e) {
+            log.error(subscriberId + " backlog drain failed: " + e.toString());
+            monitor.stop();
+            result = createFailedResult("Backlog drain failed." + lineSeparator + e.toString());
+        }
+        for (SampleResult subResult : subResults) {
+            result.addSubResult(subResult);
+        }
+        return result;
+    }
+
+    private SampleResult createFailedResult(String message) {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getNameLabel() + "::" + subscriberId);
+        result.sampleStart();
+        result.sampleEnd();
+        result.setSuccessful(false);
+        result.setResponseMessage(message);
+        result.setResponseCode("FAILED");
+        return result;
+    }
+
+    /**
+     * Reconnects the subscriber and counts the messages until the backlog is drained or the drain timeout expires.
+     *
+     * @param subResults the sub results, to which the connect and throughput interval results are added
+     * @return The drain result, timed from the reconnect to the last message.
+     */
+    private SampleResult drain(List<SampleResult> subResults) throws MqttException {
+        long expected = Math.max(1, getBacklogMessages());
+        long timeout = getDrainTimeout() > 0 ? getDrainTimeout() : Long.MAX_VALUE / 1000000;
+        long interval = Math.max(1, getDrainInterval());
+        int intervals = (int) Math.min(MAX_INTERVALS, timeout / interval + 1);
+
+        long timestamp = System.currentTimeMillis();
+        DrainMonitor.Drain drain = monitor.start(expected, interval, intervals);
+        client.connect();
+        ConnectEvent connect = client.pollConnectEvent();
+        if (connect != null) {
+            subResults.add(Utils.createConnectResult(client, connect));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            long remaining = deadline - System.nanoTime();
+            while (!interrupted && remaining > 0 && !drain.await(Math.min(remaining, POLL_INTERVAL_NANOS))) {
+                remaining = deadline - System.nanoTime();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        monitor.stop();
+
+        long received = drain.getReceived();
+        long firstNanos = drain.getFirstMessageNanos();
+        long drainNanos = drain.getLastMessageNanos();
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getNameLabel() + "::" + subscriberId);
+        Utils.setStartAndElapsed(result, timestamp, Math.max(0, drainNanos) / 1000000);
+        result.setBytes((int) Math.min(Integer.MAX_VALUE, drain.getBytes()));
+        addIntervalResults(subResults, timestamp, drain);
+
+        boolean drained = received >= expected;
+        result.setSuccessful(drained);
+        StringBuilder message = new StringBuilder();
+        message.append("Drained ").append(received).append(" of ").append(expected).append(" messages");
+        if (drain.getDuplicates() > 0) {
+            message.append(", ").append(drain.getDuplicates()).append(" redelivered duplicates not counted");
+        }
+        if (firstNanos >= 0) {
+            message.append(lineSeparator).append("First message after ")
+                   .append(TimeUnit.NANOSECONDS.toMicros(firstNanos)).append(" us");
+            message.append(lineSeparator).append("Last message after ")
+                   .append(TimeUnit.NANOSECONDS.toMillis(drainNanos)).append(" ms");
+            if (drainNanos > firstNanos) {
+                message.append(lineSeparator).append("Drain rate ")
+                       .append(received * 1000000000L / (drainNanos - firstNanos)).append(" msg/s");
+            }
+        } else {
+            message.append(lineSeparator).append("No message arrived");
+        }
+        result.setResponseMessage(message.toString());
+        if (drained) {
+            result.setResponseCodeOK();
+        } else {
+            result.setResponseCode(interrupted ? "FAILED" : "TIMEOUT");
+        }
+        return result;
+    }
+
+    /**
+     * Adds a result per throughput interval, up to the last message. The sample count of a result is the number of
+     * messages received in its interval, and an interval without messages after the first one is a failed stall.
+     */
+    private void addIntervalResults(List<SampleResult> subResults, long timestamp, DrainMonitor.Drain drain) {
+        long lastMillis = TimeUnit.NANOSECONDS.toMillis(drain.getLastMessageNanos());
+        if (lastMillis < 0) {
+            return;
+        }
+        long firstMillis = TimeUnit.NANOSECONDS.toMillis(drain.getFirstMessageNanos());
+        long intervalMillis = TimeUnit.NANOSECONDS.toMillis(drain.getIntervalNanos());
+        int last = (int) Math.min(lastMillis / intervalMillis, drain.getIntervals() - 1);
+        for (int i = 0; i <= last; i++) {
+            long start = i * intervalMillis;
+            long count = drain.getReceived(i);
+            boolean stalled = count == 0 && start > firstMillis;
+            SampleResult intervalResult = new SampleResult();
+            intervalResult.setSampleLabel(getName() + "::drain");
+            Utils.setStartAndElapsed(intervalResult, timestamp + start,
+                    i < last ? intervalMillis : lastMillis - start);
+            intervalResult.setSampleCount((int) Math.max(1, Math.min(Integer.MAX_VALUE, count)));
+            intervalResult.setErrorCount(stalled ? 1 : 0);
+            intervalResult.setSuccessful(!stalled);
+            intervalResult.setResponseMessage(count + " messages from " + start + " ms");
+            intervalResult.setResponseCode(stalled ? "STALLED" : "200");
+            subResults.add(intervalResult);
+        }
+    }
+
+    /**
+     * Publishes the backlog while the subscriber is disconnected, keeping a window of messages in flight.
+     *
+     * @return The result of the publishes, timed from the first publish to the last delivery.
+     */
+    private SampleResult publishBacklog() {
+        final long count = Math.max(1, getBacklogMessages());
+        final int windowSize = Constants.MQTT_NIO_CLIENT.equals(getClientType()) ||
+                               Constants.MQTT_5_CLIENT.equals(getClientType()) ? NIO_PUBLISH_WINDOW : PAHO_PUBLISH_WINDOW;
+        final Semaphore window = new Semaphore(windowSize);
+        final AtomicLong delivered = new AtomicLong(0);
+        final AtomicLong failed = new AtomicLong(0);
+        final AtomicReference<Throwable> firstFailure = new AtomicReference<Throwable>();
+        PublishListener listener = new PublishListener() {
+            @Override
+            public void published(long durationNanos, int packetSize) {
+                delivered.incrementAndGet();
+                window.release();
+            }
+
+            @Override
+            public void failed(Throwable cause) {
+                firstFailure.compareAndSet(null, cause);
+                failed.incrementAndGet();
+                window.release();
+            }
+        };
+
+        String topicName = getTopicName();
+        byte[] payload = getMessageValue().getBytes(StandardCharsets.UTF_8);
+        int qos = getQosValue();
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName() + "::backlog");
+        long timestamp = System.currentTimeMillis();
+        // The backlog must be published within the drain timeout too, a broker may stop acknowledging
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getDrainTimeout() > 0 ? getDrainTimeout() :
+                                                                          Long.MAX_VALUE / 1000000);
+        long sent = 0;
+        try {
+            while (sent < count && awaitWindow(window, 1, deadline)) {
+                publisher.publishAsync(topicName, qos, payload, false, getDrainTimeout(), listener);
+                sent++;
+            }
+            // The whole window is free once every message in flight is complete
+            awaitWindow(window, windowSize, deadline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Utils.setStartAndElapsed(result, timestamp, System.currentTimeMillis() - timestamp);
+        long unconfirmed = count - delivered.get() - failed.get();
+        result.setSampleCount((int) Math.max(1, Math.min(Integer.MAX_VALUE, count)));
+        result.setErrorCount((int) Math.min(Integer.MAX_VALUE, count - delivered.get()));
+        result.setSuccessful(delivered.get() == count);
+        result.setResponseMessage("Published " + delivered.get() + " of " + count + " messages" +
+                                  (unconfirmed > 0 ? ", " + unconfirmed + " not confirmed in time" : "") +
+                                  (firstFailure.get() != null ? lineSeparator + "First failure: " + firstFailure.get() : ""));
+        if (result.isSuccessful()) {
+            result.setResponseCodeOK();
+        } else {
+            result.setResponseCode("FAILED");
+        }
+        return result;
+    }
+
+    private boolean awaitWindow(Semaphore window, int permits, long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        while (!interrupted && remaining > 0) {
+            if (window.tryAcquire(permits, Math.min(remaining, POLL_INTERVAL_NANOS), TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        return false;
+    }
+
+    private void sleep(long millis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining = deadline - System.nanoTime();
+        while (!interrupted && remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, POLL_INTERVAL_NANOS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    private int getQosValue() {
+        if (Constants.MQTT_AT_MOST_ONCE.equals(getQOS())) {
+            return 0;
+        } else if (Constants.MQTT_EXACTLY_ONCE.equals(getQOS())) {
+            return 2;
+        }
+        // Most brokers only queue qos 1 and 2 messages for a disconnected subscriber
+        return 1;
+    }
+
+    /**
+     * Validates parameters
+     *
+     * @return true if valid parameters, else false
+     */
+    private boolean validate() {
+        if (StringUtils.isBlank(getBrokerUrl())) {
+            log.error("The broker url cannot be empty");
+            return false;
+        }
+        if (StringUtils.isBlank(getTopicName())) {
+            log.error("The topic name(destination) cannot be empty");
+            return false;
+        }
+        if (isPublishBacklog() && StringUtils.containsAny(getTopicName(), "+#")) {
+            log.error("The backlog cannot be published to a topic filter with wildcards");
+            return false;
+        }
+        return true;
+    }
+}
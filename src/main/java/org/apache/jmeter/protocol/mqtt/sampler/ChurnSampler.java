@@ -0,0 +1,499 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.sampler;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.protocol.mqtt.client.ClientPool;
+import org.apache.jmeter.protocol.mqtt.client.ClientResources;
+import org.apache.jmeter.protocol.mqtt.client.ConnectionStats;
+import org.apache.jmeter.protocol.mqtt.client.RatePacer;
+import org.apache.jmeter.protocol.mqtt.data.objects.ConnectEvent;
+import org.apache.jmeter.protocol.mqtt.data.objects.Message;
+import org.apache.jmeter.protocol.mqtt.jmx.RuntimeControl;
+import org.apache.jmeter.protocol.mqtt.nio.clients.Mqtt5Client;
+import org.apache.jmeter.protocol.mqtt.nio.clients.NioClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.AsyncClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BlockingClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.MessageListener;
+import org.apache.jmeter.protocol.mqtt.utilities.Constants;
+import org.apache.jmeter.protocol.mqtt.utilities.Utils;
+import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.Interruptible;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jmeter.testelement.ThreadListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is the MQTT Connection Churn sampler class. Every sample is one full session of a short lived device:
+ * <ol>
+ * <li>CONNECT and wait for the CONNACK,</li>
+ * <li>SUBSCRIBE and wait for the SUBACK, if a topic filter is set,</li>
+ * <li>PUBLISH and wait for the acknowledgement of the qos, if a topic is set,</li>
+ * <li>DISCONNECT and close the connection.</li>
+ * </ol>
+ * Each phase is reported as a sub result. The cycles of all the threads of an element are paced together to the
+ * target rate, the threads only have to be enough to keep up with it.
+ * <p/>
+ * A thread keeps its client, and so its client id, from one cycle to the next and only opens a new connection, so the
+ * persistence of the Paho clients and the encode buffers of the NIO clients are reused and a cycle allocates little
+ * more than its socket.
+ */
+public class ChurnSampler extends AbstractSampler implements Interruptible, ThreadListener, TestStateListener {
+
+    private transient BaseClient client;
+    private transient String clientId;
+    private transient byte[] payload;
+    private transient AtomicLong received;
+    private transient boolean valid;
+    // The key of the element in RuntimeControl, given to the original element when the test starts and copied to
+    // the clones of its threads
+    private transient String runtimeKey;
+    private transient volatile boolean interrupted = false;
+
+    private static final long serialVersionUID = 240L;
+    private static final String lineSeparator = System.getProperty("line.separator");
+    private static final String nameLabel = "MQTT Connection Churn";
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    // The pacers of the elements, by runtime key, shared by the threads of an element
+    private static final ConcurrentMap<String, RatePacer> pacers = new ConcurrentHashMap<String, RatePacer>();
+
+    private static final String BROKER_URL = "mqtt.broker.url";
+    private static final String CLIENT_ID = "mqtt.client.id";
+    private static final String TOPIC_NAME = "mqtt.topic.name";
+    private static final String SUBSCRIBE_TOPIC = "mqtt.churn.subscribe.topic";
+    private static final String CLEAN_SESSION = "mqtt.clean.session";
+    private static final String KEEP_ALIVE = "mqtt.keep.alive";
+    private static final String USERNAME = "mqtt.auth.username";
+    private static final String PASSWORD = "mqtt.auth.password";
+    private static final String QOS = "mqtt.qos";
+    private static final String CLIENT_TYPE = "mqtt.client.type";
+    private static final String MESSAGE_VALUE = "mqtt.message.input.value";
+    private static final String CHURN_RATE = "mqtt.churn.rate";
+    private static final String ACK_TIMEOUT = "mqtt.churn.timeout";
+
+    // Getters
+    public String getBrokerUrl() {
+        return getPropertyAsString(BROKER_URL);
+    }
+
+    public String getClientId() {
+        return getPropertyAsString(CLIENT_ID);
+    }
+
+    public String getTopicName() {
+        return getPropertyAsString(TOPIC_NAME);
+    }
+
+    public String getSubscribeTopic() {
+        return getPropertyAsString(SUBSCRIBE_TOPIC);
+    }
+
+    public boolean isCleanSession() {
+        return getPropertyAsBoolean(CLEAN_SESSION);
+    }
+
+    public int getKeepAlive() {
+        return getPropertyAsInt(KEEP_ALIVE);
+    }
+
+    public String getUsername() {
+        return getPropertyAsString(USERNAME);
+    }
+
+    public String getPassword() {
+        return getPropertyAsString(PASSWORD);
+    }
+
+    public String getQOS() {
+        return getPropertyAsString(QOS);
+    }
+
+    public String getClientType() {
+        return getPropertyAsString(CLIENT_TYPE);
+    }
+
+    public String getMessageValue() {
+        return getPropertyAsString(MESSAGE_VALUE);
+    }
+
+    public double getChurnRate() {
+        return getPropertyAsDouble(CHURN_RATE);
+    }
+
+    public long getAckTimeout() {
+        return getPropertyAsLong(ACK_TIMEOUT);
+    }
+
+    public String getNameLabel() {
+        return nameLabel;
+    }
+
+    // Setters
+    public void setBrokerUrl(String brokerURL) {
+        setProperty(BROKER_URL, brokerURL.trim());
+    }
+
+    public void setClientId(String clientID) {
+        setProperty(CLIENT_ID, clientID.trim());
+    }
+
+    public void setTopicName(String topicName) {
+        setProperty(TOPIC_NAME, topicName.trim());
+    }
+
+    public void setSubscribeTopic(String subscribeTopic) {
+        setProperty(SUBSCRIBE_TOPIC, subscribeTopic.trim());
+    }
+
+    public void setCleanSession(boolean isCleanSession) {
+        setProperty(CLEAN_SESSION, isCleanSession);
+    }
+
+    public void setKeepAlive(String keepAlive) {
+        setProperty(KEEP_ALIVE, keepAlive);
+    }
+
+    public void setUsername(String username) {
+        setProperty(USERNAME, username.trim());
+    }
+
+    public void setPassword(String password) {
+        setProperty(PASSWORD, password.trim());
+    }
+
+    public void setQOS(String qos) {
+        setProperty(QOS, qos.trim());
+    }
+
+    public void setClientType(String clientType) {
+        setProperty(CLIENT_TYPE, clientType.trim());
+    }
+
+    public void setMessageValue(String messageValue) {
+        setProperty(MESSAGE_VALUE, messageValue);
+    }
+
+    public void setChurnRate(String churnRate) {
+        setProperty(CHURN_RATE, churnRate);
+    }
+
+    public void setAckTimeout(String ackTimeout) {
+        setProperty(ACK_TIMEOUT, ackTimeout);
+    }
+
+    public ChurnSampler() {
+        super();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean interrupt() {
+        boolean oldValue = interrupted;
+        interrupted = true;
+        return !oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object clone() {
+        ChurnSampler clone = (ChurnSampler) super.clone();
+        clone.runtimeKey = runtimeKey;
+        return clone;
+    }
+
+    private String getRuntimeKey() {
+        return runtimeKey != null ? runtimeKey : getName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted() {
+        ConnectionStats.reset();
+        ClientResources.testStarted();
+        RuntimeControl.testStarted();
+        runtimeKey = RuntimeControl.register(getName());
+        pacers.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(String arg0) {
+        testStarted();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded() {
+        RuntimeControl.testEnded();
+        log.info("Connection summary: " + ConnectionStats.summary());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded(String arg0) {
+        testEnded();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void threadStarted() {
+        interrupted = false;
+        // Generated ids are only unique per millisecond, the threads of a ramp up start together
+        String prefix = StringUtils.isEmpty(getClientId()) ? Utils.UUIDGenerator() : getClientId();
+        clientId = prefix + "-" + getThreadContext().getThreadNum();
+        payload = getMessageValue().getBytes(StandardCharsets.UTF_8);
+        received = new AtomicLong(0);
+        valid = validate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void threadFinished() {
+        if (client != null) {
+            try {
+                ClientPool.removeClient(client);
+                client.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage(), e);
+            }
+        }
+        client = null;
+    }
+
+    /**
+     * Connects the client of the thread, creating it in the first cycle.
+     */
+    private void connect() throws MqttException {
+        if (client != null) {
+            client.connect();
+            return;
+        }
+        String brokerURL = getBrokerUrl();
+        boolean isCleanSession = isCleanSession();
+        int keepAlive = getKeepAlive();
+        String userName = getUsername();
+        String password = getPassword();
+        String clientType = getClientType();
+
+        BaseClient newClient;
+        if (Constants.MQTT_BLOCKING_CLIENT.equals(clientType)) {
+            newClient = new BlockingClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else if (Constants.MQTT_ASYNC_CLIENT.equals(clientType)) {
+            newClient = new AsyncClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else if (Constants.MQTT_NIO_CLIENT.equals(clientType)) {
+            newClient = new NioClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else if (Constants.MQTT_5_CLIENT.equals(clientType)) {
+            newClient = new Mqtt5Client(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION,
+                    new IllegalArgumentException("Unknown client type " + clientType));
+        }
+        // The messages of the subscription are only counted, a short lived session has no use for them
+        newClient.setMessageListener(new MessageListener() {
+            @Override
+            public void received(Message message) {
+                received.incrementAndGet();
+            }
+        });
+        ClientPool.addClient(newClient);
+        client = newClient;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SampleResult sample(Entry entry) {
+        if (!valid) {
+            return createFailedResult(System.currentTimeMillis(), 0,
+                    "The broker url must be set and the publish topic cannot have wildcards");
+        }
+        long paceNanos;
+        try {
+            paceNanos = getPacer().acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return createFailedResult(System.currentTimeMillis(), 0, "Client has been stopped.");
+        }
+        if (interrupted) {
+            return createFailedResult(System.currentTimeMillis(), 0, "Client has been stopped.");
+        }
+
+        // The results are created together at the end, as JMeter moves the end of a parent to the end of its sub
+        // results with a clock correction taken when each result is created
+        List<SampleResult> subResults = new ArrayList<SampleResult>();
+        long timestamp = System.currentTimeMillis();
+        long start = System.nanoTime();
+        long receivedBefore = received.get();
+        String phase = "CONNECT";
+        MqttException failure = null;
+        try {
+            connect();
+            ConnectEvent connect = client.pollConnectEvent();
+            if (connect != null) {
+                SampleResult connectResult = Utils.createConnectResult(client, connect);
+                connectResult.setSampleLabel(getName() + "::connect");
+                subResults.add(connectResult);
+            }
+            if (StringUtils.isNotEmpty(getSubscribeTopic())) {
+                phase = "SUBSCRIBE";
+                long phaseTimestamp = System.currentTimeMillis();
+                long phaseStart = System.nanoTime();
+                client.subscribe(getSubscribeTopic(), getQosValue(), getAckTimeout());
+                long durationNanos = System.nanoTime() - phaseStart;
+                subResults.add(createPhaseResult("subscribe", phaseTimestamp, durationNanos,
+                        "SUBACK after " + durationNanos / 1000 + " us"));
+            }
+            if (StringUtils.isNotEmpty(getTopicName())) {
+                phase = "PUBLISH";
+                long phaseTimestamp = System.currentTimeMillis();
+                long durationNanos = client.publish(getTopicName(), getQosValue(), payload, false, getAckTimeout());
+                SampleResult publishResult = createPhaseResult("publish", phaseTimestamp, durationNanos,
+                        "Published with qos " + getQosValue() + " in " + durationNanos / 1000 + " us");
+                int size = client.getLastPublishSize();
+                publishResult.setBytes(size >= 0 ? size : payload.length);
+                subResults.add(publishResult);
+            }
+        } catch (MqttException e) {
+            failure = e;
+        }
+        // A session that failed half way is still closed, so that the next cycle starts from a new connection
+        if (client != null && client.isConnected()) {
+            long phaseTimestamp = System.currentTimeMillis();
+            long phaseStart = System.nanoTime();
+            try {
+                client.disconnect();
+                long durationNanos = System.nanoTime() - phaseStart;
+                subResults.add(createPhaseResult("disconnect", phaseTimestamp, durationNanos,
+                        "Disconnected in " + durationNanos / 1000 + " us"));
+            } catch (MqttException e) {
+                if (failure == null) {
+                    phase = "DISCONNECT";
+                    failure = e;
+                }
+            }
+        }
+        long cycleNanos = System.nanoTime() - start;
+
+        SampleResult result;
+        if (failure != null) {
+            log.warn(clientId + " churn cycle failed in " + phase + ": " + failure.toString());
+            result = createFailedResult(timestamp, cycleNanos / 1000000,
+                    phase + " failed." + lineSeparator + failure.toString());
+        } else {
+            result = new SampleResult();
+            result.setSampleLabel(getNameLabel() + "::" + clientId);
+            Utils.setStartAndElapsed(result, timestamp, cycleNanos / 1000000);
+            result.setSuccessful(true);
+            result.setResponseCodeOK();
+            result.setResponseMessage("Cycle completed in " + cycleNanos / 1000 + " us, waited " +
+                                      paceNanos / 1000000 + " ms for the target rate" + lineSeparator +
+                                      (received.get() - receivedBefore) + " messages received");
+        }
+        for (SampleResult subResult : subResults) {
+            result.addSubResult(subResult);
+        }
+        return result;
+    }
+
+    private RatePacer getPacer() {
+        RatePacer pacer = pacers.get(getRuntimeKey());
+        if (pacer == null) {
+            RatePacer newPacer = new RatePacer(getChurnRate());
+            pacer = pacers.putIfAbsent(getRuntimeKey(), newPacer);
+            if (pacer == null) {
+                pacer = newPacer;
+            }
+        }
+        return pacer;
+    }
+
+    private SampleResult createPhaseResult(String phase, long timestamp, long durationNanos, String message) {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName() + "::" + phase);
+        Utils.setStartAndElapsed(result, timestamp, durationNanos / 1000000);
+        result.setSuccessful(true);
+        result.setResponseCodeOK();
+        result.setResponseMessage(message);
+        return result;
+    }
+
+    private SampleResult createFailedResult(long timestamp, long elapsed, String message) {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getNameLabel() + "::" + clientId);
+        Utils.setStartAndElapsed(result, timestamp, elapsed);
+        result.setSuccessful(false);
+        result.setResponseMessage(message);
+        result.setResponseCode("FAILED");
+        return result;
+    }
+
+    private int getQosValue() {
+        if (Constants.MQTT_AT_LEAST_ONCE.equals(getQOS())) {
+            return 1;
+        } else if (Constants.MQTT_EXACTLY_ONCE.equals(getQOS())) {
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Validates parameters
+     *
+     * @return true if valid parameters, else false
+     */
+    private boolean validate() {
+        if (StringUtils.isBlank(getBrokerUrl())) {
+            log.error("The broker url cannot be empty");
+            return false;
+        }
+        if (StringUtils.containsAny(getTopicName(), "+#")) {
+            log.error("Cannot publish to a topic filter with wildcards");
+            return false;
+        }
+        return true;
+    }
+}
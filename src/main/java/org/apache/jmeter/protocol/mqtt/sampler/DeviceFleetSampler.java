@@ -0,0 +1,528 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.sampler;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.protocol.mqtt.client.ClientResources;
+import org.apache.jmeter.protocol.mqtt.client.ConnectionStats;
+import org.apache.jmeter.protocol.mqtt.fleet.DeviceClass;
+import org.apache.jmeter.protocol.mqtt.fleet.DeviceClassStats;
+import org.apache.jmeter.protocol.mqtt.fleet.DeviceConnector;
+import org.apache.jmeter.protocol.mqtt.fleet.DeviceFleet;
+import org.apache.jmeter.protocol.mqtt.fleet.FleetScenario;
+import org.apache.jmeter.protocol.mqtt.jmx.RuntimeControl;
+import org.apache.jmeter.protocol.mqtt.nio.clients.Mqtt5Client;
+import org.apache.jmeter.protocol.mqtt.nio.clients.NioClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.AsyncClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BlockingClient;
+import org.apache.jmeter.protocol.mqtt.utilities.Constants;
+import org.apache.jmeter.protocol.mqtt.utilities.Utils;
+import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.Interruptible;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jmeter.testelement.ThreadListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the MQTT Device Fleet sampler class. Each thread drives a fleet of simulated devices, each with its own
+ * connection, publishing periodically to their own topic. A sample covers one report interval of the fleet, with a sub
+ * result per device class.
+ * <p/>
+ * The devices are either a single class configured on the sampler, run by every thread, or the classes of a
+ * {@link FleetScenario} file, split between the threads of the thread group.
+ */
+public class DeviceFleetSampler extends AbstractSampler implements Interruptible, ThreadListener, TestStateListener {
+
+    private transient DeviceFleet fleet;
+    private transient MqttException exceptionOccurred = null;
+    // The key of the element in RuntimeControl, given to the original element when the test starts and copied to
+    // the clones of its threads
+    private transient String runtimeKey;
+    private static final String lineSeparator = System.getProperty("line.separator");
+
+    private static final long serialVersionUID = 240L;
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final String BROKER_URL = "mqtt.broker.url";
+    private static final String CLIENT_ID = "mqtt.client.id";
+    private static final String TOPIC_NAME = "mqtt.topic.name";
+    private static final String RETAINED = "mqtt.message.retained";
+    private static final String CLEAN_SESSION = "mqtt.clean.session";
+    private static final String KEEP_ALIVE = "mqtt.keep.alive";
+    private static final String PUBLISH_TIMEOUT = "mqtt.publish.timeout";
+    private static final String USERNAME = "mqtt.auth.username";
+    private static final String PASSWORD = "mqtt.auth.password";
+    private static final String QOS = "mqtt.qos";
+    private static final String CLIENT_TYPE = "mqtt.client.type";
+    private static final String MESSAGE_VALUE = "mqtt.message.input.value";
+    private static final String DEVICE_CLASS = "mqtt.fleet.class";
+    private static final String DEVICES = "mqtt.fleet.devices";
+    private static final String PUBLISH_INTERVAL = "mqtt.fleet.publish.interval";
+    private static final String RAMP_UP = "mqtt.fleet.ramp.up";
+    private static final String REPORT_INTERVAL = "mqtt.fleet.report.interval";
+    private static final String SCENARIO_FILE = "mqtt.fleet.scenario";
+    private static final String ACTIVE_DEVICES = "mqtt.fleet.active";
+
+    // Getters
+    public String getBrokerUrl() {
+        return getPropertyAsString(BROKER_URL);
+    }
+
+    public String getClientId() {
+        return getPropertyAsString(CLIENT_ID);
+    }
+
+    public String getTopicName() {
+        return getPropertyAsString(TOPIC_NAME);
+    }
+
+    public boolean isMessageRetained() {
+        return getPropertyAsBoolean(RETAINED);
+    }
+
+    public boolean isCleanSession() {
+        return getPropertyAsBoolean(CLEAN_SESSION);
+    }
+
+    public int getKeepAlive() {
+        return getPropertyAsInt(KEEP_ALIVE);
+    }
+
+    public int getPublishTimeout() {
+        return getPropertyAsInt(PUBLISH_TIMEOUT);
+    }
+
+    public String getUsername() {
+        return getPropertyAsString(USERNAME);
+    }
+
+    public String getPassword() {
+        return getPropertyAsString(PASSWORD);
+    }
+
+    public String getQOS() {
+        return getPropertyAsString(QOS);
+    }
+
+    public String getClientType() {
+        return getPropertyAsString(CLIENT_TYPE);
+    }
+
+    public String getMessageValue() {
+        return getPropertyAsString(MESSAGE_VALUE);
+    }
+
+    public String getDeviceClass() {
+        return getPropertyAsString(DEVICE_CLASS);
+    }
+
+    public int getDevices() {
+        return getPropertyAsInt(DEVICES);
+    }
+
+    public long getPublishInterval() {
+        return getPropertyAsLong(PUBLISH_INTERVAL);
+    }
+
+    public long getRampUp() {
+        return getPropertyAsLong(RAMP_UP);
+    }
+
+    public long getReportInterval() {
+        return getPropertyAsLong(REPORT_INTERVAL);
+    }
+
+    public String getScenarioFile() {
+        return getPropertyAsString(SCENARIO_FILE);
+    }
+
+    public int getActiveDevices() {
+        return getPropertyAsInt(ACTIVE_DEVICES);
+    }
+
+    // Setters
+    public void setBrokerUrl(String brokerURL) {
+        setProperty(BROKER_URL, brokerURL.trim());
+    }
+
+    public void setClientId(String clientID) {
+        setProperty(CLIENT_ID, clientID.trim());
+    }
+
+    public void setTopicName(String topicName) {
+        setProperty(TOPIC_NAME, topicName.trim());
+    }
+
+    public void setMessageRetained(boolean isMessageRetained) {
+        setProperty(RETAINED, isMessageRetained);
+    }
+
+    public void setCleanSession(boolean isCleanSession) {
+        setProperty(CLEAN_SESSION, isCleanSession);
+    }
+
+    public void setKeepAlive(String keepAlive) {
+        setProperty(KEEP_ALIVE, keepAlive);
+    }
+
+    public void setPublishTimeout(String publishTimeout) {
+        setProperty(PUBLISH_TIMEOUT, publishTimeout);
+    }
+
+    public void setUsername(String username) {
+        setProperty(USERNAME, username.trim());
+    }
+
+    public void setPassword(String password) {
+        setProperty(PASSWORD, password.trim());
+    }
+
+    public void setQOS(String qos) {
+        setProperty(QOS, qos.trim());
+    }
+
+    public void setClientType(String clientType) {
+        setProperty(CLIENT_TYPE, clientType.trim());
+    }
+
+    public void setMessageValue(String messageValue) {
+        setProperty(MESSAGE_VALUE, messageValue);
+    }
+
+    public void setDeviceClass(String deviceClass) {
+        setProperty(DEVICE_CLASS, deviceClass.trim());
+    }
+
+    public void setDevices(String devices) {
+        setProperty(DEVICES, devices);
+    }
+
+    public void setPublishInterval(String publishInterval) {
+        setProperty(PUBLISH_INTERVAL, publishInterval);
+    }
+
+    public void setRampUp(String rampUp) {
+        setProperty(RAMP_UP, rampUp);
+    }
+
+    public void setReportInterval(String reportInterval) {
+        setProperty(REPORT_INTERVAL, reportInterval);
+    }
+
+    public void setScenarioFile(String scenarioFile) {
+        setProperty(SCENARIO_FILE, scenarioFile.trim());
+    }
+
+    public void setActiveDevices(String activeDevices) {
+        setProperty(ACTIVE_DEVICES, activeDevices);
+    }
+
+    public DeviceFleetSampler() {
+        super();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean interrupt() {
+        DeviceFleet currentFleet = fleet;
+        if (currentFleet != null) {
+            currentFleet.stop();
+        }
+        return currentFleet != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object clone() {
+        DeviceFleetSampler clone = (DeviceFleetSampler) super.clone();
+        clone.runtimeKey = runtimeKey;
+        return clone;
+    }
+
+    private String getRuntimeKey() {
+        return runtimeKey != null ? runtimeKey : getName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted() {
+        ConnectionStats.reset();
+        ClientResources.testStarted();
+        RuntimeControl.testStarted();
+        runtimeKey = RuntimeControl.register(getName());
+        FleetScenario.clear();
+        if (StringUtils.isNotBlank(getScenarioFile())) {
+            // Compiled once here rather than by the first thread, so that the ramp up starts with the scenario ready
+            try {
+                FleetScenario.get(getScenarioFile());
+            } catch (IOException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(String arg0) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded() {
+        RuntimeControl.testEnded();
+        log.info("Connection summary: " + ConnectionStats.summary());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded(String arg0) {
+        testEnded();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void threadStarted() {
+        if (fleet != null) {
+            return;
+        }
+        exceptionOccurred = null;
+        if (!validate()) {
+            exceptionOccurred = new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION,
+                    new IllegalArgumentException("The broker url, topic prefix and devices must be set"));
+            return;
+        }
+        String clientIdPrefix = getClientId();
+        if (StringUtils.isEmpty(clientIdPrefix)) {
+            clientIdPrefix = Utils.UUIDGenerator();
+        }
+        // The connects run on pool threads, so the properties are read here on the thread of the sampler
+        final String brokerURL = getBrokerUrl();
+        final boolean isCleanSession = isCleanSession();
+        final int keepAlive = getKeepAlive();
+        final String userName = getUsername();
+        final String password = getPassword();
+        final String clientType = getClientType();
+        DeviceConnector connector = new DeviceConnector() {
+            @Override
+            public BaseClient connect(String clientId) throws MqttException {
+                return createClient(clientType, brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+            }
+        };
+        if (StringUtils.isBlank(getScenarioFile())) {
+            // Every thread runs its own fleet, so the thread number keeps the client ids of the fleets apart
+            clientIdPrefix = clientIdPrefix + "-" + getThreadContext().getThreadNum();
+            String className = StringUtils.defaultIfBlank(getDeviceClass(), Constants.MQTT_FLEET_CLASS_DEFAULT);
+            DeviceClass deviceClass = new DeviceClass(className, getDevices(), Math.max(1, getPublishInterval()),
+                    getQosValue(), isMessageRetained(), getMessageValue().getBytes(), getTopicName());
+            fleet = new DeviceFleet(clientIdPrefix, Collections.singletonList(deviceClass), connector, getRampUp(),
+                    getPublishTimeout() * 1000L);
+            fleet.setActiveDevices(RuntimeControl.getActiveDevices(getRuntimeKey(), getActiveDevices()));
+            return;
+        }
+        FleetScenario scenario;
+        try {
+            scenario = FleetScenario.get(getScenarioFile());
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            exceptionOccurred = new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+            return;
+        }
+        // The threads of the group take contiguous ranges of the devices, numbered across the whole scenario
+        long threads = Math.max(1, getThreadContext().getThreadGroup().getNumThreads());
+        long threadNum = Math.min(getThreadContext().getThreadNum(), threads - 1);
+        long total = scenario.getDeviceCount();
+        int firstDevice = (int) (total * threadNum / threads);
+        int devices = (int) (total * (threadNum + 1) / threads) - firstDevice;
+        fleet = new DeviceFleet(clientIdPrefix, scenario, firstDevice, devices, connector, getRampUp(),
+                getPublishTimeout() * 1000L);
+        // The threads share the number of active devices of each thread, which may be changed while they run
+        fleet.setActiveDevices(RuntimeControl.getActiveDevices(getRuntimeKey(), getActiveDevices()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void threadFinished() {
+        if (fleet != null) {
+            fleet.close();
+            fleet = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SampleResult sample(Entry entry) {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        result.sampleStart();
+
+        if (null != exceptionOccurred || null == fleet) {
+            result.setSuccessful(false);
+            String message = exceptionOccurred != null ? exceptionOccurred.toString() : "Fleet has been stopped.";
+            result.setResponseMessage("Fleet is not running." + lineSeparator + message);
+            result.setResponseData(message.getBytes());
+            result.sampleEnd();
+            result.setResponseCode("FAILED");
+            return result;
+        }
+
+        long reportInterval = Math.max(1, getReportInterval());
+        fleet.run(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(reportInterval));
+        result.sampleEnd();
+
+        StringBuilder summary = new StringBuilder();
+        summary.append(fleet.countConnected()).append(" of ").append(fleet.getDeviceCount())
+               .append(" devices connected.");
+        boolean successful = true;
+        DeviceClass[] deviceClasses = fleet.getDeviceClasses();
+        for (int i = 0; i < deviceClasses.length; i++) {
+            if (fleet.getDeviceCount(i) == 0) {
+                continue;
+            }
+            DeviceClass deviceClass = deviceClasses[i];
+            DeviceClassStats.Window window = fleet.getStats(i).takeWindow();
+            successful &= window.isSuccessful();
+            summary.append(lineSeparator).append(deviceClass.getName()).append(" : ").append(window);
+            result.addSubResult(createClassResult(result, deviceClass, window));
+        }
+        result.setSuccessful(successful);
+        result.setResponseMessage(summary.toString());
+        result.setResponseData(summary.toString().getBytes());
+        if (successful) {
+            result.setResponseCodeOK();
+        } else {
+            result.setResponseCode("FAILED");
+        }
+        return result;
+    }
+
+    /**
+     * Creates the result of a device class over a report window. The sample counts are the publishes of the window and
+     * the elapsed time is their average latency.
+     *
+     * @param parent      the result of the report window
+     * @param deviceClass the device class
+     * @param window      the counters of the device class in the window
+     * @return The result of the device class.
+     */
+    private SampleResult createClassResult(SampleResult parent, DeviceClass deviceClass,
+                                           DeviceClassStats.Window window) {
+        SampleResult classResult = new SampleResult();
+        classResult.setSampleLabel(getName() + "::" + deviceClass.getName());
+        Utils.setStartAndElapsed(classResult, parent.getStartTime(),
+                TimeUnit.NANOSECONDS.toMillis(window.getAverageLatencyNanos()));
+        classResult.setSampleCount((int) Math.max(1, window.getPublished() + window.getFailed()));
+        classResult.setErrorCount((int) window.getFailed());
+        classResult.setBytes((int) window.getBytes());
+        classResult.setSuccessful(window.isSuccessful());
+        classResult.setResponseMessage(window.toString());
+        if (window.isSuccessful()) {
+            classResult.setResponseCodeOK();
+        } else {
+            classResult.setResponseCode("FAILED");
+        }
+        return classResult;
+    }
+
+    /**
+     * Creates and connects the client of a device.
+     *
+     * @param clientType     the type of the client
+     * @param brokerURL      the url of the broker
+     * @param clientId       the client id of the device
+     * @param isCleanSession whether to start a clean session
+     * @param userName       the user name, empty for none
+     * @param password       the password
+     * @param keepAlive      the keep alive interval in seconds
+     * @return The client.
+     * @throws MqttException if the client type is unknown or the client could not connect.
+     */
+    private static BaseClient createClient(String clientType, String brokerURL, String clientId,
+                                           boolean isCleanSession, String userName, String password, int keepAlive)
+            throws MqttException {
+        if (Constants.MQTT_BLOCKING_CLIENT.equals(clientType)) {
+            return new BlockingClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else if (Constants.MQTT_ASYNC_CLIENT.equals(clientType)) {
+            return new AsyncClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else if (Constants.MQTT_NIO_CLIENT.equals(clientType)) {
+            return new NioClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else if (Constants.MQTT_5_CLIENT.equals(clientType)) {
+            return new Mqtt5Client(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        }
+        throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION,
+                new IllegalArgumentException("Unknown client type " + clientType));
+    }
+
+    private int getQosValue() {
+        if (Constants.MQTT_AT_LEAST_ONCE.equals(getQOS())) {
+            return 1;
+        } else if (Constants.MQTT_EXACTLY_ONCE.equals(getQOS())) {
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Validates parameters
+     *
+     * @return true if valid parameters, else false
+     */
+    private boolean validate() {
+        if (StringUtils.isBlank(getBrokerUrl())) {
+            log.error("The broker url cannot be empty");
+            return false;
+        }
+        if (StringUtils.isNotBlank(getScenarioFile())) {
+            return true;
+        }
+        if (StringUtils.isBlank(getTopicName())) {
+            log.error("The topic prefix cannot be empty");
+            return false;
+        }
+        if (getDevices() <= 0) {
+            log.error("The number of devices must be positive");
+            return false;
+        }
+        return true;
+    }
+}
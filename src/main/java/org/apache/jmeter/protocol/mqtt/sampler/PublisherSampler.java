@@ -16,16 +16,35 @@
 
 package org.apache.jmeter.protocol.mqtt.sampler;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.protocol.mqtt.chunk.ChunkedTransfer;
 import org.apache.jmeter.protocol.mqtt.client.ClientPool;
+import org.apache.jmeter.protocol.mqtt.client.ClientResources;
+import org.apache.jmeter.protocol.mqtt.client.ConnectionStats;
+import org.apache.jmeter.protocol.mqtt.client.ConnectionThrottle;
+import org.apache.jmeter.protocol.mqtt.client.RatePacer;
+import org.apache.jmeter.protocol.mqtt.client.SubscriptionBarrier;
+import org.apache.jmeter.protocol.mqtt.data.objects.ConnectEvent;
+import org.apache.jmeter.protocol.mqtt.jmx.RuntimeControl;
+import org.apache.jmeter.protocol.mqtt.mix.TrafficMix;
+import org.apache.jmeter.protocol.mqtt.nio.clients.Mqtt5Client;
+import org.apache.jmeter.protocol.mqtt.nio.clients.NioClient;
 import org.apache.jmeter.protocol.mqtt.paho.clients.AsyncClient;
 import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
 import org.apache.jmeter.protocol.mqtt.paho.clients.BlockingClient;
+import org.apache.jmeter.protocol.mqtt.payload.PayloadPool;
+import org.apache.jmeter.protocol.mqtt.payload.PayloadSchema;
+import org.apache.jmeter.protocol.mqtt.payload.SchemaEncoder;
+import org.apache.jmeter.protocol.mqtt.replay.ReplaySchedule;
+import org.apache.jmeter.protocol.mqtt.replay.ReplayStream;
+import org.apache.jmeter.protocol.mqtt.search.ThroughputSearch;
+import org.apache.jmeter.protocol.mqtt.topic.TopicSelector;
+import org.apache.jmeter.protocol.mqtt.topic.TopicTemplate;
 import org.apache.jmeter.protocol.mqtt.utilities.Constants;
 import org.apache.jmeter.protocol.mqtt.utilities.Utils;
 import org.apache.jmeter.samplers.AbstractSampler;
 import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.Interruptible;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jorphan.logging.LoggingManager;
@@ -34,20 +53,46 @@ import org.eclipse.paho.client.mqttv3.MqttException;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This is MQTT Publisher sample class. The implementation includes publishing of MQTT messages with the sample
  * processing.
  */
-public class PublisherSampler extends AbstractSampler implements TestStateListener {
+public class PublisherSampler extends AbstractSampler implements TestStateListener, Interruptible {
 
 
     private transient BaseClient client;
     private String topicName = StringUtils.EMPTY;
+    private transient TopicSelector topicSelector;
+    private transient TrafficMix trafficMix;
+    private transient TopicSelector[] trafficMixTopics;
+    private transient ReplayStream replay;
+    private transient ThroughputSearch search;
+    private transient RatePacer pacer;
+    // The key of the element in RuntimeControl, given to the original element when the test starts and copied to
+    // the clones of its threads
+    private transient String runtimeKey;
+    private transient volatile boolean interrupted = false;
+    private transient String textValue;
+    private transient ByteBuffer textPayload;
+    private transient int chunkSize;
+    private transient long transferSize;
+    private transient ByteBuffer chunkBlock;
+    private transient PayloadPool payloadPool;
+    private transient long payloadIndex;
+    private transient SchemaEncoder schemaEncoder;
     private boolean retained;
     private String messageInputType;
     private long timeout;
+    private transient boolean barrierPassed = false;
 
     private AtomicInteger publishedMessageCount = new AtomicInteger(0);
     private static final String nameLabel = "MQTT Publisher";
@@ -69,6 +114,39 @@ public class PublisherSampler extends AbstractSampler implements TestStateListen
     private static final String CLIENT_TYPE = "mqtt.client.type";
     private static final String MESSAGE_INPUT_TYPE = "mqtt.message.input.type";
     private static final String MESSAGE_VALUE = "mqtt.message.input.value";
+    private static final String BARRIER_NAME = "mqtt.barrier.name";
+    private static final String BARRIER_SUBSCRIPTIONS = "mqtt.barrier.subscriptions";
+    private static final String BARRIER_TIMEOUT = "mqtt.barrier.timeout";
+    private static final String BARRIER_DISTRIBUTED = "mqtt.barrier.distributed";
+    private static final String AUTO_RECONNECT = "mqtt.reconnect.enabled";
+    private static final String RECONNECT_INITIAL_DELAY = "mqtt.reconnect.initial.delay";
+    private static final String RECONNECT_MAX_DELAY = "mqtt.reconnect.max.delay";
+    private static final String REPORT_CONNECT = "mqtt.report.connect";
+    private static final String MESSAGE_EXPIRY = "mqtt.message.expiry";
+    private static final String USER_PROPERTIES = "mqtt.user.properties";
+    private static final String TOPIC_DISTRIBUTION = "mqtt.topic.distribution";
+    private static final String ZIPF_EXPONENT = "mqtt.topic.zipf.exponent";
+    private static final String TRAFFIC_MIX = "mqtt.traffic.mix";
+    private static final String REPLAY_CAPTURE = "mqtt.replay.capture";
+    private static final String REPLAY_SPEED = "mqtt.replay.speed";
+    private static final String REPLAY_PARTITION = "mqtt.replay.partition";
+    private static final String CHUNK_SIZE = "mqtt.chunk.size";
+    private static final String CHUNK_TRANSFER_SIZE = "mqtt.chunk.transfer.size";
+    private static final String GENERATOR_SIZES = "mqtt.generator.sizes";
+    private static final String GENERATOR_CONTENT = "mqtt.generator.content";
+    private static final String GENERATOR_POOL = "mqtt.generator.pool";
+    private static final String SCHEMA_DEFINITION = "mqtt.schema.definition";
+    private static final String SCHEMA_FORMAT = "mqtt.schema.format";
+    private static final String SEARCH_NAME = "mqtt.search.name";
+    private static final String PUBLISH_RATE = "mqtt.publish.rate";
+    // Read-only mappings of the message files, shared by all threads
+    private static final ConcurrentMap<String, ByteBuffer> filePayloads = new ConcurrentHashMap<String, ByteBuffer>();
+
+    // For test plans saved before the pool size could be set
+    private static final int DEFAULT_GENERATOR_POOL = 1000;
+
+    // Upper bound of a single wait for a replayed message or the search so that an interrupt is noticed
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
 
     // Getters
     public String getBrokerUrl() {
@@ -123,6 +201,106 @@ public class PublisherSampler extends AbstractSampler implements TestStateListen
         return getPropertyAsString(MESSAGE_VALUE);
     }
 
+    public String getBarrierName() {
+        return getPropertyAsString(BARRIER_NAME);
+    }
+
+    public int getBarrierSubscriptions() {
+        return getPropertyAsInt(BARRIER_SUBSCRIPTIONS);
+    }
+
+    public int getBarrierTimeout() {
+        return getPropertyAsInt(BARRIER_TIMEOUT);
+    }
+
+    public boolean isBarrierDistributed() {
+        return getPropertyAsBoolean(BARRIER_DISTRIBUTED);
+    }
+
+    public boolean isAutoReconnect() {
+        return getPropertyAsBoolean(AUTO_RECONNECT);
+    }
+
+    public int getReconnectInitialDelay() {
+        return getPropertyAsInt(RECONNECT_INITIAL_DELAY);
+    }
+
+    public int getReconnectMaxDelay() {
+        return getPropertyAsInt(RECONNECT_MAX_DELAY);
+    }
+
+    public boolean isReportConnect() {
+        return getPropertyAsBoolean(REPORT_CONNECT);
+    }
+
+    public long getMessageExpiry() {
+        return getPropertyAsLong(MESSAGE_EXPIRY);
+    }
+
+    public String getUserProperties() {
+        return getPropertyAsString(USER_PROPERTIES);
+    }
+
+    public String getTopicDistribution() {
+        return getPropertyAsString(TOPIC_DISTRIBUTION);
+    }
+
+    public double getZipfExponent() {
+        return getPropertyAsDouble(ZIPF_EXPONENT);
+    }
+
+    public String getTrafficMix() {
+        return getPropertyAsString(TRAFFIC_MIX);
+    }
+
+    public String getReplayCapture() {
+        return getPropertyAsString(REPLAY_CAPTURE);
+    }
+
+    public double getReplaySpeed() {
+        return getPropertyAsDouble(REPLAY_SPEED);
+    }
+
+    public String getReplayPartition() {
+        return getPropertyAsString(REPLAY_PARTITION);
+    }
+
+    public int getChunkSize() {
+        return getPropertyAsInt(CHUNK_SIZE);
+    }
+
+    public int getChunkTransferSize() {
+        return getPropertyAsInt(CHUNK_TRANSFER_SIZE);
+    }
+
+    public String getGeneratorSizes() {
+        return getPropertyAsString(GENERATOR_SIZES);
+    }
+
+    public String getGeneratorContent() {
+        return getPropertyAsString(GENERATOR_CONTENT);
+    }
+
+    public int getGeneratorPool() {
+        return getPropertyAsInt(GENERATOR_POOL);
+    }
+
+    public String getSchemaDefinition() {
+        return getPropertyAsString(SCHEMA_DEFINITION);
+    }
+
+    public String getSchemaFormat() {
+        return getPropertyAsString(SCHEMA_FORMAT);
+    }
+
+    public String getSearchName() {
+        return getPropertyAsString(SEARCH_NAME);
+    }
+
+    public double getPublishRate() {
+        return getPropertyAsDouble(PUBLISH_RATE);
+    }
+
     private String getNameLabel() {
         return nameLabel;
     }
@@ -180,11 +358,155 @@ public class PublisherSampler extends AbstractSampler implements TestStateListen
         setProperty(MESSAGE_VALUE, messageValue.trim());
     }
 
+    public void setBarrierName(String barrierName) {
+        setProperty(BARRIER_NAME, barrierName.trim());
+    }
+
+    public void setBarrierSubscriptions(String barrierSubscriptions) {
+        setProperty(BARRIER_SUBSCRIPTIONS, barrierSubscriptions);
+    }
+
+    public void setBarrierTimeout(String barrierTimeout) {
+        setProperty(BARRIER_TIMEOUT, barrierTimeout);
+    }
+
+    public void setBarrierDistributed(boolean isBarrierDistributed) {
+        setProperty(BARRIER_DISTRIBUTED, isBarrierDistributed);
+    }
+
+    public void setAutoReconnect(boolean isAutoReconnect) {
+        setProperty(AUTO_RECONNECT, isAutoReconnect);
+    }
+
+    public void setReconnectInitialDelay(String reconnectInitialDelay) {
+        setProperty(RECONNECT_INITIAL_DELAY, reconnectInitialDelay);
+    }
+
+    public void setReconnectMaxDelay(String reconnectMaxDelay) {
+        setProperty(RECONNECT_MAX_DELAY, reconnectMaxDelay);
+    }
+
+    public void setReportConnect(boolean isReportConnect) {
+        setProperty(REPORT_CONNECT, isReportConnect);
+    }
+
+    public void setMessageExpiry(String messageExpiry) {
+        setProperty(MESSAGE_EXPIRY, messageExpiry);
+    }
+
+    public void setUserProperties(String userProperties) {
+        setProperty(USER_PROPERTIES, userProperties);
+    }
+
+    public void setTopicDistribution(String topicDistribution) {
+        setProperty(TOPIC_DISTRIBUTION, topicDistribution.trim());
+    }
+
+    public void setZipfExponent(String zipfExponent) {
+        setProperty(ZIPF_EXPONENT, zipfExponent);
+    }
+
+    public void setTrafficMix(String trafficMix) {
+        setProperty(TRAFFIC_MIX, trafficMix);
+    }
+
+    public void setReplayCapture(String replayCapture) {
+        setProperty(REPLAY_CAPTURE, replayCapture.trim());
+    }
+
+    public void setReplaySpeed(String replaySpeed) {
+        setProperty(REPLAY_SPEED, replaySpeed);
+    }
+
+    public void setReplayPartition(String replayPartition) {
+        setProperty(REPLAY_PARTITION, replayPartition.trim());
+    }
+
+    public void setChunkSize(String chunkSize) {
+        setProperty(CHUNK_SIZE, chunkSize);
+    }
+
+    public void setChunkTransferSize(String chunkTransferSize) {
+        setProperty(CHUNK_TRANSFER_SIZE, chunkTransferSize);
+    }
+
+    public void setGeneratorSizes(String generatorSizes) {
+        setProperty(GENERATOR_SIZES, generatorSizes.trim());
+    }
+
+    public void setGeneratorContent(String generatorContent) {
+        setProperty(GENERATOR_CONTENT, generatorContent.trim());
+    }
+
+    public void setGeneratorPool(String generatorPool) {
+        setProperty(GENERATOR_POOL, generatorPool);
+    }
+
+    public void setSchemaDefinition(String schemaDefinition) {
+        setProperty(SCHEMA_DEFINITION, schemaDefinition);
+    }
+
+    public void setSchemaFormat(String schemaFormat) {
+        setProperty(SCHEMA_FORMAT, schemaFormat.trim());
+    }
+
+    public void setSearchName(String searchName) {
+        setProperty(SEARCH_NAME, searchName.trim());
+    }
+
+    public void setPublishRate(String publishRate) {
+        setProperty(PUBLISH_RATE, publishRate);
+    }
+
     public PublisherSampler() {
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean interrupt() {
+        boolean oldValue = interrupted;
+        interrupted = true;
+        return !oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object clone() {
+        PublisherSampler clone = (PublisherSampler) super.clone();
+        clone.runtimeKey = runtimeKey;
+        return clone;
+    }
+
+    private String getRuntimeKey() {
+        return runtimeKey != null ? runtimeKey : getName();
+    }
+
     @Override
     public void testStarted() {
+        SubscriptionBarrier.clear();
+        ConnectionStats.reset();
+        ClientResources.testStarted();
+        RuntimeControl.testStarted();
+        runtimeKey = RuntimeControl.register(getName());
+        TopicTemplate.clear();
+        TrafficMix.clear();
+        ReplaySchedule.clear();
+        PayloadSchema.clear();
+        ThroughputSearch.clear();
+        filePayloads.clear();
+        if (Constants.MQTT_MESSAGE_INPUT_TYPE_GENERATED.equals(getMessageInputType())) {
+            // Generated here rather than by the first thread, so that the ramp up starts with the pool ready. The pools
+            // are cleared when the test ends, so that the next element starting does not discard this one.
+            try {
+                getPayloadPool();
+            } catch (IOException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
     }
 
     @Override
@@ -202,6 +524,10 @@ public class PublisherSampler extends AbstractSampler implements TestStateListen
         } catch (IOException e) {
             log.error(e.getMessage(), e);
         }
+        SubscriptionBarrier.clear();
+        PayloadPool.clear();
+        RuntimeControl.testEnded();
+        log.info("Connection summary: " + ConnectionStats.summary());
     }
 
     /**
@@ -223,8 +549,25 @@ public class PublisherSampler extends AbstractSampler implements TestStateListen
             String clientType = getClientType();
 
             topicName = getTopicName();
+            if (topicSelector == null && TopicTemplate.isTemplate(topicName)) {
+                topicSelector = createTopicSelector(topicName);
+            }
+            if (trafficMix == null && StringUtils.isNotBlank(getTrafficMix())) {
+                initTrafficMix();
+            }
+            if (replay == null && StringUtils.isNotBlank(getReplayCapture())) {
+                initReplay();
+            }
             retained = isMessageRetained();
             messageInputType = getMessageInputType();
+            if (payloadPool == null && Constants.MQTT_MESSAGE_INPUT_TYPE_GENERATED.equals(messageInputType)) {
+                initPayloadPool();
+            }
+            if (schemaEncoder == null && Constants.MQTT_MESSAGE_INPUT_TYPE_SCHEMA.equals(messageInputType)) {
+                initSchemaEncoder();
+            }
+            chunkSize = Math.max(0, getChunkSize()) * 1024;
+            transferSize = Math.max(0, getChunkTransferSize()) * 1024L;
             timeout = getPublishTimeout();
             if (timeout > 0) {
                 timeout = timeout * 1000L;
@@ -234,14 +577,35 @@ public class PublisherSampler extends AbstractSampler implements TestStateListen
             if (StringUtils.isEmpty(clientId)) {
                 clientId = Utils.UUIDGenerator();
             }
-            
+
+            // Release the client whose connection was lost before replacing it
+            if (null != client) {
+                ClientPool.removeClient(client);
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    log.warn(getClientId() + ": unable to close lost client " + e.toString());
+                }
+                client = null;
+            }
+
             if (Constants.MQTT_BLOCKING_CLIENT.equals(clientType)) {
                 client = new BlockingClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
             } else if (Constants.MQTT_ASYNC_CLIENT.equals(clientType)) {
                 client = new AsyncClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+            } else if (Constants.MQTT_NIO_CLIENT.equals(clientType)) {
+                client = new NioClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+            } else if (Constants.MQTT_5_CLIENT.equals(clientType)) {
+                Mqtt5Client mqtt5Client = new Mqtt5Client(brokerURL, clientId, isCleanSession, userName, password,
+                        keepAlive);
+                mqtt5Client.setMessageProperties(getMessageExpiry(), Utils.parseUserProperties(getUserProperties()));
+                client = mqtt5Client;
             }
             
             if (null != client) {
+                if (isAutoReconnect()) {
+                    client.setAutoReconnect(getReconnectInitialDelay(), getReconnectMaxDelay());
+                }
                 ClientPool.addClient(client);
             }
         } catch (MqttException e) {
@@ -250,18 +614,214 @@ public class PublisherSampler extends AbstractSampler implements TestStateListen
         }
     }
 
+    /**
+     * Creates the topic selector of the thread. The topics of the template are expanded once and shared by the
+     * threads, so that a publish picks its topic without building a string.
+     *
+     * @param template the topic template
+     * @return The topic selector.
+     * @throws MqttException if the topic template is not valid.
+     */
+    private TopicSelector createTopicSelector(String template) throws MqttException {
+        String distribution;
+        if (Constants.MQTT_TOPIC_RANDOM.equals(getTopicDistribution())) {
+            distribution = TopicSelector.RANDOM;
+        } else if (Constants.MQTT_TOPIC_ZIPF.equals(getTopicDistribution())) {
+            distribution = TopicSelector.ZIPF;
+        } else {
+            distribution = TopicSelector.SEQUENTIAL;
+        }
+        double exponent = getZipfExponent() > 0 ? getZipfExponent() : 1;
+        try {
+            return new TopicSelector(TopicTemplate.get(template), distribution, exponent,
+                    getThreadContext().getThreadNum(), getThreadContext().getThreadGroup().getNumThreads());
+        } catch (IllegalArgumentException e) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+        }
+    }
+
+    /**
+     * Compiles the traffic mix, shared by the threads, and creates the topic selectors of its templates for the thread.
+     *
+     * @throws MqttException if the traffic mix is not valid.
+     */
+    private void initTrafficMix() throws MqttException {
+        try {
+            TrafficMix mix = TrafficMix.get(getTrafficMix());
+            TrafficMix.Entry[] entries = mix.getEntries();
+            TopicSelector[] topics = new TopicSelector[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].getTopicTemplate() != null) {
+                    topics[i] = createTopicSelector(entries[i].getTopic());
+                }
+            }
+            trafficMixTopics = topics;
+            trafficMix = mix;
+        } catch (IOException e) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+        }
+    }
+
+    /**
+     * Gets the payload pool of the element, generated when the test started. Each thread walks the pool from its own
+     * place.
+     */
+    private void initPayloadPool() throws MqttException {
+        try {
+            payloadPool = getPayloadPool();
+            payloadIndex = getThreadContext().getThreadNum();
+        } catch (IOException e) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+        }
+    }
+
+    private PayloadPool getPayloadPool() throws IOException {
+        String content;
+        if (Constants.MQTT_GENERATOR_CONTENT_COMPRESSIBLE.equals(getGeneratorContent())) {
+            content = PayloadPool.COMPRESSIBLE;
+        } else if (Constants.MQTT_GENERATOR_CONTENT_REPEATING.equals(getGeneratorContent())) {
+            content = PayloadPool.REPEATING;
+        } else {
+            content = PayloadPool.RANDOM;
+        }
+        int count = getGeneratorPool() > 0 ? getGeneratorPool() : DEFAULT_GENERATOR_POOL;
+        return PayloadPool.get(getName(), getGeneratorSizes(), content, count);
+    }
+
+    /**
+     * Creates the record encoder of the thread from the schema compiled by the first thread. The random values of each
+     * thread are seeded by the element name and the thread number, so that every run publishes the same records.
+     */
+    private void initSchemaEncoder() throws MqttException {
+        String format;
+        if (Constants.MQTT_SCHEMA_FORMAT_CBOR.equals(getSchemaFormat())) {
+            format = PayloadSchema.CBOR;
+        } else if (Constants.MQTT_SCHEMA_FORMAT_PROTOBUF.equals(getSchemaFormat())) {
+            format = PayloadSchema.PROTOBUF;
+        } else {
+            format = PayloadSchema.JSON;
+        }
+        int threadNum = getThreadContext().getThreadNum();
+        try {
+            schemaEncoder = PayloadSchema.get(getSchemaDefinition()).createEncoder(format,
+                    31L * getName().hashCode() + threadNum, threadNum);
+        } catch (IOException e) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+        }
+    }
+
+    /**
+     * Opens the replay stream of the thread. The schedule of the capture is shared by the threads of the element.
+     *
+     * @throws MqttException if the capture cannot be read.
+     */
+    private void initReplay() throws MqttException {
+        double speed = getReplaySpeed() > 0 ? getReplaySpeed() : 1;
+        String mode = Constants.MQTT_REPLAY_PARTITION_CAPTURE.equals(getReplayPartition()) ? ReplayStream.BY_CAPTURE :
+                      ReplayStream.BY_TOPIC;
+        try {
+            ReplaySchedule schedule = ReplaySchedule.get(getName() + "|" + getReplayCapture() + "|" + speed,
+                    new File(getReplayCapture()), speed);
+            replay = new ReplayStream(schedule, mode, getThreadContext().getThreadNum(),
+                    getThreadContext().getThreadGroup().getNumThreads());
+        } catch (IOException e) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+        }
+    }
+
+    /**
+     * Moves to the next replayed message and waits until it is due.
+     *
+     * @return The result ending the replay of the thread, or null once the next message is due.
+     */
+    private SampleResult awaitReplay() {
+        String message;
+        try {
+            if (replay.next()) {
+                long due = replay.getDueNanos();
+                long delay;
+                while (!interrupted && (delay = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(Math.min(delay, POLL_INTERVAL_NANOS));
+                }
+                if (!interrupted) {
+                    return null;
+                }
+                message = "Replay interrupted after " + replay.getMessages() + " messages";
+            } else {
+                message = "Replay complete, " + replay.getMessages() + " messages";
+            }
+        } catch (IOException e) {
+            message = "Unable to read the replay capture." + lineSeparator + "Exception: " + e.toString();
+        }
+        replay.close();
+        // The thread has nothing left to publish
+        return stopResult(message.startsWith("Replay complete"), message);
+    }
+
+    /**
+     * Waits for the readiness barrier the first time the thread samples. The wait is reported as a sub result so that
+     * it does not count towards the publish time.
+     *
+     * @return The barrier result, or null if there is nothing to wait for.
+     */
+    private SampleResult awaitBarrier() {
+        if (barrierPassed || StringUtils.isBlank(getBarrierName()) || getBarrierSubscriptions() <= 0) {
+            return null;
+        }
+        barrierPassed = true;
+        SubscriptionBarrier barrier = SubscriptionBarrier.get(getBarrierName());
+        SampleResult result = new SampleResult();
+        result.setSampleLabel("MQTT Readiness Barrier::" + getBarrierName());
+        result.sampleStart();
+        try {
+            if (isBarrierDistributed()) {
+                barrier.listen(getBrokerUrl(), getUsername(), getPassword());
+            }
+            // Waits in slices so that a stopped test does not leave the thread parked on the barrier
+            long sliceMillis = TimeUnit.NANOSECONDS.toMillis(POLL_INTERVAL_NANOS);
+            long endTime = getBarrierTimeout() > 0 ? System.currentTimeMillis() + getBarrierTimeout() * 1000L :
+                           Long.MAX_VALUE;
+            long remaining = endTime - System.currentTimeMillis();
+            boolean passed = false;
+            while (!interrupted && remaining > 0 &&
+                   !(passed = barrier.await(getBarrierSubscriptions(), Math.min(remaining, sliceMillis)))) {
+                remaining = endTime - System.currentTimeMillis();
+            }
+            result.sampleEnd();
+            result.setSuccessful(passed);
+            result.setResponseCode(passed ? "OK" : interrupted ? "FAILED" : "TIMEOUT");
+            result.setResponseMessage((passed || !interrupted ? "Waited " : "Interrupted after ") + result.getTime() +
+                                      " ms, " + barrier.count() + " of " + getBarrierSubscriptions() +
+                                      " subscriptions acknowledged");
+        } catch (MqttException | InterruptedException e) {
+            result.sampleEnd();
+            result.setSuccessful(false);
+            result.setResponseCode("FAILED");
+            result.setResponseMessage("Unable to wait for subscribers." + lineSeparator + "Exception: " + e.toString());
+        }
+        return result;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public SampleResult sample(Entry entry) {
-        SampleResult result = new SampleResult();
-        result.sampleStart();
-        if (client == null || !client.isConnected()) {
+        SampleResult barrierResult = awaitBarrier();
+        SampleResult result;
+        ConnectEvent connectEvent = null;
+        // Connect before the sample starts so that the handshake does not count as publish time.
+        // A client that reconnects by itself is kept, publishing fails until it has recovered.
+        if (client == null || (!client.isConnected() && !client.isAutoReconnect())) {
+            long connectStart = System.currentTimeMillis();
             try {
                 initClient();
+                connectEvent = client != null ? client.pollConnectEvent() : null;
+                result = publish();
             } catch (MqttException e) {
-                result.sampleEnd(); // stop stopwatch
+                result = new SampleResult();
+                Utils.setStartAndElapsed(result, connectStart, System.currentTimeMillis() - connectStart);
+                result.setSampleLabel(getNameLabel() + "::" + getClientId());
                 result.setSuccessful(false);
                 // get stack trace as a String to return as document data
                 java.io.StringWriter stringWriter = new java.io.StringWriter();
@@ -270,15 +830,260 @@ public class PublisherSampler extends AbstractSampler implements TestStateListen
                 result.setResponseMessage("Unable publish messages." + lineSeparator + "Exception: " + e.toString());
                 result.setDataType(org.apache.jmeter.samplers.SampleResult.TEXT);
                 result.setResponseCode("FAILED");
-                return result;
             }
+        } else {
+            result = publish();
+        }
+        if (connectEvent != null) {
+            Utils.setConnectTime(result, connectEvent.getConnackNanos() / 1000000);
+            if (isReportConnect() || ConnectionThrottle.isReportConnects()) {
+                result.addSubResult(Utils.createConnectResult(client, connectEvent));
+            }
+        }
+        if (barrierResult != null) {
+            result.addSubResult(barrierResult);
         }
+        Utils.addConnectResult(result, client);
+        Utils.addReconnectResults(result, client);
+        return result;
+    }
+
+    /**
+     * Reports how late a replayed message was published compared to the schedule of the capture, as the time of a sub
+     * result so that the listeners aggregate it.
+     *
+     * @param lagNanos the time from the due time to the start of the publish in nanoseconds
+     * @return The lag result.
+     */
+    private SampleResult createLagResult(long lagNanos) {
+        long lagMillis = Math.max(0, lagNanos) / 1000000;
+        SampleResult lagResult = new SampleResult();
+        lagResult.setSampleLabel(getName() + "::lag");
+        Utils.setStartAndElapsed(lagResult, System.currentTimeMillis() - lagMillis, lagMillis);
+        lagResult.setSuccessful(true);
+        lagResult.setResponseCodeOK();
+        lagResult.setResponseMessage("Published " + lagNanos / 1000 + " us after the replay schedule");
+        return lagResult;
+    }
+
+    /**
+     * @return The text message as a buffer wrapping its whole array, so that the clients publishing arrays publish it
+     * without a copy, encoded again only when the value changes.
+     */
+    private ByteBuffer getTextPayload() {
+        String value = getMessageValue();
+        if (textPayload == null || !value.equals(textValue)) {
+            textPayload = ByteBuffer.wrap(value.getBytes());
+            textValue = value;
+        }
+        return textPayload.duplicate();
+    }
+
+    /**
+     * Maps a message file once for all threads. The file must not change while the test runs.
+     *
+     * @param filename the path of the file
+     * @return The content of the file as a read-only buffer.
+     * @throws IOException if the file can not be read
+     */
+    private ByteBuffer getFilePayload(String filename) throws IOException {
+        ByteBuffer payload = filePayloads.get(filename);
+        if (payload == null) {
+            if (log.isDebugEnabled()) log.debug(getClientId() + " mapping file: " + filename);
+            try (RandomAccessFile file = new RandomAccessFile(new File(filename), "r")) {
+                payload = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            }
+            ByteBuffer existing = filePayloads.putIfAbsent(filename, payload);
+            if (existing != null) {
+                payload = existing;
+            }
+        }
+        return payload.duplicate();
+    }
+
+    /**
+     * @return The data of every chunk of a generated transfer, created once per thread. Read-only, so that the NIO
+     * clients keep it rather than copy it while the socket is full, the Paho clients copy every chunk behind its
+     * header anyway.
+     */
+    private ByteBuffer getChunkBlock() {
+        if (chunkBlock == null || chunkBlock.remaining() != chunkSize) {
+            chunkBlock = ByteBuffer.wrap(Utils.randomPayload(getName(), chunkSize)).asReadOnlyBuffer();
+        }
+        return chunkBlock.duplicate();
+    }
+
+    /**
+     * Publishes all the chunks of a transfer, one at a time. The result covers the whole transfer. Chunks are never
+     * retained, the broker would only keep the last one.
+     *
+     * @param result   the started result
+     * @param topic    the topic of the chunks
+     * @param qos      the quality of the chunks
+     * @param transfer the transfer
+     * @return The result.
+     * @throws MqttException if a chunk could not be published
+     */
+    private SampleResult publishTransfer(SampleResult result, String topic, int qos, ChunkedTransfer transfer)
+            throws MqttException {
+        long wireBytes = 0;
+        while (transfer.hasNext() && !interrupted) {
+            ByteBuffer data = transfer.next();
+            ByteBuffer header = transfer.getHeader();
+            int chunkBytes = header.remaining() + data.remaining();
+            long durationNanos = client.publish(topic, qos, header, data, false, timeout);
+            if (transfer.getChunksSent() == 1) {
+                result.setLatency(durationNanos / 1000000);
+            }
+            int packetSize = client.getLastPublishSize();
+            wireBytes += packetSize >= 0 ? packetSize : chunkBytes;
+            publishedMessageCount.incrementAndGet();
+        }
+        result.sampleEnd();
+        boolean complete = !transfer.hasNext();
+        result.setSuccessful(complete);
+        // A throughput search paces whole transfers
+        if (search != null && complete) {
+            search.published(TimeUnit.MILLISECONDS.toNanos(result.getTime()));
+        } else if (search != null) {
+            search.failed();
+        }
+        long sent = Math.min(transfer.getSize(), (long) transfer.getChunksSent() * transfer.getChunkSize());
+        result.setBytes((int) Math.min(Integer.MAX_VALUE, wireBytes));
+        result.setBodySize((int) Math.min(Integer.MAX_VALUE, sent));
+        result.setHeadersSize((int) Math.min(Integer.MAX_VALUE, wireBytes - sent));
+        long elapsed = Math.max(1, result.getTime());
+        result.setResponseMessage(String.format("Sent %d of %d chunks of transfer %016x, %d bytes in %d ms, %.2f MB/s",
+                transfer.getChunksSent(), transfer.getChunks(), transfer.getId(), sent, elapsed,
+                sent * 1000.0 / elapsed / (1024 * 1024)));
+        if (complete) {
+            result.setResponseCodeOK();
+        } else {
+            result.setResponseCode("FAILED");
+        }
+        return result;
+    }
+
+    /**
+     * Waits until the throughput search paces the next publish. Until the search has started, the publishers wait.
+     *
+     * @return The result ending the thread if it was stopped while waiting, or null once the next publish is due.
+     */
+    private SampleResult awaitSearch() {
+        if (search == null) {
+            search = ThroughputSearch.get(getSearchName());
+        }
+        try {
+            while (!search.acquire(POLL_INTERVAL_NANOS)) {
+                if (interrupted) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!interrupted && !Thread.currentThread().isInterrupted()) {
+            return null;
+        }
+        return stopResult(false, "Interrupted while waiting for the throughput search " + getSearchName());
+    }
+
+    /**
+     * Waits until the target rate of the element paces the next publish. The rate is shared by the threads of the
+     * element and may be changed through {@link RuntimeControl} while they run.
+     *
+     * @return The result ending the thread if it was interrupted while waiting, or null once the next publish is due.
+     */
+    private SampleResult awaitPacer() {
+        if (pacer == null) {
+            pacer = RuntimeControl.getPublishPacer(getRuntimeKey(), getPublishRate());
+        }
+        try {
+            pacer.acquire();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return stopResult(false, "Interrupted while waiting for the target rate of " + getName());
+    }
+
+    /**
+     * @param successful whether the thread ends normally
+     * @param message    the reason the thread ends
+     * @return An empty result stopping the thread.
+     */
+    private SampleResult stopResult(boolean successful, String message) {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getNameLabel() + "::" + getClientId());
+        result.sampleStart();
+        result.sampleEnd();
+        result.setSuccessful(successful);
+        result.setResponseCode(successful ? "END" : "FAILED");
+        result.setResponseMessage(message);
+        result.setStopThread(true);
+        return result;
+    }
+
+    /**
+     * Publishes a single message, or a chunked transfer.
+     *
+     * @return The publish result.
+     */
+    private SampleResult publish() {
+        // A replayed message is published once it is due, the wait is not part of the sample
+        long lagNanos = 0;
+        if (client != null && replay != null) {
+            SampleResult endResult = awaitReplay();
+            if (endResult != null) {
+                return endResult;
+            }
+            lagNanos = System.nanoTime() - replay.getDueNanos();
+        } else if (client != null && StringUtils.isNotBlank(getSearchName())) {
+            // The throughput search paces the publishes, the wait is not part of the sample either
+            SampleResult stopResult = awaitSearch();
+            if (stopResult != null) {
+                return stopResult;
+            }
+        } else if (client != null) {
+            // So does the target rate
+            SampleResult stopResult = awaitPacer();
+            if (stopResult != null) {
+                return stopResult;
+            }
+        }
+        SampleResult result = new SampleResult();
+        result.sampleStart();
         result.setSampleLabel(getNameLabel() + "::" + getClientId());
+        if (client == null) {
+            result.sampleEnd();
+            result.setSuccessful(false);
+            result.setResponseMessage("Unknown client type: " + getClientType());
+            result.setResponseCode("FAILED");
+            return result;
+        }
+
+        // A replayed message or a traffic mix entry replaces the topic, quality, retained flag and message
+        TrafficMix.Entry entry = null;
+        String topic = topicName;
+        if (replay != null) {
+            topic = replay.getTopic();
+        } else if (trafficMix != null) {
+            int index = trafficMix.next();
+            entry = trafficMix.getEntries()[index];
+            topic = trafficMixTopics[index] != null ? trafficMixTopics[index].next() : entry.getTopic();
+            result.setSampleLabel(getNameLabel() + "::" + entry.getName());
+        } else if (topicSelector != null) {
+            topic = topicSelector.next();
+        }
 
         try {
             // Quality
             int qos;
-            if (Constants.MQTT_AT_MOST_ONCE.equals(getQOS())) {
+            if (replay != null) {
+                qos = replay.getQos();
+            } else if (entry != null) {
+                qos = entry.getQos();
+            } else if (Constants.MQTT_AT_MOST_ONCE.equals(getQOS())) {
                 qos = 0;
             } else if (Constants.MQTT_AT_LEAST_ONCE.equals(getQOS())) {
                 qos = 1;
@@ -288,41 +1093,76 @@ public class PublisherSampler extends AbstractSampler implements TestStateListen
                 qos = 0;
             }
 
-            byte[] publishMessage = null;
-            if (Constants.MQTT_MESSAGE_INPUT_TYPE_TEXT.equals(messageInputType)) {
-                publishMessage = getMessageValue().getBytes();
+            // The message is published from a buffer, so that a replayed message or a mapped file is not copied
+            ByteBuffer publishMessage = null;
+            if (replay != null) {
+                publishMessage = replay.getPayload();
+            } else if (entry != null) {
+                publishMessage = ByteBuffer.wrap(entry.getPayload());
+            } else if (chunkSize > 0 && transferSize > 0) {
+                publishMessage = getChunkBlock();
+            } else if (Constants.MQTT_MESSAGE_INPUT_TYPE_TEXT.equals(messageInputType)) {
+                publishMessage = getTextPayload();
             } else if (Constants.MQTT_MESSAGE_INPUT_TYPE_FILE.equals(messageInputType)) {
-                String filename = getMessageValue();
-                if (log.isDebugEnabled()) log.debug(getClientId() + " reading file: " + filename);
-                publishMessage = FileUtils.readFileToByteArray(new File(filename));
+                publishMessage = getFilePayload(getMessageValue());
+            } else if (Constants.MQTT_MESSAGE_INPUT_TYPE_GENERATED.equals(messageInputType)) {
+                publishMessage = payloadPool.get(payloadIndex++);
+            } else if (Constants.MQTT_MESSAGE_INPUT_TYPE_SCHEMA.equals(messageInputType)) {
+                publishMessage = schemaEncoder.encode();
             } else if (Constants.MQTT_MESSAGE_INPUT_TYPE_VAR.equals(messageInputType)) {
                 String varName = getMessageValue();
                 if (log.isDebugEnabled()) log.debug(getClientId() + " using variable: " + varName);
-                byte[] varValue = (byte[]) getThreadContext().getVariables().getObject(varName);
-                if (varValue != null && varValue.length > 0) {
-                    publishMessage = varValue;
+                Object varValue = getThreadContext().getVariables().getObject(varName);
+                if (varValue instanceof ByteBuffer && ((ByteBuffer) varValue).hasRemaining()) {
+                    publishMessage = ((ByteBuffer) varValue).duplicate();
+                } else if (varValue instanceof byte[] && ((byte[]) varValue).length > 0) {
+                    publishMessage = ByteBuffer.wrap((byte[]) varValue);
                 }
                 else {
+                    result.sampleEnd();
                     result.setSuccessful(true);
                     result.setResponseCode("SKIP");
                 }
             } else {
-                publishMessage = new byte[0];
+                publishMessage = ByteBuffer.allocate(0);
+            }
+
+            if (publishMessage != null && chunkSize > 0 && replay == null && entry == null) {
+                ChunkedTransfer transfer = transferSize > 0 ? ChunkedTransfer.generate(transferSize, publishMessage) :
+                                           ChunkedTransfer.of(publishMessage, chunkSize);
+                return publishTransfer(result, topic, qos, transfer);
             }
 
             if (publishMessage != null) {
-                long durationNanos = client.publish(topicName, qos, publishMessage, retained, timeout);
+                boolean isRetained = replay != null ? replay.isRetained() : entry != null ? entry.isRetained() : retained;
+                long durationNanos = client.publish(topic, qos, publishMessage, isRetained, timeout);
+                if (search != null) {
+                    search.published(durationNanos);
+                }
                 result.setSuccessful(true);
                 result.setLatency(durationNanos / 1000000);
-                result.setBytes(publishMessage.length);
-                result.setBodySize(publishMessage.length);
+                // Report the bytes on the wire when the client knows the size of the packet
+                int packetSize = client.getLastPublishSize();
+                int bodySize = publishMessage.remaining();
+                result.setBytes(packetSize >= 0 ? packetSize : bodySize);
+                result.setBodySize(bodySize);
+                if (packetSize >= 0) {
+                    result.setHeadersSize(packetSize - bodySize);
+                }
                 result.sampleEnd(); // stop stopwatch
-                result.setResponseMessage("Sent " + publishedMessageCount.incrementAndGet() + " messages total");
+                result.setResponseMessage("Sent " + publishedMessageCount.incrementAndGet() + " messages total" +
+                        (packetSize >= 0 ? ", " + packetSize + " bytes on wire" : ""));
                 result.setResponseCode("OK");
+                if (replay != null) {
+                    result.addSubResult(createLagResult(lagNanos));
+                }
             }
             return result;
         } catch (MqttException | IOException e) {
             result.sampleEnd(); // stop stopwatch
+            if (search != null) {
+                search.failed();
+            }
             result.setSuccessful(false);
             // get stack trace as a String to return as document data
             java.io.StringWriter stringWriter = new java.io.StringWriter();
@@ -0,0 +1,573 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.sampler;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.protocol.mqtt.client.ClientPool;
+import org.apache.jmeter.protocol.mqtt.client.ClientResources;
+import org.apache.jmeter.protocol.mqtt.client.ConnectionStats;
+import org.apache.jmeter.protocol.mqtt.client.CorrelationMap;
+import org.apache.jmeter.protocol.mqtt.client.SharedClientPool;
+import org.apache.jmeter.protocol.mqtt.data.objects.Message;
+import org.apache.jmeter.protocol.mqtt.jmx.RuntimeControl;
+import org.apache.jmeter.protocol.mqtt.nio.clients.Mqtt5Client;
+import org.apache.jmeter.protocol.mqtt.nio.clients.NioClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.AsyncClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BlockingClient;
+import org.apache.jmeter.protocol.mqtt.utilities.Constants;
+import org.apache.jmeter.protocol.mqtt.utilities.Utils;
+import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.Interruptible;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jmeter.testelement.ThreadListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the MQTT Request Response sampler class. It publishes requests and waits for their responses on a single
+ * client, subscribed to the response topic. Requests and responses are matched by a correlation id, replacing
+ * {@link CorrelationMap#PLACEHOLDER} in the request topic and message, which the responder must send back in the
+ * response topic or message.
+ * <p/>
+ * A sample sends one or more requests at once and reports the round trip of each. The client can be shared by the
+ * threads of the element, so that many requests are outstanding on one connection.
+ * <p/>
+ * A lost connection is restored by the client itself, with the response subscription, when auto reconnect is
+ * enabled. Otherwise the next sample connects again, as the publisher does.
+ */
+public class RequestResponseSampler extends AbstractSampler implements Interruptible, ThreadListener, TestStateListener {
+
+    private transient BaseClient client;
+    private transient CorrelationMap correlationMap;
+    private transient String sharedClientKey;
+    private transient MqttException exceptionOccurred = null;
+    private transient boolean valid = false;
+    private transient volatile boolean interrupted = false;
+
+    private static final long serialVersionUID = 240L;
+    private static final String lineSeparator = System.getProperty("line.separator");
+    private static final String nameLabel = "MQTT Request Response";
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    // Upper bound of a single wait so that an interrupt is noticed
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final String BROKER_URL = "mqtt.broker.url";
+    private static final String CLIENT_ID = "mqtt.client.id";
+    private static final String REQUEST_TOPIC = "mqtt.rpc.request.topic";
+    private static final String RESPONSE_TOPIC = "mqtt.rpc.response.topic";
+    private static final String CLEAN_SESSION = "mqtt.clean.session";
+    private static final String KEEP_ALIVE = "mqtt.keep.alive";
+    private static final String USERNAME = "mqtt.auth.username";
+    private static final String PASSWORD = "mqtt.auth.password";
+    private static final String QOS = "mqtt.qos";
+    private static final String CLIENT_TYPE = "mqtt.client.type";
+    private static final String MESSAGE_VALUE = "mqtt.message.input.value";
+    private static final String SHARED_CONNECTION = "mqtt.shared.connection";
+    private static final String RESPONSE_TIMEOUT = "mqtt.rpc.response.timeout";
+    private static final String REQUESTS = "mqtt.rpc.requests";
+    private static final String AUTO_RECONNECT = "mqtt.reconnect.enabled";
+    private static final String RECONNECT_INITIAL_DELAY = "mqtt.reconnect.initial.delay";
+    private static final String RECONNECT_MAX_DELAY = "mqtt.reconnect.max.delay";
+
+    // Getters
+    public String getBrokerUrl() {
+        return getPropertyAsString(BROKER_URL);
+    }
+
+    public String getClientId() {
+        return getPropertyAsString(CLIENT_ID);
+    }
+
+    public String getRequestTopic() {
+        return getPropertyAsString(REQUEST_TOPIC);
+    }
+
+    public String getResponseTopic() {
+        return getPropertyAsString(RESPONSE_TOPIC);
+    }
+
+    public boolean isCleanSession() {
+        return getPropertyAsBoolean(CLEAN_SESSION);
+    }
+
+    public int getKeepAlive() {
+        return getPropertyAsInt(KEEP_ALIVE);
+    }
+
+    public String getUsername() {
+        return getPropertyAsString(USERNAME);
+    }
+
+    public String getPassword() {
+        return getPropertyAsString(PASSWORD);
+    }
+
+    public String getQOS() {
+        return getPropertyAsString(QOS);
+    }
+
+    public String getClientType() {
+        return getPropertyAsString(CLIENT_TYPE);
+    }
+
+    public String getMessageValue() {
+        return getPropertyAsString(MESSAGE_VALUE);
+    }
+
+    public boolean isSharedConnection() {
+        return getPropertyAsBoolean(SHARED_CONNECTION);
+    }
+
+    public long getResponseTimeout() {
+        return getPropertyAsLong(RESPONSE_TIMEOUT);
+    }
+
+    public int getRequests() {
+        return getPropertyAsInt(REQUESTS);
+    }
+
+    public boolean isAutoReconnect() {
+        return getPropertyAsBoolean(AUTO_RECONNECT);
+    }
+
+    public int getReconnectInitialDelay() {
+        return getPropertyAsInt(RECONNECT_INITIAL_DELAY);
+    }
+
+    public int getReconnectMaxDelay() {
+        return getPropertyAsInt(RECONNECT_MAX_DELAY);
+    }
+
+    public String getNameLabel() {
+        return nameLabel;
+    }
+
+    // Setters
+    public void setBrokerUrl(String brokerURL) {
+        setProperty(BROKER_URL, brokerURL.trim());
+    }
+
+    public void setClientId(String clientID) {
+        setProperty(CLIENT_ID, clientID.trim());
+    }
+
+    public void setRequestTopic(String requestTopic) {
+        setProperty(REQUEST_TOPIC, requestTopic.trim());
+    }
+
+    public void setResponseTopic(String responseTopic) {
+        setProperty(RESPONSE_TOPIC, responseTopic.trim());
+    }
+
+    public void setCleanSession(boolean isCleanSession) {
+        setProperty(CLEAN_SESSION, isCleanSession);
+    }
+
+    public void setKeepAlive(String keepAlive) {
+        setProperty(KEEP_ALIVE, keepAlive);
+    }
+
+    public void setUsername(String username) {
+        setProperty(USERNAME, username.trim());
+    }
+
+    public void setPassword(String password) {
+        setProperty(PASSWORD, password.trim());
+    }
+
+    public void setQOS(String qos) {
+        setProperty(QOS, qos.trim());
+    }
+
+    public void setClientType(String clientType) {
+        setProperty(CLIENT_TYPE, clientType.trim());
+    }
+
+    public void setMessageValue(String messageValue) {
+        setProperty(MESSAGE_VALUE, messageValue);
+    }
+
+    public void setSharedConnection(boolean isSharedConnection) {
+        setProperty(SHARED_CONNECTION, isSharedConnection);
+    }
+
+    public void setResponseTimeout(String responseTimeout) {
+        setProperty(RESPONSE_TIMEOUT, responseTimeout);
+    }
+
+    public void setRequests(String requests) {
+        setProperty(REQUESTS, requests);
+    }
+
+    public void setAutoReconnect(boolean isAutoReconnect) {
+        setProperty(AUTO_RECONNECT, isAutoReconnect);
+    }
+
+    public void setReconnectInitialDelay(String reconnectInitialDelay) {
+        setProperty(RECONNECT_INITIAL_DELAY, reconnectInitialDelay);
+    }
+
+    public void setReconnectMaxDelay(String reconnectMaxDelay) {
+        setProperty(RECONNECT_MAX_DELAY, reconnectMaxDelay);
+    }
+
+    public RequestResponseSampler() {
+        super();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean interrupt() {
+        boolean oldValue = interrupted;
+        interrupted = true;
+        return !oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted() {
+        ConnectionStats.reset();
+        ClientResources.testStarted();
+        RuntimeControl.testStarted();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(String arg0) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded() {
+        try {
+            SharedClientPool.clearClient();
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage(), e);
+        }
+        RuntimeControl.testEnded();
+        log.info("Connection summary: " + ConnectionStats.summary());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded(String arg0) {
+        testEnded();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void threadStarted() {
+        interrupted = false;
+        valid = validate();
+        if (client == null) {
+            if (valid) {
+                initClient();
+            } else {
+                exceptionOccurred = new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION,
+                        new IllegalArgumentException("The broker url, request topic and response topic must be set"));
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void threadFinished() {
+        releaseClient();
+    }
+
+    /**
+     * Closes the client of the thread, or releases it if it is shared.
+     */
+    private void releaseClient() {
+        try {
+            if (null != sharedClientKey) {
+                // Other threads may still be waiting for responses on the shared connection
+                String key = sharedClientKey;
+                sharedClientKey = null;
+                SharedClientPool.release(key);
+            } else if (null != client) {
+                ClientPool.removeClient(client);
+                client.close();
+            }
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage(), e);
+        }
+        client = null;
+        correlationMap = null;
+    }
+
+    /**
+     * Creates the client, subscribed to the response topic with a correlation map receiving its messages.
+     */
+    private void initClient() {
+        exceptionOccurred = null;
+        try {
+            if (isSharedConnection()) {
+                String key = getName() + "|" + getBrokerUrl() + "|" + getClientId() + "|" + getResponseTopic();
+                client = SharedClientPool.acquire(key, new SharedClientPool.ClientFactory() {
+                    @Override
+                    public BaseClient create() throws MqttException {
+                        return createSubscribedClient();
+                    }
+                });
+                sharedClientKey = key;
+            } else {
+                client = createSubscribedClient();
+                ClientPool.addClient(client);
+            }
+            correlationMap = (CorrelationMap) client.getMessageListener();
+        } catch (MqttException e) {
+            exceptionOccurred = e;
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    private BaseClient createSubscribedClient() throws MqttException {
+        String brokerURL = getBrokerUrl();
+        String clientId = getClientId();
+        boolean isCleanSession = isCleanSession();
+        int keepAlive = getKeepAlive();
+        String userName = getUsername();
+        String password = getPassword();
+        String clientType = getClientType();
+
+        // Generating client ID if empty
+        if (StringUtils.isEmpty(clientId)) {
+            clientId = Utils.UUIDGenerator();
+        }
+
+        BaseClient newClient;
+        if (Constants.MQTT_BLOCKING_CLIENT.equals(clientType)) {
+            newClient = new BlockingClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else if (Constants.MQTT_ASYNC_CLIENT.equals(clientType)) {
+            newClient = new AsyncClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else if (Constants.MQTT_NIO_CLIENT.equals(clientType)) {
+            newClient = new NioClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else if (Constants.MQTT_5_CLIENT.equals(clientType)) {
+            newClient = new Mqtt5Client(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+        } else {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION,
+                    new IllegalArgumentException("Unknown client type " + clientType));
+        }
+        if (isAutoReconnect()) {
+            newClient.setAutoReconnect(getReconnectInitialDelay(), getReconnectMaxDelay());
+        }
+        // Set before subscribing so that no response goes to the message queue
+        newClient.setMessageListener(new CorrelationMap());
+        try {
+            newClient.subscribe(getResponseTopic(), getQosValue(), getResponseTimeout());
+        } catch (MqttException e) {
+            try {
+                newClient.close();
+            } catch (IOException closeException) {
+                log.warn(clientId + " unable to close: " + closeException.toString());
+            }
+            throw e;
+        }
+        return newClient;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SampleResult sample(Entry entry) {
+        // A client that reconnects by itself is kept, the requests fail until it has recovered
+        if (client != null && !client.isConnected() && !client.isAutoReconnect()) {
+            log.warn(client.getClientId() + " lost its connection, connecting again");
+            releaseClient();
+        }
+        if (client == null && valid) {
+            initClient();
+        }
+        SampleResult result = request();
+        Utils.addConnectResult(result, client);
+        Utils.addReconnectResults(result, client);
+        return result;
+    }
+
+    /**
+     * Sends the requests of a sample and waits for their responses.
+     *
+     * @return The result of the sample, with a sub result per request if there are several.
+     */
+    private SampleResult request() {
+        if (null != exceptionOccurred || null == client) {
+            SampleResult result = new SampleResult();
+            result.setSampleLabel(getNameLabel() + "::" + getClientId());
+            result.sampleStart();
+            String message = exceptionOccurred != null ? exceptionOccurred.toString() : "Client has been stopped.";
+            result.setSuccessful(false);
+            result.setResponseMessage("Client is not connected." + lineSeparator + message);
+            result.setResponseData(message.getBytes());
+            result.sampleEnd();
+            result.setResponseCode("FAILED");
+            return result;
+        }
+
+        int count = Math.max(1, getRequests());
+        int qos = getQosValue();
+        String requestTopic = getRequestTopic();
+        String messageValue = getMessageValue();
+        CorrelationMap.Request[] requests = new CorrelationMap.Request[count];
+        MqttException[] failures = new MqttException[count];
+        // All the requests are sent before waiting, so that they are outstanding together
+        for (int i = 0; i < count; i++) {
+            CorrelationMap.Request request = correlationMap.register();
+            requests[i] = request;
+            try {
+                client.publish(requestTopic.replace(CorrelationMap.PLACEHOLDER, request.getId()), qos,
+                        messageValue.replace(CorrelationMap.PLACEHOLDER, request.getId())
+                                    .getBytes(StandardCharsets.UTF_8), false, getResponseTimeout());
+            } catch (MqttException e) {
+                correlationMap.cancel(request);
+                failures[i] = e;
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(1, getResponseTimeout()));
+        SampleResult[] results = new SampleResult[count];
+        for (int i = 0; i < count; i++) {
+            if (failures[i] == null) {
+                awaitResponse(requests[i], deadline);
+            }
+            results[i] = createRequestResult(requests[i], failures[i]);
+        }
+        if (count == 1) {
+            return results[0];
+        }
+
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getNameLabel() + "::" + getClientId());
+        Utils.setStartAndElapsed(result, requests[0].getStartTimestamp(),
+                System.currentTimeMillis() - requests[0].getStartTimestamp());
+        int answered = 0;
+        for (SampleResult requestResult : results) {
+            result.addSubResult(requestResult);
+            if (requestResult.isSuccessful()) {
+                answered++;
+            }
+        }
+        result.setSuccessful(answered == count);
+        result.setResponseMessage(answered + " of " + count + " requests answered, " +
+                                  correlationMap.getOutstanding() + " outstanding on the connection, " +
+                                  correlationMap.getUnmatched() + " unmatched responses");
+        if (answered == count) {
+            result.setResponseCodeOK();
+        } else {
+            result.setResponseCode("FAILED");
+        }
+        return result;
+    }
+
+    private void awaitResponse(CorrelationMap.Request request, long deadline) {
+        try {
+            long remaining = deadline - System.nanoTime();
+            while (!interrupted && remaining > 0 && !request.await(Math.min(remaining, POLL_INTERVAL_NANOS))) {
+                remaining = deadline - System.nanoTime();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (request.getResponse() == null) {
+            correlationMap.cancel(request);
+        }
+    }
+
+    /**
+     * Creates the result of a request, timed from its publish to its response.
+     *
+     * @param request the request
+     * @param failure the publish failure, or null if the request was published
+     * @return The result of the request.
+     */
+    private SampleResult createRequestResult(CorrelationMap.Request request, MqttException failure) {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getNameLabel() + "::" + getClientId());
+        long roundTrip = TimeUnit.NANOSECONDS.toMillis(request.getRoundTripNanos());
+        Utils.setStartAndElapsed(result, request.getStartTimestamp(), roundTrip);
+        Message response = request.getResponse();
+        if (response != null) {
+            result.setLatency(roundTrip);
+            result.setSuccessful(true);
+            result.setBytes(response.getPayload().length);
+            result.setResponseData(response.getPayload());
+            result.setResponseMessage("Response to " + request.getId() + " on " + response.getTopic() + " after " +
+                                      TimeUnit.NANOSECONDS.toMicros(request.getRoundTripNanos()) + " us");
+            result.setResponseCodeOK();
+        } else if (failure != null) {
+            result.setSuccessful(false);
+            result.setResponseMessage("Unable to publish request " + request.getId() + lineSeparator +
+                                      "Exception: " + failure.toString());
+            result.setResponseCode("FAILED");
+        } else {
+            result.setSuccessful(false);
+            result.setResponseMessage("No response to " + request.getId() + " within " + getResponseTimeout() +
+                                      " ms");
+            result.setResponseCode("TIMEOUT");
+        }
+        return result;
+    }
+
+    private int getQosValue() {
+        if (Constants.MQTT_AT_LEAST_ONCE.equals(getQOS())) {
+            return 1;
+        } else if (Constants.MQTT_EXACTLY_ONCE.equals(getQOS())) {
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Validates parameters
+     *
+     * @return true if valid parameters, else false
+     */
+    private boolean validate() {
+        if (StringUtils.isBlank(getBrokerUrl())) {
+            log.error("The broker url cannot be empty");
+            return false;
+        }
+        if (StringUtils.isBlank(getRequestTopic()) || StringUtils.isBlank(getResponseTopic())) {
+            log.error("The request and response topics cannot be empty");
+            return false;
+        }
+        return true;
+    }
+}
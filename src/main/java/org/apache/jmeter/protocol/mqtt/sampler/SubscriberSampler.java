@@ -17,11 +17,23 @@
 package org.apache.jmeter.protocol.mqtt.sampler;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.protocol.mqtt.chunk.ChunkAssembler;
+import org.apache.jmeter.protocol.mqtt.client.CaptureWriter;
 import org.apache.jmeter.protocol.mqtt.client.ClientPool;
+import org.apache.jmeter.protocol.mqtt.client.ClientResources;
+import org.apache.jmeter.protocol.mqtt.client.ConnectionStats;
+import org.apache.jmeter.protocol.mqtt.client.MessageFilter;
+import org.apache.jmeter.protocol.mqtt.client.SharedClientPool;
+import org.apache.jmeter.protocol.mqtt.client.SubscriptionBarrier;
 import org.apache.jmeter.protocol.mqtt.data.objects.Message;
+import org.apache.jmeter.protocol.mqtt.extract.JsonExtractor;
+import org.apache.jmeter.protocol.mqtt.jmx.RuntimeControl;
+import org.apache.jmeter.protocol.mqtt.nio.clients.Mqtt5Client;
+import org.apache.jmeter.protocol.mqtt.nio.clients.NioClient;
 import org.apache.jmeter.protocol.mqtt.paho.clients.AsyncClient;
 import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
 import org.apache.jmeter.protocol.mqtt.paho.clients.BlockingClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.MessageListener;
 import org.apache.jmeter.protocol.mqtt.utilities.Constants;
 import org.apache.jmeter.protocol.mqtt.utilities.Utils;
 import org.apache.jmeter.samplers.AbstractSampler;
@@ -34,8 +46,10 @@ import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
 import org.eclipse.paho.client.mqttv3.MqttException;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is MQTT Subscriber sample class. The implementation includes subscriber for MQTT messages with the sample
@@ -44,6 +58,9 @@ import java.util.Date;
 public class SubscriberSampler extends AbstractSampler implements Interruptible, ThreadListener, TestStateListener {
 
     private transient BaseClient client;
+    private transient String sharedClientKey;
+    private transient JsonExtractor jsonExtractor;
+    private transient JsonExtractor.Match jsonMatch;
     private long timeout;
     private static final long serialVersionUID = 240L;
     private static final String lineSeparator = System.getProperty("line.separator");
@@ -63,6 +80,30 @@ public class SubscriberSampler extends AbstractSampler implements Interruptible,
     private static final String PASSWORD = "mqtt.auth.password";
     private static final String QOS = "mqtt.qos";
     private static final String CLIENT_TYPE = "mqtt.client.type";
+    private static final String SHARED_CONNECTION = "mqtt.shared.connection";
+    private static final String BARRIER_NAME = "mqtt.barrier.name";
+    private static final String BARRIER_DISTRIBUTED = "mqtt.barrier.distributed";
+    private static final String AUTO_RECONNECT = "mqtt.reconnect.enabled";
+    private static final String RECONNECT_INITIAL_DELAY = "mqtt.reconnect.initial.delay";
+    private static final String RECONNECT_MAX_DELAY = "mqtt.reconnect.max.delay";
+    private static final String CAPTURE_DIRECTORY = "mqtt.capture.directory";
+    private static final String CAPTURE_SEGMENT_SIZE = "mqtt.capture.segment.size";
+    private static final String CHUNK_REASSEMBLE = "mqtt.chunk.reassemble";
+    private static final String CHUNK_DIRECTORY = "mqtt.chunk.directory";
+    private static final String CHUNK_EXPIRY = "mqtt.chunk.expiry";
+    private static final String CHUNK_MAX_SIZE = "mqtt.chunk.max.size";
+    private static final String JSON_FIELDS = "mqtt.json.fields";
+    private static final String JSON_FAIL_SAMPLE = "mqtt.json.fail.sample";
+    private static final String FILTER_EXPRESSION = "mqtt.filter.expression";
+
+    // Upper bound of a single wait on the message queue so that interrupts are noticed
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    // In megabytes, for test plans saved before the segment size could be set
+    private static final int DEFAULT_CAPTURE_SEGMENT_SIZE = 64;
+    // In seconds, for test plans saved before the transfer expiry could be set
+    private static final int DEFAULT_CHUNK_EXPIRY = 60;
+    // In megabytes, for test plans saved before the maximum transfer size could be set
+    private static final int DEFAULT_CHUNK_MAX_SIZE = 1024;
 
     // Getters
     public String getBrokerUrl() {
@@ -105,6 +146,66 @@ public class SubscriberSampler extends AbstractSampler implements Interruptible,
         return getPropertyAsString(CLIENT_TYPE);
     }
 
+    public boolean isSharedConnection() {
+        return getPropertyAsBoolean(SHARED_CONNECTION);
+    }
+
+    public String getBarrierName() {
+        return getPropertyAsString(BARRIER_NAME);
+    }
+
+    public boolean isBarrierDistributed() {
+        return getPropertyAsBoolean(BARRIER_DISTRIBUTED);
+    }
+
+    public boolean isAutoReconnect() {
+        return getPropertyAsBoolean(AUTO_RECONNECT);
+    }
+
+    public int getReconnectInitialDelay() {
+        return getPropertyAsInt(RECONNECT_INITIAL_DELAY);
+    }
+
+    public int getReconnectMaxDelay() {
+        return getPropertyAsInt(RECONNECT_MAX_DELAY);
+    }
+
+    public String getCaptureDirectory() {
+        return getPropertyAsString(CAPTURE_DIRECTORY);
+    }
+
+    public int getCaptureSegmentSize() {
+        return getPropertyAsInt(CAPTURE_SEGMENT_SIZE);
+    }
+
+    public boolean isChunkReassemble() {
+        return getPropertyAsBoolean(CHUNK_REASSEMBLE);
+    }
+
+    public String getChunkDirectory() {
+        return getPropertyAsString(CHUNK_DIRECTORY);
+    }
+
+    public int getChunkExpiry() {
+        return getPropertyAsInt(CHUNK_EXPIRY);
+    }
+
+    public int getChunkMaxSize() {
+        return getPropertyAsInt(CHUNK_MAX_SIZE);
+    }
+
+    public String getJsonFields() {
+        return getPropertyAsString(JSON_FIELDS);
+    }
+
+    public boolean isJsonFailSample() {
+        return getPropertyAsBoolean(JSON_FAIL_SAMPLE);
+    }
+
+    public String getFilterExpression() {
+        return getPropertyAsString(FILTER_EXPRESSION);
+    }
+
     private String getNameLabel() {
         return nameLabel;
     }
@@ -148,6 +249,66 @@ public class SubscriberSampler extends AbstractSampler implements Interruptible,
         setProperty(SUBSCRIBE_TIMEOUT, subscribeTimeout);
     }
 
+    public void setSharedConnection(boolean isSharedConnection) {
+        setProperty(SHARED_CONNECTION, isSharedConnection);
+    }
+
+    public void setBarrierName(String barrierName) {
+        setProperty(BARRIER_NAME, barrierName.trim());
+    }
+
+    public void setBarrierDistributed(boolean isBarrierDistributed) {
+        setProperty(BARRIER_DISTRIBUTED, isBarrierDistributed);
+    }
+
+    public void setAutoReconnect(boolean isAutoReconnect) {
+        setProperty(AUTO_RECONNECT, isAutoReconnect);
+    }
+
+    public void setReconnectInitialDelay(String reconnectInitialDelay) {
+        setProperty(RECONNECT_INITIAL_DELAY, reconnectInitialDelay);
+    }
+
+    public void setReconnectMaxDelay(String reconnectMaxDelay) {
+        setProperty(RECONNECT_MAX_DELAY, reconnectMaxDelay);
+    }
+
+    public void setCaptureDirectory(String captureDirectory) {
+        setProperty(CAPTURE_DIRECTORY, captureDirectory.trim());
+    }
+
+    public void setCaptureSegmentSize(String captureSegmentSize) {
+        setProperty(CAPTURE_SEGMENT_SIZE, captureSegmentSize);
+    }
+
+    public void setChunkReassemble(boolean isChunkReassemble) {
+        setProperty(CHUNK_REASSEMBLE, isChunkReassemble);
+    }
+
+    public void setChunkDirectory(String chunkDirectory) {
+        setProperty(CHUNK_DIRECTORY, chunkDirectory.trim());
+    }
+
+    public void setChunkExpiry(String chunkExpiry) {
+        setProperty(CHUNK_EXPIRY, chunkExpiry);
+    }
+
+    public void setChunkMaxSize(String chunkMaxSize) {
+        setProperty(CHUNK_MAX_SIZE, chunkMaxSize);
+    }
+
+    public void setJsonFields(String jsonFields) {
+        setProperty(JSON_FIELDS, jsonFields);
+    }
+
+    public void setJsonFailSample(boolean isJsonFailSample) {
+        setProperty(JSON_FAIL_SAMPLE, isJsonFailSample);
+    }
+
+    public void setFilterExpression(String filterExpression) {
+        setProperty(FILTER_EXPRESSION, filterExpression);
+    }
+
     public SubscriberSampler() {
         super();
     }
@@ -179,10 +340,31 @@ public class SubscriberSampler extends AbstractSampler implements Interruptible,
         log.debug("Thread ended " + new Date());
         try {
             ClientPool.clearClient();
+            SharedClientPool.clearClient();
+            SubscriptionBarrier.clear();
         } catch (IOException e) {
             e.printStackTrace();
             log.error(e.getLocalizedMessage(), e);
         }
+        RuntimeControl.testEnded();
+        log.info("Connection summary: " + ConnectionStats.summary());
+        if (StringUtils.isNotBlank(getFilterExpression())) {
+            try {
+                MessageFilter filter = MessageFilter.get(getName(), getFilterExpression());
+                log.info("Message filter of " + getName() + " accepted " + filter.getAccepted() + " and rejected " +
+                         filter.getRejected() + " messages");
+            } catch (IOException e) {
+                // Already reported when the threads started
+            }
+        }
+        if (StringUtils.isNotBlank(getJsonFields())) {
+            try {
+                log.info("JSON fields of " + getName() + ": " +
+                         JsonExtractor.get(getName(), getJsonFields()).summary());
+            } catch (IOException e) {
+                // Already reported when the threads started
+            }
+        }
     }
 
     /**
@@ -198,6 +380,12 @@ public class SubscriberSampler extends AbstractSampler implements Interruptible,
      */
     @Override
     public void testStarted() {
+        SubscriptionBarrier.clear();
+        ConnectionStats.reset();
+        ClientResources.testStarted();
+        RuntimeControl.testStarted();
+        JsonExtractor.clear();
+        MessageFilter.clear();
     }
 
     /**
@@ -233,30 +421,45 @@ public class SubscriberSampler extends AbstractSampler implements Interruptible,
     public void threadFinished() {
         log.debug("Thread ended " + new Date());
         try {
-            ClientPool.clearClient();
+            if (null != sharedClientKey) {
+                releaseSharedClient();
+            } else {
+                ClientPool.clearClient();
+            }
         } catch (IOException e) {
             e.printStackTrace();
             log.error(e.getLocalizedMessage(), e);
         }
     }
 
+    /**
+     * Releases the shared client of the thread.
+     *
+     * @throws IOException if the client was the last user and could not be closed
+     */
+    private void releaseSharedClient() throws IOException {
+        // Other threads may still be draining the shared connection
+        String key = sharedClientKey;
+        sharedClientKey = null;
+        client = null;
+        SharedClientPool.release(key);
+    }
+
     /**
      * Initializes the MQTT client for subscriber.
      */
     private void initClient() {
-        String brokerURL = getBrokerUrl();
-        String clientId = getClientId();
-        String topicName = getTopicName();
-        boolean isCleanSession = isCleanSession();
-        int keepAlive = getKeepAlive();
-        String userName = getUsername();
-        String password = getPassword();
-        String clientType = getClientType();
+        initClient(true);
+    }
 
-        // Generating client ID if empty
-        if (StringUtils.isEmpty(clientId)) {
-            clientId = Utils.UUIDGenerator();
-        }
+    /**
+     * Initializes the MQTT client for subscriber.
+     *
+     * @param signal whether a subscription of a new client is reported to the readiness barrier, which is not the
+     *               case for a shared client replacing a lost one
+     */
+    private void initClient(final boolean signal) {
+        final String topicName = getTopicName();
 
         timeout = getSubscribeTimeout();
         if (timeout > 0) {
@@ -264,7 +467,7 @@ public class SubscriberSampler extends AbstractSampler implements Interruptible,
         }
 
         // Quality
-        int qos;
+        final int qos;
         if (Constants.MQTT_AT_MOST_ONCE.equals(getQOS())) {
             qos = 0;
         } else if (Constants.MQTT_AT_LEAST_ONCE.equals(getQOS())) {
@@ -278,29 +481,195 @@ public class SubscriberSampler extends AbstractSampler implements Interruptible,
         exceptionOccurred = null;
 
         try {
-            if (Constants.MQTT_BLOCKING_CLIENT.equals(clientType)) {
-                client = new BlockingClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
-            } else if (Constants.MQTT_ASYNC_CLIENT.equals(clientType)) {
-                client = new AsyncClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+            if (StringUtils.isNotBlank(getJsonFields())) {
+                initJsonExtractor();
             }
-
-            if (client != null) {
-                client.subscribe(topicName, qos, timeout);
-                ClientPool.addClient(client);
+            if (isSharedConnection()) {
+                // All the threads of this element drain the queue of a single subscribed connection
+                String key = getName() + "|" + getBrokerUrl() + "|" + getClientId() + "|" + topicName + "|" + qos;
+                client = SharedClientPool.acquire(key, new SharedClientPool.ClientFactory() {
+                    @Override
+                    public BaseClient create() throws MqttException {
+                        BaseClient sharedClient = createClient();
+                        if (sharedClient != null) {
+                            sharedClient.subscribe(topicName, qos, timeout);
+                            if (signal) {
+                                signalBarrier(sharedClient);
+                            }
+                        }
+                        return sharedClient;
+                    }
+                });
+                sharedClientKey = key;
+            } else {
+                client = createClient();
+                if (client != null) {
+                    client.subscribe(topicName, qos, timeout);
+                    ClientPool.addClient(client);
+                    signalBarrier(client);
+                }
             }
-
-
         } catch (MqttException e) {
             exceptionOccurred = e;
             log.error(e.getMessage(), e);
         }
     }
 
+    /**
+     * Compiles the JSON fields to extract from the messages. The extractor is shared by the threads of the element.
+     *
+     * @throws MqttException if the fields are not valid
+     */
+    private void initJsonExtractor() throws MqttException {
+        try {
+            jsonExtractor = JsonExtractor.get(getName(), getJsonFields());
+        } catch (IOException e) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+        }
+        jsonMatch = jsonExtractor.createMatch();
+    }
+
+    /**
+     * Reports an acknowledged subscription to the readiness barrier, if one is configured.
+     *
+     * @param subscribedClient the client holding the subscription
+     * @throws MqttException if the subscription could not be announced on the broker
+     */
+    private void signalBarrier(BaseClient subscribedClient) throws MqttException {
+        if (StringUtils.isBlank(getBarrierName())) {
+            return;
+        }
+        SubscriptionBarrier barrier = SubscriptionBarrier.get(getBarrierName());
+        if (isBarrierDistributed()) {
+            barrier.announce(subscribedClient, timeout);
+        }
+        barrier.subscribed();
+    }
+
+    /**
+     * Creates a new MQTT client of the configured type.
+     *
+     * @return The client, or null if the client type is unknown.
+     * @throws MqttException if the client could not connect.
+     */
+    private BaseClient createClient() throws MqttException {
+        String brokerURL = getBrokerUrl();
+        String clientId = getClientId();
+        boolean isCleanSession = isCleanSession();
+        int keepAlive = getKeepAlive();
+        String userName = getUsername();
+        String password = getPassword();
+        String clientType = getClientType();
+
+        // Generating client ID if empty
+        if (StringUtils.isEmpty(clientId)) {
+            clientId = Utils.UUIDGenerator();
+        }
+
+        MessageFilter filter = null;
+        if (StringUtils.isNotBlank(getFilterExpression())) {
+            try {
+                filter = MessageFilter.get(getName(), getFilterExpression());
+            } catch (IOException e) {
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+            }
+        }
+
+        // The chunks are reassembled as they arrive instead of being queued
+        ChunkAssembler assembler = null;
+        if (isChunkReassemble()) {
+            try {
+                int expiry = getChunkExpiry() > 0 ? getChunkExpiry() : DEFAULT_CHUNK_EXPIRY;
+                long maxSize = (getChunkMaxSize() > 0 ? getChunkMaxSize() : DEFAULT_CHUNK_MAX_SIZE) * 1024L * 1024L;
+                assembler = new ChunkAssembler(StringUtils.isNotBlank(getChunkDirectory()) ?
+                        new File(getChunkDirectory()) : null, expiry * 1000L, maxSize);
+            } catch (IOException e) {
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+            }
+        }
+
+        CaptureWriter capture = null;
+        if (StringUtils.isNotBlank(getCaptureDirectory())) {
+            try {
+                long segmentSize = (getCaptureSegmentSize() > 0 ? getCaptureSegmentSize() :
+                                    DEFAULT_CAPTURE_SEGMENT_SIZE) * 1024L * 1024L;
+                // A segment is a single mapping, which is limited to 2 GB
+                if (segmentSize > Integer.MAX_VALUE) {
+                    throw new IOException("The capture segment size must be less than 2048 MB");
+                }
+                capture = new CaptureWriter(new File(getCaptureDirectory()), clientId, (int) segmentSize);
+            } catch (IOException e) {
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+            }
+        }
+
+        BaseClient newClient = null;
+        try {
+            if (Constants.MQTT_BLOCKING_CLIENT.equals(clientType)) {
+                newClient = new BlockingClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+            } else if (Constants.MQTT_ASYNC_CLIENT.equals(clientType)) {
+                newClient = new AsyncClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+            } else if (Constants.MQTT_NIO_CLIENT.equals(clientType)) {
+                newClient = new NioClient(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+            } else if (Constants.MQTT_5_CLIENT.equals(clientType)) {
+                newClient = new Mqtt5Client(brokerURL, clientId, isCleanSession, userName, password, keepAlive);
+            }
+        } finally {
+            if (newClient == null && capture != null) {
+                capture.close();
+            }
+        }
+        if (newClient != null && isAutoReconnect()) {
+            newClient.setAutoReconnect(getReconnectInitialDelay(), getReconnectMaxDelay());
+        }
+        if (newClient != null) {
+            newClient.setMessageFilter(filter);
+            newClient.setCapture(capture);
+            newClient.setMessageListener(assembler);
+        }
+        return newClient;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public SampleResult sample(Entry entry) {
+        // A shared client that lost its connection is replaced in the pool by the first thread acquiring it again
+        if (isSharedConnection() && !interrupted &&
+            (client == null || (!client.isConnected() && !client.isAutoReconnect()))) {
+            reacquireSharedClient();
+        }
+        MessageListener listener = client != null ? client.getMessageListener() : null;
+        SampleResult result = listener instanceof ChunkAssembler ? receiveTransfer((ChunkAssembler) listener) :
+                              receive();
+        Utils.addConnectResult(result, client);
+        Utils.addReconnectResults(result, client);
+        return result;
+    }
+
+    private void reacquireSharedClient() {
+        // A client that never subscribed has not been reported to the barrier yet
+        boolean replacing = null != sharedClientKey && null != client;
+        if (replacing) {
+            log.warn(client.getClientId() + " lost its shared connection, acquiring it again");
+        }
+        if (null != sharedClientKey) {
+            try {
+                releaseSharedClient();
+            } catch (IOException e) {
+                log.warn(e.toString());
+            }
+        }
+        initClient(!replacing);
+    }
+
+    /**
+     * Waits for the next message.
+     *
+     * @return The receive result.
+     */
+    private SampleResult receive() {
         SampleResult result = new SampleResult();
         result.setSampleLabel(getNameLabel() + "::" + getClientId());
         result.sampleStart();
@@ -319,30 +688,46 @@ public class SubscriberSampler extends AbstractSampler implements Interruptible,
             endTime = System.currentTimeMillis() + timeout;
         }
         Message receivedMessage;
-        while (!interrupted && null != client.getReceivedMessages() && null != client.getReceivedMessageCounter()
-                && System.currentTimeMillis() < endTime) {
-            receivedMessage = client.getReceivedMessages().poll();
+        while (!interrupted && null != client && null != client.getReceivedMessages()
+                && null != client.getReceivedMessageCounter() && System.currentTimeMillis() < endTime) {
+            try {
+                long wait = Math.min(POLL_INTERVAL_MILLIS, endTime - System.currentTimeMillis());
+                receivedMessage = client.getReceivedMessages().poll(wait, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
             if (receivedMessage != null) {
-                client.getReceivedMessageCounter().incrementAndGet();
+                long receivedCount = client.getReceivedMessageCounter().incrementAndGet();
                 result.sampleEnd();
                 result.setSuccessful(true);
-                result.setResponseMessage(lineSeparator + "Received " + client.getReceivedMessageCounter().get() + " " +
+                result.setResponseMessage(lineSeparator + "Received " + receivedCount + " " +
                                           "messages." +
                                           lineSeparator + "Current message QOS : " + receivedMessage.getQos() +
                                           lineSeparator + "Is current message a duplicate : " + receivedMessage.isDup()
                                           + lineSeparator + "Received timestamp of current message : " +
                                           receivedMessage.getCurrentTimestamp() + lineSeparator + "Is current message" +
                                           " a retained message : " + receivedMessage.isRetained());
+                if (client.getMessageFilter() != null) {
+                    result.setResponseMessage(result.getResponseMessage() + lineSeparator +
+                                              "Messages rejected by the filter : " +
+                                              client.getMessageFilter().getRejected());
+                }
                 result.setBytes(receivedMessage.getPayload().length);
-                result.setResponseData(receivedMessage.getPayload());
+                // A captured payload is left out of the results, it is kept in the capture
+                if (StringUtils.isBlank(getCaptureDirectory())) {
+                    result.setResponseData(receivedMessage.getPayload());
+                }
                 result.setResponseCodeOK();
-                return result;
-            }
-            else {
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException ignored) {
+                if (jsonExtractor != null) {
+                    String failures = jsonExtractor.apply(receivedMessage.getPayload(), jsonMatch,
+                            getThreadContext().getVariables());
+                    if (failures != null && isJsonFailSample()) {
+                        result.setSuccessful(false);
+                        result.setResponseMessage(failures + result.getResponseMessage());
+                    }
                 }
+                return result;
             }
         }
 
@@ -353,6 +738,83 @@ public class SubscriberSampler extends AbstractSampler implements Interruptible,
         return result;
     }
 
+    /**
+     * Waits for the next reassembled transfer, complete or expired.
+     *
+     * @param assembler the assembler of the client
+     * @return The result of the whole transfer.
+     */
+    private SampleResult receiveTransfer(ChunkAssembler assembler) {
+        long endTime = Long.MAX_VALUE;
+        if (timeout > 0) {
+            endTime = System.currentTimeMillis() + timeout;
+        }
+        while (!interrupted && System.currentTimeMillis() < endTime) {
+            ChunkAssembler.Transfer transfer;
+            try {
+                transfer = assembler.poll(Math.min(POLL_INTERVAL_MILLIS, endTime - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (transfer != null) {
+                return createTransferResult(transfer);
+            }
+        }
+
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getNameLabel() + "::" + getClientId());
+        result.sampleStart();
+        result.setSuccessful(false);
+        result.setResponseMessage("Client has been stopped or no transfer finished in time. Ignored " +
+                                  assembler.getIgnored() + " messages that were not chunks.");
+        result.sampleEnd();
+        result.setResponseCode("FAILED");
+        return result;
+    }
+
+    /**
+     * Creates the result of a transfer. It starts when the publisher started the transfer, unless the clock of the
+     * publisher is ahead, and ends with the last chunk, the latency being the arrival of the first chunk.
+     *
+     * @param transfer the finished transfer
+     * @return The result.
+     */
+    private SampleResult createTransferResult(ChunkAssembler.Transfer transfer) {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getNameLabel() + "::" + getClientId());
+        long start = Math.min(transfer.getStartMillis(), transfer.getFirstMillis());
+        long elapsed = transfer.getLastMillis() - start;
+        Utils.setStartAndElapsed(result, start, elapsed);
+        result.setLatency(transfer.getFirstMillis() - start);
+        result.setBytes((int) Math.min(Integer.MAX_VALUE, transfer.getBytes()));
+        long receiving = Math.max(1, transfer.getLastMillis() - transfer.getFirstMillis());
+        StringBuilder message = new StringBuilder(String.format(
+                "Received %d of %d chunks of transfer %016x, %d of %d bytes in %d ms, %.2f MB/s over %d ms of chunks",
+                transfer.getReceivedChunks(), transfer.getChunks(), transfer.getId(), transfer.getBytes(),
+                transfer.getSize(), elapsed, transfer.getBytes() * 1000.0 / Math.max(1, elapsed) / (1024 * 1024),
+                receiving));
+        if (transfer.getDuplicates() > 0 || transfer.getInvalid() > 0) {
+            message.append(lineSeparator).append("Duplicate chunks : ").append(transfer.getDuplicates())
+                   .append(", invalid chunks : ").append(transfer.getInvalid());
+        }
+        if (transfer.getFile() != null) {
+            message.append(lineSeparator).append("File : ").append(transfer.getFile());
+        }
+        if (transfer.getError() != null) {
+            message.append(lineSeparator).append("Exception: ").append(transfer.getError().toString());
+        }
+        result.setResponseMessage(message.toString());
+        if (transfer.isComplete() && transfer.getError() == null) {
+            result.setSuccessful(true);
+            result.setResponseCodeOK();
+        } else {
+            result.setSuccessful(false);
+            result.setResponseCode("FAILED");
+        }
+        return result;
+    }
+
     /**
      * Validates parameters
      *
@@ -0,0 +1,674 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.sampler;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.protocol.mqtt.client.ClientPool;
+import org.apache.jmeter.protocol.mqtt.client.ClientResources;
+import org.apache.jmeter.protocol.mqtt.client.ConnectionStats;
+import org.apache.jmeter.protocol.mqtt.client.RatePacer;
+import org.apache.jmeter.protocol.mqtt.data.objects.Message;
+import org.apache.jmeter.protocol.mqtt.jmx.RuntimeControl;
+import org.apache.jmeter.protocol.mqtt.nio.clients.Mqtt5Client;
+import org.apache.jmeter.protocol.mqtt.nio.clients.NioClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.AsyncClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BlockingClient;
+import org.apache.jmeter.protocol.mqtt.paho.clients.MessageListener;
+import org.apache.jmeter.protocol.mqtt.paho.clients.PublishListener;
+import org.apache.jmeter.protocol.mqtt.search.LatencyHistogram;
+import org.apache.jmeter.protocol.mqtt.search.SearchPlan;
+import org.apache.jmeter.protocol.mqtt.search.ThroughputSearch;
+import org.apache.jmeter.protocol.mqtt.utilities.Constants;
+import org.apache.jmeter.protocol.mqtt.utilities.Utils;
+import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.Interruptible;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jmeter.testelement.ThreadListener;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the MQTT Throughput Search sampler class. It searches the highest publish rate a broker sustains within a
+ * latency objective, by driving the target rate of the publisher samplers set to the same search name. Every sample is
+ * a step of the search:
+ * <ol>
+ * <li>the publishers are paced at the rate of the step and warm up,</li>
+ * <li>the acknowledgement latency of their publishes and the end to end latency of probe messages published and
+ * received by the sampler are measured over the step duration,</li>
+ * <li>the step breaches the objective if a percentile of either latency exceeds its limit, if the publishers fall
+ * short of the rate or if a publish failed. After a breach the publishers cool down at the highest passing rate.</li>
+ * </ol>
+ * The rate grows by steps or is found by binary search, see {@link SearchPlan}. The last sample reports the latency
+ * curve of all the steps and the maximum sustainable throughput, then stops the thread, and the test if enabled. The
+ * publishers keep the maximum sustainable rate afterwards, or are paused if no step passed.
+ * <p/>
+ * A search is driven by a single thread: the threads after the first one using the same search name fail.
+ */
+public class ThroughputSearchSampler extends AbstractSampler implements Interruptible, ThreadListener,
+        TestStateListener {
+
+    private transient BaseClient client;
+    private transient ThroughputSearch search;
+    private transient SearchPlan plan;
+    private transient RatePacer probePacer;
+    private transient long probeId;
+    private transient long probesSent;
+    private transient StringBuilder curve;
+    private transient MqttException exceptionOccurred = null;
+    private transient volatile boolean interrupted = false;
+
+    private static final long serialVersionUID = 240L;
+    private static final String lineSeparator = System.getProperty("line.separator");
+    private static final String nameLabel = "MQTT Throughput Search";
+    private static final Logger log = LoggingManager.getLoggerForClass();
+    // Upper bound of a single wait so that an interrupt is noticed
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long CLIENT_TIMEOUT = 10000;
+    // The publishers must reach this share of the target rate for a step to pass
+    private static final double MIN_ACHIEVED_RATE = 0.9;
+    private static final int PROBE_SIZE = 16;
+    private static final String CURVE_HEADER = String.format("%12s %12s %8s %12s %12s %12s %12s  %s",
+            "target/s", "achieved/s", "failed", "ack p50 ms", "ack pN ms", "e2e p50 ms", "e2e pN ms", "verdict");
+
+    private static final String BROKER_URL = "mqtt.broker.url";
+    private static final String CLIENT_ID = "mqtt.client.id";
+    private static final String KEEP_ALIVE = "mqtt.keep.alive";
+    private static final String USERNAME = "mqtt.auth.username";
+    private static final String PASSWORD = "mqtt.auth.password";
+    private static final String QOS = "mqtt.qos";
+    private static final String CLIENT_TYPE = "mqtt.client.type";
+    private static final String SEARCH_NAME = "mqtt.search.name";
+    private static final String SEARCH_MODE = "mqtt.search.mode";
+    private static final String START_RATE = "mqtt.search.start.rate";
+    private static final String RATE_STEP = "mqtt.search.step";
+    private static final String MAX_RATE = "mqtt.search.max.rate";
+    private static final String STEP_DURATION = "mqtt.search.step.duration";
+    private static final String WARM_UP = "mqtt.search.warmup";
+    private static final String COOL_DOWN = "mqtt.search.cooldown";
+    private static final String PERCENTILE = "mqtt.search.percentile";
+    private static final String ACK_LIMIT = "mqtt.search.ack.limit";
+    private static final String END_TO_END_LIMIT = "mqtt.search.e2e.limit";
+    private static final String PROBE_TOPIC = "mqtt.search.probe.topic";
+    private static final String PROBE_RATE = "mqtt.search.probe.rate";
+    private static final String STOP_TEST = "mqtt.search.stop.test";
+
+    // Getters
+    public String getBrokerUrl() {
+        return getPropertyAsString(BROKER_URL);
+    }
+
+    public String getClientId() {
+        return getPropertyAsString(CLIENT_ID);
+    }
+
+    public int getKeepAlive() {
+        return getPropertyAsInt(KEEP_ALIVE);
+    }
+
+    public String getUsername() {
+        return getPropertyAsString(USERNAME);
+    }
+
+    public String getPassword() {
+        return getPropertyAsString(PASSWORD);
+    }
+
+    public String getQOS() {
+        return getPropertyAsString(QOS);
+    }
+
+    public String getClientType() {
+        return getPropertyAsString(CLIENT_TYPE);
+    }
+
+    public String getSearchName() {
+        return getPropertyAsString(SEARCH_NAME);
+    }
+
+    public String getSearchMode() {
+        return getPropertyAsString(SEARCH_MODE);
+    }
+
+    public double getStartRate() {
+        return getPropertyAsDouble(START_RATE);
+    }
+
+    public double getRateStep() {
+        return getPropertyAsDouble(RATE_STEP);
+    }
+
+    public double getMaxRate() {
+        return getPropertyAsDouble(MAX_RATE);
+    }
+
+    public long getStepDuration() {
+        return getPropertyAsLong(STEP_DURATION);
+    }
+
+    public long getWarmUp() {
+        return getPropertyAsLong(WARM_UP);
+    }
+
+    public long getCoolDown() {
+        return getPropertyAsLong(COOL_DOWN);
+    }
+
+    public double getPercentile() {
+        return getPropertyAsDouble(PERCENTILE);
+    }
+
+    public double getAckLimit() {
+        return getPropertyAsDouble(ACK_LIMIT);
+    }
+
+    public double getEndToEndLimit() {
+        return getPropertyAsDouble(END_TO_END_LIMIT);
+    }
+
+    public String getProbeTopic() {
+        return getPropertyAsString(PROBE_TOPIC);
+    }
+
+    public double getProbeRate() {
+        return getPropertyAsDouble(PROBE_RATE);
+    }
+
+    public boolean isStopTest() {
+        return getPropertyAsBoolean(STOP_TEST);
+    }
+
+    public String getNameLabel() {
+        return nameLabel;
+    }
+
+    // Setters
+    public void setBrokerUrl(String brokerURL) {
+        setProperty(BROKER_URL, brokerURL.trim());
+    }
+
+    public void setClientId(String clientID) {
+        setProperty(CLIENT_ID, clientID.trim());
+    }
+
+    public void setKeepAlive(String keepAlive) {
+        setProperty(KEEP_ALIVE, keepAlive);
+    }
+
+    public void setUsername(String username) {
+        setProperty(USERNAME, username.trim());
+    }
+
+    public void setPassword(String password) {
+        setProperty(PASSWORD, password.trim());
+    }
+
+    public void setQOS(String qos) {
+        setProperty(QOS, qos.trim());
+    }
+
+    public void setClientType(String clientType) {
+        setProperty(CLIENT_TYPE, clientType.trim());
+    }
+
+    public void setSearchName(String searchName) {
+        setProperty(SEARCH_NAME, searchName.trim());
+    }
+
+    public void setSearchMode(String searchMode) {
+        setProperty(SEARCH_MODE, searchMode.trim());
+    }
+
+    public void setStartRate(String startRate) {
+        setProperty(START_RATE, startRate);
+    }
+
+    public void setRateStep(String rateStep) {
+        setProperty(RATE_STEP, rateStep);
+    }
+
+    public void setMaxRate(String maxRate) {
+        setProperty(MAX_RATE, maxRate);
+    }
+
+    public void setStepDuration(String stepDuration) {
+        setProperty(STEP_DURATION, stepDuration);
+    }
+
+    public void setWarmUp(String warmUp) {
+        setProperty(WARM_UP, warmUp);
+    }
+
+    public void setCoolDown(String coolDown) {
+        setProperty(COOL_DOWN, coolDown);
+    }
+
+    public void setPercentile(String percentile) {
+        setProperty(PERCENTILE, percentile);
+    }
+
+    public void setAckLimit(String ackLimit) {
+        setProperty(ACK_LIMIT, ackLimit);
+    }
+
+    public void setEndToEndLimit(String endToEndLimit) {
+        setProperty(END_TO_END_LIMIT, endToEndLimit);
+    }
+
+    public void setProbeTopic(String probeTopic) {
+        setProperty(PROBE_TOPIC, probeTopic.trim());
+    }
+
+    public void setProbeRate(String probeRate) {
+        setProperty(PROBE_RATE, probeRate);
+    }
+
+    public void setStopTest(boolean isStopTest) {
+        setProperty(STOP_TEST, isStopTest);
+    }
+
+    public ThroughputSearchSampler() {
+        super();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean interrupt() {
+        boolean oldValue = interrupted;
+        interrupted = true;
+        return !oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted() {
+        ConnectionStats.reset();
+        ClientResources.testStarted();
+        RuntimeControl.testStarted();
+        ThroughputSearch.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(String arg0) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded() {
+        RuntimeControl.testEnded();
+        log.info("Connection summary: " + ConnectionStats.summary());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded(String arg0) {
+        testEnded();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void threadStarted() {
+        interrupted = false;
+        exceptionOccurred = null;
+        curve = new StringBuilder(CURVE_HEADER);
+        probesSent = 0;
+        try {
+            validate();
+            String mode = Constants.MQTT_SEARCH_MODE_BINARY.equals(getSearchMode()) ? SearchPlan.BINARY : SearchPlan.STEP;
+            plan = new SearchPlan(mode, getStartRate(), getRateStep(), getMaxRate());
+            ThroughputSearch claimed = ThroughputSearch.get(getSearchName());
+            if (!claimed.claim()) {
+                throw new IllegalArgumentException("The search " + getSearchName() +
+                        " is already driven by another thread, the search sampler must run in a single thread");
+            }
+            search = claimed;
+            if (isProbing()) {
+                initClient();
+            }
+        } catch (IllegalArgumentException e) {
+            exceptionOccurred = new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+            log.error(e.getMessage());
+        } catch (MqttException e) {
+            exceptionOccurred = e;
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void threadFinished() {
+        if (client != null) {
+            try {
+                ClientPool.removeClient(client);
+                client.close();
+            } catch (IOException e) {
+                log.error(e.getLocalizedMessage(), e);
+            }
+        }
+        client = null;
+        plan = null;
+        if (search != null) {
+            search.release();
+            search = null;
+        }
+    }
+
+    private boolean isProbing() {
+        return getProbeRate() > 0 && StringUtils.isNotBlank(getProbeTopic());
+    }
+
+    /**
+     * Creates the probe client, subscribed to the probe topic. The probes carry an id of the thread and the time they
+     * were published, the probes of other searches on the same topic are ignored.
+     */
+    private void initClient() throws MqttException {
+        probeId = new Random().nextLong();
+        probePacer = new RatePacer(getProbeRate());
+        final ThroughputSearch probedSearch = search;
+        final long id = probeId;
+        String clientId = StringUtils.isEmpty(getClientId()) ? Utils.UUIDGenerator() : getClientId();
+        client = createClient(clientId);
+        ClientPool.addClient(client);
+        client.setMessageListener(new MessageListener() {
+            @Override
+            public void received(Message message) {
+                long now = System.nanoTime();
+                byte[] payload = message.getPayload();
+                if (payload.length == PROBE_SIZE) {
+                    ByteBuffer probe = ByteBuffer.wrap(payload);
+                    if (probe.getLong() == id) {
+                        probedSearch.received(now - probe.getLong());
+                    }
+                }
+            }
+        });
+        client.subscribe(getProbeTopic(), getQosValue(), CLIENT_TIMEOUT);
+        client.pollConnectEvent();
+    }
+
+    private BaseClient createClient(String clientId) throws MqttException {
+        String brokerURL = getBrokerUrl();
+        int keepAlive = getKeepAlive();
+        String userName = getUsername();
+        String password = getPassword();
+        String clientType = getClientType();
+
+        if (Constants.MQTT_BLOCKING_CLIENT.equals(clientType)) {
+            return new BlockingClient(brokerURL, clientId, true, userName, password, keepAlive);
+        } else if (Constants.MQTT_ASYNC_CLIENT.equals(clientType)) {
+            return new AsyncClient(brokerURL, clientId, true, userName, password, keepAlive);
+        } else if (Constants.MQTT_NIO_CLIENT.equals(clientType)) {
+            return new NioClient(brokerURL, clientId, true, userName, password, keepAlive);
+        } else if (Constants.MQTT_5_CLIENT.equals(clientType)) {
+            return new Mqtt5Client(brokerURL, clientId, true, userName, password, keepAlive);
+        }
+        throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION,
+                new IllegalArgumentException("Unknown client type " + clientType));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SampleResult sample(Entry entry) {
+        if (null != exceptionOccurred || null == plan) {
+            String message = exceptionOccurred != null ? exceptionOccurred.toString() : "Search has been stopped.";
+            SampleResult result = createFailedResult("Search is not running." + lineSeparator + message);
+            result.setResponseData(message.getBytes());
+            result.setStopThread(true);
+            return result;
+        }
+
+        double rate = plan.getRate();
+        search.setRate(rate);
+        runProbes(getWarmUp());
+        search.takeWindow(0);
+        probesSent = 0;
+
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        result.sampleStart();
+        long start = System.nanoTime();
+        runProbes(Math.max(1, getStepDuration()));
+        ThroughputSearch.Window window = search.takeWindow(System.nanoTime() - start);
+        result.sampleEnd();
+        if (interrupted) {
+            SampleResult stopped = createFailedResult("Search has been stopped.");
+            stopped.setStopThread(true);
+            return stopped;
+        }
+
+        String breach = checkObjective(window);
+        plan.record(breach == null);
+        String step = formatStep(window, breach);
+        curve.append(lineSeparator).append(step);
+        log.info(getName() + " " + step);
+        result.setSuccessful(breach == null);
+        result.addSubResult(createLatencyResult(result, "ack", window.getAckLatency()));
+        if (isProbing()) {
+            result.addSubResult(createLatencyResult(result, "e2e", window.getEndToEndLatency()));
+        }
+        if (breach == null) {
+            result.setResponseCodeOK();
+            result.setResponseMessage(String.format("%.1f msg/s passed", rate));
+        } else {
+            result.setResponseCode("BREACH");
+            result.setResponseMessage(String.format("%.1f msg/s breached the objective: %s", rate, breach));
+        }
+
+        if (plan.isDone()) {
+            double sustainable = plan.getSustainableRate();
+            if (sustainable > 0) {
+                search.setRate(sustainable);
+            } else {
+                // Even the start rate breached the objective, the publishers must not stay at it
+                search.pause();
+            }
+            String summary = String.format("Maximum sustainable throughput: %.1f msg/s, %s", sustainable, plan);
+            curve.append(lineSeparator).append(summary);
+            log.info(getName() + " latency curve:" + lineSeparator + curve);
+            result.setResponseMessage(result.getResponseMessage() + lineSeparator + summary);
+            result.setStopThread(true);
+            result.setStopTest(isStopTest());
+        } else if (breach != null && getCoolDown() > 0) {
+            // Let the broker recover from the breach at the highest passing rate before the next step
+            if (plan.getSustainableRate() > 0) {
+                search.setRate(plan.getSustainableRate());
+            } else {
+                search.pause();
+            }
+            runProbes(getCoolDown());
+        }
+        result.setResponseData(curve.toString().getBytes());
+        return result;
+    }
+
+    /**
+     * Checks a step against the objective.
+     *
+     * @param window the publishes of the step
+     * @return The reasons of the breach, or null if the step passed.
+     */
+    private String checkObjective(ThroughputSearch.Window window) {
+        StringBuilder breach = new StringBuilder();
+        double percentile = getPercentile();
+        if (window.getFailed() > 0) {
+            breach.append(", ").append(window.getFailed()).append(" publishes failed");
+        }
+        if (window.getAchievedRate() < window.getTargetRate() * MIN_ACHIEVED_RATE) {
+            breach.append(String.format(", achieved %.1f msg/s", window.getAchievedRate()));
+        }
+        long ackMicros = window.getAckLatency().getPercentileMicros(percentile);
+        if (getAckLimit() > 0 && ackMicros > getAckLimit() * 1000) {
+            breach.append(String.format(", ack p%s %.2f ms", formatPercentile(), ackMicros / 1000.0));
+        }
+        if (isProbing() && getEndToEndLimit() > 0) {
+            if (window.getEndToEndLatency().getCount() == 0) {
+                breach.append(", none of ").append(probesSent).append(" probes received");
+            } else {
+                long endToEndMicros = window.getEndToEndLatency().getPercentileMicros(percentile);
+                if (endToEndMicros > getEndToEndLimit() * 1000) {
+                    breach.append(String.format(", e2e p%s %.2f ms", formatPercentile(), endToEndMicros / 1000.0));
+                }
+            }
+        }
+        return breach.length() > 0 ? breach.substring(2) : null;
+    }
+
+    private String formatStep(ThroughputSearch.Window window, String breach) {
+        double percentile = getPercentile();
+        LatencyHistogram.Snapshot ack = window.getAckLatency();
+        LatencyHistogram.Snapshot endToEnd = window.getEndToEndLatency();
+        return String.format("%12.1f %12.1f %8d %12.2f %12.2f %12.2f %12.2f  %s", window.getTargetRate(),
+                window.getAchievedRate(), window.getFailed(), ack.getPercentileMicros(50) / 1000.0,
+                ack.getPercentileMicros(percentile) / 1000.0, endToEnd.getPercentileMicros(50) / 1000.0,
+                endToEnd.getPercentileMicros(percentile) / 1000.0, breach == null ? "pass" : "breach: " + breach);
+    }
+
+    private String formatPercentile() {
+        double percentile = getPercentile();
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    /**
+     * Creates the result of a latency over a step. The sample counts are the latencies of the step and the elapsed
+     * time is the objective percentile.
+     *
+     * @param parent  the result of the step
+     * @param name    the name of the latency
+     * @param latency the latencies of the step
+     * @return The result of the latency.
+     */
+    private SampleResult createLatencyResult(SampleResult parent, String name, LatencyHistogram.Snapshot latency) {
+        SampleResult latencyResult = new SampleResult();
+        latencyResult.setSampleLabel(getName() + "::" + name);
+        Utils.setStartAndElapsed(latencyResult, parent.getStartTime(),
+                latency.getPercentileMicros(getPercentile()) / 1000);
+        latencyResult.setSampleCount((int) Math.max(1, Math.min(Integer.MAX_VALUE, latency.getCount())));
+        latencyResult.setSuccessful(latency.getCount() > 0);
+        latencyResult.setResponseMessage(String.format("%d latencies, p50 %.2f ms, p%s %.2f ms, max %.2f ms",
+                latency.getCount(), latency.getPercentileMicros(50) / 1000.0, formatPercentile(),
+                latency.getPercentileMicros(getPercentile()) / 1000.0, latency.getMaxMicros() / 1000.0));
+        if (latencyResult.isSuccessful()) {
+            latencyResult.setResponseCodeOK();
+        } else {
+            latencyResult.setResponseCode("FAILED");
+        }
+        return latencyResult;
+    }
+
+    private SampleResult createFailedResult(String message) {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        result.sampleStart();
+        result.sampleEnd();
+        result.setSuccessful(false);
+        result.setResponseMessage(message);
+        result.setResponseCode("FAILED");
+        return result;
+    }
+
+    /**
+     * Publishes probes at the probe rate for a while, or only waits if probing is disabled.
+     *
+     * @param millis the time to probe in milliseconds
+     */
+    private void runProbes(long millis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining = deadline - System.nanoTime();
+        PublishListener listener = new PublishListener() {
+            @Override
+            public void published(long durationNanos, int packetSize) {
+            }
+
+            @Override
+            public void failed(Throwable cause) {
+                if (log.isDebugEnabled()) log.debug("Probe failed: " + cause.toString());
+            }
+        };
+        while (!interrupted && remaining > 0) {
+            try {
+                if (client == null) {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(remaining, POLL_INTERVAL_NANOS));
+                } else {
+                    probePacer.acquire();
+                    ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+                    probe.putLong(probeId).putLong(System.nanoTime());
+                    client.publishAsync(getProbeTopic(), getQosValue(), probe.array(), false, CLIENT_TIMEOUT,
+                            listener);
+                    probesSent++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    private int getQosValue() {
+        if (Constants.MQTT_AT_LEAST_ONCE.equals(getQOS())) {
+            return 1;
+        } else if (Constants.MQTT_EXACTLY_ONCE.equals(getQOS())) {
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Validates parameters
+     *
+     * @throws IllegalArgumentException if a parameter is not valid
+     */
+    private void validate() {
+        if (StringUtils.isBlank(getSearchName())) {
+            throw new IllegalArgumentException("The search name cannot be empty");
+        }
+        if (getPercentile() <= 0 || getPercentile() > 100) {
+            throw new IllegalArgumentException("The percentile must be above 0 and at most 100");
+        }
+        if (isProbing() && StringUtils.isBlank(getBrokerUrl())) {
+            throw new IllegalArgumentException("The broker url cannot be empty when probing");
+        }
+        if (isProbing() && StringUtils.containsAny(getProbeTopic(), "+#")) {
+            throw new IllegalArgumentException("The probe topic cannot have wildcards");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.search;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies in microseconds, with buckets of a relative width of about 3%. The latencies are
+ * recorded by many threads and taken as a {@link Snapshot} by the thread reporting them, which resets the histogram.
+ * The histogram takes 8 KB whatever the number of latencies, up to 19 hours.
+ */
+public class LatencyHistogram {
+
+    // Each power of two above 64 us is split into 32 buckets
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final long MAX_MICROS = (1L << 36) - 1;
+    private static final int BUCKETS = index(MAX_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private static int index(long micros) {
+        if (micros < 2 * SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (micros >>> shift);
+    }
+
+    /**
+     * @param index the index of a bucket
+     * @return The highest latency of the bucket in microseconds.
+     */
+    private static long highestMicros(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long sub = index - (shift << SUB_BUCKET_BITS);
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative latencies are recorded as 0
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(index(Math.min(MAX_MICROS, Math.max(0, nanos / 1000))));
+    }
+
+    /**
+     * Takes the latencies recorded since the previous snapshot and resets them.
+     *
+     * @return The latencies of the snapshot.
+     */
+    public Snapshot takeSnapshot() {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                snapshot[i] = counts.getAndSet(i, 0);
+                total += snapshot[i];
+            }
+        }
+        return new Snapshot(snapshot, total);
+    }
+
+    /**
+     * The latencies of a reporting window.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long total;
+
+        private Snapshot(long[] counts, long total) {
+            this.counts = counts;
+            this.total = total;
+        }
+
+        /**
+         * @return The number of latencies.
+         */
+        public long getCount() {
+            return total;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return The latency of the percentile in microseconds, rounded up to the end of its bucket, or 0 if there
+         * are no latencies.
+         */
+        public long getPercentileMicros(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestMicros(i);
+                }
+            }
+            return MAX_MICROS;
+        }
+
+        /**
+         * @return The highest latency in microseconds, rounded up to the end of its bucket.
+         */
+        public long getMaxMicros() {
+            return getPercentileMicros(100);
+        }
+    }
+}
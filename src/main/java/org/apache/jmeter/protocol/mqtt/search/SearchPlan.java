@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.search;
+
+/**
+ * The rates tried by a throughput search. In step mode, the rate grows by a fixed step from the start rate until a step
+ * breaches the objective or the maximum rate has passed. In binary mode, the start and the maximum rates are tried
+ * first, then the range between the highest passing and the lowest breaching rate is halved until it is no wider than
+ * the resolution.
+ */
+public class SearchPlan {
+
+    public static final String STEP = "step";
+    public static final String BINARY = "binary";
+
+    private final boolean binary;
+    private final double startRate;
+    private final double step;
+    private final double maxRate;
+    // The highest passing and the lowest breaching rate, 0 while unknown
+    private double passing = 0;
+    private double breaching = 0;
+    private double current;
+    private boolean done = false;
+
+    /**
+     * @param mode      {@link #STEP} or {@link #BINARY}
+     * @param startRate the first rate in messages per second
+     * @param step      the step of the rate, or the resolution of a binary search, in messages per second
+     * @param maxRate   the highest rate in messages per second
+     */
+    public SearchPlan(String mode, double startRate, double step, double maxRate) {
+        if (startRate <= 0 || step <= 0 || maxRate < startRate) {
+            throw new IllegalArgumentException("expected 0 < start rate <= max rate and a step above 0");
+        }
+        this.binary = BINARY.equals(mode);
+        this.startRate = startRate;
+        this.step = step;
+        this.maxRate = maxRate;
+        this.current = startRate;
+    }
+
+    /**
+     * @return true once the search has found the highest passing rate.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return The rate to try next in messages per second.
+     */
+    public double getRate() {
+        return current;
+    }
+
+    /**
+     * @return The highest rate that passed, 0 if none did.
+     */
+    public double getSustainableRate() {
+        return passing;
+    }
+
+    /**
+     * Records the outcome of the current rate and moves to the next one.
+     *
+     * @param passed whether the current rate met the objective
+     */
+    public void record(boolean passed) {
+        if (passed) {
+            passing = Math.max(passing, current);
+        } else {
+            breaching = breaching > 0 ? Math.min(breaching, current) : current;
+        }
+        if (!binary) {
+            done = !passed || current >= maxRate;
+            current = Math.min(maxRate, current + step);
+        } else if (!passed && passing == 0 || passed && current >= maxRate) {
+            // Either the start rate breached or the maximum rate passed
+            done = true;
+        } else if (breaching == 0) {
+            current = maxRate;
+        } else {
+            done = breaching - passing <= step;
+            current = (passing + breaching) / 2;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (binary ? "binary search from " + startRate + " to " + maxRate + " msg/s, resolution " :
+                "steps from " + startRate + " to " + maxRate + " msg/s, step ") + step + " msg/s";
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.search;
+
+import org.apache.jmeter.protocol.mqtt.client.RatePacer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The shared state of a throughput search, found by its name. The search sampler sets the target rate, which paces the
+ * publishers of all the threads using the same search name, and takes a {@link Window} of their publishes at the end
+ * of each step. The publishers wait until the search has set its first rate, so that nothing is published unpaced
+ * before the search starts, and again once it is paused.
+ * <p/>
+ * A single search sampler thread drives a search, which it claims before its first step.
+ */
+public class ThroughputSearch {
+
+    private static final ConcurrentMap<String, ThroughputSearch> searches =
+            new ConcurrentHashMap<String, ThroughputSearch>();
+
+    private final String name;
+    private final RatePacer pacer = new RatePacer(0);
+    private volatile double rate = 0;
+    private volatile boolean started = false;
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+    private final LongAdder published = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LatencyHistogram ackLatency = new LatencyHistogram();
+    private final LatencyHistogram endToEndLatency = new LatencyHistogram();
+
+    private ThroughputSearch(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the search of a name, creating it on first use.
+     *
+     * @param name the name of the search
+     * @return The search.
+     */
+    public static ThroughputSearch get(String name) {
+        ThroughputSearch search = searches.get(name);
+        if (search == null) {
+            ThroughputSearch newSearch = new ThroughputSearch(name);
+            search = searches.putIfAbsent(name, newSearch);
+            if (search == null) {
+                search = newSearch;
+            }
+        }
+        return search;
+    }
+
+    /**
+     * Forgets all the searches.
+     */
+    public static void clear() {
+        searches.clear();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Claims the search for the calling sampler thread, which then sets its rates alone.
+     *
+     * @return true if the search was claimed, false if another thread drives it.
+     */
+    public boolean claim() {
+        return claimed.compareAndSet(false, true);
+    }
+
+    /**
+     * Releases a claimed search, so that another thread may drive it.
+     */
+    public void release() {
+        claimed.set(false);
+    }
+
+    /**
+     * @return The target rate in messages per second, 0 before the search has started.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Changes the target rate of the publishers and releases them if they were waiting for the search to start.
+     *
+     * @param perSecond the target rate in messages per second
+     */
+    public void setRate(double perSecond) {
+        rate = perSecond;
+        pacer.setRate(perSecond);
+        started = true;
+    }
+
+    /**
+     * Makes the publishers wait again as before the search started, until the next {@link #setRate(double)}.
+     */
+    public void pause() {
+        started = false;
+        rate = 0;
+    }
+
+    /**
+     * Waits until the next publish is due. Before the search has started, waits at most the given time.
+     *
+     * @param maxWaitNanos the longest wait for the search to start in nanoseconds
+     * @return true if the publish is due, false if the search has not started yet.
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean acquire(long maxWaitNanos) throws InterruptedException {
+        if (!started) {
+            long deadline = System.nanoTime() + maxWaitNanos;
+            long remaining;
+            while (!started && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)));
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            if (!started) {
+                return false;
+            }
+        }
+        pacer.acquire();
+        return true;
+    }
+
+    /**
+     * Records a message acknowledged by the broker.
+     *
+     * @param ackNanos the time from the start of the publish to its acknowledgement in nanoseconds
+     */
+    public void published(long ackNanos) {
+        published.increment();
+        ackLatency.record(ackNanos);
+    }
+
+    /**
+     * Records a message that could not be published.
+     */
+    public void failed() {
+        failed.increment();
+    }
+
+    /**
+     * Records a probe message received back from the broker.
+     *
+     * @param endToEndNanos the time from the publish of the probe to its delivery in nanoseconds
+     */
+    public void received(long endToEndNanos) {
+        endToEndLatency.record(endToEndNanos);
+    }
+
+    /**
+     * Takes the publishes since the previous window and resets them.
+     *
+     * @param durationNanos the duration of the window in nanoseconds
+     * @return The publishes of the window.
+     */
+    public Window takeWindow(long durationNanos) {
+        return new Window(rate, durationNanos, published.sumThenReset(), failed.sumThenReset(),
+                ackLatency.takeSnapshot(), endToEndLatency.takeSnapshot());
+    }
+
+    /**
+     * The publishes of a step of the search.
+     */
+    public static class Window {
+        private final double targetRate;
+        private final long durationNanos;
+        private final long published;
+        private final long failed;
+        private final LatencyHistogram.Snapshot ackLatency;
+        private final LatencyHistogram.Snapshot endToEndLatency;
+
+        private Window(double targetRate, long durationNanos, long published, long failed,
+                       LatencyHistogram.Snapshot ackLatency, LatencyHistogram.Snapshot endToEndLatency) {
+            this.targetRate = targetRate;
+            this.durationNanos = durationNanos;
+            this.published = published;
+            this.failed = failed;
+            this.ackLatency = ackLatency;
+            this.endToEndLatency = endToEndLatency;
+        }
+
+        public double getTargetRate() {
+            return targetRate;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        public long getPublished() {
+            return published;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return The messages acknowledged per second.
+         */
+        public double getAchievedRate() {
+            return durationNanos > 0 ? published * 1e9 / durationNanos : 0;
+        }
+
+        public LatencyHistogram.Snapshot getAckLatency() {
+            return ackLatency;
+        }
+
+        public LatencyHistogram.Snapshot getEndToEndLatency() {
+            return endToEndLatency;
+        }
+    }
+}
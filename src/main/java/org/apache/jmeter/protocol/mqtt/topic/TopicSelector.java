@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.topic;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the topics of a {@link TopicTemplate} for one thread. Sequential selection cycles through a contiguous block
+ * of the topics of its own, so that the threads cover disjoint topics as long as there are at least as many topics as
+ * threads. Random selection is uniform and Zipf selection favours the lowest numbered topics.
+ * <p/>
+ * Zipf numbers are drawn by rejection inversion (W. Hoermann, G. Derflinger, "Rejection-inversion to generate variates
+ * from monotone discrete distributions"), in constant expected time without a table of probabilities.
+ */
+public class TopicSelector {
+
+    public static final String SEQUENTIAL = "sequential";
+    public static final String RANDOM = "random";
+    public static final String ZIPF = "zipf";
+
+    private final TopicTemplate template;
+    private final String distribution;
+    // The block of topics of the thread for sequential selection
+    private final int first;
+    private final int count;
+    private int next = 0;
+
+    // Zipf sampling over ranks 1 to size
+    private final double exponent;
+    private final double hIntegralX1;
+    private final double hIntegralSize;
+    private final double s;
+
+    /**
+     * @param template     the topics
+     * @param distribution {@link #SEQUENTIAL}, {@link #RANDOM} or {@link #ZIPF}
+     * @param exponent     the exponent of the Zipf distribution, greater than 0
+     * @param thread       the number of the thread, from 0
+     * @param threads      the number of threads sharing the topics
+     */
+    public TopicSelector(TopicTemplate template, String distribution, double exponent, int thread, int threads) {
+        if (ZIPF.equals(distribution) && !(exponent > 0)) {
+            throw new IllegalArgumentException("The Zipf exponent must be greater than 0");
+        }
+        this.template = template;
+        this.distribution = distribution;
+        long size = template.size();
+        long total = Math.max(1, threads);
+        long index = thread % total;
+        long start = size * index / total;
+        long end = size * (index + 1) / total;
+        if (end > start) {
+            this.first = (int) start;
+            this.count = (int) (end - start);
+        } else {
+            // More threads than topics, the threads share the topics
+            this.first = (int) (thread % size);
+            this.count = 1;
+        }
+        this.exponent = exponent;
+        this.hIntegralX1 = hIntegral(1.5) - 1;
+        this.hIntegralSize = hIntegral(template.size() + 0.5);
+        this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+    }
+
+    /**
+     * @return The next topic.
+     */
+    public String next() {
+        return template.get(nextIndex());
+    }
+
+    /**
+     * @return The number of the next topic.
+     */
+    public int nextIndex() {
+        if (RANDOM.equals(distribution)) {
+            return ThreadLocalRandom.current().nextInt(template.size());
+        } else if (ZIPF.equals(distribution)) {
+            return zipf() - 1;
+        }
+        int index = first + next;
+        next = next + 1 < count ? next + 1 : 0;
+        return index;
+    }
+
+    private int zipf() {
+        int size = template.size();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            double u = hIntegralSize + random.nextDouble() * (hIntegralX1 - hIntegralSize);
+            double x = hIntegralInverse(u);
+            int k = (int) (x + 0.5);
+            if (k < 1) {
+                k = 1;
+            } else if (k > size) {
+                k = size;
+            }
+            if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                return k;
+            }
+        }
+    }
+
+    // Integral of h, the unnormalized density x^-exponent
+    private double hIntegral(double x) {
+        double logX = Math.log(x);
+        return helper2((1 - exponent) * logX) * logX;
+    }
+
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegralInverse(double x) {
+        double t = x * (1 - exponent);
+        if (t < -1) {
+            t = -1;
+        }
+        return Math.exp(helper1(t) * x);
+    }
+
+    // log(1 + x) / x, accurate near 0
+    private static double helper1(double x) {
+        if (Math.abs(x) > 1e-8) {
+            return Math.log1p(x) / x;
+        }
+        return 1 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+    }
+
+    // (exp(x) - 1) / x, accurate near 0
+    private static double helper2(double x) {
+        if (Math.abs(x) > 1e-8) {
+            return Math.expm1(x) / x;
+        }
+        return 1 + x * 0.5 * (1 + x * (1.0 / 3.0) * (1 + 0.25 * x));
+    }
+}
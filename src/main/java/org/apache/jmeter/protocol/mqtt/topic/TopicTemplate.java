@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 Hemika Yasinda Kodikara
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jmeter.protocol.mqtt.topic;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A topic template such as fleet/{region:eu,us,ap}/{id:1-100000}/telemetry, expanded once into a table of all its
+ * topics so that publishing to one of them costs an array lookup. A placeholder is either an inclusive range of
+ * numbers, padded with zeros to the width of the lower bound when it starts with a zero, or a comma separated list of
+ * values. Braces without a colon are kept as they are.
+ * <p/>
+ * The topics are numbered with the last placeholder varying fastest. Tables are shared by all the threads using the
+ * same template until {@link #clear()}.
+ */
+public class TopicTemplate {
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    /**
+     * The largest number of topics a template may expand to.
+     */
+    public static final int MAX_TOPICS = 1 << 24;
+
+    private static final Map<String, TopicTemplate> compiled = new HashMap<>();
+
+    private final String template;
+    private final String[] topics;
+
+    private TopicTemplate(String template, String[] topics) {
+        this.template = template;
+        this.topics = topics;
+    }
+
+    /**
+     * @param template a topic
+     * @return true if the topic has placeholders to expand.
+     */
+    public static boolean isTemplate(String template) {
+        return parse(template).size() > 1;
+    }
+
+    /**
+     * Returns the expansion of a template, expanding it on first use.
+     *
+     * @param template the topic template
+     * @return The expanded template.
+     * @throws IllegalArgumentException if a placeholder is not valid or the template expands to more than
+     *                                  {@link #MAX_TOPICS} topics
+     */
+    public static synchronized TopicTemplate get(String template) {
+        TopicTemplate expanded = compiled.get(template);
+        if (expanded == null) {
+            long start = System.nanoTime();
+            expanded = new TopicTemplate(template, expand(parse(template)));
+            compiled.put(template, expanded);
+            log.info("Expanded " + template + " to " + expanded.size() + " topics in " +
+                     (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        return expanded;
+    }
+
+    /**
+     * Forgets the expanded templates.
+     */
+    public static synchronized void clear() {
+        compiled.clear();
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return The number of topics.
+     */
+    public int size() {
+        return topics.length;
+    }
+
+    /**
+     * @param index the number of a topic, from 0 to size - 1
+     * @return The topic.
+     */
+    public String get(int index) {
+        return topics[index];
+    }
+
+    /**
+     * Splits a template into its parts: a literal, then alternately the values of a placeholder and a literal.
+     */
+    private static List<Object> parse(String template) {
+        List<Object> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int position = 0;
+        while (position < template.length()) {
+            int open = template.indexOf('{', position);
+            int close = open < 0 ? -1 : template.indexOf('}', open);
+            int colon = close < 0 ? -1 : template.indexOf(':', open);
+            if (open < 0 || close < 0 || colon < 0 || colon > close) {
+                int end = open < 0 ? template.length() : open + 1;
+                literal.append(template, position, end);
+                position = end;
+                continue;
+            }
+            literal.append(template, position, open);
+            parts.add(literal.toString());
+            literal.setLength(0);
+            parts.add(values(template.substring(colon + 1, close).trim(), template.substring(open, close + 1)));
+            position = close + 1;
+        }
+        parts.add(literal.toString());
+        return parts;
+    }
+
+    private static String[] values(String definition, String placeholder) {
+        int dash = definition.indexOf('-', 1);
+        if (dash > 0 && definition.indexOf(',') < 0 && StringUtils.isNumeric(definition.substring(0, dash)) &&
+            StringUtils.isNumeric(definition.substring(dash + 1))) {
+            String lower = definition.substring(0, dash);
+            long from = Long.parseLong(lower);
+            long to = Long.parseLong(definition.substring(dash + 1));
+            if (to < from || to - from >= MAX_TOPICS) {
+                throw new IllegalArgumentException("Invalid range in " + placeholder);
+            }
+            int width = lower.startsWith("0") ? lower.length() : 0;
+            String[] values = new String[(int) (to - from + 1)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = StringUtils.leftPad(Long.toString(from + i), width, '0');
+            }
+            return values;
+        }
+        String[] values = StringUtils.split(definition, ',');
+        if (values.length == 0) {
+            throw new IllegalArgumentException("No values in " + placeholder);
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = values[i].trim();
+        }
+        return values;
+    }
+
+    private static String[] expand(List<Object> parts) {
+        long count = 1;
+        for (int i = 1; i < parts.size(); i += 2) {
+            count *= ((String[]) parts.get(i)).length;
+            if (count > MAX_TOPICS) {
+                throw new IllegalArgumentException("Topic template expands to more than " + MAX_TOPICS + " topics");
+            }
+        }
+        String[] topics = new String[(int) count];
+        int placeholders = parts.size() / 2;
+        int[] digits = new int[placeholders];
+        StringBuilder topic = new StringBuilder();
+        for (int index = 0; index < topics.length; index++) {
+            topic.setLength(0);
+            topic.append((String) parts.get(0));
+            for (int p = 0; p < placeholders; p++) {
+                topic.append(((String[]) parts.get(2 * p + 1))[digits[p]]).append((String) parts.get(2 * p + 2));
+            }
+            topics[index] = topic.toString();
+            // Next number, the last placeholder varying fastest
+            for (int p = placeholders - 1; p >= 0; p--) {
+                if (++digits[p] < ((String[]) parts.get(2 * p + 1)).length) {
+                    break;
+                }
+                digits[p] = 0;
+            }
+        }
+        return topics;
+    }
+}
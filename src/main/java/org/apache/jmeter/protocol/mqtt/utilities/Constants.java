@@ -21,34 +21,174 @@ package org.apache.jmeter.protocol.mqtt.utilities;
  */
 public final class Constants {
     public static final String GENERATE_CLIENT_ID_COMMAND = "generate_client_id";
+    public static final String MQTT_5_CLIENT = "mqtt_5_client";
+    public static final String MQTT_5_OPTIONS = "MQTT 5";
     public static final String MQTT_ASYNC_CLIENT = "mqtt_async_client";
     public static final String MQTT_AT_LEAST_ONCE = "mqtt_at_least_once";
     public static final String MQTT_AT_MOST_ONCE = "mqtt_at_most_once";
     public static final String MQTT_BLOCKING_CLIENT = "mqtt_blocking_client";
+    public static final String MQTT_MESSAGE_EXPIRY = "Message Expiry";
+    public static final String MQTT_MESSAGE_EXPIRY_DEFAULT = "0";
+    public static final String MQTT_NIO_CLIENT = "mqtt_nio_client";
+    public static final String MQTT_AUTO_RECONNECT = "Auto Reconnect";
+    public static final String MQTT_BARRIER_DISTRIBUTED = "Announce On Broker (Distributed)";
+    public static final String MQTT_BARRIER_NAME = "Readiness Barrier";
+    public static final String MQTT_BARRIER_SUBSCRIPTIONS = "Wait For Subscriptions";
+    public static final String MQTT_BARRIER_SUBSCRIPTIONS_DEFAULT = "0";
+    public static final String MQTT_BARRIER_TIMEOUT = "Barrier Timeout";
+    public static final String MQTT_BARRIER_TIMEOUT_DEFAULT = "60";
+    public static final String MQTT_CAPTURE_DIRECTORY = "Capture Directory (empty = no capture)";
+    public static final String MQTT_CAPTURE_SEGMENT_SIZE = "Capture Segment Size (MB)";
+    public static final String MQTT_CAPTURE_SEGMENT_SIZE_DEFAULT = "64";
+    public static final String MQTT_CHUNK_DIRECTORY = "Reassembly Directory (empty = count only)";
+    public static final String MQTT_CHUNK_EXPIRY = "Transfer Expiry (sec)";
+    public static final String MQTT_CHUNK_EXPIRY_DEFAULT = "60";
+    public static final String MQTT_CHUNK_MAX_SIZE = "Max Transfer Size (MB)";
+    public static final String MQTT_CHUNK_MAX_SIZE_DEFAULT = "1024";
+    public static final String MQTT_CHUNK_REASSEMBLE = "Reassemble Chunked Transfers";
+    public static final String MQTT_CHUNK_SIZE = "Chunk Size (KB, 0 = not chunked)";
+    public static final String MQTT_CHUNK_SIZE_DEFAULT = "0";
+    public static final String MQTT_CHUNK_TRANSFER_SIZE = "Generated Transfer Size (KB, 0 = the message)";
+    public static final String MQTT_CHUNK_TRANSFER_SIZE_DEFAULT = "0";
+    public static final String MQTT_CHURN_PUBLISH_TOPIC = "Publish Topic (empty = no PUBLISH)";
+    public static final String MQTT_CHURN_RATE = "Target Rate (cycles/s, 0 = unlimited)";
+    public static final String MQTT_CHURN_RATE_DEFAULT = "10";
+    public static final String MQTT_CHURN_SUBSCRIBE_TOPIC = "Subscribe Topic Filter (empty = no SUBSCRIBE)";
+    public static final String MQTT_CHURN_TIMEOUT = "Acknowledgement Timeout (ms)";
+    public static final String MQTT_CHURN_TIMEOUT_DEFAULT = "5000";
+    public static final String MQTT_CHURN_TITLE = "MQTT Connection Churn";
     public static final String MQTT_CLEAN_SESSION = "Clean Session";
     public static final String MQTT_CLIENT_ID = "Client ID";
     public static final String MQTT_CLIENT_ID_GENERATOR = "Generate ID";
 //    public static final String MQTT_CLIENT_TYPES = "mqtt_client_types";
+    public static final String MQTT_CONNECTION_RAMP_TITLE = "MQTT Connection Ramp";
+    public static final String MQTT_DRAIN_INTERVAL = "Throughput Interval (ms)";
+    public static final String MQTT_DRAIN_INTERVAL_DEFAULT = "1000";
+    public static final String MQTT_DRAIN_MESSAGES = "Backlog Messages";
+    public static final String MQTT_DRAIN_MESSAGES_DEFAULT = "10000";
+    public static final String MQTT_DRAIN_PUBLISH = "Publish The Backlog From This Sampler";
+    public static final String MQTT_DRAIN_TIMEOUT = "Drain Timeout (ms)";
+    public static final String MQTT_DRAIN_TIMEOUT_DEFAULT = "60000";
+    public static final String MQTT_DRAIN_TITLE = "MQTT Backlog Drain";
+    public static final String MQTT_DRAIN_WAIT = "Disconnected Wait (ms)";
+    public static final String MQTT_DRAIN_WAIT_DEFAULT = "0";
     public static final String MQTT_EXACTLY_ONCE = "mqtt_exactly_once";
     public static final String MQTT_FILE = "File";
+    public static final String MQTT_FILTER = "Message Filter (e.g. topic matches 'load/#' and payload startsWith 'LT')";
+    public static final String MQTT_FLEET_ACTIVE = "Active Devices Per Thread (0 = all)";
+    public static final String MQTT_FLEET_ACTIVE_DEFAULT = "0";
+    public static final String MQTT_FLEET_CLASS = "Device Class";
+    public static final String MQTT_FLEET_CLASS_DEFAULT = "devices";
+    public static final String MQTT_FLEET_DEVICES = "Devices Per Thread";
+    public static final String MQTT_FLEET_DEVICES_DEFAULT = "1000";
+    public static final String MQTT_FLEET_INTERVAL = "Publish Interval (ms)";
+    public static final String MQTT_FLEET_INTERVAL_DEFAULT = "30000";
+    public static final String MQTT_FLEET_RAMP_UP = "Connect Ramp Up (ms)";
+    public static final String MQTT_FLEET_RAMP_UP_DEFAULT = "60000";
+    public static final String MQTT_FLEET_REPORT_INTERVAL = "Report Interval (ms)";
+    public static final String MQTT_FLEET_REPORT_INTERVAL_DEFAULT = "10000";
+    public static final String MQTT_FLEET_SCENARIO = "Scenario File (replaces the device class below)";
+    public static final String MQTT_FLEET_TITLE = "MQTT Device Fleet";
+    public static final String MQTT_GENERATOR_CONTENT = "Content:";
+    public static final String MQTT_GENERATOR_CONTENT_COMPRESSIBLE = "mqtt_generator_content_compressible";
+    public static final String MQTT_GENERATOR_CONTENT_RANDOM = "mqtt_generator_content_random";
+    public static final String MQTT_GENERATOR_CONTENT_REPEATING = "mqtt_generator_content_repeating";
+    public static final String MQTT_GENERATOR_POOL = "Pool Size (payloads)";
+    public static final String MQTT_GENERATOR_POOL_DEFAULT = "1000";
+    public static final String MQTT_GENERATOR_SIZES = "Payload Sizes (constant, uniform, normal, lognormal or histogram)";
+    public static final String MQTT_GENERATOR_SIZES_DEFAULT = "lognormal:1024,0.5";
+    public static final String MQTT_JSON_FAIL_SAMPLE = "Fail Samples On Failed Conditions";
+    public static final String MQTT_JSON_FIELDS = "JSON Fields (path,variable,condition)";
     public static final String MQTT_KEEP_ALIVE = "Keep Alive";
     public static final String MQTT_KEEP_ALIVE_DEFAULT = "0";
 //    public static final String MQTT_MESSAGE_INPUT_TYPE = "mqtt_message_input_type";
     public static final String MQTT_MESSAGE_INPUT_TYPE_FILE = "mqtt_message_input_type_file";
+    public static final String MQTT_MESSAGE_INPUT_TYPE_GENERATED = "mqtt_message_input_type_generated";
+    public static final String MQTT_MESSAGE_INPUT_TYPE_SCHEMA = "mqtt_message_input_type_schema";
     public static final String MQTT_MESSAGE_INPUT_TYPE_TEXT = "mqtt_message_input_type_text";
     public static final String MQTT_MESSAGE_INPUT_TYPE_VAR = "mqtt_message_input_type_var";
     public static final String MQTT_PASSWORD = "Password";
     public static final String MQTT_PROVIDER_URL = "Provider URL";
     public static final String MQTT_PUBLISHER_TITLE = "MQTT Publisher";
+    public static final String MQTT_PUBLISH_RATE = "Target Rate (msg/s, 0 = unlimited)";
+    public static final String MQTT_PUBLISH_RATE_DEFAULT = "0";
     public static final String MQTT_QOS = "mqtt_qos";
+    public static final String MQTT_RAMP_CONNECT_RATE = "Target Rate (CONNECT/s, 0 = unlimited)";
+    public static final String MQTT_RAMP_CONNECT_RATE_DEFAULT = "0";
+    public static final String MQTT_RAMP_MAX_HANDSHAKES = "Max Concurrent Handshakes (0 = unlimited)";
+    public static final String MQTT_RAMP_MAX_HANDSHAKES_DEFAULT = "0";
+    public static final String MQTT_RAMP_REPORT_CONNECTS = "Report CONNACK Latency As Samples";
+    public static final String MQTT_RECONNECT_INITIAL_DELAY = "Initial Backoff (ms)";
+    public static final String MQTT_RECONNECT_INITIAL_DELAY_DEFAULT = "1000";
+    public static final String MQTT_RECONNECT_MAX_DELAY = "Max Backoff (ms)";
+    public static final String MQTT_RECONNECT_MAX_DELAY_DEFAULT = "30000";
+    public static final String MQTT_REPORT_CONNECT = "Report Connect As Sub Result";
+    public static final String MQTT_REPLAY_CAPTURE = "Replay Capture (directory or segment, replaces the topic, QoS and message)";
+    public static final String MQTT_REPLAY_PARTITION = "Partition Threads By:";
+    public static final String MQTT_REPLAY_PARTITION_CAPTURE = "mqtt_replay_partition_capture";
+    public static final String MQTT_REPLAY_PARTITION_TOPIC = "mqtt_replay_partition_topic";
+    public static final String MQTT_REPLAY_SPEED = "Replay Speed";
+    public static final String MQTT_REPLAY_SPEED_DEFAULT = "1.0";
     public static final String MQTT_RESET_USERNAME_PASSWORD = "Reset Credentials";
+    public static final String MQTT_RPC_REQUEST_TOPIC = "Request Topic ({correlation} is replaced by the correlation id)";
+    public static final String MQTT_RPC_REQUESTS = "Requests Per Sample";
+    public static final String MQTT_RPC_REQUESTS_DEFAULT = "1";
+    public static final String MQTT_RPC_RESPONSE_TOPIC = "Response Topic Filter";
+    public static final String MQTT_RPC_TIMEOUT = "Response Timeout (ms)";
+    public static final String MQTT_RPC_TIMEOUT_DEFAULT = "5000";
+    public static final String MQTT_RPC_TITLE = "MQTT Request Response";
+    public static final String MQTT_SCHEMA_DEFINITION = "Payload Schema (name,type,generator,tag)";
+    public static final String MQTT_SCHEMA_FORMAT = "Format:";
+    public static final String MQTT_SCHEMA_FORMAT_CBOR = "mqtt_schema_format_cbor";
+    public static final String MQTT_SCHEMA_FORMAT_JSON = "mqtt_schema_format_json";
+    public static final String MQTT_SCHEMA_FORMAT_PROTOBUF = "mqtt_schema_format_protobuf";
+    public static final String MQTT_SEARCH_ACK_LIMIT = "Publish Ack Limit (ms, 0 = not checked)";
+    public static final String MQTT_SEARCH_ACK_LIMIT_DEFAULT = "50";
+    public static final String MQTT_SEARCH_COOL_DOWN = "Cool Down After A Breach (ms)";
+    public static final String MQTT_SEARCH_COOL_DOWN_DEFAULT = "10000";
+    public static final String MQTT_SEARCH_E2E_LIMIT = "End To End Limit (ms, 0 = not checked)";
+    public static final String MQTT_SEARCH_E2E_LIMIT_DEFAULT = "100";
+    public static final String MQTT_SEARCH_MAX_RATE = "Max Rate (msg/s)";
+    public static final String MQTT_SEARCH_MAX_RATE_DEFAULT = "10000";
+    public static final String MQTT_SEARCH_MODE = "Search By";
+    public static final String MQTT_SEARCH_MODE_BINARY = "mqtt_search_mode_binary";
+    public static final String MQTT_SEARCH_MODE_STEP = "mqtt_search_mode_step";
+    public static final String MQTT_SEARCH_NAME = "Search Name";
+    public static final String MQTT_SEARCH_NAME_DEFAULT = "search";
+    public static final String MQTT_SEARCH_PERCENTILE = "Percentile";
+    public static final String MQTT_SEARCH_PERCENTILE_DEFAULT = "99";
+    public static final String MQTT_SEARCH_PROBE_RATE = "Probe Rate (msg/s, 0 = no probes)";
+    public static final String MQTT_SEARCH_PROBE_RATE_DEFAULT = "10";
+    public static final String MQTT_SEARCH_PROBE_TOPIC = "Probe Topic";
+    public static final String MQTT_SEARCH_PROBE_TOPIC_DEFAULT = "search/probe";
+    public static final String MQTT_SEARCH_PUBLISHER = "Paced By Throughput Search (empty = not paced)";
+    public static final String MQTT_SEARCH_START_RATE = "Start Rate (msg/s)";
+    public static final String MQTT_SEARCH_START_RATE_DEFAULT = "100";
+    public static final String MQTT_SEARCH_STEP = "Step Or Resolution (msg/s)";
+    public static final String MQTT_SEARCH_STEP_DEFAULT = "100";
+    public static final String MQTT_SEARCH_STEP_DURATION = "Step Duration (ms)";
+    public static final String MQTT_SEARCH_STEP_DURATION_DEFAULT = "30000";
+    public static final String MQTT_SEARCH_STOP_TEST = "Stop The Test When The Search Ends";
+    public static final String MQTT_SEARCH_TITLE = "MQTT Throughput Search";
+    public static final String MQTT_SEARCH_WARM_UP = "Warm Up (ms)";
+    public static final String MQTT_SEARCH_WARM_UP_DEFAULT = "5000";
     public static final String MQTT_SEND_AS_RETAINED_MSG = "Retained";
+    public static final String MQTT_SHARED_CONNECTION = "Share Connection Across Threads";
     public static final String MQTT_SUBSCRIBER_TITLE = "MQTT Subscriber";
     public static final String MQTT_TEXT_AREA = "Text Message";
     public static final String MQTT_TOPIC = "Topic";
+    public static final String MQTT_TOPIC_DISTRIBUTION = "Topic Distribution:";
+    public static final String MQTT_TOPIC_PREFIX = "Topic Prefix";
+    public static final String MQTT_TOPIC_RANDOM = "mqtt_topic_random";
+    public static final String MQTT_TOPIC_SEQUENTIAL = "mqtt_topic_sequential";
+    public static final String MQTT_TOPIC_ZIPF = "mqtt_topic_zipf";
+    public static final String MQTT_TOPIC_ZIPF_EXPONENT = "Zipf Exponent";
+    public static final String MQTT_TOPIC_ZIPF_EXPONENT_DEFAULT = "1.0";
+    public static final String MQTT_TRAFFIC_MIX = "Traffic Mix (name,weight,topic,qos,retained,payload per line, replaces the topic, QoS and message)";
     public static final String MQTT_URL_DEFAULT = "tcp://localhost:1883";
     public static final String MQTT_USER_PASSWORD = "admin";
     public static final String MQTT_USER_USERNAME = "admin";
+    public static final String MQTT_USER_PROPERTIES = "User Properties";
     public static final String MQTT_USERNAME = "Username";
     public static final String RESET_CREDENTIALS = "reset_credentials";
 
@@ -17,12 +17,37 @@
 package org.apache.jmeter.protocol.mqtt.utilities;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.jmeter.protocol.mqtt.client.ConnectionThrottle;
+import org.apache.jmeter.protocol.mqtt.data.objects.ConnectEvent;
+import org.apache.jmeter.protocol.mqtt.data.objects.ReconnectEvent;
+import org.apache.jmeter.protocol.mqtt.paho.clients.BaseClient;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
 
 /**
  * Utility class for plugin
  */
 public class Utils {
 
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final byte[] PAYLOAD_CHARACTERS =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".getBytes(StandardCharsets.US_ASCII);
+
+    // SampleResult#setConnectTime is only available from JMeter 2.13
+    private static final Method setConnectTimeMethod = findSetConnectTime();
+    // SampleResult#setStampAndTime takes the end of the sample unless JMeter is configured to stamp the start
+    private static final boolean START_TIMESTAMP = JMeterUtils.getPropDefault("sampleresult.timestamp.start", false);
+
     /**
      * Creates a UUID. The UUID is modified to avoid "ClientId longer than 23 characters" for MQTT.
      *
@@ -33,4 +58,134 @@ public class Utils {
         clientId = StringUtils.substring(clientId, 0, 23);
         return clientId;
     }
+
+    /**
+     * Parses user properties written as comma separated name=value pairs, for example "site=lab,rack=4".
+     *
+     * @param userProperties The user properties, may be empty.
+     * @return The user properties in order.
+     */
+    public static Map<String, String> parseUserProperties(String userProperties) {
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        for (String pair : StringUtils.split(StringUtils.defaultString(userProperties), ',')) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                properties.put(pair.substring(0, separator).trim(), pair.substring(separator + 1).trim());
+            } else if (!pair.trim().isEmpty()) {
+                log.warn("Ignoring user property without a value: " + pair);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Creates a payload of random letters and digits. The same seed gives the same payload, so that every run
+     * publishes the same bytes.
+     *
+     * @param seed The seed, typically the name of what publishes the payload.
+     * @param size The size of the payload in bytes.
+     * @return The payload.
+     */
+    public static byte[] randomPayload(String seed, int size) {
+        Random random = new Random(seed.hashCode());
+        byte[] payload = new byte[size];
+        for (int i = 0; i < size; i++) {
+            payload[i] = PAYLOAD_CHARACTERS[random.nextInt(PAYLOAD_CHARACTERS.length)];
+        }
+        return payload;
+    }
+
+    /**
+     * Adds a sub result with the CONNACK latency of the latest handshake of the client, if connects are reported and
+     * the handshake has not been reported yet.
+     *
+     * @param result The result to add the connect to. Must have ended.
+     * @param client The client, may be null.
+     */
+    public static void addConnectResult(SampleResult result, BaseClient client) {
+        if (client == null || !ConnectionThrottle.isReportConnects()) {
+            return;
+        }
+        ConnectEvent event = client.pollConnectEvent();
+        if (event != null) {
+            result.addSubResult(createConnectResult(client, event));
+        }
+    }
+
+    /**
+     * Creates the result of a handshake. The elapsed time of the result is the CONNACK latency.
+     *
+     * @param client The client that connected.
+     * @param event  The handshake.
+     * @return The connect result.
+     */
+    public static SampleResult createConnectResult(BaseClient client, ConnectEvent event) {
+        SampleResult connectResult = new SampleResult();
+        setStartAndElapsed(connectResult, event.getTimestamp(), event.getConnackNanos() / 1000000);
+        connectResult.setSampleLabel("MQTT Connect::" + client.getClientId());
+        connectResult.setSuccessful(true);
+        connectResult.setResponseCodeOK();
+        connectResult.setResponseMessage("CONNACK after " + event.getConnackNanos() / 1000 + " us, waited " +
+                                         event.getThrottleNanos() / 1000000 + " ms for the connection throttle");
+        return connectResult;
+    }
+
+    /**
+     * Sets the connect time of a result when the running JMeter version supports it.
+     *
+     * @param result      The result.
+     * @param connectTime The connect time in milliseconds.
+     */
+    public static void setConnectTime(SampleResult result, long connectTime) {
+        if (setConnectTimeMethod == null) {
+            return;
+        }
+        try {
+            setConnectTimeMethod.invoke(result, connectTime);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            log.debug("Unable to set connect time: " + e.toString());
+        }
+    }
+
+    /**
+     * Sets the times of a result measured by the sampler itself, whichever end of the sample JMeter stamps.
+     *
+     * @param result  The result, without times.
+     * @param start   The start time in milliseconds since the epoch.
+     * @param elapsed The elapsed time in milliseconds.
+     */
+    public static void setStartAndElapsed(SampleResult result, long start, long elapsed) {
+        result.setStampAndTime(START_TIMESTAMP ? start : start + elapsed, elapsed);
+    }
+
+    private static Method findSetConnectTime() {
+        try {
+            return SampleResult.class.getMethod("setConnectTime", long.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds a sub result for every reconnect the client completed since the last call. The elapsed time of each sub
+     * result is the time it took to recover the connection.
+     *
+     * @param result The result to add the reconnects to. Must have ended.
+     * @param client The client, may be null.
+     */
+    public static void addReconnectResults(SampleResult result, BaseClient client) {
+        if (client == null) {
+            return;
+        }
+        ReconnectEvent event;
+        while ((event = client.pollReconnectEvent()) != null) {
+            SampleResult reconnectResult = new SampleResult();
+            setStartAndElapsed(reconnectResult, event.getLostTimestamp(), event.getRecoveryNanos() / 1000000);
+            reconnectResult.setSampleLabel("MQTT Reconnect::" + client.getClientId());
+            reconnectResult.setSuccessful(true);
+            reconnectResult.setResponseCodeOK();
+            reconnectResult.setResponseMessage("Reconnected after " + event.getAttempts() + " attempts");
+            result.addSubResult(reconnectResult);
+        }
+    }
 }